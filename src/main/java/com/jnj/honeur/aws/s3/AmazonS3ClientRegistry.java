@@ -0,0 +1,399 @@
+package com.jnj.honeur.aws.s3;
+
+import com.amazonaws.auth.AWSCredentials;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.auth.AWSSessionCredentials;
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.transfer.TransferManager;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Thread-safe registry of shared Amazon S3 clients, one per region, credentials identity and client profile.
+ * <p>
+ * A client returned by {@link #getClient} can be held by the caller for any time, so it is never evicted: it is
+ * shut down only by {@link #invalidateAll()} or {@link #shutdown()}. A client taken with {@link #lease} is evicted
+ * once all its leases are closed and it has not been leased for the idle timeout, its connection pool is then shut
+ * down after a grace period so responses that are still being read can complete. Long-lived users, such as
+ * {@link AmazonS3Service}, hold a lease until they are closed so their clients do not outlive them.
+ */
+public class AmazonS3ClientRegistry {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AmazonS3ClientRegistry.class);
+
+    public static final long DEFAULT_IDLE_TIMEOUT_MINUTES = 10;
+    public static final long DEFAULT_SHUTDOWN_GRACE_MINUTES = 5;
+
+    private static AmazonS3ClientRegistry defaultRegistry;
+
+    private final Map<ClientKey, RegisteredClient> clients = new HashMap<>();
+    private final ScheduledExecutorService scheduler;
+    private final long idleTimeoutMillis;
+    private final long shutdownGraceMillis;
+
+    public AmazonS3ClientRegistry() {
+        this(DEFAULT_IDLE_TIMEOUT_MINUTES, DEFAULT_SHUTDOWN_GRACE_MINUTES, TimeUnit.MINUTES);
+    }
+
+    public AmazonS3ClientRegistry(final long idleTimeout, final long shutdownGracePeriod, final TimeUnit unit) {
+        this.idleTimeoutMillis = unit.toMillis(idleTimeout);
+        this.shutdownGraceMillis = unit.toMillis(shutdownGracePeriod);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("s3-client-registry-%d").build());
+        final long evictionPeriod = Math.max(10, idleTimeoutMillis / 2);
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                evictIdleClients();
+            }
+        }, evictionPeriod, evictionPeriod, TimeUnit.MILLISECONDS);
+    }
+
+    public static synchronized AmazonS3ClientRegistry getDefault() {
+        if (defaultRegistry == null) {
+            defaultRegistry = new AmazonS3ClientRegistry();
+        }
+        return defaultRegistry;
+    }
+
+    /**
+     * The client stays registered, and is not shut down, until the registry is invalidated or shut down.
+     * @param region the region of the client, null for the default region provider chain
+     */
+    public AmazonS3 getClient(final String region, final AWSCredentials credentials, final ClientProfile profile) {
+        return getClient(staticKey(region, credentials, profile), new AWSStaticCredentialsProvider(credentials), true).client;
+    }
+
+    /**
+     * Clients for a credentials provider are shared by callers using the same provider instance.
+     * The client stays registered, and is not shut down, until the registry is invalidated or shut down.
+     * @param region the region of the client, null for the default region provider chain
+     */
+    public AmazonS3 getClient(final String region, final AWSCredentialsProvider credentialsProvider, final ClientProfile profile) {
+        return getClient(region, credentialsProvider, profile, true);
+    }
+
+    /**
+     * @param forceGlobalBucketAccess false for a client that fails with a region mismatch error on buckets
+     *                                of other regions instead of following the redirect
+     */
+    public AmazonS3 getClient(final String region, final AWSCredentialsProvider credentialsProvider, final ClientProfile profile,
+                              final boolean forceGlobalBucketAccess) {
+        return getClient(new ClientKey(region, credentialsProvider, profile, forceGlobalBucketAccess), credentialsProvider, true).client;
+    }
+
+    /**
+     * Takes the shared client for as long as the lease is open, an idle client is evicted after its last lease is closed.
+     * @param region the region of the client, null for the default region provider chain
+     */
+    public Lease lease(final String region, final AWSCredentials credentials, final ClientProfile profile) {
+        return new Lease(getClient(staticKey(region, credentials, profile), new AWSStaticCredentialsProvider(credentials), false));
+    }
+
+    /**
+     * Takes the shared client for as long as the lease is open, an idle client is evicted after its last lease is closed.
+     * @param region the region of the client, null for the default region provider chain
+     */
+    public Lease lease(final String region, final AWSCredentialsProvider credentialsProvider, final ClientProfile profile) {
+        return lease(region, credentialsProvider, profile, true);
+    }
+
+    /**
+     * @param forceGlobalBucketAccess false for a client that fails with a region mismatch error on buckets
+     *                                of other regions instead of following the redirect
+     */
+    public Lease lease(final String region, final AWSCredentialsProvider credentialsProvider, final ClientProfile profile,
+                       final boolean forceGlobalBucketAccess) {
+        return new Lease(getClient(new ClientKey(region, credentialsProvider, profile, forceGlobalBucketAccess), credentialsProvider, false));
+    }
+
+    /**
+     * @return the TransferManager sharing the given registry client and its connection pool,
+     * or null when the client is not (or no longer) registered
+     */
+    public synchronized TransferManager getTransferManager(final AmazonS3 client) {
+        for (RegisteredClient registeredClient : clients.values()) {
+            if (registeredClient.client == client) {
+                return registeredClient.getTransferManager();
+            }
+        }
+        return null;
+    }
+
+    private synchronized RegisteredClient getClient(final ClientKey key, final AWSCredentialsProvider credentialsProvider,
+                                                    final boolean pin) {
+        RegisteredClient registeredClient = clients.get(key);
+        if (registeredClient == null) {
+            LOGGER.debug("Building shared S3 client for " + key);
+            registeredClient = new RegisteredClient(key, newClient(key.region, credentialsProvider, key.profile,
+                    key.forceGlobalBucketAccess));
+            clients.put(key, registeredClient);
+        }
+        if (pin) {
+            registeredClient.pinned = true;
+        } else {
+            registeredClient.leases++;
+        }
+        registeredClient.lastUsedNanos = System.nanoTime();
+        return registeredClient;
+    }
+
+    /**
+     * Builds the client of a new registry entry, called while holding the registry lock.
+     */
+    protected AmazonS3 newClient(final String region, final AWSCredentialsProvider credentialsProvider, final ClientProfile profile,
+                                 final boolean forceGlobalBucketAccess) {
+        return HoneurAmazonS3ClientBuilder.regionClient(region, credentialsProvider, profile, forceGlobalBucketAccess);
+    }
+
+    private synchronized void release(final RegisteredClient registeredClient) {
+        registeredClient.leases--;
+        registeredClient.lastUsedNanos = System.nanoTime();
+        if (registeredClient.evicted && registeredClient.leases == 0) {
+            scheduleShutdown(registeredClient);
+        }
+    }
+
+    private synchronized void evictIdleClients() {
+        final long now = System.nanoTime();
+        final Iterator<RegisteredClient> registeredClients = clients.values().iterator();
+        while (registeredClients.hasNext()) {
+            final RegisteredClient registeredClient = registeredClients.next();
+            if (!registeredClient.pinned && registeredClient.leases == 0
+                    && TimeUnit.NANOSECONDS.toMillis(now - registeredClient.lastUsedNanos) >= idleTimeoutMillis) {
+                registeredClients.remove();
+                registeredClient.evicted = true;
+                scheduleShutdown(registeredClient);
+            }
+        }
+    }
+
+    private void scheduleShutdown(final RegisteredClient registeredClient) {
+        LOGGER.debug("Evicted shared S3 client for " + registeredClient.key);
+        if (scheduler.isShutdown()) {
+            registeredClient.shutdown();
+            return;
+        }
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                registeredClient.shutdown();
+            }
+        }, shutdownGraceMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized long size() {
+        return clients.size();
+    }
+
+    /**
+     * Evicts all clients. Clients without open leases are shut down after the grace period, leased clients after their
+     * last lease is closed.
+     */
+    public void invalidateAll() {
+        final List<RegisteredClient> idle = new ArrayList<>();
+        synchronized (this) {
+            for (RegisteredClient registeredClient : clients.values()) {
+                registeredClient.evicted = true;
+                if (registeredClient.leases == 0) {
+                    idle.add(registeredClient);
+                }
+            }
+            clients.clear();
+        }
+        for (RegisteredClient registeredClient : idle) {
+            scheduleShutdown(registeredClient);
+        }
+    }
+
+    /**
+     * Shuts down all clients immediately.
+     */
+    public void shutdown() {
+        scheduler.shutdownNow();
+        final List<RegisteredClient> all;
+        synchronized (this) {
+            all = new ArrayList<>(clients.values());
+            clients.clear();
+        }
+        for (RegisteredClient registeredClient : all) {
+            registeredClient.evicted = true;
+            registeredClient.shutdown();
+        }
+    }
+
+    private static ClientKey staticKey(final String region, final AWSCredentials credentials, final ClientProfile profile) {
+        // Static credentials are identified by value, the secret is part of the identity but only as a hash
+        final Hasher secret = Hashing.sha256().newHasher().putString(credentials.getAWSSecretKey(), StandardCharsets.UTF_8);
+        if (credentials instanceof AWSSessionCredentials) {
+            secret.putChar('\n').putString(((AWSSessionCredentials) credentials).getSessionToken(), StandardCharsets.UTF_8);
+        }
+        return new ClientKey(region, new StaticIdentity(credentials.getAWSAccessKeyId(), secret.hash().toString()), profile, true);
+    }
+
+    /**
+     * A shared client taken from the registry, closing the lease allows an idle client to be evicted.
+     */
+    public final class Lease implements Closeable {
+
+        private final RegisteredClient registeredClient;
+        private boolean closed;
+
+        private Lease(RegisteredClient registeredClient) {
+            this.registeredClient = registeredClient;
+        }
+
+        public AmazonS3 getClient() {
+            return registeredClient.client;
+        }
+
+        /**
+         * @return the TransferManager sharing the connection pool of the leased client
+         */
+        public TransferManager getTransferManager() {
+            return registeredClient.getTransferManager();
+        }
+
+        /**
+         * @return true when the client was invalidated, new leases get another client
+         */
+        public boolean isEvicted() {
+            return registeredClient.evicted;
+        }
+
+        @Override
+        public void close() {
+            synchronized (AmazonS3ClientRegistry.this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+            }
+            release(registeredClient);
+        }
+    }
+
+    private static class StaticIdentity {
+
+        private final String accessKeyId;
+        private final String secretHash;
+
+        private StaticIdentity(String accessKeyId, String secretHash) {
+            this.accessKeyId = accessKeyId;
+            this.secretHash = secretHash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof StaticIdentity)) {
+                return false;
+            }
+            StaticIdentity other = (StaticIdentity) o;
+            return accessKeyId.equals(other.accessKeyId) && secretHash.equals(other.secretHash);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(accessKeyId, secretHash);
+        }
+
+        @Override
+        public String toString() {
+            return accessKeyId;
+        }
+    }
+
+    private static class ClientKey {
+
+        private final String region;
+        private final Object credentialsIdentity;
+        private final ClientProfile profile;
+        private final boolean forceGlobalBucketAccess;
+
+        private ClientKey(String region, Object credentialsIdentity, ClientProfile profile, boolean forceGlobalBucketAccess) {
+            this.region = region;
+            this.credentialsIdentity = credentialsIdentity;
+            this.profile = profile;
+            this.forceGlobalBucketAccess = forceGlobalBucketAccess;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof ClientKey)) {
+                return false;
+            }
+            ClientKey other = (ClientKey) o;
+            // Providers are compared by instance, static credentials by value
+            return Objects.equals(region, other.region)
+                    && (credentialsIdentity instanceof StaticIdentity ? credentialsIdentity.equals(other.credentialsIdentity)
+                        : credentialsIdentity == other.credentialsIdentity)
+                    && profile == other.profile
+                    && forceGlobalBucketAccess == other.forceGlobalBucketAccess;
+        }
+
+        @Override
+        public int hashCode() {
+            int identityHash = credentialsIdentity instanceof StaticIdentity ? credentialsIdentity.hashCode()
+                    : System.identityHashCode(credentialsIdentity);
+            return Objects.hash(region, identityHash, profile, forceGlobalBucketAccess);
+        }
+
+        @Override
+        public String toString() {
+            String identity = credentialsIdentity instanceof StaticIdentity ? credentialsIdentity.toString()
+                    : credentialsIdentity.getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(credentialsIdentity));
+            return "region=" + region + ", credentials=" + identity + ", profile=" + profile
+                    + ", forceGlobalBucketAccess=" + forceGlobalBucketAccess;
+        }
+    }
+
+    private static class RegisteredClient {
+
+        private final ClientKey key;
+        private final AmazonS3 client;
+        private TransferManager transferManager;
+        // guarded by the registry
+        private boolean pinned;
+        private int leases;
+        private long lastUsedNanos;
+        private volatile boolean evicted;
+
+        private RegisteredClient(ClientKey key, AmazonS3 client) {
+            this.key = key;
+            this.client = client;
+        }
+
+        private synchronized TransferManager getTransferManager() {
+            if (transferManager == null) {
+                transferManager = HoneurAmazonS3ClientBuilder.transferManager(client, key.profile);
+            }
+            return transferManager;
+        }
+
+        private synchronized void shutdown() {
+            if (transferManager != null) {
+                transferManager.shutdownNow(false);
+            }
+            client.shutdown();
+        }
+    }
+}
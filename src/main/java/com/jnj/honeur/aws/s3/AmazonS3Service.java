@@ -1,68 +1,400 @@
 package com.jnj.honeur.aws.s3;
 
+import com.amazonaws.AbortedException;
+import com.amazonaws.AmazonClientException;
 import com.amazonaws.AmazonServiceException;
+import com.amazonaws.HttpMethod;
+import com.amazonaws.SdkClientException;
 import com.amazonaws.auth.AWSCredentials;
+import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.auth.AWSSessionCredentialsProvider;
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
 import com.amazonaws.regions.Regions;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3ClientBuilder;
+import com.amazonaws.services.s3.internal.Mimetypes;
 import com.amazonaws.services.s3.model.*;
 import com.amazonaws.services.s3.transfer.Download;
 import com.amazonaws.services.s3.transfer.TransferManager;
-import com.amazonaws.services.s3.transfer.TransferManagerBuilder;
 import com.amazonaws.services.s3.transfer.Upload;
+import com.amazonaws.services.s3.transfer.model.UploadResult;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.StandardCopyOption;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 
-public class AmazonS3Service {
+public class AmazonS3Service implements Closeable {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(AmazonS3Service.class);
 
     private static final String DEFAULT_REGION = Regions.EU_WEST_1.getName();
+    private static final int TRANSFER_BUFFER_SIZE = 256 * 1024;
 
-    private AWSSessionCredentialsProvider sessionCredentialsProvider;
+    private AWSCredentialsProvider credentialsProvider;
+    private AmazonS3ClientRegistry clientRegistry;
+    private String region;
+    private BucketRegionRouter bucketRegionRouter;
+    private AmazonS3ClientRegistry.Lease clientLease;
+    private boolean closed;
+    private ClientProfile clientProfile = ClientProfile.DEFAULT;
     private AmazonS3 s3;
     private TransferManager transferManager;
+    private final Map<AmazonS3, TransferManager> unregisteredTransferManagers = new IdentityHashMap<>();
+    private MappedFileUploader mappedFileUploader;
+    private DirectBufferPool bufferPool = DirectBufferPool.getDefault();
+    private ScratchSpace scratchSpace;
+    private HedgedRequests hedgedRequests;
+    private UrlPresigner urlPresigner;
+    private final ParallelLister parallelLister = new ParallelLister();
+    private final ExecutorService publisherExecutor = BulkExecutors.newUnboundedExecutor("s3-publisher-%d");
+    private final Map<String, BucketInventory> inventories = new ConcurrentHashMap<>();
+    private ContentETags contentETags = new ContentETags();
+    private ObjectMetadataCache metadataCache = new ObjectMetadataCache();
 
+    /**
+     * Service on the default S3 client, or on the file system when the {@value FileSystemStorageBackend#ROOT_PROPERTY}
+     * system property names a root directory.
+     */
     public AmazonS3Service() {
-        this(AmazonS3ClientBuilder.defaultClient());
+        this(defaultClient());
+    }
+
+    private static AmazonS3 defaultClient() {
+        final String fileSystemRoot = System.getProperty(FileSystemStorageBackend.ROOT_PROPERTY);
+        if (fileSystemRoot != null) {
+            return new StorageBackendClient(new FileSystemStorageBackend(new File(fileSystemRoot)));
+        }
+        return AmazonS3ClientBuilder.defaultClient();
+    }
+
+    public AmazonS3Service(final ClientProfile clientProfile) {
+        this(HoneurAmazonS3ClientBuilder.defaultClient(clientProfile), clientProfile);
     }
 
     public AmazonS3Service(final AmazonS3 s3) {
+        this(s3, ClientProfile.DEFAULT);
+    }
+
+    /**
+     * @param clientProfile profile the client was built with, sizes the TransferManager thread pool
+     */
+    public AmazonS3Service(final AmazonS3 s3, final ClientProfile clientProfile) {
         this.s3 = s3;
-        this.transferManager = TransferManagerBuilder.standard().withS3Client(s3).build();
+        this.clientProfile = clientProfile;
+        this.transferManager = s3 instanceof StorageBackendClient ? null : newTransferManager(s3);
+    }
+
+    /**
+     * Service on the given storage backend, e.g. to run against another object store per deployment.
+     * Backends other than {@link AmazonS3StorageBackend} upload and download in one request,
+     * multipart transfers need an S3 client.
+     */
+    public AmazonS3Service(final StorageBackend storageBackend) {
+        this(storageBackend instanceof AmazonS3StorageBackend ? ((AmazonS3StorageBackend) storageBackend).getClient()
+                : new StorageBackendClient(storageBackend), ClientProfile.DEFAULT);
     }
 
     public AmazonS3Service(final AWSCredentials credentials) {
-        this.s3 = HoneurAmazonS3ClientBuilder.standardClient(credentials);
-        this.transferManager = TransferManagerBuilder.standard().withS3Client(s3).build();
+        this(credentials, ClientProfile.DEFAULT);
+    }
+
+    public AmazonS3Service(final AWSCredentials credentials, final ClientProfile clientProfile) {
+        this(HoneurAmazonS3ClientBuilder.standardClient(credentials, clientProfile), clientProfile);
+        this.credentialsProvider = new AWSStaticCredentialsProvider(credentials);
     }
 
     public AmazonS3Service(final AWSSessionCredentialsProvider sessionCredentialsProvider) {
-        this.sessionCredentialsProvider = sessionCredentialsProvider;
+        this(sessionCredentialsProvider, ClientProfile.DEFAULT);
+    }
+
+    /**
+     * The session client is shared through the default {@link AmazonS3ClientRegistry}, {@link #close()} releases it.
+     */
+    public AmazonS3Service(final AWSSessionCredentialsProvider sessionCredentialsProvider, final ClientProfile clientProfile) {
+        this(AmazonS3ClientRegistry.getDefault(), null, sessionCredentialsProvider, clientProfile);
+    }
+
+    /**
+     * Service using the shared client of the registry for the given region, credentials and profile.
+     * The client is leased until the service is closed.
+     * @param region the region of the client, null for the default region provider chain
+     */
+    public AmazonS3Service(final AmazonS3ClientRegistry clientRegistry, final String region,
+                           final AWSCredentialsProvider credentialsProvider, final ClientProfile clientProfile) {
+        this.clientRegistry = clientRegistry;
+        this.region = region;
+        this.credentialsProvider = credentialsProvider;
+        this.clientProfile = clientProfile;
     }
 
     private AmazonS3 getS3() {
         if(this.s3 != null) {
             return this.s3;
         } else {
-            return HoneurAmazonS3ClientBuilder.sessionClient(sessionCredentialsProvider);
+            return getLeasedClient();
+        }
+    }
+
+    private synchronized AmazonS3 getLeasedClient() {
+        if(closed) {
+            throw new IllegalStateException("The S3 service is closed");
+        }
+        if(clientLease == null || clientLease.isEvicted()) {
+            // an invalidated client is shut down once the requests still running on it close the old lease
+            if(clientLease != null) {
+                clientLease.close();
+            }
+            clientLease = clientRegistry.lease(region, credentialsProvider, clientProfile);
+        }
+        return clientLease.getClient();
+    }
+
+    /**
+     * @return the backend of this service, the S3 client of the default region when the service uses S3
+     */
+    public StorageBackend getStorageBackend() {
+        final AmazonS3 client = getS3();
+        return client instanceof StorageBackendClient ? ((StorageBackendClient) client).getBackend() : new AmazonS3StorageBackend(client);
+    }
+
+    private boolean isMultipartSupported() {
+        return !(s3 instanceof StorageBackendClient);
+    }
+
+    private AmazonS3 getS3(final String bucketName) {
+        if(bucketRegionRouter != null) {
+            return bucketRegionRouter.getClient(bucketName);
+        }
+        return getS3();
+    }
+
+    private AmazonS3 getHomeRegionS3(final String bucketName) {
+        if(bucketRegionRouter != null) {
+            return bucketRegionRouter.getHomeRegionClient(bucketName);
+        }
+        return getS3();
+    }
+
+    /**
+     * Sends the requests for a bucket straight to a client of the bucket's home region, as resolved by the given resolver.
+     * Only available for services using an {@link AmazonS3ClientRegistry}.
+     */
+    public void setBucketRegionResolver(final BucketRegionResolver bucketRegionResolver) {
+        if(clientRegistry == null) {
+            throw new IllegalStateException("Bucket region routing requires a service built with a client registry");
+        }
+        final BucketRegionRouter previousRouter = this.bucketRegionRouter;
+        this.bucketRegionRouter = bucketRegionResolver == null ? null
+                : new BucketRegionRouter(bucketRegionResolver, clientRegistry, region, credentialsProvider, clientProfile);
+        if(previousRouter != null) {
+            previousRouter.close();
+        }
+    }
+
+    /**
+     * Releases the registry clients of this service, the registry evicts them once they are idle.
+     * A service built on a client leaves that client to the caller.
+     * Running publisher streams complete, new subscriptions fail.
+     */
+    @Override
+    public void close() {
+        publisherExecutor.shutdown();
+        synchronized (this) {
+            closed = true;
+            if(clientLease != null) {
+                clientLease.close();
+                clientLease = null;
+            }
+            if(bucketRegionRouter != null) {
+                bucketRegionRouter.close();
+            }
+        }
+        synchronized (unregisteredTransferManagers) {
+            for (TransferManager ownTransferManager : unregisteredTransferManagers.values()) {
+                ownTransferManager.shutdownNow(false);
+            }
+            unregisteredTransferManagers.clear();
         }
     }
 
     private TransferManager getTransferManager(final AmazonS3 s3) {
         if(this.s3 == s3) {
             return transferManager;
-        } else {
-            return TransferManagerBuilder.standard().withS3Client(s3).build();
+        }
+        TransferManager sharedTransferManager = clientRegistry.getTransferManager(s3);
+        if(sharedTransferManager != null) {
+            return sharedTransferManager;
+        }
+        // a client the registry no longer knows, e.g. after invalidateAll, gets one TransferManager of its own
+        synchronized (unregisteredTransferManagers) {
+            TransferManager ownTransferManager = unregisteredTransferManagers.get(s3);
+            if(ownTransferManager == null) {
+                ownTransferManager = newTransferManager(s3);
+                unregisteredTransferManagers.put(s3, ownTransferManager);
+            }
+            return ownTransferManager;
+        }
+    }
+
+    private TransferManager newTransferManager(final AmazonS3 s3) {
+        return HoneurAmazonS3ClientBuilder.transferManager(s3, clientProfile);
+    }
+
+    public ClientProfile getClientProfile() {
+        return clientProfile;
+    }
+
+    private synchronized MappedFileUploader getMappedFileUploader(final AmazonS3 s3) {
+        if(this.s3 != s3) {
+            return new MappedFileUploader(s3);
+        }
+        if(mappedFileUploader == null) {
+            mappedFileUploader = new MappedFileUploader(s3);
+        }
+        return mappedFileUploader;
+    }
+
+    public DirectBufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    /**
+     * Sets the pool used to buffer downloads, uploads and copies, by default the JVM wide {@link DirectBufferPool}.
+     */
+    public void setBufferPool(final DirectBufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+        this.contentETags = new ContentETags(bufferPool, ContentETags.DEFAULT_PART_SIZES);
+    }
+
+    /**
+     * @return the scratch space of the temp files, {@link ScratchSpace#getDefault()} unless another one was set
+     */
+    public synchronized ScratchSpace getScratchSpace() {
+        if (scratchSpace == null) {
+            scratchSpace = ScratchSpace.getDefault();
+        }
+        return scratchSpace;
+    }
+
+    public synchronized void setScratchSpace(final ScratchSpace scratchSpace) {
+        this.scratchSpace = scratchSpace;
+    }
+
+    /**
+     * @return the presigner of {@link #presignUrls}, signing with the credentials of this service; null when the
+     * service was built from a client and no presigner was set, the client then signs the URLs itself
+     */
+    public synchronized UrlPresigner getUrlPresigner() {
+        if (urlPresigner == null && credentialsProvider != null) {
+            urlPresigner = new UrlPresigner(credentialsProvider);
+        }
+        return urlPresigner;
+    }
+
+    /**
+     * Sets the presigner of {@link #presignUrls}, it must sign with the credentials of the client of this service.
+     */
+    public synchronized void setUrlPresigner(final UrlPresigner urlPresigner) {
+        this.urlPresigner = urlPresigner;
+    }
+
+    public HedgedRequests getHedgedRequests() {
+        return hedgedRequests;
+    }
+
+    /**
+     * Enables hedging of {@link #getObject(String, String)} and {@link #getObjectMetadata(String, String)}, null disables it.
+     */
+    public void setHedgedRequests(final HedgedRequests hedgedRequests) {
+        this.hedgedRequests = hedgedRequests;
+    }
+
+    public ObjectMetadataCache getMetadataCache() {
+        return metadataCache;
+    }
+
+    /**
+     * Caches the lookups of {@link #headObject(String, String)} and {@link #exists(String, String)}, null disables it.
+     */
+    public void setMetadataCache(final ObjectMetadataCache metadataCache) {
+        this.metadataCache = metadataCache;
+    }
+
+    public BucketInventory getBucketInventory(String bucketName) {
+        return inventories.get(bucketName);
+    }
+
+    /**
+     * Keeps the inventory up to date with the objects written and deleted through this service.
+     */
+    public void addBucketInventory(final BucketInventory inventory) {
+        inventories.put(inventory.getBucketName(), inventory);
+    }
+
+    public BucketInventory removeBucketInventory(final String bucketName) {
+        return inventories.remove(bucketName);
+    }
+
+    /**
+     * Replaces the inventory of the bucket with a full parallel listing.
+     */
+    public void rebuildBucketInventory(final String bucketName) throws IOException {
+        final BucketInventory inventory = inventories.get(bucketName);
+        if (inventory == null) {
+            throw new IllegalStateException("No inventory added for S3 bucket " + bucketName);
+        }
+        inventory.rebuild(getS3(bucketName), parallelLister);
+    }
+
+    private void recordPut(final String bucketName, final String keyName, final long size, final String eTag) {
+        invalidateMetadata(bucketName, keyName);
+        final BucketInventory inventory = inventories.get(bucketName);
+        if (inventory != null) {
+            inventory.put(keyName, size, eTag, System.currentTimeMillis());
+        }
+    }
+
+    private void recordDelete(final String bucketName, final String keyName) {
+        invalidateMetadata(bucketName, keyName);
+        final BucketInventory inventory = inventories.get(bucketName);
+        if (inventory != null) {
+            inventory.remove(keyName);
+        }
+    }
+
+    private void invalidateMetadata(final String bucketName, final String keyName) {
+        final ObjectMetadataCache cache = metadataCache;
+        if (cache != null) {
+            cache.invalidate(bucketName, keyName);
+        }
+    }
+
+    private void invalidateMetadataPrefix(final String bucketName, final String prefix) {
+        final ObjectMetadataCache cache = metadataCache;
+        if (cache != null) {
+            cache.invalidatePrefix(bucketName, prefix);
         }
     }
 
@@ -102,83 +434,514 @@ public class AmazonS3Service {
             LOGGER.info("Bucket %s already exists.\n", bucketName);
             return getBucket(bucketName);
         } else {
-            return getS3().createBucket(new CreateBucketRequest(bucketName, region));
+            Bucket bucket = getS3().createBucket(new CreateBucketRequest(bucketName, region));
+            if (bucketRegionRouter != null) {
+                bucketRegionRouter.getResolver().update(bucketName, region);
+            }
+            return bucket;
         }
     }
 
     public void deleteBucket(final String bucketName) throws AmazonServiceException {
         LOGGER.debug("Deleting S3 bucket: " + bucketName);
-        LOGGER.debug(" - removing objects from bucket");
-        ObjectListing objectListing = getS3().listObjects(bucketName);
-        while (true) {
-            for (Iterator<?> iterator = objectListing.getObjectSummaries().iterator(); iterator.hasNext(); ) {
-                S3ObjectSummary summary = (S3ObjectSummary) iterator.next();
-                getS3().deleteObject(bucketName, summary.getKey());
+        final AmazonS3 s3 = getS3(bucketName);
+        LOGGER.debug(" - removing objects and versions from bucket");
+        try {
+            final BulkDeleteResult result = deleteObjectsWithPrefix(bucketName, "", true);
+            if (!result.isSuccessful()) {
+                LOGGER.warn("Could not delete all objects from S3 bucket " + bucketName + ": " + result.getErrors());
             }
-            // more objectListing to retrieve?
-            if (objectListing.isTruncated()) {
-                objectListing = getS3().listNextBatchOfObjects(objectListing);
-            } else {
-                break;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AbortedException("Interrupted while deleting the objects of S3 bucket " + bucketName, e);
+        }
+
+        LOGGER.debug(" OK, bucket ready to delete!");
+        s3.deleteBucket(bucketName);
+        if (bucketRegionRouter != null) {
+            bucketRegionRouter.getResolver().invalidate(bucketName);
+        }
+
+        LOGGER.debug("Bucket deleted!");
+    }
+
+    public S3Object getObject(String bucketName, String keyName) throws AmazonServiceException {
+        LOGGER.debug("Downloading %s from S3 bucket %s...\n", keyName, bucketName);
+        if (hedgedRequests != null) {
+            return hedgedRequests.getObject(getS3(bucketName), new GetObjectRequest(bucketName, keyName));
+        }
+        return getS3(bucketName).getObject(bucketName, keyName);
+    }
+
+    /**
+     * Publishes the object content as chunks of pooled buffers, read as the subscriber requests them.
+     * The subscriber releases every chunk to {@link #getBufferPool()} when done with it.
+     */
+    public ObjectContentPublisher publishObjectContent(String bucketName, String keyName) {
+        return publishObjectContent(bucketName, keyName, ObjectContentPublisher.DEFAULT_CHUNK_SIZE);
+    }
+
+    public ObjectContentPublisher publishObjectContent(String bucketName, String keyName, int chunkSize) {
+        return new ObjectContentPublisher(getS3(bucketName), new GetObjectRequest(bucketName, keyName), bufferPool, chunkSize, publisherExecutor);
+    }
+
+    /**
+     * Decodes the records of the object while it is downloaded and transforms them on all cores, without a temp file.
+     * @param ordered write the transformed records to the sink in object order
+     * @return the number of records written to the sink
+     */
+    public <R, O> long processObject(String bucketName, String keyName, RecordFormat<R> format, RecordProcessor.Transform<R, O> transform,
+                                     RecordProcessor.Sink<O> sink, boolean ordered) throws IOException, InterruptedException {
+        LOGGER.debug("Processing records of " + keyName + " in S3 bucket " + bucketName);
+        final RecordProcessor processor = new RecordProcessor();
+        boolean completed = false;
+        final S3Object object = getS3(bucketName).getObject(bucketName, keyName);
+        try {
+            final long written = processor.process(object.getObjectContent(), format, transform, sink, ordered);
+            completed = true;
+            return written;
+        } finally {
+            processor.shutdown();
+            if (!completed && object.getObjectContent().getHttpRequest() != null) {
+                // do not drain the rest of the object to reuse the connection
+                object.getObjectContent().abort();
             }
+            object.close();
         }
+    }
 
-        LOGGER.debug(" - removing versions from bucket");
-        VersionListing versionListing = getS3().listVersions(new ListVersionsRequest().withBucketName(bucketName));
-        while (true) {
-            for (Iterator<?> iterator = versionListing.getVersionSummaries().iterator(); iterator.hasNext(); ) {
-                S3VersionSummary vs = (S3VersionSummary) iterator.next();
-                getS3().deleteVersion(bucketName, vs.getKey(), vs.getVersionId());
+    /**
+     * Runs the filter and projection of the query on the object: pushed down to S3 Select when the client supports
+     * it, otherwise on concurrent ranged reads of the object, filtered locally.
+     * @return the matching rows, in object order
+     */
+    public List<Map<String, Object>> queryObject(String bucketName, String keyName, ObjectQuery query) throws IOException, InterruptedException {
+        final List<Map<String, Object>> rows = new ArrayList<>();
+        queryObject(bucketName, keyName, query, new RecordProcessor.Sink<Map<String, Object>>() {
+            @Override
+            public void write(List<Map<String, Object>> records) {
+                rows.addAll(records);
             }
+        });
+        return rows;
+    }
 
-            if (versionListing.isTruncated()) {
-                versionListing = getS3().listNextBatchOfVersions(versionListing);
-            } else {
-                break;
+    /**
+     * Streams the matching rows of the query to the sink, in object order.
+     * @return the number of rows
+     */
+    public long queryObject(String bucketName, String keyName, ObjectQuery query, RecordProcessor.Sink<Map<String, Object>> sink)
+            throws IOException, InterruptedException {
+        final ObjectQueryExecutor executor = new ObjectQueryExecutor();
+        try {
+            return executor.query(getS3(bucketName), bucketName, keyName, query, sink);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Transforms the records of an object into a new object, streaming the output into a multipart upload,
+     * or into a scratch file written with one PUT when the backend has no multipart uploads.
+     * The records keep their order; the target object is not created when the processing fails.
+     * @return the number of records written to the target object
+     */
+    public <R, O> long transformObject(String bucketName, String keyName, RecordFormat<R> format, RecordProcessor.Transform<R, O> transform,
+                                       String targetBucketName, String targetKeyName, RecordFormat<O> targetFormat) throws IOException, InterruptedException {
+        final MultipartRecordSink<O> sink = new MultipartRecordSink<>(getHomeRegionS3(targetBucketName), targetBucketName, targetKeyName,
+                targetFormat, bufferPool, MultipartRecordSink.DEFAULT_PART_SIZE, isMultipartSupported() ? null : getScratchSpace());
+        boolean completed = false;
+        try {
+            final long written = processObject(bucketName, keyName, format, transform, sink, true);
+            sink.close();
+            completed = true;
+            recordPut(targetBucketName, targetKeyName, sink.getSize(), sink.getETag());
+            return written;
+        } finally {
+            if (!completed) {
+                sink.abort();
             }
         }
+    }
 
-        LOGGER.debug(" OK, bucket ready to delete!");
-        getS3().deleteBucket(bucketName);
+    public URL presignUrl(String bucketName, String keyName, HttpMethod method, Date expiration) {
+        return presignUrls(bucketName, Collections.singletonList(keyName), method, expiration).get(0);
+    }
 
-        LOGGER.debug("Bucket deleted!");
+    /**
+     * Pre-signs a URL per key, for the home region of the bucket. The signing key is derived once per day and
+     * region, so large batches cost little more than hashing the URLs.
+     */
+    public List<URL> presignUrls(String bucketName, List<String> keyNames, HttpMethod method, Date expiration) {
+        if (!isMultipartSupported()) {
+            throw new UnsupportedOperationException("Pre-signed URLs need an S3 client, this service runs on a storage backend");
+        }
+        final UrlPresigner presigner = getUrlPresigner();
+        if (presigner == null) {
+            // the credentials are known to the client only, it signs every URL on its own
+            final AmazonS3 client = getS3(bucketName);
+            final List<URL> urls = new ArrayList<>(keyNames.size());
+            for (String keyName : keyNames) {
+                urls.add(client.generatePresignedUrl(bucketName, keyName, expiration, method));
+            }
+            return urls;
+        }
+        String bucketRegion = getHomeRegionS3(bucketName).getRegionName();
+        if (bucketRegion == null) {
+            bucketRegion = region != null ? region : DEFAULT_REGION;
+        }
+        return presigner.presign(bucketName, keyNames, bucketRegion, method, expiration);
     }
 
-    public S3Object getObject(String bucketName, String keyName) throws AmazonServiceException {
-        LOGGER.debug("Downloading %s from S3 bucket %s...\n", keyName, bucketName);
-        return getS3().getObject(bucketName, keyName);
+    public ObjectMetadata getObjectMetadata(String bucketName, String keyName) throws AmazonServiceException {
+        if (hedgedRequests != null) {
+            return hedgedRequests.getObjectMetadata(getS3(bucketName), new GetObjectMetadataRequest(bucketName, keyName));
+        }
+        return getS3(bucketName).getObjectMetadata(bucketName, keyName);
+    }
+
+    /**
+     * Metadata of the object from the metadata cache, or from a HEAD request when it is not cached.
+     * @return the metadata, null when the object does not exist
+     */
+    public ObjectMetadata headObject(String bucketName, String keyName) throws AmazonServiceException {
+        final ObjectMetadataCache cache = metadataCache;
+        if (cache == null) {
+            try {
+                return getObjectMetadata(bucketName, keyName);
+            } catch (AmazonS3Exception e) {
+                if (e.getStatusCode() == 404) {
+                    return null;
+                }
+                throw e;
+            }
+        }
+        return cache.get(bucketName, keyName, new ObjectMetadataCache.Loader() {
+            @Override
+            public ObjectMetadata load(String bucketName, String keyName) {
+                return getObjectMetadata(bucketName, keyName);
+            }
+        });
+    }
+
+    public boolean exists(String bucketName, String keyName) throws AmazonServiceException {
+        return headObject(bucketName, keyName) != null;
     }
 
+    /**
+     * Downloads the object to a file of the scratch space, sized to the object up front. The space is reserved
+     * before the GET, so no connection stays open while waiting for the scratch space quota.
+     * Release the file with {@link #releaseTempFile(File)} when done with it.
+     */
     public File getObjectFile(String bucketName, String keyName) throws AmazonServiceException, IOException {
-        return getObjectFile(bucketName, keyName, createTempFile(keyName));
+        if (!isMultipartSupported()) {
+            // the backend copies into a file of unknown size, counted with its length once written
+            final File targetFile = createTempFile(keyName);
+            try {
+                return getObjectFile(bucketName, keyName, targetFile);
+            } catch (IOException | RuntimeException e) {
+                releaseTempFile(targetFile);
+                throw e;
+            }
+        }
+        LOGGER.debug("Downloading " + keyName + " from S3 bucket " + bucketName);
+        final S3Object s3Object = getS3(bucketName).getObject(bucketName, keyName);
+        File targetFile = null;
+        boolean completed = false;
+        try {
+            // reserved with the size of the GET response, a HEAD first would cost a round trip
+            targetFile = createTempFile(keyName, s3Object.getObjectMetadata().getContentLength());
+            writeObjectFile(s3Object, targetFile);
+            completed = true;
+            return targetFile;
+        } finally {
+            if (!completed) {
+                if (s3Object.getObjectContent().getHttpRequest() != null) {
+                    // do not drain the rest of the object to reuse the connection
+                    s3Object.getObjectContent().abort();
+                }
+                s3Object.close();
+                if (targetFile != null) {
+                    releaseTempFile(targetFile);
+                }
+            }
+        }
     }
 
     public File getObjectFile(String bucketName, String keyName, File targetFile) throws AmazonServiceException, IOException {
         LOGGER.debug("Downloading %s from S3 bucket %s...\n", keyName, bucketName);
-        S3Object s3Object = getS3().getObject(bucketName, keyName);
-        Files.copy(s3Object.getObjectContent(), targetFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
-        return targetFile;
+        if (!isMultipartSupported()) {
+            // lets the backend copy without buffering, e.g. a file system transfer
+            getS3(bucketName).getObject(new GetObjectRequest(bucketName, keyName), targetFile);
+            return targetFile;
+        }
+        S3Object s3Object = getS3(bucketName).getObject(bucketName, keyName);
+        try {
+            writeObjectFile(s3Object, targetFile);
+            return targetFile;
+        } catch (IOException | RuntimeException e) {
+            if (s3Object.getObjectContent().getHttpRequest() != null) {
+                s3Object.getObjectContent().abort();
+            }
+            throw e;
+        }
+    }
+
+    private void writeObjectFile(S3Object s3Object, File targetFile) throws IOException {
+        try (InputStream in = s3Object.getObjectContent();
+             FileChannel out = FileChannel.open(targetFile.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+            // truncate after the copy, so a file sized up front is written in place
+            out.truncate(bufferPool.copy(in, out, TRANSFER_BUFFER_SIZE));
+        }
+    }
+
+    public S3SeekableByteChannel newByteChannel(String bucketName, String keyName) throws AmazonServiceException {
+        return newByteChannel(bucketName, keyName, new S3SeekableByteChannel.Options().withBufferPool(bufferPool));
+    }
+
+    public S3SeekableByteChannel newByteChannel(String bucketName, String keyName, S3SeekableByteChannel.Options options) throws AmazonServiceException {
+        LOGGER.debug("Opening channel on " + keyName + " in S3 bucket " + bucketName);
+        return new S3SeekableByteChannel(getS3(bucketName), bucketName, keyName, options);
     }
 
     public void downloadFile(String bucketName, String keyName, File targetFile) throws AmazonServiceException, InterruptedException {
         LOGGER.debug("Downloading to file: " + targetFile.getAbsolutePath());
+        if (!isMultipartSupported()) {
+            try {
+                getObjectFile(bucketName, keyName, targetFile);
+            } catch (IOException e) {
+                throw new SdkClientException("Unable to write file " + targetFile.getAbsolutePath(), e);
+            }
+            return;
+        }
 
-        Download download = getTransferManager(getS3()).download(bucketName, keyName, targetFile);
+        Download download = getTransferManager(getHomeRegionS3(bucketName)).download(bucketName, keyName, targetFile);
         download.waitForCompletion();
     }
 
+    /**
+     * Downloads all objects with the given prefix below the directory, keyed by the rest of their key.
+     * Downloads start while the prefix is still being listed, with the bytes and requests in flight capped.
+     */
+    public DownloadBatchResult downloadDirectory(String bucketName, String prefix, File directory) throws InterruptedException {
+        LOGGER.debug("Downloading " + prefix + " of S3 bucket " + bucketName + " to " + directory.getAbsolutePath());
+        final AmazonS3 s3 = getS3(bucketName);
+        final PrefixDownloader downloader = new PrefixDownloader(s3, PrefixDownloader.DEFAULT_MAX_BYTES_IN_FLIGHT,
+                PrefixDownloader.DEFAULT_MAX_REQUESTS, PrefixDownloader.DEFAULT_RANGE_SIZE, bufferPool);
+        try (ParallelLister.Listing listing = parallelLister.list(s3, bucketName, prefix, false)) {
+            return downloader.download(bucketName, prefix, listing, directory);
+        } finally {
+            downloader.shutdown();
+        }
+    }
+
     public void uploadFile(String bucketName, String keyName, File file) throws AmazonServiceException, InterruptedException {
         LOGGER.debug("Uploading file: " + file.getAbsolutePath());
+        if (!isMultipartSupported()) {
+            putObject(bucketName, keyName, file);
+            return;
+        }
+
+        Upload upload = getTransferManager(getHomeRegionS3(bucketName)).upload(bucketName, keyName, file);
+        UploadResult result = upload.waitForUploadResult();
+        recordPut(bucketName, keyName, file.length(), result.getETag());
+    }
 
-        Upload upload = getTransferManager(getS3()).upload(bucketName, keyName, file);
-        upload.waitForCompletion();
+    /**
+     * Multipart upload of a large local file, the parts are uploaded in parallel from memory mapped regions of the file.
+     */
+    public void uploadLargeFile(String bucketName, String keyName, File file) throws AmazonServiceException, IOException, InterruptedException {
+        LOGGER.debug("Uploading large file: " + file.getAbsolutePath());
+        if (!isMultipartSupported()) {
+            putObject(bucketName, keyName, file);
+            return;
+        }
+        final AmazonS3 s3 = getHomeRegionS3(bucketName);
+        final MappedFileUploader uploader = getMappedFileUploader(s3);
+        try {
+            CompleteMultipartUploadResult result = uploader.upload(bucketName, keyName, file);
+            recordPut(bucketName, keyName, file.length(), result.getETag());
+        } finally {
+            if(this.s3 != s3) {
+                uploader.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Uploads the file with {@link #putObject(String, String, File)} unless the object in S3 has the same size and ETag.
+     * The remote ETag comes from the bucket inventory when one was added, otherwise from a HEAD request.
+     * @return true when the file was uploaded
+     */
+    public boolean putObjectIfChanged(String bucketName, String keyName, File file) throws AmazonServiceException, IOException {
+        if (isUnchanged(file, getRemoteSummary(bucketName, keyName))) {
+            LOGGER.debug("Skipping upload of unchanged file " + file + " to " + keyName + " in S3 bucket " + bucketName);
+            return false;
+        }
+        putObject(bucketName, keyName, file);
+        return true;
+    }
+
+    /**
+     * Uploads the file with {@link #uploadFile(String, String, File)} unless the object in S3 has the same size and ETag.
+     * @return true when the file was uploaded
+     */
+    public boolean uploadFileIfChanged(String bucketName, String keyName, File file) throws AmazonServiceException, IOException, InterruptedException {
+        if (isUnchanged(file, getRemoteSummary(bucketName, keyName))) {
+            LOGGER.debug("Skipping upload of unchanged file " + file + " to " + keyName + " in S3 bucket " + bucketName);
+            return false;
+        }
+        uploadFile(bucketName, keyName, file);
+        return true;
+    }
+
+    /**
+     * Uploads the files that are missing or changed in S3, e.g. to rerun a batch after a partial failure.
+     * The remote sizes and ETags are looked up together first: from the bucket inventory when one was added,
+     * otherwise with listings of the shared parent prefixes and concurrent HEAD requests.
+     * Changed files are handed to the transfer manager while the next files are being compared.
+     * @param files the local file per object key
+     */
+    public UploadBatchResult uploadFilesIfChanged(String bucketName, Map<String, File> files) throws AmazonServiceException, InterruptedException {
+        final UploadBatchResult result = new UploadBatchResult();
+        final Map<String, S3ObjectSummary> remoteSummaries = getRemoteSummaries(bucketName, files.keySet());
+        final TransferManager transferManager = isMultipartSupported() ? getTransferManager(getHomeRegionS3(bucketName)) : null;
+        final Map<String, Upload> uploads = new LinkedHashMap<>();
+        for (Map.Entry<String, File> file : files.entrySet()) {
+            try {
+                if (isUnchanged(file.getValue(), remoteSummaries.get(file.getKey()))) {
+                    result.addSkipped(file.getKey());
+                } else if (transferManager == null) {
+                    putObject(bucketName, file.getKey(), file.getValue());
+                    result.addUploaded(file.getKey());
+                } else {
+                    uploads.put(file.getKey(), transferManager.upload(bucketName, file.getKey(), file.getValue()));
+                }
+            } catch (IOException | AmazonClientException e) {
+                result.addFailure(file.getKey(), e);
+            }
+        }
+        for (Map.Entry<String, Upload> upload : uploads.entrySet()) {
+            try {
+                final UploadResult uploadResult = upload.getValue().waitForUploadResult();
+                recordPut(bucketName, upload.getKey(), files.get(upload.getKey()).length(), uploadResult.getETag());
+                result.addUploaded(upload.getKey());
+            } catch (AmazonClientException e) {
+                result.addFailure(upload.getKey(), e);
+            }
+        }
+        LOGGER.debug("Uploaded changed files to S3 bucket " + bucketName + ": " + result);
+        return result;
+    }
+
+    /**
+     * Uploads many small files with single PUTs, as many in flight as the client profile has connections.
+     * @param files the local file per object key
+     */
+    public UploadBatchResult uploadSmallFiles(String bucketName, Map<String, File> files) throws InterruptedException {
+        final List<SmallObjectUploader.Entry> entries = new ArrayList<>(files.size());
+        for (Map.Entry<String, File> file : files.entrySet()) {
+            entries.add(SmallObjectUploader.Entry.ofFile(file.getKey(), file.getValue()));
+        }
+        return uploadSmallObjects(bucketName, entries.iterator());
     }
 
+    /**
+     * Uploads small objects from files or memory with single PUTs, without the per-transfer overhead of the
+     * transfer manager. The next files are read while the previous ones are being sent.
+     */
+    public UploadBatchResult uploadSmallObjects(String bucketName, Iterator<SmallObjectUploader.Entry> entries) throws InterruptedException {
+        final int concurrency = clientProfile.createClientConfiguration().getMaxConnections();
+        final SmallObjectUploader uploader = new SmallObjectUploader(getS3(bucketName), concurrency, bufferPool) {
+            @Override
+            protected void onUploaded(String uploadBucketName, String keyName, long size, String eTag) {
+                recordPut(uploadBucketName, keyName, size, eTag);
+            }
+        };
+        try {
+            return uploader.upload(bucketName, entries);
+        } finally {
+            uploader.shutdown();
+        }
+    }
+
+    private boolean isUnchanged(final File file, final S3ObjectSummary remoteSummary) throws IOException {
+        return remoteSummary != null && contentETags.matches(file, remoteSummary.getETag(), remoteSummary.getSize());
+    }
+
+    private S3ObjectSummary getRemoteSummary(final String bucketName, final String keyName) {
+        final BucketInventory inventory = inventories.get(bucketName);
+        if (inventory != null) {
+            return toObjectSummary(bucketName, inventory.get(keyName));
+        }
+        final ObjectMetadata metadata;
+        try {
+            metadata = getObjectMetadata(bucketName, keyName);
+        } catch (AmazonS3Exception e) {
+            if (e.getStatusCode() == 404) {
+                return null;
+            }
+            throw e;
+        }
+        return toObjectSummary(bucketName, new BucketInventory.Entry(keyName, metadata.getContentLength(), metadata.getETag(), 0));
+    }
+
+    private Map<String, S3ObjectSummary> getRemoteSummaries(final String bucketName, final Collection<String> keyNames) throws InterruptedException {
+        final BucketInventory inventory = inventories.get(bucketName);
+        if (inventory != null) {
+            final Map<String, S3ObjectSummary> summaries = new HashMap<>();
+            for (String keyName : keyNames) {
+                final S3ObjectSummary summary = toObjectSummary(bucketName, inventory.get(keyName));
+                if (summary != null) {
+                    summaries.put(keyName, summary);
+                }
+            }
+            return summaries;
+        }
+        final ObjectSummaryLookup lookup = new ObjectSummaryLookup();
+        try {
+            return lookup.lookup(getS3(bucketName), bucketName, keyNames);
+        } finally {
+            lookup.shutdown();
+        }
+    }
+
+    private static S3ObjectSummary toObjectSummary(final String bucketName, final BucketInventory.Entry entry) {
+        if (entry == null) {
+            return null;
+        }
+        final S3ObjectSummary summary = new S3ObjectSummary();
+        summary.setBucketName(bucketName);
+        summary.setKey(entry.getKey());
+        summary.setSize(entry.getSize());
+        summary.setETag(entry.getETag());
+        return summary;
+    }
+
+    /**
+     * Creates a file in the scratch space, deleted by {@link #releaseTempFile(File)} or when the returned
+     * {@link File} is garbage collected. Waits while the scratch space quota is used up.
+     */
     public File createTempFile(String objectKey) throws IOException {
+        return createTempFile(objectKey, -1);
+    }
+
+    /**
+     * @param size the expected size of the file, reserved against the scratch space quota; negative when unknown
+     */
+    public File createTempFile(String objectKey, long size) throws IOException {
         String prefix = com.google.common.io.Files.getNameWithoutExtension(objectKey);
         prefix = StringUtils.rightPad(prefix, 3, '_');
         String suffix = "." + com.google.common.io.Files.getFileExtension(objectKey);
-        return File.createTempFile(prefix, suffix);
+        return getScratchSpace().createFile(prefix, suffix, size);
+    }
+
+    /**
+     * Deletes a file of {@link #createTempFile(String)} or {@link #getObjectFile(String, String)} and returns its
+     * space to the scratch space quota.
+     */
+    public void releaseTempFile(File file) {
+        getScratchSpace().release(file);
     }
 
     public void putObject(String bucketName, File file) throws AmazonServiceException {
@@ -188,23 +951,116 @@ public class AmazonS3Service {
     public void putObject(String bucketName, String keyName, File file) throws AmazonServiceException {
         String filePath = file.getAbsolutePath();
         LOGGER.debug("Uploading %s to S3 bucket %s...\n", filePath, bucketName);
-        getS3().putObject(bucketName, keyName, filePath);
+        if (file.length() > DirectBufferPool.MAX_BUFFER_SIZE) {
+            PutObjectResult result = getS3(bucketName).putObject(bucketName, keyName, file);
+            recordPut(bucketName, keyName, file.length(), result.getETag());
+            return;
+        }
+        ByteBuffer buffer = null;
+        try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            buffer = bufferPool.acquire((int) in.size());
+            buffer.limit((int) in.size());
+            while (buffer.hasRemaining() && in.read(buffer) >= 0) {
+                // fill the buffer with the file content
+            }
+            buffer.flip();
+            ObjectMetadata metadata = new ObjectMetadata();
+            metadata.setContentLength(buffer.remaining());
+            metadata.setContentType(Mimetypes.getInstance().getMimetype(file));
+            PutObjectRequest request = new PutObjectRequest(bucketName, keyName, new ByteBufferInputStream(buffer), metadata);
+            request.getRequestClientOptions().setReadLimit(buffer.remaining() + 1);
+            PutObjectResult result = getS3(bucketName).putObject(request);
+            recordPut(bucketName, keyName, metadata.getContentLength(), result.getETag());
+        } catch (IOException e) {
+            throw new SdkClientException("Unable to read file " + filePath, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AbortedException("Interrupted while waiting for a transfer buffer", e);
+        } finally {
+            bufferPool.release(buffer);
+        }
     }
 
     public void copyObject(String objectKey, String fromBucket, String toBucket) throws AmazonServiceException {
-        getS3().copyObject(fromBucket, objectKey, toBucket, objectKey);
+        CopyObjectResult result = getS3(toBucket).copyObject(fromBucket, objectKey, toBucket, objectKey);
+        invalidateMetadata(toBucket, objectKey);
+        if (inventories.containsKey(toBucket)) {
+            final BucketInventory source = inventories.get(fromBucket);
+            final BucketInventory.Entry sourceEntry = source == null ? null : source.get(objectKey);
+            final long size = sourceEntry != null ? sourceEntry.getSize() : getS3(toBucket).getObjectMetadata(toBucket, objectKey).getContentLength();
+            recordPut(toBucket, objectKey, size, result.getETag());
+        }
     }
 
     public ListObjectsV2Result getObjects(String bucketName) {
-        return getS3().listObjectsV2(bucketName);
+        return getS3(bucketName).listObjectsV2(bucketName);
     }
 
     public ListObjectsV2Result getObjects(String bucketName, String prefix) {
-        return getS3().listObjectsV2(bucketName, prefix);
+        return getS3(bucketName).listObjectsV2(bucketName, prefix);
+    }
+
+    /**
+     * Lists all objects with the given prefix, the key space is split into ranges that are listed concurrently.
+     * The returned listing should be closed when it is not iterated to the end.
+     */
+    public ParallelLister.Listing getAllObjects(String bucketName, String prefix) {
+        return parallelLister.list(getS3(bucketName), bucketName, prefix, true);
+    }
+
+    /**
+     * Publishes the summaries of the objects with the given prefix, the next page is listed when the subscriber
+     * requested the items of the previous one.
+     */
+    public S3Flow.Publisher<S3ObjectSummary> publishObjects(final String bucketName, final String prefix) {
+        final AmazonS3 s3 = getS3(bucketName);
+        return new IteratorPublisher<S3ObjectSummary>(publisherExecutor) {
+            @Override
+            protected Iterator<S3ObjectSummary> newIterator() {
+                return new S3ObjectSummaryIterator(s3, bucketName, prefix);
+            }
+        };
+    }
+
+    /**
+     * Totals the object count and size of the prefix and of its sub-prefixes up to the given depth.
+     * @param groupBy optional breakdowns of the totals
+     */
+    public PrefixUsage getPrefixUsage(String bucketName, String prefix, int depth, UsageAggregator.GroupBy... groupBy) throws InterruptedException {
+        final Set<UsageAggregator.GroupBy> groups = EnumSet.noneOf(UsageAggregator.GroupBy.class);
+        Collections.addAll(groups, groupBy);
+        return new UsageAggregator(parallelLister).aggregate(getS3(bucketName), bucketName, prefix, depth, groups);
+    }
+
+    /**
+     * Streams all versions and delete markers with the given prefix, the next page is listed when the previous one is consumed.
+     */
+    public Iterator<S3VersionSummary> getVersions(String bucketName, String prefix) {
+        return new S3VersionSummaryIterator(getS3(bucketName), bucketName, prefix);
+    }
+
+    /**
+     * Deletes the old versions and delete markers with the given prefix that the policy does not keep.
+     */
+    public BulkDeleteResult purgeVersions(String bucketName, String prefix, VersionPurgePolicy policy) throws InterruptedException {
+        final VersionPurger purger = new VersionPurger(getS3(bucketName), parallelLister);
+        try {
+            return purger.purge(bucketName, prefix, policy);
+        } finally {
+            purger.shutdown();
+            invalidateMetadataPrefix(bucketName, prefix);
+        }
     }
 
     public void logObjects(String bucketName) {
-        ListObjectsV2Result result = getS3().listObjectsV2(bucketName);
+        final BucketInventory inventory = inventories.get(bucketName);
+        if (inventory != null) {
+            for (Iterator<BucketInventory.Entry> entries = inventory.list(""); entries.hasNext(); ) {
+                LOGGER.info("* " + entries.next().getKey());
+            }
+            return;
+        }
+        ListObjectsV2Result result = getS3(bucketName).listObjectsV2(bucketName);
         List<S3ObjectSummary> objects = result.getObjectSummaries();
         for (S3ObjectSummary os: objects) {
             LOGGER.info("* " + os.getKey());
@@ -212,11 +1068,95 @@ public class AmazonS3Service {
     }
 
     public void deleteObject(String bucketName, String objectKey) throws AmazonServiceException {
-        getS3().deleteObject(bucketName, objectKey);
+        getS3(bucketName).deleteObject(bucketName, objectKey);
+        recordDelete(bucketName, objectKey);
     }
 
     public void deleteObjects(String bucketName, String... objectKeys) throws AmazonServiceException {
         DeleteObjectsRequest dor = new DeleteObjectsRequest(bucketName).withKeys(objectKeys);
-        getS3().deleteObjects(dor);
+        List<DeleteObjectsResult.DeletedObject> deletedObjects;
+        try {
+            deletedObjects = getS3(bucketName).deleteObjects(dor).getDeletedObjects();
+        } catch (MultiObjectDeleteException e) {
+            for (DeleteObjectsResult.DeletedObject deleted : e.getDeletedObjects()) {
+                recordDelete(bucketName, deleted.getKey());
+            }
+            throw e;
+        }
+        for (DeleteObjectsResult.DeletedObject deleted : deletedObjects) {
+            recordDelete(bucketName, deleted.getKey());
+        }
+    }
+
+    /**
+     * Deletes all objects with the given prefix using concurrent batch deletes.
+     * @param includeVersions also delete all noncurrent versions and delete markers
+     */
+    public BulkDeleteResult deleteObjectsWithPrefix(String bucketName, String prefix, boolean includeVersions) throws InterruptedException {
+        final AmazonS3 s3 = getS3(bucketName);
+        final BulkDeleter bulkDeleter = new BulkDeleter(s3);
+        try {
+            return bulkDeleter.deletePrefix(bucketName, prefix, includeVersions);
+        } finally {
+            bulkDeleter.shutdown();
+            invalidateMetadataPrefix(bucketName, prefix);
+            final BucketInventory inventory = inventories.get(bucketName);
+            if (inventory != null) {
+                inventory.refreshPrefix(s3, prefix);
+            }
+        }
+    }
+
+    public BulkDeleteResult deleteObjects(String bucketName, final Iterator<String> objectKeys) throws InterruptedException {
+        final AmazonS3 s3 = getS3(bucketName);
+        final BucketInventory inventory = inventories.get(bucketName);
+        final BulkDeleter bulkDeleter = new BulkDeleter(s3);
+        // each batch is invalidated as it is acknowledged, not the whole bucket at the end
+        bulkDeleter.setListener(new BulkDeleter.Listener() {
+            @Override
+            public void requestDone(String bucketName, List<DeleteObjectsRequest.KeyVersion> keys) {
+                for (DeleteObjectsRequest.KeyVersion key : keys) {
+                    invalidateMetadata(bucketName, key.getKey());
+                }
+            }
+        });
+        try {
+            final BulkDeleteResult result = bulkDeleter.deleteKeys(bucketName, inventory == null ? objectKeys : new Iterator<String>() {
+                @Override
+                public boolean hasNext() {
+                    return objectKeys.hasNext();
+                }
+
+                @Override
+                public String next() {
+                    final String key = objectKeys.next();
+                    inventory.remove(key);
+                    return key;
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            });
+            if (inventory != null) {
+                // keys that could not be deleted are listed again
+                for (BulkDeleteResult.KeyError error : result.getErrors()) {
+                    inventory.refreshPrefix(s3, error.getKey());
+                }
+            }
+            return result;
+        } finally {
+            bulkDeleter.shutdown();
+        }
+    }
+
+    /**
+     * Deletes the keys sent by the publisher using concurrent batch deletes, keys are requested as batches are sent.
+     */
+    public BulkDeleteResult deleteObjects(String bucketName, S3Flow.Publisher<String> objectKeys) throws InterruptedException {
+        try (PublisherIterator<String> keys = new PublisherIterator<>(objectKeys, BulkDeleter.MAX_KEYS_PER_REQUEST * 2)) {
+            return deleteObjects(bucketName, keys);
+        }
     }
 }
@@ -0,0 +1,102 @@
+package com.jnj.honeur.aws.s3;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.Bucket;
+import com.amazonaws.services.s3.model.CopyObjectRequest;
+import com.amazonaws.services.s3.model.CopyObjectResult;
+import com.amazonaws.services.s3.model.CreateBucketRequest;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import com.amazonaws.services.s3.model.DeleteObjectsResult;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.ListVersionsRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.VersionListing;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Storage backend on the blocking AWS SDK S3 client.
+ */
+public class AmazonS3StorageBackend implements StorageBackend {
+
+    private final AmazonS3 s3;
+
+    public AmazonS3StorageBackend(final AmazonS3 s3) {
+        this.s3 = s3;
+    }
+
+    public AmazonS3 getClient() {
+        return s3;
+    }
+
+    @Override
+    public List<Bucket> listBuckets() {
+        return s3.listBuckets();
+    }
+
+    @Override
+    public boolean doesBucketExist(final String bucketName) {
+        return s3.doesBucketExistV2(bucketName);
+    }
+
+    @Override
+    public Bucket createBucket(final String bucketName, final String region) {
+        return s3.createBucket(new CreateBucketRequest(bucketName, region));
+    }
+
+    @Override
+    public void deleteBucket(final String bucketName) {
+        s3.deleteBucket(bucketName);
+    }
+
+    @Override
+    public ObjectMetadata getObjectMetadata(final String bucketName, final String keyName) {
+        return s3.getObjectMetadata(bucketName, keyName);
+    }
+
+    @Override
+    public S3Object getObject(final GetObjectRequest request) {
+        return s3.getObject(request);
+    }
+
+    @Override
+    public ObjectMetadata getObject(final GetObjectRequest request, final File destination) {
+        return s3.getObject(request, destination);
+    }
+
+    @Override
+    public PutObjectResult putObject(final PutObjectRequest request) {
+        return s3.putObject(request);
+    }
+
+    @Override
+    public CopyObjectResult copyObject(final CopyObjectRequest request) {
+        return s3.copyObject(request);
+    }
+
+    @Override
+    public ListObjectsV2Result listObjectsV2(final ListObjectsV2Request request) {
+        return s3.listObjectsV2(request);
+    }
+
+    @Override
+    public VersionListing listVersions(final ListVersionsRequest request) {
+        return s3.listVersions(request);
+    }
+
+    @Override
+    public void deleteObject(final String bucketName, final String keyName) {
+        s3.deleteObject(bucketName, keyName);
+    }
+
+    @Override
+    public DeleteObjectsResult deleteObjects(final DeleteObjectsRequest request) {
+        return s3.deleteObjects(request);
+    }
+}
@@ -0,0 +1,127 @@
+package com.jnj.honeur.aws.s3;
+
+import com.amazonaws.services.s3.model.CopyObjectRequest;
+import com.amazonaws.services.s3.model.CopyObjectResult;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import com.amazonaws.services.s3.model.DeleteObjectsResult;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.model.S3Object;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+/**
+ * Non-blocking facade of a storage backend: every operation returns at once with a future, callbacks are chained
+ * with {@link com.google.common.util.concurrent.Futures}. At most {@code maxInFlight} requests run at the same time,
+ * the others wait in the queue of the executor.
+ * <p>
+ * The AWS SDK 1.x client does blocking I/O, so each running request occupies a thread. In virtual thread mode
+ * (see {@link BulkExecutors}) those are virtual threads and thousands of requests can be in flight on a few
+ * carrier threads; with platform threads keep {@code maxInFlight} near the connection pool size of the client.
+ */
+public class AsyncStorageBackend {
+
+    public static final int DEFAULT_MAX_IN_FLIGHT = 64;
+
+    private final StorageBackend backend;
+    private final ListeningExecutorService executor;
+
+    public AsyncStorageBackend(final StorageBackend backend) {
+        this(backend, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    public AsyncStorageBackend(final StorageBackend backend, final int maxInFlight) {
+        this.backend = backend;
+        this.executor = MoreExecutors.listeningDecorator(BulkExecutors.newExecutor("s3-async-%d", maxInFlight));
+    }
+
+    public StorageBackend getBackend() {
+        return backend;
+    }
+
+    public ListenableFuture<ObjectMetadata> getObjectMetadata(final String bucketName, final String keyName) {
+        return executor.submit(new Callable<ObjectMetadata>() {
+            @Override
+            public ObjectMetadata call() {
+                return backend.getObjectMetadata(bucketName, keyName);
+            }
+        });
+    }
+
+    /**
+     * The content stream of the object should be closed by the caller.
+     */
+    public ListenableFuture<S3Object> getObject(final GetObjectRequest request) {
+        return executor.submit(new Callable<S3Object>() {
+            @Override
+            public S3Object call() {
+                return backend.getObject(request);
+            }
+        });
+    }
+
+    public ListenableFuture<PutObjectResult> putObject(final PutObjectRequest request) {
+        return executor.submit(new Callable<PutObjectResult>() {
+            @Override
+            public PutObjectResult call() {
+                return backend.putObject(request);
+            }
+        });
+    }
+
+    public ListenableFuture<CopyObjectResult> copyObject(final CopyObjectRequest request) {
+        return executor.submit(new Callable<CopyObjectResult>() {
+            @Override
+            public CopyObjectResult call() {
+                return backend.copyObject(request);
+            }
+        });
+    }
+
+    public ListenableFuture<ListObjectsV2Result> listObjectsV2(final ListObjectsV2Request request) {
+        return executor.submit(new Callable<ListObjectsV2Result>() {
+            @Override
+            public ListObjectsV2Result call() {
+                return backend.listObjectsV2(request);
+            }
+        });
+    }
+
+    public ListenableFuture<Void> deleteObject(final String bucketName, final String keyName) {
+        return executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                backend.deleteObject(bucketName, keyName);
+                return null;
+            }
+        });
+    }
+
+    public ListenableFuture<DeleteObjectsResult> deleteObjects(final DeleteObjectsRequest request) {
+        return executor.submit(new Callable<DeleteObjectsResult>() {
+            @Override
+            public DeleteObjectsResult call() {
+                return backend.deleteObjects(request);
+            }
+        });
+    }
+
+    /**
+     * Interrupts the running requests and cancels the queued ones, so every returned future completes.
+     */
+    public void shutdown() {
+        for (Runnable queued : executor.shutdownNow()) {
+            if (queued instanceof Future) {
+                ((Future<?>) queued).cancel(false);
+            }
+        }
+    }
+}
@@ -0,0 +1,626 @@
+package com.jnj.honeur.aws.s3;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Local inventory of the keys, sizes, ETags and modification times of a bucket.
+ * The inventory is stored as a file of key-sorted records that is memory mapped, so lookups and prefix queries
+ * are binary searches without LIST requests. Changes made after the file was written are kept in memory
+ * and merged into a new file on {@link #save()} and {@link #close()}, and by a background thread once there are
+ * enough of them. That number grows with the inventory (up to a cap that bounds the memory of the changes),
+ * so a bulk change of N keys rewrites the file a bounded number of times instead of once per fixed batch.
+ * <p>
+ * File layout: a 40 byte header (magic, version, record count, data length, listing time), the records
+ * (key length, UTF-8 key, size, modification time, ETag length, ETag) in 1 GiB segments that no record crosses,
+ * and a table with the data offset of every record.
+ */
+public class BucketInventory implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BucketInventory.class);
+
+    public static final int DEFAULT_MAX_PENDING_CHANGES = 10000;
+    private static final int COMPACTION_RATIO = 8;
+    private static final int MAX_COMPACTION_THRESHOLD = 250000;
+    private static final int MAGIC = 0x484E5649;
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 40;
+    private static final long SEGMENT_SIZE = 1L << 30;
+    private static final long MAX_RECORDS = Integer.MAX_VALUE / 8;
+
+    private final String bucketName;
+    private final File file;
+    private final int maxPendingChanges;
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final ExecutorService compactor = BulkExecutors.newExecutor("s3-inventory-compaction-%d", 1);
+
+    private MappedIndex index;
+    private final TreeMap<String, Change> changes = new TreeMap<>(ParallelLister.KEY_ORDER);
+    private long changeSequence;
+    private boolean compactionScheduled;
+
+    /**
+     * Inventory stored in {@code ~/.honeur/inventory/<bucketName>.idx}.
+     */
+    public BucketInventory(final String bucketName) throws IOException {
+        this(bucketName, new File(new File(new File(System.getProperty("user.home"), ".honeur"), "inventory"), bucketName + ".idx"));
+    }
+
+    public BucketInventory(final String bucketName, final File file) throws IOException {
+        this(bucketName, file, DEFAULT_MAX_PENDING_CHANGES);
+    }
+
+    /**
+     * @param maxPendingChanges minimum number of in-memory changes after which a new inventory file is written,
+     * large inventories wait for up to an eighth of their size
+     */
+    public BucketInventory(final String bucketName, final File file, final int maxPendingChanges) throws IOException {
+        this.bucketName = bucketName;
+        this.file = file;
+        this.maxPendingChanges = maxPendingChanges;
+        if (file.isFile()) {
+            index = MappedIndex.open(file);
+            LOGGER.debug("Opened inventory of S3 bucket " + bucketName + " with " + index.count + " keys");
+        }
+    }
+
+    public String getBucketName() {
+        return bucketName;
+    }
+
+    /**
+     * @return the time of the last full listing in milliseconds since the epoch, 0 when never listed
+     */
+    public synchronized long getListedAt() {
+        return index == null ? 0 : index.listedAt;
+    }
+
+    /**
+     * @return the inventory entry of the key, or null when the key is not in the inventory
+     */
+    public synchronized Entry get(final String key) {
+        final Change change = changes.get(key);
+        if (change != null) {
+            return change.entry;
+        }
+        if (index == null) {
+            return null;
+        }
+        final byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        final long i = index.lowerBound(keyBytes);
+        return i < index.count && index.compareKey(i, keyBytes) == 0 ? index.entry(i) : null;
+    }
+
+    public boolean contains(final String key) {
+        return get(key) != null;
+    }
+
+    /**
+     * @return the entries of all keys with the given prefix, in key order
+     */
+    public synchronized Iterator<Entry> list(final String prefix) {
+        final String from = prefix == null ? "" : prefix;
+        final TreeMap<String, Change> prefixChanges = new TreeMap<>(ParallelLister.KEY_ORDER);
+        for (Map.Entry<String, Change> change : changes.tailMap(from, true).entrySet()) {
+            if (!change.getKey().startsWith(from)) {
+                break;
+            }
+            prefixChanges.put(change.getKey(), change.getValue());
+        }
+        return new MergingIterator(index, from, prefixChanges);
+    }
+
+    public long count(final String prefix) {
+        return Iterators.size(list(prefix));
+    }
+
+    public long getTotalSize(final String prefix) {
+        long size = 0;
+        for (Iterator<Entry> entries = list(prefix); entries.hasNext(); ) {
+            size += entries.next().getSize();
+        }
+        return size;
+    }
+
+    public void put(final String key, final long size, final String eTag, final long lastModified) {
+        put(new Entry(key, size, eTag, lastModified));
+    }
+
+    public void put(final Entry entry) {
+        record(entry.getKey(), entry);
+    }
+
+    public void remove(final String key) {
+        record(key, null);
+    }
+
+    private synchronized void record(final String key, final Entry entry) {
+        changes.put(key, new Change(entry, ++changeSequence));
+        scheduleCompaction();
+    }
+
+    private synchronized void scheduleCompaction() {
+        final long indexCount = index == null ? 0 : index.count;
+        final long threshold = Math.max(maxPendingChanges, Math.min(indexCount / COMPACTION_RATIO, MAX_COMPACTION_THRESHOLD));
+        if (compactionScheduled || changes.size() < threshold || compactor.isShutdown()) {
+            return;
+        }
+        compactionScheduled = true;
+        compactor.execute(new Runnable() {
+            @Override
+            public void run() {
+                writeLock.lock();
+                try {
+                    saveChanges();
+                } catch (IOException e) {
+                    LOGGER.warn("Could not save inventory of S3 bucket " + bucketName + ", changes are kept in memory: " + e.getMessage());
+                } finally {
+                    writeLock.unlock();
+                    synchronized (BucketInventory.this) {
+                        compactionScheduled = false;
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Replaces the inventory with a full listing of the bucket.
+     * Changes recorded while the bucket is being listed are kept on top of the new listing.
+     */
+    public void rebuild(final AmazonS3 s3, final ParallelLister lister) throws IOException {
+        writeLock.lock();
+        try {
+            final long startSequence;
+            synchronized (this) {
+                startSequence = changeSequence;
+            }
+            final long listedAt = System.currentTimeMillis();
+            final File newFile;
+            try (ParallelLister.Listing listing = lister.list(s3, bucketName, "", true)) {
+                newFile = write(toEntries(listing), listedAt);
+            }
+            replace(newFile, startSequence);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Adds the keys sorting after the last key in the inventory, e.g. new keys with a time based name.
+     * @return the number of added keys
+     */
+    public long refreshNewKeys(final AmazonS3 s3) {
+        final String lastKey = getLastKey();
+        final ListObjectsV2Request request = new ListObjectsV2Request().withBucketName(bucketName).withStartAfter(lastKey);
+        long added = 0;
+        for (Iterator<Entry> entries = toEntries(new S3ObjectSummaryIterator(s3, request)); entries.hasNext(); ) {
+            put(entries.next());
+            added++;
+        }
+        LOGGER.debug("Added " + added + " keys after " + lastKey + " to the inventory of S3 bucket " + bucketName);
+        return added;
+    }
+
+    /**
+     * Lists the prefix and brings the inventory entries of the prefix in line with the listing.
+     * @return the number of changed entries
+     */
+    public long refreshPrefix(final AmazonS3 s3, final String prefix) {
+        final PeekingIterator<Entry> listed = Iterators.peekingIterator(toEntries(new S3ObjectSummaryIterator(s3, bucketName, prefix)));
+        final PeekingIterator<Entry> known = Iterators.peekingIterator(list(prefix));
+        long changed = 0;
+        while (listed.hasNext() || known.hasNext()) {
+            final int order = !listed.hasNext() ? 1 : !known.hasNext() ? -1
+                    : ParallelLister.compareKeys(listed.peek().getKey(), known.peek().getKey());
+            if (order > 0) {
+                remove(known.next().getKey());
+                changed++;
+            } else if (order < 0) {
+                put(listed.next());
+                changed++;
+            } else {
+                final Entry entry = listed.next();
+                if (!entry.equals(known.next())) {
+                    put(entry);
+                    changed++;
+                }
+            }
+        }
+        LOGGER.debug("Refreshed prefix " + prefix + " of the inventory of S3 bucket " + bucketName + ": " + changed + " changes");
+        return changed;
+    }
+
+    /**
+     * Writes the pending changes to a new inventory file.
+     */
+    public void save() throws IOException {
+        writeLock.lock();
+        try {
+            saveChanges();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Stops the background writer and writes the pending changes.
+     */
+    @Override
+    public void close() throws IOException {
+        compactor.shutdown();
+        save();
+    }
+
+    private void saveChanges() throws IOException {
+        final long sequence;
+        final Iterator<Entry> entries;
+        final long listedAt;
+        synchronized (this) {
+            if (changes.isEmpty()) {
+                return;
+            }
+            sequence = changeSequence;
+            entries = list("");
+            listedAt = getListedAt();
+        }
+        replace(write(entries, listedAt), sequence);
+    }
+
+    private synchronized void replace(final File newFile, final long includedSequence) throws IOException {
+        Files.move(newFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        index = MappedIndex.open(file);
+        final Iterator<Change> pending = changes.values().iterator();
+        while (pending.hasNext()) {
+            if (pending.next().sequence <= includedSequence) {
+                pending.remove();
+            }
+        }
+        LOGGER.debug("Saved inventory of S3 bucket " + bucketName + " with " + index.count + " keys, "
+                + changes.size() + " changes pending");
+    }
+
+    private synchronized String getLastKey() {
+        String lastKey = index == null || index.count == 0 ? null : index.entry(index.count - 1).getKey();
+        for (Map.Entry<String, Change> change : changes.descendingMap().entrySet()) {
+            if (lastKey != null && ParallelLister.compareKeys(change.getKey(), lastKey) <= 0) {
+                break;
+            }
+            if (change.getValue().entry != null) {
+                return change.getKey();
+            }
+        }
+        return lastKey;
+    }
+
+    private File write(final Iterator<Entry> entries, final long listedAt) throws IOException {
+        final File directory = file.getAbsoluteFile().getParentFile();
+        Files.createDirectories(directory.toPath());
+        final File dataFile = File.createTempFile(file.getName(), ".tmp", directory);
+        final File offsetsFile = File.createTempFile(file.getName(), ".offsets", directory);
+        try {
+            long count = 0;
+            long position = 0;
+            final byte[] padding = new byte[64 * 1024];
+            try (DataOutputStream data = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(dataFile), 1 << 16));
+                 DataOutputStream offsets = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(offsetsFile), 1 << 16))) {
+                data.write(new byte[HEADER_SIZE]);
+                while (entries.hasNext()) {
+                    final Entry entry = entries.next();
+                    final byte[] key = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                    final byte[] eTag = entry.getETag() == null ? new byte[0] : entry.getETag().getBytes(StandardCharsets.US_ASCII);
+                    final int length = 2 + key.length + 8 + 8 + 1 + eTag.length;
+                    if (position % SEGMENT_SIZE + length > SEGMENT_SIZE) {
+                        // records never cross a segment boundary
+                        for (long remaining = SEGMENT_SIZE - position % SEGMENT_SIZE; remaining > 0; remaining -= padding.length) {
+                            data.write(padding, 0, (int) Math.min(remaining, padding.length));
+                        }
+                        position += SEGMENT_SIZE - position % SEGMENT_SIZE;
+                    }
+                    if (++count > MAX_RECORDS) {
+                        throw new IOException("Too many keys for one inventory file: " + count);
+                    }
+                    offsets.writeLong(position);
+                    data.writeShort(key.length);
+                    data.write(key);
+                    data.writeLong(entry.getSize());
+                    data.writeLong(entry.getLastModified());
+                    data.writeByte(eTag.length);
+                    data.write(eTag);
+                    position += length;
+                }
+            }
+            try (FileChannel out = FileChannel.open(dataFile.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                 FileChannel in = FileChannel.open(offsetsFile.toPath(), StandardOpenOption.READ)) {
+                for (long transferred = 0; transferred < in.size(); ) {
+                    transferred += in.transferTo(transferred, in.size() - transferred, out);
+                }
+            }
+            try (RandomAccessFile header = new RandomAccessFile(dataFile, "rw")) {
+                header.writeInt(MAGIC);
+                header.writeInt(FORMAT_VERSION);
+                header.writeLong(count);
+                header.writeLong(position);
+                header.writeLong(listedAt);
+                header.getFD().sync();
+            }
+            return dataFile;
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(dataFile.toPath());
+            throw e;
+        } finally {
+            Files.deleteIfExists(offsetsFile.toPath());
+        }
+    }
+
+    private static Iterator<Entry> toEntries(final Iterator<S3ObjectSummary> summaries) {
+        return new AbstractIterator<Entry>() {
+            @Override
+            protected Entry computeNext() {
+                if (!summaries.hasNext()) {
+                    return endOfData();
+                }
+                final S3ObjectSummary summary = summaries.next();
+                return new Entry(summary.getKey(), summary.getSize(), summary.getETag(),
+                        summary.getLastModified() == null ? 0 : summary.getLastModified().getTime());
+            }
+        };
+    }
+
+    /**
+     * Inventory information of one key.
+     */
+    public static class Entry {
+
+        private final String key;
+        private final long size;
+        private final String eTag;
+        private final long lastModified;
+
+        public Entry(String key, long size, String eTag, long lastModified) {
+            this.key = key;
+            this.size = size;
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public String getETag() {
+            return eTag;
+        }
+
+        /**
+         * @return the modification time in milliseconds since the epoch
+         */
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Entry)) {
+                return false;
+            }
+            final Entry other = (Entry) o;
+            // the modification time is left out: the time recorded for a write differs from the time S3 lists
+            return size == other.size && key.equals(other.key)
+                    && (eTag == null ? other.eTag == null : eTag.equals(other.eTag));
+        }
+
+        @Override
+        public int hashCode() {
+            return key.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return key + " (" + size + " bytes, ETag " + eTag + ")";
+        }
+    }
+
+    private static class Change {
+
+        /** null for a removed key */
+        private final Entry entry;
+        private final long sequence;
+
+        private Change(Entry entry, long sequence) {
+            this.entry = entry;
+            this.sequence = sequence;
+        }
+    }
+
+    /**
+     * Read-only mapping of an inventory file.
+     */
+    private static class MappedIndex {
+
+        private final long count;
+        private final long listedAt;
+        private final MappedByteBuffer offsets;
+        private final MappedByteBuffer[] segments;
+
+        private MappedIndex(long count, long listedAt, MappedByteBuffer offsets, MappedByteBuffer[] segments) {
+            this.count = count;
+            this.listedAt = listedAt;
+            this.offsets = offsets;
+            this.segments = segments;
+        }
+
+        private static MappedIndex open(final File file) throws IOException {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                while (header.hasRemaining() && channel.read(header) >= 0) {
+                    // read the complete header
+                }
+                header.flip();
+                if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC || header.getInt() != FORMAT_VERSION) {
+                    throw new IOException("Not a bucket inventory file: " + file);
+                }
+                final long count = header.getLong();
+                final long dataLength = header.getLong();
+                final long listedAt = header.getLong();
+                final MappedByteBuffer offsets = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + dataLength, count * 8);
+                final MappedByteBuffer[] segments = new MappedByteBuffer[(int) ((dataLength + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+                for (int i = 0; i < segments.length; i++) {
+                    final long start = i * SEGMENT_SIZE;
+                    segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + start, Math.min(SEGMENT_SIZE, dataLength - start));
+                }
+                // the mappings stay valid after the channel is closed
+                return new MappedIndex(count, listedAt, offsets, segments);
+            }
+        }
+
+        private ByteBuffer record(final long i) {
+            final long position = offsets.getLong((int) (i * 8));
+            final ByteBuffer record = segments[(int) (position / SEGMENT_SIZE)].duplicate();
+            record.position((int) (position % SEGMENT_SIZE));
+            return record;
+        }
+
+        private int compareKey(final long i, final byte[] key) {
+            final ByteBuffer record = record(i);
+            final int length = record.getShort() & 0xFFFF;
+            for (int j = 0; j < Math.min(length, key.length); j++) {
+                final int b = record.get() & 0xFF;
+                final int other = key[j] & 0xFF;
+                if (b != other) {
+                    return b < other ? -1 : 1;
+                }
+            }
+            return Integer.compare(length, key.length);
+        }
+
+        private boolean hasPrefix(final long i, final byte[] prefix) {
+            final ByteBuffer record = record(i);
+            final int length = record.getShort() & 0xFFFF;
+            if (length < prefix.length) {
+                return false;
+            }
+            for (byte b : prefix) {
+                if (record.get() != b) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @return the index of the first record with a key equal to or after the given key
+         */
+        private long lowerBound(final byte[] key) {
+            long low = 0;
+            long high = count;
+            while (low < high) {
+                final long middle = (low + high) >>> 1;
+                if (compareKey(middle, key) < 0) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        private Entry entry(final long i) {
+            final ByteBuffer record = record(i);
+            final byte[] key = new byte[record.getShort() & 0xFFFF];
+            record.get(key);
+            final long size = record.getLong();
+            final long lastModified = record.getLong();
+            final byte[] eTag = new byte[record.get() & 0xFF];
+            record.get(eTag);
+            return new Entry(new String(key, StandardCharsets.UTF_8), size,
+                    eTag.length == 0 ? null : new String(eTag, StandardCharsets.US_ASCII), lastModified);
+        }
+    }
+
+    /**
+     * Merges the records of a prefix in the mapped file with the in-memory changes of the prefix.
+     */
+    private static class MergingIterator extends AbstractIterator<Entry> {
+
+        private final MappedIndex index;
+        private final byte[] prefix;
+        private final PeekingIterator<Map.Entry<String, Change>> changes;
+        private long next;
+        private Entry indexEntry;
+
+        private MergingIterator(MappedIndex index, String prefix, TreeMap<String, Change> changes) {
+            this.index = index;
+            this.prefix = prefix.getBytes(StandardCharsets.UTF_8);
+            this.changes = Iterators.peekingIterator(changes.entrySet().iterator());
+            this.next = index == null ? 0 : index.lowerBound(this.prefix);
+        }
+
+        private Entry peekIndex() {
+            if (indexEntry == null && index != null && next < index.count && index.hasPrefix(next, prefix)) {
+                indexEntry = index.entry(next++);
+            }
+            return indexEntry;
+        }
+
+        @Override
+        protected Entry computeNext() {
+            while (true) {
+                final Entry fromIndex = peekIndex();
+                if (!changes.hasNext()) {
+                    if (fromIndex == null) {
+                        return endOfData();
+                    }
+                    indexEntry = null;
+                    return fromIndex;
+                }
+                final int order = fromIndex == null ? 1 : ParallelLister.compareKeys(fromIndex.getKey(), changes.peek().getKey());
+                if (order < 0) {
+                    indexEntry = null;
+                    return fromIndex;
+                }
+                if (order == 0) {
+                    // the change replaces the record in the file
+                    indexEntry = null;
+                }
+                final Entry changed = changes.next().getValue().entry;
+                if (changed != null) {
+                    return changed;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.jnj.honeur.aws.s3;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.Headers;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.Region;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resolves the home region of buckets, backed by a cache that is persisted in a local properties file.
+ * Cached regions are only refreshed when a request fails with a region mismatch error.
+ */
+public class BucketRegionResolver {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BucketRegionResolver.class);
+
+    private static final String BUCKET_REGION_DETAIL = "Region";
+
+    private final File cacheFile;
+    private final Map<String, String> regions = new ConcurrentHashMap<>();
+
+    /**
+     * Resolver persisting its cache in {@code ~/.honeur/s3-bucket-regions.properties}.
+     */
+    public BucketRegionResolver() {
+        this(new File(new File(System.getProperty("user.home"), ".honeur"), "s3-bucket-regions.properties"));
+    }
+
+    /**
+     * @param cacheFile properties file the cache is loaded from and saved to, null for an in-memory cache
+     */
+    public BucketRegionResolver(final File cacheFile) {
+        this.cacheFile = cacheFile;
+        load();
+    }
+
+    /**
+     * @param s3 client used to look up the bucket location on a cache miss
+     * @return the region name of the bucket, e.g. "eu-west-1"
+     */
+    public String getRegion(final String bucketName, final AmazonS3 s3) {
+        String region = regions.get(bucketName);
+        if (region == null) {
+            region = toRegionName(s3.getBucketLocation(bucketName));
+            LOGGER.debug("Resolved region of S3 bucket " + bucketName + ": " + region);
+            update(bucketName, region);
+        }
+        return region;
+    }
+
+    /**
+     * @return the cached region of the bucket, or null
+     */
+    public String getCachedRegion(final String bucketName) {
+        return regions.get(bucketName);
+    }
+
+    public void update(final String bucketName, final String region) {
+        if (!region.equals(regions.put(bucketName, region))) {
+            save();
+        }
+    }
+
+    public void invalidate(final String bucketName) {
+        if (regions.remove(bucketName) != null) {
+            save();
+        }
+    }
+
+    /**
+     * Refreshes the cached region of the bucket after a region mismatch error.
+     * The region reported by S3 with the error is used when present, otherwise the bucket location is looked up again.
+     */
+    public String refresh(final String bucketName, final AmazonS3Exception e, final AmazonS3 s3) {
+        final String hint = getRegionHint(e);
+        LOGGER.debug("Region mismatch for S3 bucket " + bucketName + " (" + e.getErrorCode() + "), region hint: " + hint);
+        if (hint != null) {
+            update(bucketName, hint);
+            return hint;
+        }
+        regions.remove(bucketName);
+        return getRegion(bucketName, s3);
+    }
+
+    /**
+     * @return true when the request was sent to another region than the home region of the bucket
+     */
+    public static boolean isRegionMismatch(final AmazonS3Exception e) {
+        return e.getStatusCode() == 301
+                || "PermanentRedirect".equals(e.getErrorCode())
+                || "AuthorizationHeaderMalformed".equals(e.getErrorCode())
+                || "IllegalLocationConstraintException".equals(e.getErrorCode());
+    }
+
+    private static String getRegionHint(final AmazonS3Exception e) {
+        final Map<String, String> details = e.getAdditionalDetails();
+        if (details == null) {
+            return null;
+        }
+        if (details.get(Headers.S3_BUCKET_REGION) != null) {
+            return details.get(Headers.S3_BUCKET_REGION);
+        }
+        return details.get(BUCKET_REGION_DETAIL);
+    }
+
+    private static String toRegionName(final String location) {
+        try {
+            return Region.fromValue(location).toAWSRegion().getName();
+        } catch (IllegalArgumentException e) {
+            // Regions unknown to this SDK version report their region name as location
+            return location;
+        }
+    }
+
+    private void load() {
+        if (cacheFile == null || !cacheFile.isFile()) {
+            return;
+        }
+        final Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(cacheFile.toPath())) {
+            properties.load(in);
+        } catch (IOException e) {
+            LOGGER.warn("Could not read bucket region cache " + cacheFile + ": " + e.getMessage());
+            return;
+        }
+        for (String bucketName : properties.stringPropertyNames()) {
+            regions.put(bucketName, properties.getProperty(bucketName));
+        }
+    }
+
+    private synchronized void save() {
+        if (cacheFile == null) {
+            return;
+        }
+        final Properties properties = new Properties();
+        properties.putAll(regions);
+        try {
+            final Path directory = cacheFile.getAbsoluteFile().getParentFile().toPath();
+            Files.createDirectories(directory);
+            final Path tmpFile = Files.createTempFile(directory, cacheFile.getName(), ".tmp");
+            try (OutputStream out = Files.newOutputStream(tmpFile)) {
+                properties.store(out, "S3 bucket regions");
+            }
+            Files.move(tmpFile, cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOGGER.warn("Could not write bucket region cache " + cacheFile + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.jnj.honeur.aws.s3;
+
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.RequestClientOptions;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Routes the requests for a bucket straight to a registry client of the bucket's home region.
+ * The clients do not follow region redirects: a region mismatch error refreshes the cached bucket region,
+ * after which the request is sent once more to the client of the refreshed region. Requests with content are
+ * repeated only when their streams support mark/reset, such as a {@link ByteBufferInputStream}.
+ * The clients are leased from the registry until the router is closed.
+ */
+public class BucketRegionRouter implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BucketRegionRouter.class);
+
+    private final BucketRegionResolver resolver;
+    private final AmazonS3ClientRegistry clientRegistry;
+    private final String defaultRegion;
+    private final AWSCredentialsProvider credentialsProvider;
+    private final ClientProfile profile;
+    // guarded by this
+    private final Map<String, AmazonS3ClientRegistry.Lease> homeRegionLeases = new HashMap<>();
+    private AmazonS3ClientRegistry.Lease lookupLease;
+    private boolean closed;
+
+    /**
+     * @param defaultRegion region of the client used to look up bucket locations, null for the default region provider chain
+     */
+    public BucketRegionRouter(final BucketRegionResolver resolver, final AmazonS3ClientRegistry clientRegistry, final String defaultRegion,
+                              final AWSCredentialsProvider credentialsProvider, final ClientProfile profile) {
+        this.resolver = resolver;
+        this.clientRegistry = clientRegistry;
+        this.defaultRegion = defaultRegion;
+        this.credentialsProvider = credentialsProvider;
+        this.profile = profile;
+    }
+
+    public BucketRegionResolver getResolver() {
+        return resolver;
+    }
+
+    /**
+     * @return the registry client of the bucket's home region, as currently cached
+     */
+    public AmazonS3 getHomeRegionClient(final String bucketName) {
+        final String region = resolver.getRegion(bucketName, getLookupClient());
+        synchronized (this) {
+            checkOpen();
+            AmazonS3ClientRegistry.Lease lease = homeRegionLeases.get(region);
+            if (lease == null || lease.isEvicted()) {
+                if (lease != null) {
+                    lease.close();
+                }
+                lease = clientRegistry.lease(region, credentialsProvider, profile, false);
+                homeRegionLeases.put(region, lease);
+            }
+            return lease.getClient();
+        }
+    }
+
+    /**
+     * @return a client that sends every call to the home region client of the bucket and refreshes the region on a mismatch
+     */
+    public AmazonS3 getClient(final String bucketName) {
+        return (AmazonS3) Proxy.newProxyInstance(AmazonS3.class.getClassLoader(), new Class<?>[]{AmazonS3.class},
+                new BucketInvocationHandler(bucketName));
+    }
+
+    private synchronized AmazonS3 getLookupClient() {
+        checkOpen();
+        if (lookupLease == null || lookupLease.isEvicted()) {
+            if (lookupLease != null) {
+                lookupLease.close();
+            }
+            lookupLease = clientRegistry.lease(defaultRegion, credentialsProvider, profile, true);
+        }
+        return lookupLease.getClient();
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("The bucket region router is closed");
+        }
+    }
+
+    /**
+     * Closes the leases of the region clients, the registry evicts them once they are idle.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        for (AmazonS3ClientRegistry.Lease lease : homeRegionLeases.values()) {
+            lease.close();
+        }
+        homeRegionLeases.clear();
+        if (lookupLease != null) {
+            lookupLease.close();
+            lookupLease = null;
+        }
+    }
+
+    /**
+     * Marks the content streams of the arguments so the call can be repeated.
+     * @return the marked streams, null when a stream cannot be read again
+     */
+    private static List<InputStream> markStreams(final Object[] args) {
+        final List<InputStream> streams = new ArrayList<>();
+        if (args == null) {
+            return streams;
+        }
+        for (Object arg : args) {
+            InputStream in = null;
+            int readLimit = RequestClientOptions.DEFAULT_STREAM_BUFFER_SIZE;
+            if (arg instanceof InputStream) {
+                in = (InputStream) arg;
+            } else if (arg instanceof PutObjectRequest) {
+                in = ((PutObjectRequest) arg).getInputStream();
+            } else if (arg instanceof UploadPartRequest) {
+                in = ((UploadPartRequest) arg).getInputStream();
+            }
+            if (in == null) {
+                continue;
+            }
+            if (!in.markSupported()) {
+                return null;
+            }
+            if (arg instanceof AmazonWebServiceRequest) {
+                readLimit = ((AmazonWebServiceRequest) arg).getRequestClientOptions().getReadLimit();
+            }
+            in.mark(readLimit);
+            streams.add(in);
+        }
+        return streams;
+    }
+
+    /**
+     * @return false when a stream was read past its mark
+     */
+    private static boolean resetStreams(final List<InputStream> streams) {
+        try {
+            for (InputStream in : streams) {
+                in.reset();
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private class BucketInvocationHandler implements InvocationHandler {
+
+        private final String bucketName;
+
+        private BucketInvocationHandler(final String bucketName) {
+            this.bucketName = bucketName;
+        }
+
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+            final List<InputStream> streams = markStreams(args);
+            try {
+                return invokeOn(getHomeRegionClient(bucketName), method, args);
+            } catch (AmazonS3Exception e) {
+                if (!BucketRegionResolver.isRegionMismatch(e)) {
+                    throw e;
+                }
+                resolver.refresh(bucketName, e, getLookupClient());
+                if (streams == null || !resetStreams(streams)) {
+                    throw e;
+                }
+                LOGGER.debug("Repeating " + method.getName() + " on S3 bucket " + bucketName + " in region " + resolver.getCachedRegion(bucketName));
+                return invokeOn(getHomeRegionClient(bucketName), method, args);
+            }
+        }
+
+        private Object invokeOn(final AmazonS3 client, final Method method, final Object[] args) throws Throwable {
+            try {
+                return method.invoke(client, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
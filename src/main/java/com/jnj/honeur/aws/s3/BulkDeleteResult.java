@@ -0,0 +1,94 @@
+package com.jnj.honeur.aws.s3;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Outcome of a bulk delete: the number of deleted keys (or versions) and an error per key that could not be deleted.
+ */
+public class BulkDeleteResult {
+
+    private final AtomicLong deletedCount = new AtomicLong();
+    private final AtomicLong retriedCount = new AtomicLong();
+    private final List<KeyError> errors = Collections.synchronizedList(new ArrayList<KeyError>());
+
+    void addDeleted(final long count) {
+        deletedCount.addAndGet(count);
+    }
+
+    void addRetried(final long count) {
+        retriedCount.addAndGet(count);
+    }
+
+    void addError(final KeyError error) {
+        errors.add(error);
+    }
+
+    public long getDeletedCount() {
+        return deletedCount.get();
+    }
+
+    /**
+     * @return the number of keys that were sent again after a retryable error
+     */
+    public long getRetriedCount() {
+        return retriedCount.get();
+    }
+
+    public List<KeyError> getErrors() {
+        synchronized (errors) {
+            return new ArrayList<>(errors);
+        }
+    }
+
+    public boolean isSuccessful() {
+        return errors.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "BulkDeleteResult{deletedCount=" + getDeletedCount() + ", retriedCount=" + getRetriedCount()
+                + ", errors=" + errors.size() + "}";
+    }
+
+    /**
+     * A key (and version) that could not be deleted, with the error code and message reported by S3.
+     */
+    public static class KeyError {
+
+        private final String key;
+        private final String versionId;
+        private final String code;
+        private final String message;
+
+        public KeyError(String key, String versionId, String code, String message) {
+            this.key = key;
+            this.versionId = versionId;
+            this.code = code;
+            this.message = message;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public String getVersionId() {
+            return versionId;
+        }
+
+        public String getCode() {
+            return code;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        @Override
+        public String toString() {
+            return key + (versionId != null ? " (" + versionId + ")" : "") + ": " + code + " " + message;
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package com.jnj.honeur.aws.s3;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest.KeyVersion;
+import com.amazonaws.services.s3.model.MultiObjectDeleteException;
+import com.amazonaws.services.s3.model.MultiObjectDeleteException.DeleteError;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.amazonaws.services.s3.model.S3VersionSummary;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.UnmodifiableIterator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Deletes large numbers of keys with concurrent 1000-key DeleteObjects requests.
+ * Keys are consumed from a listing or key iterator while earlier batches are being deleted.
+ * Keys failing with a retryable error are sent again, the other failures end up in the per-key error report.
+ */
+public class BulkDeleter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BulkDeleter.class);
+
+    public static final int MAX_KEYS_PER_REQUEST = 1000;
+    public static final int DEFAULT_CONCURRENCY = 8;
+    public static final int DEFAULT_MAX_RETRIES = 3;
+    private static final long RETRY_BASE_DELAY_MILLIS = 200;
+
+    private static final Set<String> RETRYABLE_ERROR_CODES = ImmutableSet.of(
+            "InternalError", "ServiceUnavailable", "SlowDown", "RequestTimeout", "OperationAborted");
+
+    private final AmazonS3 s3;
+    private final int concurrency;
+    private final int maxRetries;
+    private final ExecutorService executor;
+    private final ParallelLister parallelLister;
+    private volatile Listener listener;
+
+    /**
+     * Told about each DeleteObjects request once it returned, e.g. to invalidate cached metadata of the keys.
+     */
+    public interface Listener {
+
+        /**
+         * Called on the delete threads, also when the request failed as some keys may have been deleted.
+         */
+        void requestDone(String bucketName, List<KeyVersion> keys);
+    }
+
+    public BulkDeleter(final AmazonS3 s3) {
+        this(s3, DEFAULT_CONCURRENCY, DEFAULT_MAX_RETRIES);
+    }
+
+    public BulkDeleter(final AmazonS3 s3, final int concurrency, final int maxRetries) {
+        this.s3 = s3;
+        this.concurrency = concurrency;
+        this.maxRetries = maxRetries;
+        this.executor = BulkExecutors.newExecutor("s3-bulk-delete-%d", concurrency);
+        this.parallelLister = new ParallelLister();
+    }
+
+    public void setListener(final Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Deletes all objects with the given prefix.
+     * @param includeVersions also delete all noncurrent versions and delete markers
+     */
+    public BulkDeleteResult deletePrefix(final String bucketName, final String prefix, final boolean includeVersions)
+            throws InterruptedException {
+        LOGGER.debug("Deleting " + (includeVersions ? "all versions of " : "") + "objects with prefix " + prefix + " from S3 bucket " + bucketName);
+        if (includeVersions) {
+            return deleteKeyVersions(bucketName, new KeyVersionIterator<S3VersionSummary>(new S3VersionSummaryIterator(s3, bucketName, prefix)) {
+                @Override
+                KeyVersion toKeyVersion(S3VersionSummary summary) {
+                    return new KeyVersion(summary.getKey(), summary.getVersionId());
+                }
+            });
+        }
+        try (ParallelLister.Listing listing = parallelLister.list(s3, bucketName, prefix, false)) {
+            return deleteKeyVersions(bucketName, new KeyVersionIterator<S3ObjectSummary>(listing) {
+                @Override
+                KeyVersion toKeyVersion(S3ObjectSummary summary) {
+                    return new KeyVersion(summary.getKey());
+                }
+            });
+        }
+    }
+
+    public BulkDeleteResult deleteKeys(final String bucketName, final Iterator<String> keys) throws InterruptedException {
+        return deleteKeyVersions(bucketName, new KeyVersionIterator<String>(keys) {
+            @Override
+            KeyVersion toKeyVersion(String key) {
+                return new KeyVersion(key);
+            }
+        });
+    }
+
+    /**
+     * Deletes the keys (or key versions) in batches while the iterator is being consumed.
+     * Blocks until all batches are done; an exception thrown by the iterator is rethrown after the running batches finished.
+     */
+    public BulkDeleteResult deleteKeyVersions(final String bucketName, final Iterator<KeyVersion> keyVersions) throws InterruptedException {
+        final BulkDeleteResult result = new BulkDeleteResult();
+        deleteKeyVersions(bucketName, keyVersions, result);
+        LOGGER.debug("Bulk delete from S3 bucket " + bucketName + " done: " + result);
+        return result;
+    }
+
+    /**
+     * Adds the outcome to the given result, which may be shared by concurrent calls.
+     */
+    void deleteKeyVersions(final String bucketName, final Iterator<KeyVersion> keyVersions, final BulkDeleteResult result)
+            throws InterruptedException {
+        // batch failures are recorded in the result, so the scope only fails on an unexpected error
+        try (BulkTaskScope<Void> scope = new BulkTaskScope<>(executor, concurrency)) {
+            List<KeyVersion> batch = new ArrayList<>(MAX_KEYS_PER_REQUEST);
+            while (keyVersions.hasNext()) {
+                batch.add(keyVersions.next());
+                if (batch.size() == MAX_KEYS_PER_REQUEST) {
+                    scope.fork(newBatchTask(bucketName, batch, result));
+                    batch = new ArrayList<>(MAX_KEYS_PER_REQUEST);
+                }
+            }
+            if (!batch.isEmpty()) {
+                scope.fork(newBatchTask(bucketName, batch, result));
+            }
+            scope.join();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private Callable<Void> newBatchTask(final String bucketName, final List<KeyVersion> batch, final BulkDeleteResult result) {
+        return new Callable<Void>() {
+            @Override
+            public Void call() {
+                try {
+                    deleteBatch(bucketName, batch, result);
+                } catch (RuntimeException e) {
+                    addErrors(batch, e.getClass().getSimpleName(), e.getMessage(), result);
+                } catch (InterruptedException e) {
+                    addErrors(batch, "Interrupted", e.getMessage(), result);
+                }
+                return null;
+            }
+        };
+    }
+
+    private void deleteBatch(final String bucketName, final List<KeyVersion> batch, final BulkDeleteResult result)
+            throws InterruptedException {
+        List<KeyVersion> pending = batch;
+        for (int attempt = 0; ; attempt++) {
+            if (attempt > 0) {
+                Thread.sleep(RETRY_BASE_DELAY_MILLIS << Math.min(attempt - 1, 10));
+                result.addRetried(pending.size());
+            }
+            final List<KeyVersion> sent = pending;
+            try {
+                s3.deleteObjects(new DeleteObjectsRequest(bucketName).withKeys(sent).withQuiet(true));
+                result.addDeleted(pending.size());
+                return;
+            } catch (MultiObjectDeleteException e) {
+                result.addDeleted(pending.size() - e.getErrors().size());
+                final List<KeyVersion> retry = new ArrayList<>();
+                for (DeleteError error : e.getErrors()) {
+                    if (attempt < maxRetries && RETRYABLE_ERROR_CODES.contains(error.getCode())) {
+                        retry.add(new KeyVersion(error.getKey(), error.getVersionId()));
+                    } else {
+                        result.addError(new BulkDeleteResult.KeyError(error.getKey(), error.getVersionId(), error.getCode(), error.getMessage()));
+                    }
+                }
+                if (retry.isEmpty()) {
+                    return;
+                }
+                pending = retry;
+            } catch (AmazonServiceException e) {
+                if (attempt >= maxRetries || !(e.getStatusCode() >= 500 || RETRYABLE_ERROR_CODES.contains(e.getErrorCode()))) {
+                    addErrors(pending, e.getErrorCode(), e.getErrorMessage(), result);
+                    return;
+                }
+            } catch (AmazonClientException e) {
+                if (attempt >= maxRetries || !e.isRetryable()) {
+                    addErrors(pending, "ClientError", e.getMessage(), result);
+                    return;
+                }
+            } finally {
+                final Listener current = listener;
+                if (current != null) {
+                    current.requestDone(bucketName, sent);
+                }
+            }
+        }
+    }
+
+    private static void addErrors(final List<KeyVersion> keys, final String code, final String message, final BulkDeleteResult result) {
+        for (KeyVersion key : keys) {
+            result.addError(new BulkDeleteResult.KeyError(key.getKey(), key.getVersion(), code, message));
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+        parallelLister.shutdown();
+    }
+
+    private abstract static class KeyVersionIterator<T> extends UnmodifiableIterator<KeyVersion> {
+
+        private final Iterator<T> source;
+
+        KeyVersionIterator(Iterator<T> source) {
+            this.source = source;
+        }
+
+        abstract KeyVersion toKeyVersion(T element);
+
+        @Override
+        public boolean hasNext() {
+            return source.hasNext();
+        }
+
+        @Override
+        public KeyVersion next() {
+            return toKeyVersion(source.next());
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.jnj.honeur.aws.s3;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates the executors of the bulk operations (listing, deleting, lookups, transfers).
+ * <p>
+ * By default the blocking S3 calls run on pools of daemon platform threads, so concurrency is the pool size.
+ * In virtual thread mode every task gets its own virtual thread and concurrency is capped by a semaphore that
+ * the task acquires on its virtual thread, so thousands of small requests can be in flight without thousands of
+ * OS threads. Virtual threads need a Java 21 runtime; the library is compiled for Java 7, so they are looked up
+ * by reflection and platform threads are used when they are not available.
+ * The mode applies to executors created after it is set, and in-flight caps above the maximum number of
+ * connections of the client only queue requests in the connection pool.
+ */
+public final class BulkExecutors {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BulkExecutors.class);
+
+    public static final String VIRTUAL_THREADS_PROPERTY = "honeur.s3.virtualThreads";
+
+    private static final Method OF_VIRTUAL = findMethod(Thread.class, "ofVirtual");
+    private static final Method NEW_THREAD_PER_TASK_EXECUTOR = findMethod(Executors.class, "newThreadPerTaskExecutor", ThreadFactory.class);
+
+    private static volatile boolean virtualThreads = Boolean.getBoolean(VIRTUAL_THREADS_PROPERTY) && isVirtualThreadsAvailable();
+
+    private BulkExecutors() {
+    }
+
+    public static boolean isVirtualThreadsAvailable() {
+        return OF_VIRTUAL != null && NEW_THREAD_PER_TASK_EXECUTOR != null;
+    }
+
+    public static boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * Switches new bulk executors to virtual threads, or back to platform threads.
+     * @throws UnsupportedOperationException when the runtime has no virtual threads
+     */
+    public static void setVirtualThreads(final boolean enabled) {
+        if (enabled && !isVirtualThreadsAvailable()) {
+            throw new UnsupportedOperationException("Virtual threads require Java 21 or later, running on " + System.getProperty("java.version"));
+        }
+        virtualThreads = enabled;
+    }
+
+    /**
+     * @param nameFormat thread name format, e.g. "s3-bulk-delete-%d"
+     * @param maxConcurrency maximum number of tasks running at the same time
+     */
+    public static ExecutorService newExecutor(final String nameFormat, final int maxConcurrency) {
+        if (virtualThreads) {
+            return new SemaphoreBoundedExecutor(newVirtualThreadPerTaskExecutor(nameFormat), maxConcurrency);
+        }
+        return Executors.newFixedThreadPool(maxConcurrency, newPlatformThreadFactory(nameFormat));
+    }
+
+    /**
+     * Executor without concurrency cap, for callers that bound the number of tasks themselves.
+     */
+    public static ExecutorService newUnboundedExecutor(final String nameFormat) {
+        if (virtualThreads) {
+            return newVirtualThreadPerTaskExecutor(nameFormat);
+        }
+        return Executors.newCachedThreadPool(newPlatformThreadFactory(nameFormat));
+    }
+
+    private static ThreadFactory newPlatformThreadFactory(final String nameFormat) {
+        return new ThreadFactoryBuilder().setDaemon(true).setNameFormat(nameFormat).build();
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor(final String nameFormat) {
+        try {
+            final Object builder = OF_VIRTUAL.invoke(null);
+            final Class<?> builderClass = Class.forName("java.lang.Thread$Builder$OfVirtual");
+            final Object namedBuilder = builderClass.getMethod("name", String.class, long.class)
+                    .invoke(builder, nameFormat.replace("%d", ""), 0L);
+            final ThreadFactory threadFactory = (ThreadFactory) builderClass.getMethod("factory").invoke(namedBuilder);
+            return (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(null, threadFactory);
+        } catch (ClassNotFoundException | NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+            LOGGER.warn("Could not create virtual threads, using platform threads: " + e);
+            return Executors.newCachedThreadPool(newPlatformThreadFactory(nameFormat));
+        }
+    }
+
+    private static Method findMethod(final Class<?> type, final String name, final Class<?>... parameterTypes) {
+        try {
+            return type.getMethod(name, parameterTypes);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Runs every task on its own thread of the delegate, which waits for a permit before running the task.
+     */
+    private static class SemaphoreBoundedExecutor extends AbstractExecutorService {
+
+        private final ExecutorService delegate;
+        private final Semaphore permits;
+
+        private SemaphoreBoundedExecutor(ExecutorService delegate, int maxConcurrency) {
+            this.delegate = delegate;
+            this.permits = new Semaphore(maxConcurrency);
+        }
+
+        @Override
+        public void execute(final Runnable task) {
+            delegate.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        permits.acquire();
+                    } catch (InterruptedException e) {
+                        // shut down while waiting, a task that is a future still has to complete
+                        if (task instanceof Future) {
+                            ((Future<?>) task).cancel(false);
+                        }
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    try {
+                        task.run();
+                    } finally {
+                        permits.release();
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void shutdown() {
+            delegate.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return delegate.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return delegate.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return delegate.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+            return delegate.awaitTermination(timeout, unit);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.jnj.honeur.aws.s3;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The child tasks of one bulk operation. At most {@code maxInFlight} children are outstanding:
+ * {@link #fork(Callable)} blocks until a child finishes. The first failing child cancels its siblings,
+ * and {@link #close()} cancels the children that are still running, so no child outlives the operation.
+ * A cancelled child keeps its place until its body returns, so children that ignore the interrupt still count
+ * towards the maximum and {@link #join()} waits for them.
+ */
+public class BulkTaskScope<T> implements Closeable {
+
+    private final Executor executor;
+    private final int maxInFlight;
+    private final Semaphore inFlight;
+    private final List<Future<T>> children = new LinkedList<>();
+    private volatile Throwable failure;
+
+    public BulkTaskScope(final Executor executor, final int maxInFlight) {
+        this.executor = executor;
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore(maxInFlight);
+    }
+
+    /**
+     * Starts a child task, waiting while the maximum number of children is in flight.
+     * After a child failed no new children are started and a cancelled future is returned.
+     */
+    public Future<T> fork(final Callable<T> task) throws InterruptedException {
+        inFlight.acquire();
+        // the permit is released once, by the body when it ran, otherwise when the child is done without running
+        final AtomicBoolean permitClaimed = new AtomicBoolean();
+        final FutureTask<T> child = new FutureTask<T>(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                if (!permitClaimed.compareAndSet(false, true)) {
+                    return null;
+                }
+                try {
+                    return task.call();
+                } catch (Exception | Error e) {
+                    fail(e);
+                    throw e;
+                } finally {
+                    // a cancelled child is done before its body returns, the permit is held until it really stops
+                    inFlight.release();
+                }
+            }
+        }) {
+            @Override
+            protected void done() {
+                // children cancelled before they ran
+                if (permitClaimed.compareAndSet(false, true)) {
+                    inFlight.release();
+                }
+            }
+        };
+        synchronized (children) {
+            removeDone();
+            children.add(child);
+        }
+        if (failure != null) {
+            child.cancel(false);
+            return child;
+        }
+        try {
+            executor.execute(child);
+        } catch (RejectedExecutionException e) {
+            child.cancel(false);
+            throw e;
+        }
+        return child;
+    }
+
+    /**
+     * Waits until all children are done.
+     * @throws ExecutionException with the failure of the first failing child
+     */
+    public void join() throws InterruptedException, ExecutionException {
+        try {
+            inFlight.acquire(maxInFlight);
+            inFlight.release(maxInFlight);
+        } catch (InterruptedException e) {
+            close();
+            throw e;
+        }
+        if (failure != null) {
+            throw new ExecutionException(failure);
+        }
+    }
+
+    public boolean isFailed() {
+        return failure != null;
+    }
+
+    /**
+     * Cancels the children that are not done yet.
+     */
+    @Override
+    public void close() {
+        synchronized (children) {
+            for (Future<T> child : children) {
+                child.cancel(true);
+            }
+            children.clear();
+        }
+    }
+
+    private void fail(final Throwable e) {
+        synchronized (children) {
+            if (failure != null) {
+                return;
+            }
+            failure = e;
+        }
+        close();
+    }
+
+    private void removeDone() {
+        for (Iterator<Future<T>> iterator = children.iterator(); iterator.hasNext(); ) {
+            if (iterator.next().isDone()) {
+                iterator.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.jnj.honeur.aws.s3;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.retry.PredefinedRetryPolicies;
+import com.amazonaws.retry.RetryPolicy;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Named HTTP client profiles for the Amazon S3 clients.
+ * A profile sets the connection pool size, keep-alive, connection TTL, socket buffer sizes, timeouts
+ * and retry policy of the client, and the number of TransferManager threads, as a unit.
+ */
+public enum ClientProfile {
+
+    /**
+     * The SDK defaults: 50 connections and 10 transfer threads.
+     */
+    DEFAULT("default", 10) {
+        @Override
+        public ClientConfiguration createClientConfiguration() {
+            return new ClientConfiguration();
+        }
+    },
+
+    /**
+     * Many long lived connections with large socket buffers, for parallel transfers of large objects.
+     */
+    BULK_THROUGHPUT("bulk-throughput", 64) {
+        @Override
+        public ClientConfiguration createClientConfiguration() {
+            return new ClientConfiguration()
+                    .withMaxConnections(256)
+                    .withTcpKeepAlive(true)
+                    .withConnectionTTL(5 * 60 * 1000L)
+                    .withConnectionMaxIdleMillis(60 * 1000L)
+                    .withSocketBufferSizeHints(1024 * 1024, 1024 * 1024)
+                    .withConnectionTimeout(10 * 1000)
+                    .withSocketTimeout(120 * 1000)
+                    .withThrottledRetries(true)
+                    .withRetryPolicy(retryPolicy(5, 100, 20 * 1000));
+        }
+    },
+
+    /**
+     * Short timeouts and quick retries, for small requests where a slow answer is worse than a retry.
+     */
+    LOW_LATENCY("low-latency", 32) {
+        @Override
+        public ClientConfiguration createClientConfiguration() {
+            return new ClientConfiguration()
+                    .withMaxConnections(128)
+                    .withTcpKeepAlive(true)
+                    .withConnectionTTL(60 * 1000L)
+                    .withConnectionMaxIdleMillis(30 * 1000L)
+                    .withSocketBufferSizeHints(64 * 1024, 64 * 1024)
+                    .withConnectionTimeout(2 * 1000)
+                    .withSocketTimeout(10 * 1000)
+                    .withRequestTimeout(15 * 1000)
+                    .withThrottledRetries(true)
+                    .withRetryPolicy(retryPolicy(3, 25, 1000));
+        }
+    },
+
+    /**
+     * Few connections and patient timeouts, for small machines on slow or unreliable links.
+     */
+    CONSTRAINED_EDGE("constrained-edge", 4) {
+        @Override
+        public ClientConfiguration createClientConfiguration() {
+            return new ClientConfiguration()
+                    .withMaxConnections(16)
+                    .withTcpKeepAlive(true)
+                    .withConnectionTTL(2 * 60 * 1000L)
+                    .withConnectionMaxIdleMillis(20 * 1000L)
+                    .withSocketBufferSizeHints(128 * 1024, 128 * 1024)
+                    .withConnectionTimeout(20 * 1000)
+                    .withSocketTimeout(300 * 1000)
+                    .withThrottledRetries(true)
+                    .withRetryPolicy(retryPolicy(8, 500, 60 * 1000));
+        }
+    };
+
+    private final String profileName;
+    private final int transferThreads;
+
+    ClientProfile(final String profileName, final int transferThreads) {
+        this.profileName = profileName;
+        this.transferThreads = transferThreads;
+    }
+
+    /**
+     * @return a new client configuration with the settings of this profile
+     */
+    public abstract ClientConfiguration createClientConfiguration();
+
+    public String getProfileName() {
+        return profileName;
+    }
+
+    /**
+     * @return the number of threads of the TransferManager used with clients of this profile
+     */
+    public int getTransferThreads() {
+        return transferThreads;
+    }
+
+    public static ClientProfile fromName(final String profileName) {
+        for (ClientProfile profile : values()) {
+            if (profile.profileName.equalsIgnoreCase(profileName) || profile.name().equalsIgnoreCase(profileName)) {
+                return profile;
+            }
+        }
+        throw new IllegalArgumentException("Unknown client profile: " + profileName);
+    }
+
+    private static RetryPolicy retryPolicy(final int maxRetries, final long baseDelayMillis, final long maxDelayMillis) {
+        return new RetryPolicy(PredefinedRetryPolicies.DEFAULT_RETRY_CONDITION,
+                new JitteredBackoffStrategy(baseDelayMillis, maxDelayMillis), maxRetries, false);
+    }
+
+    @Override
+    public String toString() {
+        return profileName;
+    }
+
+    /**
+     * Exponential backoff with full jitter.
+     */
+    private static class JitteredBackoffStrategy implements RetryPolicy.BackoffStrategy {
+
+        private final long baseDelayMillis;
+        private final long maxDelayMillis;
+
+        private JitteredBackoffStrategy(final long baseDelayMillis, final long maxDelayMillis) {
+            this.baseDelayMillis = baseDelayMillis;
+            this.maxDelayMillis = maxDelayMillis;
+        }
+
+        @Override
+        public long delayBeforeNextRetry(final AmazonWebServiceRequest originalRequest,
+                                         final AmazonClientException exception, final int retriesAttempted) {
+            final long ceiling = Math.min(maxDelayMillis, baseDelayMillis << Math.min(retriesAttempted, 20));
+            return ThreadLocalRandom.current().nextLong(ceiling + 1);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.jnj.honeur.aws.s3;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.io.BaseEncoding;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Computes the ETag S3 gives a local file: the MD5 of the content for a single part upload, and the MD5 of the
+ * concatenated part MD5s followed by "-" and the part count for a multipart upload.
+ * The part size of a multipart ETag is not stored by S3, so it is matched against the part sizes of the uploaders
+ * that may have written the object. Computed ETags are cached by path, length, modification time and part size.
+ */
+public class ContentETags {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ContentETags.class);
+
+    private static final long MIB = 1024 * 1024;
+    /** TransferManager minimum part size, AWS CLI default chunk size, MappedFileUploader default part size */
+    public static final long[] DEFAULT_PART_SIZES = {5 * MIB, 8 * MIB, MappedFileUploader.DEFAULT_PART_SIZE};
+    private static final int MAX_PARTS = 10000;
+    private static final int READ_BUFFER_SIZE = 1024 * 1024;
+
+    private final long[] partSizes;
+    private final DirectBufferPool bufferPool;
+    private final Cache<String, String> cache = CacheBuilder.newBuilder().maximumSize(10000).build();
+
+    public ContentETags() {
+        this(DirectBufferPool.getDefault(), DEFAULT_PART_SIZES);
+    }
+
+    /**
+     * @param partSizes part sizes of the multipart uploads to recognize
+     */
+    public ContentETags(final DirectBufferPool bufferPool, final long... partSizes) {
+        this.bufferPool = bufferPool;
+        this.partSizes = Arrays.copyOf(partSizes, partSizes.length);
+    }
+
+    /**
+     * @param remoteETag ETag of the S3 object, with or without quotes
+     * @param remoteSize content length of the S3 object
+     * @return true when the file has the same content as the S3 object
+     */
+    public boolean matches(final File file, final String remoteETag, final long remoteSize) throws IOException {
+        if (remoteETag == null || file.length() != remoteSize) {
+            return false;
+        }
+        final String eTag = unquote(remoteETag);
+        final int parts = getPartCount(eTag);
+        if (parts == 0) {
+            return eTag.equalsIgnoreCase(getETag(file, 0));
+        }
+        for (long partSize : getCandidatePartSizes(remoteSize, parts)) {
+            if (eTag.equalsIgnoreCase(getETag(file, partSize))) {
+                return true;
+            }
+        }
+        // e.g. an unknown part size, or an ETag of an encrypted object that is no MD5
+        return false;
+    }
+
+    /**
+     * @param partSize part size of a multipart upload, 0 for the ETag of a single part upload
+     */
+    public String getETag(final File file, final long partSize) throws IOException {
+        final String cacheKey = file.getAbsolutePath() + ':' + file.length() + ':' + file.lastModified() + ':' + partSize;
+        String eTag = cache.getIfPresent(cacheKey);
+        if (eTag == null) {
+            eTag = computeETag(file, partSize);
+            cache.put(cacheKey, eTag);
+        }
+        return eTag;
+    }
+
+    private String computeETag(final File file, final long partSize) throws IOException {
+        final long start = System.nanoTime();
+        final MessageDigest fileDigest = newMd5();
+        final MessageDigest partDigest = newMd5();
+        int parts = 0;
+        ByteBuffer buffer = null;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            buffer = bufferPool.acquire(READ_BUFFER_SIZE);
+            final long length = channel.size();
+            long partRemaining = partSize > 0 ? partSize : Long.MAX_VALUE;
+            for (long position = 0; position < length; ) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), partRemaining));
+                final int read = channel.read(buffer, position);
+                if (read < 0) {
+                    break;
+                }
+                buffer.flip();
+                (partSize > 0 ? partDigest : fileDigest).update(buffer);
+                position += read;
+                partRemaining -= read;
+                if (partSize > 0 && (partRemaining == 0 || position == length)) {
+                    fileDigest.update(partDigest.digest());
+                    parts++;
+                    partRemaining = partSize;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a read buffer");
+        } finally {
+            bufferPool.release(buffer);
+        }
+        final String eTag = BaseEncoding.base16().lowerCase().encode(fileDigest.digest()) + (partSize > 0 ? "-" + parts : "");
+        LOGGER.debug("Computed ETag " + eTag + " of " + file + " in " + (System.nanoTime() - start) / 1000000 + " ms");
+        return eTag;
+    }
+
+    /**
+     * @return the part sizes that split a file of the given length in the given number of parts
+     */
+    Set<Long> getCandidatePartSizes(final long length, final int parts) {
+        final Set<Long> candidates = new LinkedHashSet<>();
+        for (long partSize : partSizes) {
+            // uploaders grow the part size to stay within the part limit
+            final long actual = Math.max(partSize, (length + MAX_PARTS - 1) / MAX_PARTS);
+            if ((length + actual - 1) / actual == parts) {
+                candidates.add(actual);
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * @return the number of parts of a multipart ETag, 0 for a single part ETag
+     */
+    static int getPartCount(final String eTag) {
+        final int dash = eTag.lastIndexOf('-');
+        if (dash < 0) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(eTag.substring(dash + 1));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static String unquote(final String eTag) {
+        return eTag.length() > 1 && eTag.startsWith("\"") && eTag.endsWith("\"") ? eTag.substring(1, eTag.length() - 1) : eTag;
+    }
+
+    private static MessageDigest newMd5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 not available", e);
+        }
+    }
+}
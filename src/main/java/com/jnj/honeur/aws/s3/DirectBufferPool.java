@@ -0,0 +1,253 @@
+package com.jnj.honeur.aws.s3;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Shared pool of direct ByteBuffers in power of four size classes (16 KiB up to 16 MiB).
+ * The total number of bytes allocated by the pool is capped: when the cap is reached idle buffers of other
+ * size classes are dropped, and when that is not enough {@link #acquire(int)} waits until buffers are released.
+ * The pool keeps track of the buffers it handed out, releasing a buffer twice or one it did not hand out fails.
+ */
+public class DirectBufferPool {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DirectBufferPool.class);
+
+    public static final int MIN_BUFFER_SIZE = 16 * 1024;
+    public static final int MAX_BUFFER_SIZE = 16 * 1024 * 1024;
+    public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+    public static final String MAX_BYTES_PROPERTY = "honeur.s3.bufferPool.maxBytes";
+
+    private static final int SIZE_CLASSES = 1 + Integer.numberOfTrailingZeros(MAX_BUFFER_SIZE / MIN_BUFFER_SIZE) / 2;
+
+    private static DirectBufferPool defaultPool;
+
+    private final long maxBytes;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    private final List<ArrayDeque<ByteBuffer>> freeBuffers;
+    private final Set<ByteBuffer> acquiredBuffers = Collections.newSetFromMap(new IdentityHashMap<ByteBuffer, Boolean>());
+    private long allocatedBytes;
+    private long idleBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong waits = new AtomicLong();
+
+    public DirectBufferPool(final long maxBytes) {
+        if (maxBytes < MAX_BUFFER_SIZE) {
+            throw new IllegalArgumentException("The pool must be able to hold at least one buffer of " + MAX_BUFFER_SIZE + " bytes");
+        }
+        this.maxBytes = maxBytes;
+        this.freeBuffers = new ArrayList<>(SIZE_CLASSES);
+        for (int i = 0; i < SIZE_CLASSES; i++) {
+            freeBuffers.add(new ArrayDeque<ByteBuffer>());
+        }
+    }
+
+    /**
+     * @return the JVM wide pool, capped by the {@value #MAX_BYTES_PROPERTY} system property
+     */
+    public static synchronized DirectBufferPool getDefault() {
+        if (defaultPool == null) {
+            defaultPool = new DirectBufferPool(Long.getLong(MAX_BYTES_PROPERTY, DEFAULT_MAX_BYTES));
+        }
+        return defaultPool;
+    }
+
+    /**
+     * @return the buffer size of the size class serving requests of the given number of bytes
+     */
+    public static int getBufferSize(final int size) {
+        return MIN_BUFFER_SIZE << (2 * sizeClass(size));
+    }
+
+    private static int sizeClass(final int size) {
+        if (size > MAX_BUFFER_SIZE) {
+            throw new IllegalArgumentException("Buffers are limited to " + MAX_BUFFER_SIZE + " bytes, requested " + size);
+        }
+        int sizeClass = 0;
+        while ((MIN_BUFFER_SIZE << (2 * sizeClass)) < size) {
+            sizeClass++;
+        }
+        return sizeClass;
+    }
+
+    /**
+     * Takes a cleared buffer with a capacity of at least the given size, waiting while the pool is exhausted.
+     */
+    public ByteBuffer acquire(final int size) throws InterruptedException {
+        return acquire(size, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return a cleared buffer with a capacity of at least the given size, or null when none became available in time
+     */
+    public ByteBuffer acquire(final int size, final long timeout, final TimeUnit unit) throws InterruptedException {
+        final int sizeClass = sizeClass(size);
+        final int bufferSize = MIN_BUFFER_SIZE << (2 * sizeClass);
+        long remainingNanos = unit.toNanos(timeout);
+        boolean waited = false;
+        lock.lockInterruptibly();
+        try {
+            while (true) {
+                final ByteBuffer pooled = freeBuffers.get(sizeClass).pollFirst();
+                if (pooled != null) {
+                    idleBytes -= bufferSize;
+                    hits.incrementAndGet();
+                    acquiredBuffers.add(pooled);
+                    return pooled;
+                }
+                if (allocatedBytes + bufferSize > maxBytes) {
+                    dropIdleBuffers(allocatedBytes + bufferSize - maxBytes);
+                }
+                if (allocatedBytes + bufferSize <= maxBytes) {
+                    allocatedBytes += bufferSize;
+                    misses.incrementAndGet();
+                    final ByteBuffer allocated = ByteBuffer.allocateDirect(bufferSize);
+                    acquiredBuffers.add(allocated);
+                    return allocated;
+                }
+                if (!waited) {
+                    waits.incrementAndGet();
+                    waited = true;
+                    LOGGER.debug("Buffer pool exhausted (" + allocatedBytes + " bytes allocated), waiting for a release");
+                }
+                if (remainingNanos <= 0) {
+                    return null;
+                }
+                remainingNanos = released.awaitNanos(remainingNanos);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void dropIdleBuffers(final long bytesNeeded) {
+        long dropped = 0;
+        for (int i = SIZE_CLASSES - 1; i >= 0 && dropped < bytesNeeded; i--) {
+            final int bufferSize = MIN_BUFFER_SIZE << (2 * i);
+            while (dropped < bytesNeeded && freeBuffers.get(i).pollFirst() != null) {
+                dropped += bufferSize;
+            }
+        }
+        // Dropped direct buffers are reclaimed by the garbage collector
+        allocatedBytes -= dropped;
+        idleBytes -= dropped;
+    }
+
+    /**
+     * Returns a buffer obtained from {@link #acquire(int)} to the pool.
+     * @throws IllegalArgumentException when the buffer is not out of this pool, e.g. it was released already
+     */
+    public void release(final ByteBuffer buffer) {
+        if (buffer == null) {
+            return;
+        }
+        lock.lock();
+        try {
+            if (!acquiredBuffers.remove(buffer)) {
+                throw new IllegalArgumentException("Buffer was not acquired from this pool or was released already");
+            }
+            buffer.clear();
+            freeBuffers.get(sizeClass(buffer.capacity())).addFirst(buffer);
+            idleBytes += buffer.capacity();
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Copies the stream to the channel through a pooled buffer.
+     * @return the number of bytes copied
+     */
+    public long copy(final InputStream in, final WritableByteChannel out, final int bufferSize) throws IOException {
+        final ByteBuffer buffer;
+        try {
+            buffer = acquire(bufferSize);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a transfer buffer", e);
+        }
+        try {
+            final ReadableByteChannel source = Channels.newChannel(in);
+            long count = 0;
+            while (source.read(buffer) >= 0 || buffer.position() > 0) {
+                buffer.flip();
+                count += out.write(buffer);
+                buffer.compact();
+            }
+            return count;
+        } finally {
+            release(buffer);
+        }
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public long getAllocatedBytes() {
+        lock.lock();
+        try {
+            return allocatedBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getInUseBytes() {
+        lock.lock();
+        try {
+            return allocatedBytes - idleBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of acquires served by an idle pooled buffer
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of acquires that allocated a new buffer
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of acquires that had to wait for a buffer to be released
+     */
+    public long getWaits() {
+        return waits.get();
+    }
+
+    @Override
+    public String toString() {
+        return "DirectBufferPool{maxBytes=" + maxBytes + ", allocatedBytes=" + getAllocatedBytes()
+                + ", inUseBytes=" + getInUseBytes() + ", hits=" + getHits() + ", misses=" + getMisses()
+                + ", waits=" + getWaits() + "}";
+    }
+}
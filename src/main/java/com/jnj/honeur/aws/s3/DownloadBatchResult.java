@@ -0,0 +1,51 @@
+package com.jnj.honeur.aws.s3;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Outcome of a prefix download: the downloaded keys with their total size, and the failure per key that could
+ * not be downloaded.
+ */
+public class DownloadBatchResult {
+
+    private final List<String> downloadedKeys = new ArrayList<>();
+    private final Map<String, Exception> failures = new LinkedHashMap<>();
+    private long downloadedBytes;
+
+    synchronized void addDownloaded(final String key, final long size) {
+        downloadedKeys.add(key);
+        downloadedBytes += size;
+    }
+
+    synchronized void addFailure(final String key, final Exception failure) {
+        if (!failures.containsKey(key)) {
+            failures.put(key, failure);
+        }
+    }
+
+    public synchronized List<String> getDownloadedKeys() {
+        return Collections.unmodifiableList(new ArrayList<>(downloadedKeys));
+    }
+
+    public synchronized long getDownloadedBytes() {
+        return downloadedBytes;
+    }
+
+    public synchronized Map<String, Exception> getFailures() {
+        return Collections.unmodifiableMap(new LinkedHashMap<>(failures));
+    }
+
+    public synchronized boolean isSuccessful() {
+        return failures.isEmpty();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "DownloadBatchResult{downloaded=" + downloadedKeys.size() + ", bytes=" + downloadedBytes
+                + ", failed=" + failures.size() + "}";
+    }
+}
@@ -0,0 +1,879 @@
+package com.jnj.honeur.aws.s3;
+
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.s3.Headers;
+import com.amazonaws.services.s3.internal.Mimetypes;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.Bucket;
+import com.amazonaws.services.s3.model.CopyObjectRequest;
+import com.amazonaws.services.s3.model.CopyObjectResult;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest.KeyVersion;
+import com.amazonaws.services.s3.model.DeleteObjectsResult;
+import com.amazonaws.services.s3.model.DeleteObjectsResult.DeletedObject;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.ListVersionsRequest;
+import com.amazonaws.services.s3.model.MultiObjectDeleteException;
+import com.amazonaws.services.s3.model.MultiObjectDeleteException.DeleteError;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectInputStream;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.amazonaws.services.s3.model.S3VersionSummary;
+import com.amazonaws.services.s3.model.VersionListing;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteStreams;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.UserDefinedFileAttributeView;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Storage backend on a local or shared (NFS) file system, for sites without S3 and for tests without network.
+ * A bucket is a directory under the root and a key is a file path relative to the bucket directory, so keys
+ * ending with "/" (folder markers) and keys with empty, "." or ".." segments are rejected.
+ * <p>
+ * Puts are written to a staging directory under the root and renamed into place, so readers never see a partial
+ * object. Gets to a file and copies use {@link FileChannel#transferTo}. The ETag is the MD5 of the content, like
+ * the ETag of a single part S3 upload; it is stored in a user attribute of the file, or computed and cached when
+ * the file system has no user attributes or the file was written by another tool.
+ * <p>
+ * Listings walk the directories in S3 key order: the entries of a directory are sorted with "/" appended to the
+ * names of sub-directories. The sorted entries are cached until the modification or status change time of the
+ * directory changes, and for at most {@link #DIRECTORY_CACHE_SECONDS} as NFS clients cache these times, so paging
+ * through a directory with millions of files lists it once and seeks each page with a binary search.
+ * Only content, size, modification time and ETag are stored, other metadata and versions are not.
+ */
+public class FileSystemStorageBackend implements StorageBackend {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileSystemStorageBackend.class);
+
+    /** Root directory of the buckets, makes the default {@link AmazonS3Service} use the file system */
+    public static final String ROOT_PROPERTY = "honeur.s3.fileSystemRoot";
+    public static final long DEFAULT_CACHED_ENTRIES = 4000000;
+    public static final long DIRECTORY_CACHE_SECONDS = 30;
+
+    private static final String STAGING_DIRECTORY = ".staging";
+    private static final String ETAG_ATTRIBUTE = "honeur.etag";
+    private static final String DIRECTORY_SUFFIX = "/";
+    private static final int TRANSFER_BUFFER_SIZE = 256 * 1024;
+    private static final int DEFAULT_MAX_KEYS = 1000;
+    private static final int MOVE_ATTEMPTS = 3;
+    private static final String[] NO_ENTRIES = new String[0];
+
+    private final Path root;
+    private final Path stagingDirectory;
+    private final DirectBufferPool bufferPool;
+    private final ContentETags contentETags;
+    private final Cache<Path, DirectoryEntries> directories;
+    private volatile boolean userAttributesSupported = true;
+    private volatile boolean unixAttributesSupported = true;
+
+    public FileSystemStorageBackend(final File root) {
+        this(root, DirectBufferPool.getDefault(), DEFAULT_CACHED_ENTRIES);
+    }
+
+    /**
+     * @param cachedEntries maximum number of directory entries kept sorted in memory
+     */
+    public FileSystemStorageBackend(final File root, final DirectBufferPool bufferPool, final long cachedEntries) {
+        this.root = root.toPath().toAbsolutePath();
+        this.stagingDirectory = this.root.resolve(STAGING_DIRECTORY);
+        this.bufferPool = bufferPool;
+        this.contentETags = new ContentETags(bufferPool, ContentETags.DEFAULT_PART_SIZES);
+        // one segment, the weight limit is split over the segments and would evict large directories at once
+        this.directories = CacheBuilder.newBuilder()
+                .concurrencyLevel(1)
+                .maximumWeight(cachedEntries)
+                .expireAfterWrite(DIRECTORY_CACHE_SECONDS, TimeUnit.SECONDS)
+                .recordStats()
+                .weigher(new Weigher<Path, DirectoryEntries>() {
+                    @Override
+                    public int weigh(Path directory, DirectoryEntries entries) {
+                        return entries.names.length + 1;
+                    }
+                })
+                .build();
+        try {
+            Files.createDirectories(stagingDirectory);
+        } catch (IOException e) {
+            throw new SdkClientException("Unable to create the staging directory " + stagingDirectory, e);
+        }
+    }
+
+    public File getRoot() {
+        return root.toFile();
+    }
+
+    @Override
+    public List<Bucket> listBuckets() {
+        final List<Bucket> buckets = new ArrayList<>();
+        for (String name : getEntries(root)) {
+            if (name.endsWith(DIRECTORY_SUFFIX) && !name.startsWith(".")) {
+                final String bucketName = name.substring(0, name.length() - 1);
+                final Bucket bucket = new Bucket(bucketName);
+                bucket.setCreationDate(getCreationDate(root.resolve(bucketName)));
+                buckets.add(bucket);
+            }
+        }
+        return buckets;
+    }
+
+    @Override
+    public boolean doesBucketExist(final String bucketName) {
+        return Files.isDirectory(resolveBucket(bucketName));
+    }
+
+    @Override
+    public Bucket createBucket(final String bucketName, final String region) {
+        final Path bucketDirectory = resolveBucket(bucketName);
+        try {
+            Files.createDirectories(bucketDirectory);
+        } catch (IOException e) {
+            throw new SdkClientException("Unable to create bucket directory " + bucketDirectory, e);
+        }
+        directories.invalidate(root);
+        final Bucket bucket = new Bucket(bucketName);
+        bucket.setCreationDate(getCreationDate(bucketDirectory));
+        return bucket;
+    }
+
+    @Override
+    public void deleteBucket(final String bucketName) {
+        final Path bucketDirectory = getBucketDirectory(bucketName);
+        if (!listObjectsV2(new ListObjectsV2Request().withBucketName(bucketName).withMaxKeys(1)).getObjectSummaries().isEmpty()) {
+            throw newException(409, "BucketNotEmpty", "The bucket you tried to delete is not empty");
+        }
+        try {
+            deleteEmptyDirectories(bucketDirectory);
+        } catch (IOException e) {
+            throw new SdkClientException("Unable to delete bucket directory " + bucketDirectory, e);
+        }
+        directories.invalidateAll();
+    }
+
+    @Override
+    public ObjectMetadata getObjectMetadata(final String bucketName, final String keyName) {
+        final Path file = getObjectFile(bucketName, keyName);
+        try {
+            final BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            return newMetadata(file, keyName, attributes.size(), attributes);
+        } catch (NoSuchFileException e) {
+            throw newNoSuchKey(keyName);
+        } catch (IOException e) {
+            throw new SdkClientException("Unable to read attributes of " + file, e);
+        }
+    }
+
+    @Override
+    public S3Object getObject(final GetObjectRequest request) {
+        final Path file = getObjectFile(request.getBucketName(), request.getKey());
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+            final BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            final long[] range = getRange(request, channel.size());
+            channel.position(range[0]);
+            final long length = range[1] - range[0] + 1;
+            final ObjectMetadata metadata = newMetadata(file, request.getKey(), length, attributes);
+            if (request.getRange() != null) {
+                metadata.setHeader(Headers.CONTENT_RANGE, "bytes " + range[0] + "-" + range[1] + "/" + channel.size());
+            }
+            final S3Object object = new S3Object();
+            object.setBucketName(request.getBucketName());
+            object.setKey(request.getKey());
+            object.setObjectMetadata(metadata);
+            object.setObjectContent(new S3ObjectInputStream(ByteStreams.limit(Channels.newInputStream(channel), length), null));
+            return object;
+        } catch (NoSuchFileException e) {
+            throw newNoSuchKey(request.getKey());
+        } catch (IOException | RuntimeException e) {
+            closeQuietly(channel);
+            if (e instanceof RuntimeException) {
+                throw (RuntimeException) e;
+            }
+            throw new SdkClientException("Unable to read " + file, e);
+        }
+    }
+
+    @Override
+    public ObjectMetadata getObject(final GetObjectRequest request, final File destination) {
+        final Path file = getObjectFile(request.getBucketName(), request.getKey());
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(destination.toPath(), StandardOpenOption.WRITE,
+                     StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            final BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            final long[] range = getRange(request, in.size());
+            transfer(in, range[0], range[1] - range[0] + 1, out);
+            return newMetadata(file, request.getKey(), range[1] - range[0] + 1, attributes);
+        } catch (NoSuchFileException e) {
+            if (!Files.exists(file)) {
+                throw newNoSuchKey(request.getKey());
+            }
+            throw new SdkClientException("Unable to write " + destination, e);
+        } catch (IOException e) {
+            throw new SdkClientException("Unable to copy " + file + " to " + destination, e);
+        }
+    }
+
+    @Override
+    public PutObjectResult putObject(final PutObjectRequest request) {
+        getBucketDirectory(request.getBucketName());
+        final Path target = resolveKey(request.getBucketName(), request.getKey());
+        Path staging = null;
+        try {
+            staging = Files.createTempFile(stagingDirectory, "put-", ".tmp");
+            final MessageDigest md5 = newMd5();
+            try (InputStream in = new DigestInputStream(openContent(request), md5);
+                 FileChannel out = FileChannel.open(staging, StandardOpenOption.WRITE)) {
+                bufferPool.copy(in, out, TRANSFER_BUFFER_SIZE);
+            }
+            final String eTag = BaseEncoding.base16().lowerCase().encode(md5.digest());
+            writeETag(staging, eTag);
+            moveIntoPlace(staging, target, request.getBucketName());
+            final PutObjectResult result = new PutObjectResult();
+            result.setETag(eTag);
+            return result;
+        } catch (IOException e) {
+            throw new SdkClientException("Unable to write " + target, e);
+        } finally {
+            deleteQuietly(staging);
+        }
+    }
+
+    @Override
+    public CopyObjectResult copyObject(final CopyObjectRequest request) {
+        final Path source = getObjectFile(request.getSourceBucketName(), request.getSourceKey());
+        getBucketDirectory(request.getDestinationBucketName());
+        final Path target = resolveKey(request.getDestinationBucketName(), request.getDestinationKey());
+        Path staging = null;
+        try {
+            staging = Files.createTempFile(stagingDirectory, "copy-", ".tmp");
+            final String eTag;
+            try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+                 FileChannel out = FileChannel.open(staging, StandardOpenOption.WRITE)) {
+                eTag = getETag(source);
+                transfer(in, 0, in.size(), out);
+            }
+            writeETag(staging, eTag);
+            moveIntoPlace(staging, target, request.getDestinationBucketName());
+            final CopyObjectResult result = new CopyObjectResult();
+            result.setETag(eTag);
+            result.setLastModifiedDate(new Date(Files.getLastModifiedTime(target).toMillis()));
+            return result;
+        } catch (NoSuchFileException e) {
+            if (!Files.exists(source)) {
+                throw newNoSuchKey(request.getSourceKey());
+            }
+            throw new SdkClientException("Unable to copy " + source + " to " + target, e);
+        } catch (IOException e) {
+            throw new SdkClientException("Unable to copy " + source + " to " + target, e);
+        } finally {
+            deleteQuietly(staging);
+        }
+    }
+
+    @Override
+    public ListObjectsV2Result listObjectsV2(final ListObjectsV2Request request) {
+        final String after = request.getContinuationToken() != null ? request.getContinuationToken() : request.getStartAfter();
+        final Page page = list(request.getBucketName(), request.getPrefix(), request.getDelimiter(), after,
+                request.getMaxKeys() == null ? DEFAULT_MAX_KEYS : request.getMaxKeys());
+        final ListObjectsV2Result result = new ListObjectsV2Result();
+        result.setBucketName(request.getBucketName());
+        result.setPrefix(request.getPrefix());
+        result.setDelimiter(request.getDelimiter());
+        result.setMaxKeys(page.maxKeys);
+        result.setStartAfter(request.getStartAfter());
+        result.setContinuationToken(request.getContinuationToken());
+        for (Path file : page.files) {
+            result.getObjectSummaries().add(newSummary(request.getBucketName(), file));
+        }
+        result.setCommonPrefixes(page.commonPrefixes);
+        result.setKeyCount(page.files.size() + page.commonPrefixes.size());
+        result.setTruncated(page.truncated);
+        if (page.truncated) {
+            result.setNextContinuationToken(page.last);
+        }
+        return result;
+    }
+
+    @Override
+    public VersionListing listVersions(final ListVersionsRequest request) {
+        final Page page = list(request.getBucketName(), request.getPrefix(), request.getDelimiter(), request.getKeyMarker(),
+                request.getMaxResults() == null ? DEFAULT_MAX_KEYS : request.getMaxResults());
+        final VersionListing listing = new VersionListing();
+        listing.setBucketName(request.getBucketName());
+        listing.setPrefix(request.getPrefix());
+        listing.setDelimiter(request.getDelimiter());
+        listing.setKeyMarker(request.getKeyMarker());
+        listing.setMaxKeys(page.maxKeys);
+        final List<S3VersionSummary> versions = new ArrayList<>(page.files.size());
+        for (Path file : page.files) {
+            final S3ObjectSummary summary = newSummary(request.getBucketName(), file);
+            final S3VersionSummary version = new S3VersionSummary();
+            version.setBucketName(summary.getBucketName());
+            version.setKey(summary.getKey());
+            version.setVersionId("null");
+            version.setIsLatest(true);
+            version.setSize(summary.getSize());
+            version.setLastModified(summary.getLastModified());
+            version.setETag(summary.getETag());
+            version.setStorageClass(summary.getStorageClass());
+            versions.add(version);
+        }
+        listing.setVersionSummaries(versions);
+        listing.setCommonPrefixes(page.commonPrefixes);
+        listing.setTruncated(page.truncated);
+        if (page.truncated) {
+            listing.setNextKeyMarker(page.last);
+            listing.setNextVersionIdMarker("null");
+        }
+        return listing;
+    }
+
+    @Override
+    public void deleteObject(final String bucketName, final String keyName) {
+        final Path bucketDirectory = getBucketDirectory(bucketName);
+        final Path file = resolveKey(bucketName, keyName);
+        try {
+            // like S3, deleting a missing key succeeds
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            throw new SdkClientException("Unable to delete " + file, e);
+        }
+        // empty directories would show up as common prefixes
+        for (Path directory = file.getParent(); !directory.equals(bucketDirectory); directory = directory.getParent()) {
+            directories.invalidate(directory);
+            try {
+                Files.delete(directory);
+            } catch (DirectoryNotEmptyException | NoSuchFileException e) {
+                break;
+            } catch (IOException e) {
+                LOGGER.warn("Could not delete empty directory " + directory + ": " + e.getMessage());
+                break;
+            }
+        }
+        directories.invalidate(bucketDirectory);
+    }
+
+    @Override
+    public DeleteObjectsResult deleteObjects(final DeleteObjectsRequest request) {
+        final List<DeletedObject> deleted = new ArrayList<>();
+        final List<DeleteError> errors = new ArrayList<>();
+        for (KeyVersion keyVersion : request.getKeys()) {
+            try {
+                deleteObject(request.getBucketName(), keyVersion.getKey());
+                if (!request.getQuiet()) {
+                    final DeletedObject deletedObject = new DeletedObject();
+                    deletedObject.setKey(keyVersion.getKey());
+                    deletedObject.setVersionId(keyVersion.getVersion());
+                    deleted.add(deletedObject);
+                }
+            } catch (AmazonS3Exception e) {
+                errors.add(newDeleteError(keyVersion, e.getErrorCode(), e.getErrorMessage()));
+            } catch (SdkClientException e) {
+                errors.add(newDeleteError(keyVersion, "InternalError", e.getMessage()));
+            }
+        }
+        if (!errors.isEmpty()) {
+            throw new MultiObjectDeleteException(errors, deleted);
+        }
+        return new DeleteObjectsResult(deleted);
+    }
+
+    private Page list(final String bucketName, final String prefix, final String delimiter, final String after, final int maxKeys) {
+        final Path bucketDirectory = getBucketDirectory(bucketName);
+        final String keyPrefix = prefix == null ? "" : prefix;
+        final Page page = new Page(keyPrefix, delimiter == null || delimiter.isEmpty() ? null : delimiter, after, maxKeys);
+        final String directoryKey = keyPrefix.substring(0, keyPrefix.lastIndexOf('/') + 1);
+        final Path directory = directoryKey.isEmpty() ? bucketDirectory : resolveKey(bucketName, directoryKey.substring(0, directoryKey.length() - 1));
+        if (maxKeys > 0) {
+            walk(directory, directoryKey, keyPrefix.substring(directoryKey.length()), page);
+        }
+        return page;
+    }
+
+    /**
+     * Adds the files and common prefixes below the directory to the page, in key order.
+     * @return false when the page is full
+     */
+    private boolean walk(final Path directory, final String directoryKey, final String namePrefix, final Page page) {
+        final String[] entries = getEntries(directory);
+        int index = Arrays.binarySearch(entries, getFirstName(directoryKey, namePrefix, page.after), ParallelLister.KEY_ORDER);
+        for (index = index < 0 ? -index - 1 : index; index < entries.length; index++) {
+            final String name = entries[index];
+            if (!name.startsWith(namePrefix)) {
+                break;
+            }
+            final String key = directoryKey + name;
+            final String commonPrefix = page.getCommonPrefix(key);
+            if (commonPrefix != null) {
+                // all keys of this file or directory fall under the common prefix
+                if (!page.addCommonPrefix(commonPrefix)) {
+                    return false;
+                }
+            } else if (name.endsWith(DIRECTORY_SUFFIX)) {
+                if (!page.isBefore(key) && !walk(directory.resolve(name.substring(0, name.length() - 1)), key, "", page)) {
+                    return false;
+                }
+            } else if (page.isAfter(key) && !page.addFile(key, directory.resolve(name))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the name to seek to in a directory: entries sorting before it have no keys after the start key
+     */
+    private static String getFirstName(final String directoryKey, final String namePrefix, final String after) {
+        if (after == null || !after.startsWith(directoryKey)) {
+            return namePrefix;
+        }
+        String name = after.substring(directoryKey.length());
+        final int separator = name.indexOf('/');
+        if (separator >= 0) {
+            // the sub-directory holding the start key
+            name = name.substring(0, separator + 1);
+        }
+        return ParallelLister.compareKeys(name, namePrefix) > 0 ? name : namePrefix;
+    }
+
+    /**
+     * @return the sorted entries of the directory, sub-directories with a "/" suffix
+     */
+    private String[] getEntries(final Path directory) {
+        final List<FileTime> modified;
+        try {
+            modified = getChangeTimes(directory);
+        } catch (NoSuchFileException e) {
+            return NO_ENTRIES;
+        } catch (IOException e) {
+            throw new SdkClientException("Unable to read directory " + directory, e);
+        }
+        final DirectoryEntries cached = directories.getIfPresent(directory);
+        if (cached != null && cached.modified.equals(modified)) {
+            return cached.names;
+        }
+        final List<String> names = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path entry : stream) {
+                final BasicFileAttributes attributes;
+                try {
+                    attributes = Files.readAttributes(entry, BasicFileAttributes.class);
+                } catch (NoSuchFileException e) {
+                    continue;
+                }
+                if (attributes.isDirectory()) {
+                    names.add(entry.getFileName() + DIRECTORY_SUFFIX);
+                } else if (attributes.isRegularFile()) {
+                    names.add(entry.getFileName().toString());
+                }
+            }
+        } catch (NoSuchFileException e) {
+            return NO_ENTRIES;
+        } catch (IOException e) {
+            throw new SdkClientException("Unable to list directory " + directory, e);
+        }
+        final String[] sorted = names.toArray(new String[names.size()]);
+        Arrays.sort(sorted, ParallelLister.KEY_ORDER);
+        directories.put(directory, new DirectoryEntries(modified, sorted));
+        if (sorted.length > 100000) {
+            LOGGER.debug("Listed " + sorted.length + " entries of directory " + directory);
+        }
+        return sorted;
+    }
+
+    /**
+     * @return the modification time of the directory, and the status change time where the file system has one:
+     * it also moves when the modification time is set back
+     */
+    private List<FileTime> getChangeTimes(final Path directory) throws IOException {
+        if (unixAttributesSupported) {
+            try {
+                final Map<String, Object> attributes = Files.readAttributes(directory, "unix:lastModifiedTime,ctime");
+                return Arrays.asList((FileTime) attributes.get("lastModifiedTime"), (FileTime) attributes.get("ctime"));
+            } catch (UnsupportedOperationException | IllegalArgumentException e) {
+                LOGGER.debug("File system of " + root + " has no status change times: " + e.getMessage());
+                unixAttributesSupported = false;
+            }
+        }
+        return Collections.singletonList(Files.getLastModifiedTime(directory));
+    }
+
+    CacheStats getDirectoryCacheStats() {
+        return directories.stats();
+    }
+
+    private void moveIntoPlace(final Path staging, final Path target, final String bucketName) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                Files.createDirectories(target.getParent());
+                try {
+                    Files.move(staging, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(staging, target, StandardCopyOption.REPLACE_EXISTING);
+                }
+                break;
+            } catch (NoSuchFileException e) {
+                // a concurrent delete removed the then empty parent directory
+                if (attempt == MOVE_ATTEMPTS) {
+                    throw e;
+                }
+            }
+        }
+        final Path bucketDirectory = resolveBucket(bucketName);
+        for (Path directory = target.getParent(); !directory.equals(bucketDirectory); directory = directory.getParent()) {
+            directories.invalidate(directory);
+        }
+        directories.invalidate(bucketDirectory);
+    }
+
+    /**
+     * @return the ETag stored with the file, else the MD5 of its content as S3 reports for a single part upload
+     */
+    private String getETag(final Path file) throws IOException {
+        final String eTag = readETag(file);
+        return eTag != null ? eTag : contentETags.getETag(file.toFile(), 0);
+    }
+
+    /**
+     * ETag of a listed file. Files written outside this backend have no stored ETag, hashing them would read every
+     * listed byte, so their listing ETag is derived from size and modification time instead. It contains a '.',
+     * which no MD5 ETag does, so it never matches the content of a local file; HEAD, GET and copy report the MD5.
+     */
+    private String getListingETag(final Path file, final BasicFileAttributes attributes) throws IOException {
+        final String eTag = readETag(file);
+        return eTag != null ? eTag
+                : Long.toHexString(attributes.size()) + "." + Long.toHexString(attributes.lastModifiedTime().toMillis());
+    }
+
+    /**
+     * @return the ETag this backend stored with the file, null when there is none
+     */
+    private String readETag(final Path file) throws IOException {
+        if (userAttributesSupported) {
+            final UserDefinedFileAttributeView view = Files.getFileAttributeView(file, UserDefinedFileAttributeView.class);
+            if (view != null) {
+                try {
+                    // large enough for an MD5 ETag, saves asking the attribute size first
+                    final ByteBuffer value = ByteBuffer.allocate(64);
+                    view.read(ETAG_ATTRIBUTE, value);
+                    value.flip();
+                    return StandardCharsets.US_ASCII.decode(value).toString();
+                } catch (NoSuchFileException e) {
+                    if (!Files.exists(file)) {
+                        throw e;
+                    }
+                    // the file was not written by this backend
+                } catch (IOException | UnsupportedOperationException e) {
+                    // not written by this backend, or no user attributes on this file system
+                }
+            }
+        }
+        return null;
+    }
+
+    private void writeETag(final Path file, final String eTag) {
+        if (!userAttributesSupported) {
+            return;
+        }
+        final UserDefinedFileAttributeView view = Files.getFileAttributeView(file, UserDefinedFileAttributeView.class);
+        try {
+            if (view == null) {
+                throw new UnsupportedOperationException("No user defined file attributes");
+            }
+            view.write(ETAG_ATTRIBUTE, StandardCharsets.US_ASCII.encode(eTag));
+        } catch (IOException | UnsupportedOperationException e) {
+            LOGGER.info("File system of " + root + " has no user attributes, ETags are computed when needed: " + e.getMessage());
+            userAttributesSupported = false;
+        }
+    }
+
+    private S3ObjectSummary newSummary(final String bucketName, final Path file) {
+        final S3ObjectSummary summary = new S3ObjectSummary();
+        summary.setBucketName(bucketName);
+        summary.setKey(toKey(bucketName, file));
+        summary.setStorageClass("STANDARD");
+        try {
+            final BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            summary.setSize(attributes.size());
+            summary.setLastModified(new Date(attributes.lastModifiedTime().toMillis()));
+            summary.setETag(getListingETag(file, attributes));
+        } catch (IOException e) {
+            // deleted since the directory was listed, S3 listings are not consistent either
+            LOGGER.debug("Could not read attributes of listed file " + file + ": " + e.getMessage());
+        }
+        return summary;
+    }
+
+    private ObjectMetadata newMetadata(final Path file, final String keyName, final long length, final BasicFileAttributes attributes)
+            throws IOException {
+        final ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength(length);
+        metadata.setLastModified(new Date(attributes.lastModifiedTime().toMillis()));
+        metadata.setContentType(Mimetypes.getInstance().getMimetype(keyName));
+        metadata.setHeader(Headers.ETAG, getETag(file));
+        return metadata;
+    }
+
+    private static long[] getRange(final GetObjectRequest request, final long size) {
+        final long[] range = request.getRange();
+        if (range == null || size == 0) {
+            return new long[]{0, size - 1};
+        }
+        if (range[0] >= size) {
+            throw newException(416, "InvalidRange", "The requested range is not satisfiable");
+        }
+        return new long[]{range[0], Math.min(range[1], size - 1)};
+    }
+
+    private static void transfer(final FileChannel in, final long position, final long length, final FileChannel out) throws IOException {
+        for (long transferred = 0; transferred < length; ) {
+            final long count = in.transferTo(position + transferred, length - transferred, out);
+            if (count <= 0) {
+                throw new IOException("File shrunk while copying at position " + (position + transferred));
+            }
+            transferred += count;
+        }
+    }
+
+    private static InputStream openContent(final PutObjectRequest request) throws IOException {
+        if (request.getFile() != null) {
+            return new FileInputStream(request.getFile());
+        }
+        if (request.getInputStream() == null) {
+            throw new IllegalArgumentException("Put request has no file and no input stream");
+        }
+        return request.getInputStream();
+    }
+
+    private Path resolveBucket(final String bucketName) {
+        if (bucketName == null || bucketName.isEmpty() || bucketName.startsWith(".") || bucketName.contains("/")
+                || bucketName.contains("\\")) {
+            throw newException(400, "InvalidBucketName", "The specified bucket is not valid: " + bucketName);
+        }
+        return root.resolve(bucketName);
+    }
+
+    private Path getBucketDirectory(final String bucketName) {
+        final Path bucketDirectory = resolveBucket(bucketName);
+        if (!Files.isDirectory(bucketDirectory)) {
+            throw newException(404, "NoSuchBucket", "The specified bucket does not exist: " + bucketName);
+        }
+        return bucketDirectory;
+    }
+
+    private Path getObjectFile(final String bucketName, final String keyName) {
+        getBucketDirectory(bucketName);
+        final Path file = resolveKey(bucketName, keyName);
+        if (!Files.isRegularFile(file)) {
+            throw newNoSuchKey(keyName);
+        }
+        return file;
+    }
+
+    private Path resolveKey(final String bucketName, final String keyName) {
+        if (keyName == null || keyName.isEmpty()) {
+            throw newException(400, "InvalidArgument", "The key is empty");
+        }
+        for (String segment : keyName.split("/", -1)) {
+            if (segment.isEmpty() || segment.equals(".") || segment.equals("..") || segment.contains("\\")) {
+                throw newException(400, "InvalidArgument", "Key not supported by the file system backend: " + keyName);
+            }
+        }
+        return resolveBucket(bucketName).resolve(keyName);
+    }
+
+    private String toKey(final String bucketName, final Path file) {
+        final Path relative = resolveBucket(bucketName).relativize(file);
+        final StringBuilder key = new StringBuilder();
+        for (Path segment : relative) {
+            if (key.length() > 0) {
+                key.append('/');
+            }
+            key.append(segment.toString());
+        }
+        return key.toString();
+    }
+
+    private static Date getCreationDate(final Path directory) {
+        try {
+            return new Date(Files.readAttributes(directory, BasicFileAttributes.class).creationTime().toMillis());
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static void deleteEmptyDirectories(final Path directory) throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path entry : stream) {
+                if (Files.isDirectory(entry)) {
+                    deleteEmptyDirectories(entry);
+                }
+            }
+        }
+        Files.delete(directory);
+    }
+
+    private static DeleteError newDeleteError(final KeyVersion keyVersion, final String code, final String message) {
+        final DeleteError error = new DeleteError();
+        error.setKey(keyVersion.getKey());
+        error.setVersionId(keyVersion.getVersion());
+        error.setCode(code);
+        error.setMessage(message);
+        return error;
+    }
+
+    private static AmazonS3Exception newNoSuchKey(final String keyName) {
+        return newException(404, "NoSuchKey", "The specified key does not exist: " + keyName);
+    }
+
+    private static AmazonS3Exception newException(final int statusCode, final String errorCode, final String message) {
+        final AmazonS3Exception e = new AmazonS3Exception(message);
+        e.setStatusCode(statusCode);
+        e.setErrorCode(errorCode);
+        e.setErrorMessage(message);
+        e.setServiceName("Amazon S3");
+        return e;
+    }
+
+    private static MessageDigest newMd5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 not available", e);
+        }
+    }
+
+    private static void closeQuietly(final FileChannel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOGGER.debug("Could not close " + channel + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private static void deleteQuietly(final Path file) {
+        if (file != null) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                LOGGER.warn("Could not delete staging file " + file + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private static class DirectoryEntries {
+
+        private final List<FileTime> modified;
+        private final String[] names;
+
+        private DirectoryEntries(List<FileTime> modified, String[] names) {
+            this.modified = modified;
+            this.names = names;
+        }
+    }
+
+    /**
+     * One page of a listing, filled in key order.
+     */
+    private static class Page {
+
+        private final String prefix;
+        private final String delimiter;
+        private final String after;
+        private final int maxKeys;
+        private final List<Path> files = new ArrayList<>();
+        private final List<String> commonPrefixes = new ArrayList<>();
+        private String last;
+        private boolean truncated;
+
+        private Page(String prefix, String delimiter, String after, int maxKeys) {
+            this.prefix = prefix;
+            this.delimiter = delimiter;
+            this.after = after;
+            this.maxKeys = maxKeys;
+        }
+
+        /**
+         * @return the common prefix the key is rolled up into, or null
+         */
+        private String getCommonPrefix(final String key) {
+            if (delimiter == null) {
+                return null;
+            }
+            final int index = key.indexOf(delimiter, prefix.length());
+            return index < 0 ? null : key.substring(0, index + delimiter.length());
+        }
+
+        private boolean isAfter(final String key) {
+            return after == null || ParallelLister.compareKeys(key, after) > 0;
+        }
+
+        /**
+         * @return true when no key starting with the directory key comes after the start key
+         */
+        private boolean isBefore(final String directoryKey) {
+            return after != null && ParallelLister.compareKeys(directoryKey, after) < 0 && !after.startsWith(directoryKey);
+        }
+
+        private boolean addCommonPrefix(final String commonPrefix) {
+            if (commonPrefix.equals(last) || !isAfter(commonPrefix)) {
+                return true;
+            }
+            return add(commonPrefix) && commonPrefixes.add(commonPrefix);
+        }
+
+        private boolean addFile(final String key, final Path file) {
+            return add(key) && files.add(file);
+        }
+
+        private boolean add(final String keyOrPrefix) {
+            if (files.size() + commonPrefixes.size() == maxKeys) {
+                truncated = true;
+                return false;
+            }
+            last = keyOrPrefix;
+            return true;
+        }
+    }
+}
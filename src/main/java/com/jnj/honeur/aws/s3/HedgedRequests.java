@@ -0,0 +1,295 @@
+package com.jnj.honeur.aws.s3;
+
+import com.amazonaws.AbortedException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.GetObjectMetadataRequest;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hedged GET and HEAD requests: when a request has not returned its response headers within the hedge delay,
+ * an identical second request is sent and the first answer is used.
+ * The hedge delay follows a percentile of the recently observed latencies, and the number of hedged requests
+ * is capped by a budget relative to the number of requests.
+ * An error that another request would run into as well, e.g. a missing object, is returned without waiting for the
+ * other request. Answers that are not used are discarded, the content of a losing GET is aborted.
+ */
+public class HedgedRequests {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(HedgedRequests.class);
+
+    public static final double DEFAULT_PERCENTILE = 0.95;
+    public static final double DEFAULT_BUDGET_RATIO = 0.05;
+    public static final long DEFAULT_MIN_DELAY_MILLIS = 10;
+    private static final int LATENCY_WINDOW = 1024;
+    private static final int MIN_SAMPLES = 32;
+    private static final int DELAY_UPDATE_INTERVAL = 32;
+    private static final double MAX_BUDGET_CREDITS = 10;
+
+    private final double percentile;
+    private final double budgetRatio;
+    private final long minDelayNanos;
+    private final ExecutorService executor;
+
+    private final long[] latencies = new long[LATENCY_WINDOW];
+    private int latencyCount;
+    private volatile long hedgeDelayNanos = -1;
+    private double budgetCredits = MAX_BUDGET_CREDITS;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong hedgedRequests = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+    private final AtomicLong budgetExhausted = new AtomicLong();
+
+    public HedgedRequests() {
+        this(DEFAULT_PERCENTILE, DEFAULT_BUDGET_RATIO, DEFAULT_MIN_DELAY_MILLIS);
+    }
+
+    /**
+     * @param percentile latency percentile used as hedge delay, e.g. 0.95
+     * @param budgetRatio maximum number of hedged requests as a fraction of all requests, e.g. 0.05
+     * @param minDelayMillis lower bound of the hedge delay
+     */
+    public HedgedRequests(final double percentile, final double budgetRatio, final long minDelayMillis) {
+        if (percentile <= 0 || percentile >= 1) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 1");
+        }
+        this.percentile = percentile;
+        this.budgetRatio = budgetRatio;
+        this.minDelayNanos = TimeUnit.MILLISECONDS.toNanos(minDelayMillis);
+        this.executor = BulkExecutors.newUnboundedExecutor("s3-hedged-request-%d");
+    }
+
+    public S3Object getObject(final AmazonS3 s3, final GetObjectRequest request) {
+        return execute(new Callable<S3Object>() {
+            @Override
+            public S3Object call() {
+                return s3.getObject((GetObjectRequest) request.clone());
+            }
+        });
+    }
+
+    public ObjectMetadata getObjectMetadata(final AmazonS3 s3, final GetObjectMetadataRequest request) {
+        return execute(new Callable<ObjectMetadata>() {
+            @Override
+            public ObjectMetadata call() {
+                return s3.getObjectMetadata((GetObjectMetadataRequest) request.clone());
+            }
+        });
+    }
+
+    private <T> T execute(final Callable<T> request) {
+        requests.incrementAndGet();
+        earnBudget();
+        final BlockingQueue<Attempt<T>> completed = new LinkedBlockingQueue<>();
+        final Attempt<T> primary = submit(request, completed);
+        Attempt<T> hedge = null;
+        try {
+            final long delay = hedgeDelayNanos;
+            Attempt<T> first = delay < 0 ? completed.take() : completed.poll(delay, TimeUnit.NANOSECONDS);
+            if (first == null) {
+                if (spendBudget()) {
+                    hedgedRequests.incrementAndGet();
+                    LOGGER.debug("No response after " + TimeUnit.NANOSECONDS.toMillis(delay) + " ms, sending hedged request");
+                    hedge = submit(request, completed);
+                } else {
+                    budgetExhausted.incrementAndGet();
+                }
+                first = completed.take();
+            }
+            final Attempt<T> other = first == primary ? hedge : primary;
+            try {
+                final T result = first.get();
+                if (first == hedge) {
+                    hedgeWins.incrementAndGet();
+                }
+                abandon(other);
+                return result;
+            } catch (ExecutionException e) {
+                if (other == null || !isRetryable(e.getCause())) {
+                    // a missing object or a denied request is not answered differently by the other request
+                    abandon(other);
+                    throw e;
+                }
+                return completed.take().get();
+            }
+        } catch (InterruptedException e) {
+            abandon(primary);
+            abandon(hedge);
+            Thread.currentThread().interrupt();
+            throw new AbortedException("Interrupted while waiting for S3 response", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private <T> Attempt<T> submit(final Callable<T> request, final BlockingQueue<Attempt<T>> completed) {
+        final Attempt<T> attempt = new Attempt<>(request, completed);
+        executor.execute(attempt);
+        return attempt;
+    }
+
+    /**
+     * Cancels a request whose answer is not used, a GET that already returned holds a pooled connection until its
+     * content is aborted.
+     */
+    private static void abandon(final Attempt<?> attempt) {
+        if (attempt == null || attempt.cancel(true)) {
+            return;
+        }
+        try {
+            discard(attempt.get());
+        } catch (InterruptedException | ExecutionException | CancellationException e) {
+            // nothing to discard
+        }
+    }
+
+    private static void discard(final Object result) {
+        if (result instanceof S3Object) {
+            final S3ObjectInputStream content = ((S3Object) result).getObjectContent();
+            if (content != null && content.getHttpRequest() != null) {
+                content.abort();
+            } else {
+                try {
+                    ((S3Object) result).close();
+                } catch (IOException | AbortedException e) {
+                    // the SDK stream closes and then throws when the thread is interrupted, e.g. a cancelled request
+                    LOGGER.debug("Failed to close discarded object: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true for errors that another request may not run into: server errors, throttling and network errors
+     */
+    static boolean isRetryable(final Throwable error) {
+        if (error instanceof AmazonServiceException) {
+            final int statusCode = ((AmazonServiceException) error).getStatusCode();
+            return statusCode >= 500 || statusCode == 429 || "SlowDown".equals(((AmazonServiceException) error).getErrorCode());
+        }
+        return !(error instanceof AbortedException);
+    }
+
+    /**
+     * A request that records its latency, and discards its answer when it arrives after the request was cancelled.
+     */
+    private class Attempt<T> extends FutureTask<T> {
+
+        private final BlockingQueue<Attempt<T>> completed;
+
+        private Attempt(final Callable<T> request, final BlockingQueue<Attempt<T>> completed) {
+            super(timed(request));
+            this.completed = completed;
+        }
+
+        @Override
+        protected void set(final T result) {
+            super.set(result);
+            if (isCancelled()) {
+                discard(result);
+            }
+        }
+
+        @Override
+        protected void done() {
+            completed.add(this);
+        }
+    }
+
+    private <T> Callable<T> timed(final Callable<T> request) {
+        return new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                final long start = System.nanoTime();
+                final T result = request.call();
+                recordLatency(System.nanoTime() - start);
+                return result;
+            }
+        };
+    }
+
+    private synchronized void earnBudget() {
+        budgetCredits = Math.min(MAX_BUDGET_CREDITS, budgetCredits + budgetRatio);
+    }
+
+    private synchronized boolean spendBudget() {
+        if (budgetCredits >= 1) {
+            budgetCredits -= 1;
+            return true;
+        }
+        return false;
+    }
+
+    private synchronized void recordLatency(final long latencyNanos) {
+        latencies[latencyCount % LATENCY_WINDOW] = latencyNanos;
+        latencyCount++;
+        if (latencyCount >= MIN_SAMPLES && latencyCount % DELAY_UPDATE_INTERVAL == 0) {
+            final long[] window = Arrays.copyOf(latencies, Math.min(latencyCount, LATENCY_WINDOW));
+            Arrays.sort(window);
+            final long delay = window[(int) Math.min(window.length - 1, Math.floor(window.length * percentile))];
+            hedgeDelayNanos = Math.max(minDelayNanos, delay);
+        }
+    }
+
+    /**
+     * @return the current hedge delay in milliseconds, or -1 while too few latencies have been observed
+     */
+    public long getHedgeDelayMillis() {
+        final long delay = hedgeDelayNanos;
+        return delay < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(delay);
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getHedgedRequests() {
+        return hedgedRequests.get();
+    }
+
+    /**
+     * @return the number of hedged requests that answered before the original request
+     */
+    public long getHedgeWins() {
+        return hedgeWins.get();
+    }
+
+    /**
+     * @return the number of slow requests that were not hedged because the budget was used up
+     */
+    public long getBudgetExhausted() {
+        return budgetExhausted.get();
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Override
+    public String toString() {
+        return "HedgedRequests{requests=" + getRequests() + ", hedgedRequests=" + getHedgedRequests()
+                + ", hedgeWins=" + getHedgeWins() + ", budgetExhausted=" + getBudgetExhausted()
+                + ", hedgeDelayMillis=" + getHedgeDelayMillis() + "}";
+    }
+}
@@ -1,17 +1,19 @@
 package com.jnj.honeur.aws.s3;
 
 import com.amazonaws.auth.*;
+import com.amazonaws.client.builder.ExecutorFactory;
 import com.amazonaws.regions.Regions;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3ClientBuilder;
+import com.amazonaws.services.s3.transfer.TransferManager;
+import com.amazonaws.services.s3.transfer.TransferManagerBuilder;
 import com.amazonaws.services.securitytoken.AWSSecurityTokenService;
 import com.amazonaws.services.securitytoken.AWSSecurityTokenServiceClientBuilder;
-import com.amazonaws.services.securitytoken.model.Credentials;
-import com.amazonaws.services.securitytoken.model.GetSessionTokenRequest;
-import com.amazonaws.services.securitytoken.model.GetSessionTokenResult;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.concurrent.ExecutorService;
+
 /**
  * HONEUR utility builder for AmazonS3
  * @author Peter Moorthamer
@@ -22,22 +24,114 @@ public class HoneurAmazonS3ClientBuilder {
 
     private static final Regions DEFAULT_REGION = Regions.EU_WEST_1;
 
-    private static AWSSecurityTokenService tokenService = AWSSecurityTokenServiceClientBuilder.defaultClient();
+    private static AWSSecurityTokenService tokenService;
+    private static RefreshAheadSessionCredentialsProvider sessionCredentialsProvider;
+
+    // Built on first use, so building S3 clients does not depend on the STS region configuration
+    private static synchronized AWSSecurityTokenService getTokenService() {
+        if (tokenService == null) {
+            tokenService = AWSSecurityTokenServiceClientBuilder.defaultClient();
+        }
+        return tokenService;
+    }
+
+    /**
+     * Sets the STS client of the session clients built without one, the shared session provider of the previous
+     * client is closed.
+     */
+    public static synchronized void setTokenService(final AWSSecurityTokenService tokenService) {
+        HoneurAmazonS3ClientBuilder.tokenService = tokenService;
+        if (sessionCredentialsProvider != null) {
+            sessionCredentialsProvider.close();
+            sessionCredentialsProvider = null;
+        }
+    }
+
+    /**
+     * @return the refresh-ahead session credentials shared by all {@link #sessionClient2()} clients, it runs one
+     * refresh thread for the JVM
+     */
+    public static synchronized RefreshAheadSessionCredentialsProvider getSessionCredentialsProvider() {
+        if (sessionCredentialsProvider == null) {
+            sessionCredentialsProvider = new RefreshAheadSessionCredentialsProvider(getTokenService());
+        }
+        return sessionCredentialsProvider;
+    }
 
     public static AmazonS3 defaultClient() {
         return AmazonS3ClientBuilder.defaultClient();
     }
 
+    public static AmazonS3 defaultClient(final ClientProfile profile) {
+        return AmazonS3ClientBuilder.standard()
+                .withClientConfiguration(profile.createClientConfiguration())
+                .build();
+    }
+
     public static AmazonS3 standardClient(final AWSCredentials credentials) {
+        return standardClient(credentials, ClientProfile.DEFAULT);
+    }
+
+    public static AmazonS3 standardClient(final AWSCredentials credentials, final ClientProfile profile) {
         return AmazonS3ClientBuilder.standard()
                 .withForceGlobalBucketAccessEnabled(true)
                 .withRegion(DEFAULT_REGION)
                 .withCredentials(new AWSStaticCredentialsProvider(credentials))
+                .withClientConfiguration(profile.createClientConfiguration())
+                .build();
+    }
+
+    /**
+     * @param region the region of the client, null to use the default region provider chain
+     */
+    public static AmazonS3 regionClient(final String region, final AWSCredentialsProvider credentialsProvider, final ClientProfile profile) {
+        return regionClient(region, credentialsProvider, profile, true);
+    }
+
+    /**
+     * @param region the region of the client, null to use the default region provider chain
+     * @param forceGlobalBucketAccess whether requests for buckets of other regions follow the redirect to the bucket region
+     */
+    public static AmazonS3 regionClient(final String region, final AWSCredentialsProvider credentialsProvider, final ClientProfile profile,
+                                        final boolean forceGlobalBucketAccess) {
+        AmazonS3ClientBuilder builder = AmazonS3ClientBuilder.standard()
+                .withCredentials(credentialsProvider)
+                .withClientConfiguration(profile.createClientConfiguration());
+        if (region != null) {
+            builder.withRegion(region).withForceGlobalBucketAccessEnabled(forceGlobalBucketAccess);
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return the shared client from the default {@link AmazonS3ClientRegistry}
+     */
+    public static AmazonS3 sharedClient(final String region, final AWSCredentials credentials, final ClientProfile profile) {
+        return AmazonS3ClientRegistry.getDefault().getClient(region, credentials, profile);
+    }
+
+    /**
+     * @return the shared client from the default {@link AmazonS3ClientRegistry}
+     */
+    public static AmazonS3 sharedClient(final String region, final AWSCredentialsProvider credentialsProvider, final ClientProfile profile) {
+        return AmazonS3ClientRegistry.getDefault().getClient(region, credentialsProvider, profile);
+    }
+
+    public static TransferManager transferManager(final AmazonS3 s3, final ClientProfile profile) {
+        final int transferThreads = profile.getTransferThreads();
+        return TransferManagerBuilder.standard()
+                .withS3Client(s3)
+                .withExecutorFactory(new ExecutorFactory() {
+                    @Override
+                    public ExecutorService newExecutor() {
+                        return BulkExecutors.newExecutor("s3-transfer-%d", transferThreads);
+                    }
+                })
                 .build();
     }
 
     public static AmazonS3 sessionClient() {
-        return sessionClient(HoneurAmazonS3ClientBuilder.tokenService);
+        return sessionClient(getTokenService());
     }
 
     public static AmazonS3 sessionClient(final AWSSecurityTokenService tokenService) {
@@ -45,30 +139,19 @@ public class HoneurAmazonS3ClientBuilder {
     }
 
     public static AmazonS3 sessionClient(final AWSSessionCredentialsProvider credentialsProvider) {
+        return sessionClient(credentialsProvider, ClientProfile.DEFAULT);
+    }
+
+    public static AmazonS3 sessionClient(final AWSSessionCredentialsProvider credentialsProvider, final ClientProfile profile) {
         return AmazonS3ClientBuilder.standard()
                 .withCredentials(credentialsProvider)
+                .withClientConfiguration(profile.createClientConfiguration())
                 .build();
     }
 
     public static AmazonS3 sessionClient2() {
-        // Start a session.
-        GetSessionTokenRequest getSessionTokenRequest = new GetSessionTokenRequest();
-        //getSessionTokenRequest.setDurationSeconds(900); // 43200 seconds (12 hours) is used by default
-
-        GetSessionTokenResult sessionTokenResult = tokenService.getSessionToken(getSessionTokenRequest);
-        Credentials sessionCredentials = sessionTokenResult.getCredentials();
-        LOGGER.debug("Session Credentials: " + sessionCredentials.toString());
-
-        // Package the session credentials as a BasicSessionCredentials
-        // object for an S3 client object to use.
-        BasicSessionCredentials basicSessionCredentials =
-                new BasicSessionCredentials(sessionCredentials.getAccessKeyId(),
-                        sessionCredentials.getSecretAccessKey(),
-                        sessionCredentials.getSessionToken());
-
-        return AmazonS3ClientBuilder.standard()
-                .withCredentials(new AWSStaticCredentialsProvider(basicSessionCredentials))
-                .build();
+        // The shared session token is refreshed in the background before it expires
+        return sessionClient(getSessionCredentialsProvider());
     }
 
 }
@@ -0,0 +1,152 @@
+package com.jnj.honeur.aws.s3;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes the items of a new iterator per subscriber, at the pace of the subscriber's demand.
+ * Items are pulled from the iterator on the executor and the iterator is at most one item ahead of the demand,
+ * which for a listing iterator means the next page is only listed once the current page was requested.
+ * Demand that arrives while items are emitted is picked up by the same drain loop, so signals are never concurrent.
+ * An iterator that is {@link Closeable} is closed when the stream completes, fails or is cancelled.
+ */
+public abstract class IteratorPublisher<T> implements S3Flow.Publisher<T> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(IteratorPublisher.class);
+
+    private final Executor executor;
+
+    protected IteratorPublisher(final Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * @return the items for a new subscriber, called on the executor
+     */
+    protected abstract Iterator<T> newIterator();
+
+    @Override
+    public void subscribe(final S3Flow.Subscriber<? super T> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber");
+        }
+        final IteratorSubscription subscription = new IteratorSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+        // signals an iterator creation failure, or completion of an empty stream, without demand
+        subscription.drain();
+    }
+
+    private class IteratorSubscription implements S3Flow.Subscription, Runnable {
+
+        private final S3Flow.Subscriber<? super T> subscriber;
+        private final AtomicLong requested = new AtomicLong();
+        private final AtomicInteger pendingDrains = new AtomicInteger();
+        private volatile boolean cancelled;
+        private volatile Throwable invalidRequest;
+        private Iterator<T> iterator;
+        private boolean done;
+
+        private IteratorSubscription(S3Flow.Subscriber<? super T> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(final long n) {
+            if (n <= 0) {
+                invalidRequest = new IllegalArgumentException("Requested " + n + " items, the demand must be positive");
+            } else {
+                long current;
+                do {
+                    current = requested.get();
+                } while (!requested.compareAndSet(current, current + n < 0 ? Long.MAX_VALUE : current + n));
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            drain();
+        }
+
+        private void drain() {
+            if (pendingDrains.getAndIncrement() == 0) {
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    cancelled = true;
+                    subscriber.onError(e);
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            int drains = pendingDrains.get();
+            do {
+                emit();
+                drains = pendingDrains.addAndGet(-drains);
+            } while (drains != 0);
+        }
+
+        private void emit() {
+            if (done) {
+                return;
+            }
+            if (cancelled) {
+                finish();
+                return;
+            }
+            try {
+                if (invalidRequest != null) {
+                    throw invalidRequest;
+                }
+                if (iterator == null) {
+                    iterator = newIterator();
+                }
+                long emitted = 0;
+                final long demand = requested.get();
+                while (!cancelled) {
+                    if (!iterator.hasNext()) {
+                        finish();
+                        subscriber.onComplete();
+                        return;
+                    }
+                    if (emitted == demand) {
+                        break;
+                    }
+                    subscriber.onNext(iterator.next());
+                    emitted++;
+                }
+                if (demand != Long.MAX_VALUE) {
+                    requested.addAndGet(-emitted);
+                }
+                if (cancelled) {
+                    finish();
+                }
+            } catch (Throwable e) {
+                finish();
+                subscriber.onError(e);
+            }
+        }
+
+        private void finish() {
+            done = true;
+            if (iterator instanceof Closeable) {
+                try {
+                    ((Closeable) iterator).close();
+                } catch (IOException e) {
+                    LOGGER.warn("Could not close the publisher iterator: " + e.getMessage());
+                }
+            }
+        }
+    }
+}
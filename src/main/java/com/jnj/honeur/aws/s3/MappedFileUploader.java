@@ -0,0 +1,211 @@
+package com.jnj.honeur.aws.s3;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadResult;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Multipart upload of large local files without stream based file reads.
+ * Each part is a read-only memory mapped region of the file that is handed to the HTTP request as is,
+ * parts are uploaded in parallel from their own offsets.
+ * <p>
+ * A region is unmapped as soon as its part is uploaded, otherwise the address space and the file stay mapped until
+ * the garbage collector finds the buffer. Unmapping uses the JDK internal cleaner, on a JVM that does not allow it
+ * the regions are left to the garbage collector.
+ */
+public class MappedFileUploader {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MappedFileUploader.class);
+
+    public static final long MIN_PART_SIZE = 5L * 1024 * 1024;
+    public static final long DEFAULT_PART_SIZE = 16L * 1024 * 1024;
+    public static final int DEFAULT_CONCURRENCY = 4;
+    private static final int MAX_PARTS = 10000;
+    private static final Unmapper UNMAPPER = Unmapper.create();
+
+    private final AmazonS3 s3;
+    private final ExecutorService executor;
+    private final long partSize;
+
+    public MappedFileUploader(final AmazonS3 s3) {
+        this(s3, DEFAULT_PART_SIZE, DEFAULT_CONCURRENCY);
+    }
+
+    public MappedFileUploader(final AmazonS3 s3, final long partSize, final int concurrency) {
+        if (partSize < MIN_PART_SIZE || partSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Part size must be between " + MIN_PART_SIZE + " and " + Integer.MAX_VALUE + " bytes");
+        }
+        this.s3 = s3;
+        this.partSize = partSize;
+        this.executor = BulkExecutors.newExecutor("s3-mapped-upload-%d", concurrency);
+    }
+
+    public long getPartSize() {
+        return partSize;
+    }
+
+    /**
+     * @return the part size used for a file of the given length, grown when needed to stay within the part limit
+     */
+    public long getPartSize(final long fileLength) {
+        final long minimum = (fileLength + MAX_PARTS - 1) / MAX_PARTS;
+        return Math.max(partSize, minimum);
+    }
+
+    public CompleteMultipartUploadResult upload(final String bucketName, final String keyName, final File file)
+            throws IOException, InterruptedException {
+        LOGGER.debug("Uploading mapped file: " + file.getAbsolutePath());
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final long fileLength = channel.size();
+            final long filePartSize = getPartSize(fileLength);
+            final String uploadId = s3.initiateMultipartUpload(new InitiateMultipartUploadRequest(bucketName, keyName)).getUploadId();
+
+            final List<Future<PartETag>> parts = new ArrayList<>();
+            try {
+                int partNumber = 1;
+                for (long offset = 0; offset < fileLength || partNumber == 1; offset += filePartSize, partNumber++) {
+                    final long length = Math.min(filePartSize, fileLength - offset);
+                    parts.add(executor.submit(new PartUpload(channel, bucketName, keyName, uploadId, partNumber, offset, length)));
+                }
+                final List<PartETag> partETags = new ArrayList<>(parts.size());
+                for (Future<PartETag> part : parts) {
+                    partETags.add(part.get());
+                }
+                return s3.completeMultipartUpload(new CompleteMultipartUploadRequest(bucketName, keyName, uploadId, partETags));
+            } catch (ExecutionException e) {
+                abort(bucketName, keyName, uploadId, parts);
+                if (e.getCause() instanceof AmazonClientException) {
+                    throw (AmazonClientException) e.getCause();
+                }
+                throw new IOException("Upload of part failed for " + keyName, e.getCause());
+            } catch (InterruptedException | RuntimeException e) {
+                abort(bucketName, keyName, uploadId, parts);
+                throw e;
+            }
+        }
+    }
+
+    private void abort(final String bucketName, final String keyName, final String uploadId, final List<Future<PartETag>> parts) {
+        for (Future<PartETag> part : parts) {
+            part.cancel(true);
+        }
+        try {
+            s3.abortMultipartUpload(new AbortMultipartUploadRequest(bucketName, keyName, uploadId));
+        } catch (AmazonClientException e) {
+            LOGGER.warn("Could not abort multipart upload " + uploadId + " of " + keyName + ": " + e.getMessage());
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private class PartUpload implements Callable<PartETag> {
+
+        private final FileChannel channel;
+        private final String bucketName;
+        private final String keyName;
+        private final String uploadId;
+        private final int partNumber;
+        private final long offset;
+        private final long length;
+
+        private PartUpload(FileChannel channel, String bucketName, String keyName, String uploadId, int partNumber, long offset, long length) {
+            this.channel = channel;
+            this.bucketName = bucketName;
+            this.keyName = keyName;
+            this.uploadId = uploadId;
+            this.partNumber = partNumber;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public PartETag call() throws IOException {
+            final MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+            final UploadPartRequest request = new UploadPartRequest()
+                    .withBucketName(bucketName)
+                    .withKey(keyName)
+                    .withUploadId(uploadId)
+                    .withPartNumber(partNumber)
+                    .withPartSize(length)
+                    .withInputStream(new ByteBufferInputStream(region));
+            // The mapped region can be re-read in full on retry, no need for the SDK to buffer it
+            request.getRequestClientOptions().setReadLimit((int) Math.min(Integer.MAX_VALUE, length + 1));
+            LOGGER.debug("Uploading part " + partNumber + " (" + length + " bytes at offset " + offset + ") of " + keyName);
+            try {
+                return s3.uploadPart(request).getPartETag();
+            } finally {
+                // the request is done with the region, retries included
+                UNMAPPER.unmap(region);
+            }
+        }
+    }
+
+    /**
+     * Releases mapped regions through the cleaner of the JDK: Unsafe.invokeCleaner from Java 9, the cleaner of the
+     * buffer before.
+     */
+    private static class Unmapper {
+
+        private final Object unsafe;
+        private final Method invokeCleaner;
+
+        private Unmapper(Object unsafe, Method invokeCleaner) {
+            this.unsafe = unsafe;
+            this.invokeCleaner = invokeCleaner;
+        }
+
+        private static Unmapper create() {
+            try {
+                final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                final Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+                final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                return new Unmapper(theUnsafe.get(null), invokeCleaner);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                // before Java 9, the cleaner is taken from the buffer itself
+                return new Unmapper(null, null);
+            }
+        }
+
+        private void unmap(final MappedByteBuffer region) {
+            try {
+                if (invokeCleaner != null) {
+                    invokeCleaner.invoke(unsafe, region);
+                    return;
+                }
+                final Method cleanerMethod = region.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                final Object cleaner = cleanerMethod.invoke(region);
+                if (cleaner != null) {
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+                }
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                LOGGER.debug("Could not unmap part region, it is released by the garbage collector: " + e);
+            }
+        }
+    }
+}
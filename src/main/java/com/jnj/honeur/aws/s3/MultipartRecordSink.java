@@ -0,0 +1,251 @@
+package com.jnj.honeur.aws.s3;
+
+import com.amazonaws.AbortedException;
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes records to an object as they are produced, one part of a multipart upload per filled buffer.
+ * Output that fits in a single part is written with one PUT instead. For backends without multipart uploads
+ * the filled buffers are spooled to a scratch file that is written with one PUT on close.
+ * {@link #close()} completes the object, {@link #abort()} discards the uploaded parts.
+ */
+public class MultipartRecordSink<O> implements RecordProcessor.Sink<O>, Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MultipartRecordSink.class);
+
+    public static final int MIN_PART_SIZE = 5 * 1024 * 1024;
+    public static final int DEFAULT_PART_SIZE = 8 * 1024 * 1024;
+
+    private final AmazonS3 s3;
+    private final String bucketName;
+    private final String keyName;
+    private final RecordFormat<O> format;
+    private final DirectBufferPool bufferPool;
+    private final int partSize;
+    private final ScratchSpace spoolSpace;
+    private final List<PartETag> partETags = new ArrayList<>();
+    private ByteBuffer buffer;
+    private String uploadId;
+    private File spoolFile;
+    private FileChannel spool;
+    private long size;
+    private String eTag;
+    private boolean closed;
+
+    public MultipartRecordSink(final AmazonS3 s3, final String bucketName, final String keyName, final RecordFormat<O> format,
+                               final DirectBufferPool bufferPool) {
+        this(s3, bucketName, keyName, format, bufferPool, DEFAULT_PART_SIZE, null);
+    }
+
+    public MultipartRecordSink(final AmazonS3 s3, final String bucketName, final String keyName, final RecordFormat<O> format,
+                               final DirectBufferPool bufferPool, final int partSize) {
+        this(s3, bucketName, keyName, format, bufferPool, partSize, null);
+    }
+
+    /**
+     * @param spoolSpace scratch space of the spool file for backends without multipart uploads, null to upload parts
+     */
+    public MultipartRecordSink(final AmazonS3 s3, final String bucketName, final String keyName, final RecordFormat<O> format,
+                               final DirectBufferPool bufferPool, final int partSize, final ScratchSpace spoolSpace) {
+        if (partSize < MIN_PART_SIZE || partSize > DirectBufferPool.MAX_BUFFER_SIZE) {
+            throw new IllegalArgumentException("The part size must be between " + MIN_PART_SIZE + " and "
+                    + DirectBufferPool.MAX_BUFFER_SIZE + " bytes: " + partSize);
+        }
+        this.s3 = s3;
+        this.bucketName = bucketName;
+        this.keyName = keyName;
+        this.format = format;
+        this.bufferPool = bufferPool;
+        this.partSize = partSize;
+        this.spoolSpace = spoolSpace;
+    }
+
+    @Override
+    public void write(final List<O> records) throws IOException {
+        if (closed) {
+            throw new IOException("Record sink of " + keyName + " is closed");
+        }
+        final StringBuilder text = new StringBuilder();
+        for (O record : records) {
+            format.write(record, text);
+        }
+        final byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+        int offset = 0;
+        while (offset < bytes.length) {
+            final ByteBuffer part = getBuffer();
+            final int length = Math.min(part.remaining(), bytes.length - offset);
+            part.put(bytes, offset, length);
+            offset += length;
+            if (!part.hasRemaining()) {
+                uploadPart();
+            }
+        }
+        size += bytes.length;
+    }
+
+    /**
+     * Uploads the buffered records and completes the object.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            if (spool != null) {
+                eTag = putSpool();
+            } else if (uploadId == null) {
+                final ByteBuffer content = getBuffer();
+                content.flip();
+                final ObjectMetadata metadata = new ObjectMetadata();
+                metadata.setContentLength(content.remaining());
+                final PutObjectRequest request = new PutObjectRequest(bucketName, keyName, new ByteBufferInputStream(content), metadata);
+                request.getRequestClientOptions().setReadLimit(content.remaining() + 1);
+                eTag = s3.putObject(request).getETag();
+            } else {
+                if (buffer != null && buffer.position() > 0) {
+                    uploadPart();
+                }
+                eTag = s3.completeMultipartUpload(new CompleteMultipartUploadRequest(bucketName, keyName, uploadId, partETags)).getETag();
+            }
+            closed = true;
+        } catch (AmazonClientException e) {
+            abort();
+            throw e;
+        } finally {
+            releaseBuffer();
+            releaseSpool();
+        }
+    }
+
+    /**
+     * Discards the records written so far, the object is not created.
+     */
+    public void abort() {
+        closed = true;
+        releaseBuffer();
+        releaseSpool();
+        if (uploadId == null) {
+            return;
+        }
+        try {
+            s3.abortMultipartUpload(new AbortMultipartUploadRequest(bucketName, keyName, uploadId));
+        } catch (AmazonClientException e) {
+            LOGGER.warn("Could not abort multipart upload " + uploadId + " of " + keyName + ": " + e.getMessage());
+        }
+        uploadId = null;
+    }
+
+    /**
+     * @return the number of bytes written
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return the ETag of the object once closed
+     */
+    public String getETag() {
+        return eTag;
+    }
+
+    private ByteBuffer getBuffer() {
+        if (buffer == null) {
+            try {
+                buffer = bufferPool.acquire(partSize);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new AbortedException("Interrupted while waiting for a part buffer", e);
+            }
+            buffer.limit(partSize);
+        }
+        return buffer;
+    }
+
+    private void uploadPart() throws IOException {
+        if (spoolSpace != null) {
+            spoolPart();
+            return;
+        }
+        if (uploadId == null) {
+            uploadId = s3.initiateMultipartUpload(new InitiateMultipartUploadRequest(bucketName, keyName)).getUploadId();
+        }
+        buffer.flip();
+        final int partNumber = partETags.size() + 1;
+        final UploadPartRequest request = new UploadPartRequest()
+                .withBucketName(bucketName)
+                .withKey(keyName)
+                .withUploadId(uploadId)
+                .withPartNumber(partNumber)
+                .withPartSize(buffer.remaining())
+                .withInputStream(new ByteBufferInputStream(buffer));
+        // the part is in memory, let the client reset the whole stream on a retry
+        request.getRequestClientOptions().setReadLimit(buffer.remaining() + 1);
+        LOGGER.debug("Uploading part " + partNumber + " (" + buffer.remaining() + " bytes) of " + keyName);
+        partETags.add(s3.uploadPart(request).getPartETag());
+        buffer.clear();
+        buffer.limit(partSize);
+    }
+
+    private void spoolPart() throws IOException {
+        if (spool == null) {
+            spoolFile = spoolSpace.createFile("sink", ".part");
+            spool = FileChannel.open(spoolFile.toPath(), StandardOpenOption.WRITE);
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            spool.write(buffer);
+        }
+        buffer.clear();
+        buffer.limit(partSize);
+    }
+
+    private String putSpool() throws IOException {
+        if (buffer != null && buffer.position() > 0) {
+            spoolPart();
+        }
+        spool.close();
+        LOGGER.debug("Uploading " + spoolFile.length() + " spooled bytes of " + keyName);
+        return s3.putObject(new PutObjectRequest(bucketName, keyName, spoolFile)).getETag();
+    }
+
+    private void releaseBuffer() {
+        bufferPool.release(buffer);
+        buffer = null;
+    }
+
+    private void releaseSpool() {
+        if (spool == null) {
+            return;
+        }
+        try {
+            spool.close();
+        } catch (IOException e) {
+            LOGGER.debug("Could not close spool file " + spoolFile + ": " + e.getMessage());
+        }
+        spoolSpace.release(spoolFile);
+        spool = null;
+        spoolFile = null;
+    }
+}
@@ -0,0 +1,122 @@
+package com.jnj.honeur.aws.s3;
+
+import com.amazonaws.AbortedException;
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+import com.google.common.collect.UnmodifiableIterator;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Executor;
+
+/**
+ * Publishes the content of an S3 object as chunks of pooled direct buffers, read from the object stream as they
+ * are requested. Every subscription sends a new GET request.
+ * <p>
+ * A chunk is owned by the subscriber, which hands it back with {@link DirectBufferPool#release(ByteBuffer)} on
+ * {@link #getBufferPool()} when done with it; chunks that are held on to count against the pool limit and
+ * eventually stop the stream, which is the memory bound of a pipeline.
+ */
+public class ObjectContentPublisher extends IteratorPublisher<ByteBuffer> {
+
+    public static final int DEFAULT_CHUNK_SIZE = 256 * 1024;
+
+    private final AmazonS3 s3;
+    private final GetObjectRequest request;
+    private final DirectBufferPool bufferPool;
+    private final int chunkSize;
+
+    public ObjectContentPublisher(final AmazonS3 s3, final GetObjectRequest request, final DirectBufferPool bufferPool,
+                                  final int chunkSize, final Executor executor) {
+        super(executor);
+        this.s3 = s3;
+        this.request = request;
+        this.bufferPool = bufferPool;
+        this.chunkSize = chunkSize;
+    }
+
+    public DirectBufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    @Override
+    protected Iterator<ByteBuffer> newIterator() {
+        return new ChunkIterator(s3.getObject(request));
+    }
+
+    private class ChunkIterator extends UnmodifiableIterator<ByteBuffer> implements Closeable {
+
+        private final S3Object object;
+        private final ReadableByteChannel channel;
+        private ByteBuffer nextChunk;
+        private boolean endOfStream;
+
+        private ChunkIterator(S3Object object) {
+            this.object = object;
+            this.channel = Channels.newChannel(object.getObjectContent());
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (nextChunk == null && !endOfStream) {
+                nextChunk = readChunk();
+            }
+            return nextChunk != null;
+        }
+
+        @Override
+        public ByteBuffer next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final ByteBuffer chunk = nextChunk;
+            nextChunk = null;
+            return chunk;
+        }
+
+        private ByteBuffer readChunk() {
+            ByteBuffer chunk = null;
+            try {
+                chunk = bufferPool.acquire(chunkSize);
+                chunk.limit(chunkSize);
+                while (chunk.hasRemaining()) {
+                    if (channel.read(chunk) < 0) {
+                        endOfStream = true;
+                        break;
+                    }
+                }
+                if (chunk.position() == 0) {
+                    bufferPool.release(chunk);
+                    return null;
+                }
+                chunk.flip();
+                return chunk;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new AbortedException("Interrupted while waiting for a chunk buffer");
+            } catch (IOException e) {
+                bufferPool.release(chunk);
+                throw new SdkClientException("Could not read " + request.getKey() + " from S3 bucket " + request.getBucketName(), e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            // the chunk read ahead of the demand was never handed out
+            bufferPool.release(nextChunk);
+            nextChunk = null;
+            if (!endOfStream && object.getObjectContent().getHttpRequest() != null) {
+                // do not drain the rest of the object to reuse the connection
+                object.getObjectContent().abort();
+            }
+            object.close();
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.jnj.honeur.aws.s3;
+
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Caches the metadata of HEAD requests, and for a shorter time that an object does not exist.
+ * <p>
+ * The cache is bounded by the number of entries and by the estimated size of the metadata: an entry weighs at
+ * least the maximum weight divided by the maximum number of entries, so neither bound is exceeded.
+ * Objects written or deleted through {@link AmazonS3Service} are invalidated, changes made by others are seen
+ * once the entry expires. A HEAD that runs concurrently with an invalidation of its key is not cached, it may
+ * have seen the object before the change. Invalidations are counted per stripe of keys, so writes to other keys
+ * rarely keep a HEAD from being cached; prefix invalidations count for all keys.
+ */
+public class ObjectMetadataCache {
+
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+    public static final long DEFAULT_MAX_WEIGHT = 16 * 1024 * 1024;
+    public static final long DEFAULT_TTL_SECONDS = 60;
+    public static final long DEFAULT_NEGATIVE_TTL_SECONDS = 5;
+
+    /** Object overhead of an entry, the characters of the strings are added to it */
+    private static final int ENTRY_OVERHEAD = 256;
+    private static final int GENERATION_STRIPES = 1024;
+
+    /**
+     * Requests the metadata of an object, e.g. with a HEAD request.
+     */
+    public interface Loader {
+        ObjectMetadata load(String bucketName, String keyName);
+    }
+
+    private final Cache<String, ObjectMetadata> found;
+    private final Cache<String, Boolean> notFound;
+    private final AtomicLongArray keyInvalidations = new AtomicLongArray(GENERATION_STRIPES);
+    private final AtomicLong prefixInvalidations = new AtomicLong();
+
+    public ObjectMetadataCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_WEIGHT, DEFAULT_TTL_SECONDS, DEFAULT_NEGATIVE_TTL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @param maxWeight estimated size in bytes of all cached metadata
+     * @param ttl how long the metadata of an existing object is cached
+     * @param negativeTtl how long it is cached that an object does not exist
+     */
+    public ObjectMetadataCache(final int maxEntries, final long maxWeight, final long ttl, final long negativeTtl, final TimeUnit unit) {
+        if (maxEntries < 1 || maxWeight < maxEntries) {
+            throw new IllegalArgumentException("The cache needs room for at least one entry of one byte: " + maxEntries + " entries, " + maxWeight + " bytes");
+        }
+        if (ttl < 0 || negativeTtl < 0) {
+            throw new IllegalArgumentException("Time to live cannot be negative: " + ttl + ", " + negativeTtl);
+        }
+        final long minWeight = maxWeight / maxEntries;
+        if (minWeight > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Entries would weigh more than " + Integer.MAX_VALUE + " bytes: " + minWeight);
+        }
+        this.found = CacheBuilder.newBuilder()
+                .maximumWeight(maxWeight)
+                .weigher(new Weigher<String, ObjectMetadata>() {
+                    @Override
+                    public int weigh(String cacheKey, ObjectMetadata metadata) {
+                        return (int) Math.min(Integer.MAX_VALUE, Math.max(minWeight, estimateSize(cacheKey, metadata)));
+                    }
+                })
+                .expireAfterWrite(ttl, unit)
+                .build();
+        this.notFound = CacheBuilder.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfterWrite(negativeTtl, unit)
+                .build();
+    }
+
+    /**
+     * @return a copy of the metadata of the object, null when the object does not exist
+     */
+    public ObjectMetadata get(final String bucketName, final String keyName, final Loader loader) {
+        final String cacheKey = toCacheKey(bucketName, keyName);
+        final ObjectMetadata cached = found.getIfPresent(cacheKey);
+        if (cached != null) {
+            return cached.clone();
+        }
+        if (notFound.getIfPresent(cacheKey) != null) {
+            return null;
+        }
+
+        final int stripe = getStripe(cacheKey);
+        final long keyGeneration = keyInvalidations.get(stripe);
+        final long prefixGeneration = prefixInvalidations.get();
+        final ObjectMetadata metadata;
+        try {
+            metadata = loader.load(bucketName, keyName);
+        } catch (AmazonS3Exception e) {
+            if (e.getStatusCode() != 404) {
+                throw e;
+            }
+            notFound.put(cacheKey, Boolean.TRUE);
+            if (keyInvalidations.get(stripe) != keyGeneration || prefixInvalidations.get() != prefixGeneration) {
+                notFound.invalidate(cacheKey);
+            }
+            return null;
+        }
+        // put first and check after, so an invalidation after the check removes the entry
+        found.put(cacheKey, metadata.clone());
+        if (keyInvalidations.get(stripe) != keyGeneration || prefixInvalidations.get() != prefixGeneration) {
+            found.invalidate(cacheKey);
+        }
+        return metadata;
+    }
+
+    public void invalidate(final String bucketName, final String keyName) {
+        final String cacheKey = toCacheKey(bucketName, keyName);
+        keyInvalidations.incrementAndGet(getStripe(cacheKey));
+        found.invalidate(cacheKey);
+        notFound.invalidate(cacheKey);
+    }
+
+    /**
+     * Invalidates all objects with the prefix, all objects of the bucket for an empty prefix.
+     */
+    public void invalidatePrefix(final String bucketName, final String prefix) {
+        prefixInvalidations.incrementAndGet();
+        final String cachePrefix = toCacheKey(bucketName, prefix == null ? "" : prefix);
+        removePrefix(found.asMap(), cachePrefix);
+        removePrefix(notFound.asMap(), cachePrefix);
+    }
+
+    public void invalidateAll() {
+        prefixInvalidations.incrementAndGet();
+        found.invalidateAll();
+        notFound.invalidateAll();
+    }
+
+    public long size() {
+        return found.size() + notFound.size();
+    }
+
+    private static String toCacheKey(final String bucketName, final String keyName) {
+        // bucket names cannot contain a slash
+        return bucketName + '/' + keyName;
+    }
+
+    private static int getStripe(final String cacheKey) {
+        final int hash = cacheKey.hashCode();
+        return (hash ^ (hash >>> 16)) & (GENERATION_STRIPES - 1);
+    }
+
+    private static long estimateSize(final String cacheKey, final ObjectMetadata metadata) {
+        long size = ENTRY_OVERHEAD + 2L * cacheKey.length();
+        for (Map.Entry<String, Object> header : metadata.getRawMetadata().entrySet()) {
+            size += ENTRY_OVERHEAD / 4 + 2L * (header.getKey().length() + String.valueOf(header.getValue()).length());
+        }
+        for (Map.Entry<String, String> header : metadata.getUserMetadata().entrySet()) {
+            size += ENTRY_OVERHEAD / 4 + 2L * (header.getKey().length() + String.valueOf(header.getValue()).length());
+        }
+        return size;
+    }
+
+    private static void removePrefix(final Map<String, ?> entries, final String cachePrefix) {
+        final Iterator<String> cacheKeys = entries.keySet().iterator();
+        while (cacheKeys.hasNext()) {
+            if (cacheKeys.next().startsWith(cachePrefix)) {
+                cacheKeys.remove();
+            }
+        }
+    }
+}
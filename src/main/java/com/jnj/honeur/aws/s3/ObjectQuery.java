@@ -0,0 +1,199 @@
+package com.jnj.honeur.aws.s3;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * A filter and projection over the records of a CSV or JSON lines object, in the subset of S3 Select SQL that
+ * can also be evaluated locally: top level fields, comparisons with a literal, combined with AND.
+ * <p>
+ * CSV fields are named by the header line, or "_1", "_2", ... when the object has no header. A comparison with
+ * a numeric literal compares numerically, otherwise as strings; records where the field is missing never match.
+ * Rows are returned as maps of the selected fields, the fields of the record when nothing is selected.
+ */
+public class ObjectQuery {
+
+    public enum Format {
+        CSV, JSON_LINES
+    }
+
+    public enum Operator {
+        EQ("="), NE("<>"), LT("<"), LE("<="), GT(">"), GE(">=");
+
+        private final String sql;
+
+        Operator(final String sql) {
+            this.sql = sql;
+        }
+    }
+
+    private static final Pattern POSITIONAL = Pattern.compile("_[1-9][0-9]*");
+    private static final Pattern NUMBER = Pattern.compile("-?[0-9]+(\\.[0-9]+)?([eE][-+]?[0-9]+)?");
+
+    private final Format format;
+    private boolean header = true;
+    private List<String> fields = Collections.emptyList();
+    private final List<Condition> conditions = new ArrayList<>();
+
+    public ObjectQuery(final Format format) {
+        this.format = format;
+    }
+
+    /**
+     * @param header whether the first line of a CSV object names the fields, true by default
+     */
+    public ObjectQuery withHeader(final boolean header) {
+        this.header = header;
+        return this;
+    }
+
+    public ObjectQuery select(final String... fields) {
+        this.fields = Collections.unmodifiableList(new ArrayList<>(Arrays.asList(fields)));
+        return this;
+    }
+
+    public ObjectQuery where(final String field, final Operator operator, final String value) {
+        if (field == null || operator == null || value == null) {
+            throw new IllegalArgumentException("A condition needs a field, an operator and a value");
+        }
+        conditions.add(new Condition(field, operator, value));
+        return this;
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    public boolean hasHeader() {
+        return format == Format.CSV && header;
+    }
+
+    public List<String> getFields() {
+        return fields;
+    }
+
+    /**
+     * @return the S3 Select SQL expression of this query
+     */
+    public String toSql() {
+        final StringBuilder sql = new StringBuilder("SELECT ");
+        if (fields.isEmpty()) {
+            sql.append('*');
+        }
+        for (int i = 0; i < fields.size(); i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            appendField(fields.get(i), sql);
+        }
+        sql.append(" FROM S3Object s");
+        for (int i = 0; i < conditions.size(); i++) {
+            final Condition condition = conditions.get(i);
+            sql.append(i == 0 ? " WHERE " : " AND ");
+            if (condition.number != null) {
+                sql.append("CAST(");
+                appendField(condition.field, sql);
+                sql.append(" AS FLOAT) ").append(condition.operator.sql).append(' ').append(condition.value);
+            } else {
+                appendField(condition.field, sql);
+                sql.append(' ').append(condition.operator.sql).append(" '").append(condition.value.replace("'", "''")).append('\'');
+            }
+        }
+        return sql.toString();
+    }
+
+    boolean matches(final Map<String, Object> record) {
+        for (Condition condition : conditions) {
+            if (!condition.matches(record.get(condition.field))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    Map<String, Object> project(final Map<String, Object> record) {
+        if (fields.isEmpty()) {
+            return record;
+        }
+        final Map<String, Object> row = new LinkedHashMap<>();
+        for (String field : fields) {
+            row.put(field, record.get(field));
+        }
+        return row;
+    }
+
+    /**
+     * @param header the field names of the header line, null to name the fields by position
+     */
+    static Map<String, Object> toRecord(final List<String> values, final List<String> header) {
+        final Map<String, Object> record = new LinkedHashMap<>();
+        for (int i = 0; i < values.size(); i++) {
+            record.put(header != null && i < header.size() ? header.get(i) : "_" + (i + 1), values.get(i));
+        }
+        return record;
+    }
+
+    private static void appendField(final String field, final StringBuilder sql) {
+        sql.append("s.");
+        if (POSITIONAL.matcher(field).matches()) {
+            sql.append(field);
+        } else {
+            sql.append('"').append(field.replace("\"", "\"\"")).append('"');
+        }
+    }
+
+    @Override
+    public String toString() {
+        return format + ": " + toSql();
+    }
+
+    private static class Condition {
+
+        private final String field;
+        private final Operator operator;
+        private final String value;
+        private final Double number;
+
+        private Condition(String field, Operator operator, String value) {
+            this.field = field;
+            this.operator = operator;
+            this.value = value;
+            this.number = parseNumber(value);
+        }
+
+        private boolean matches(final Object fieldValue) {
+            if (fieldValue == null) {
+                return false;
+            }
+            final int comparison;
+            if (number != null) {
+                final Double actual = fieldValue instanceof Number ? Double.valueOf(((Number) fieldValue).doubleValue())
+                        : parseNumber(fieldValue.toString());
+                if (actual == null) {
+                    return false;
+                }
+                comparison = actual.compareTo(number);
+            } else {
+                comparison = fieldValue.toString().compareTo(value);
+            }
+            switch (operator) {
+                case EQ: return comparison == 0;
+                case NE: return comparison != 0;
+                case LT: return comparison < 0;
+                case LE: return comparison <= 0;
+                case GT: return comparison > 0;
+                default: return comparison >= 0;
+            }
+        }
+
+        private static Double parseNumber(final String value) {
+            final String trimmed = value.trim();
+            return NUMBER.matcher(trimmed).matches() ? Double.valueOf(trimmed) : null;
+        }
+    }
+}
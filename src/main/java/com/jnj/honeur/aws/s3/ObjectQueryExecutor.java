@@ -0,0 +1,454 @@
+package com.jnj.honeur.aws.s3;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Runs an {@link ObjectQuery} on one object.
+ * <p>
+ * When the client supports S3 Select the query is pushed down, so only the matching rows are transferred.
+ * The library is compiled against an SDK without S3 Select, so the Select API is looked up by reflection, as
+ * with virtual threads in {@link BulkExecutors}. Otherwise, e.g. on a {@link StorageBackendClient}, the query
+ * is evaluated locally: the object is split in byte ranges that are read with concurrent ranged GETs and
+ * filtered on all cores, the rows are written to the sink in object order as the ranges complete, with at most
+ * twice the parallelism of ranges held back. Each GET asks for its range plus some slack for the line running
+ * over the end of the range, and more only while that line continues. Like the scan ranges of S3 Select, the
+ * local evaluation needs records without line breaks inside quoted CSV fields.
+ */
+public class ObjectQueryExecutor {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ObjectQueryExecutor.class);
+
+    public static final long DEFAULT_RANGE_SIZE = 8L * 1024 * 1024;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final int LINE_SLACK = 64 * 1024;
+    private static final String MODEL_PACKAGE = "com.amazonaws.services.s3.model.";
+
+    private static final Method SELECT_OBJECT_CONTENT = findSelectObjectContent();
+
+    private final int parallelism;
+    private final long rangeSize;
+    private final ExecutorService executor;
+
+    public ObjectQueryExecutor() {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_RANGE_SIZE);
+    }
+
+    /**
+     * @param parallelism ranges read and filtered at the same time by the local evaluation
+     * @param rangeSize size of the byte ranges of the local evaluation
+     */
+    public ObjectQueryExecutor(final int parallelism, final long rangeSize) {
+        if (parallelism < 1 || rangeSize < 1) {
+            throw new IllegalArgumentException("The parallelism and range size must be positive: " + parallelism + ", " + rangeSize);
+        }
+        this.parallelism = parallelism;
+        this.rangeSize = rangeSize;
+        this.executor = BulkExecutors.newExecutor("s3-query-%d", parallelism);
+    }
+
+    /**
+     * @return whether queries on the client are pushed down to S3 Select
+     */
+    public static boolean isSelectSupported(final AmazonS3 s3) {
+        return SELECT_OBJECT_CONTENT != null && !(s3 instanceof StorageBackendClient);
+    }
+
+    /**
+     * Writes the matching rows of the object to the sink, in object order.
+     * @return the number of rows
+     */
+    public long query(final AmazonS3 s3, final String bucketName, final String keyName, final ObjectQuery query,
+                      final RecordProcessor.Sink<Map<String, Object>> sink) throws IOException, InterruptedException {
+        final long start = System.nanoTime();
+        final long rows = isSelectSupported(s3) ? select(s3, bucketName, keyName, query, sink)
+                : evaluate(s3, bucketName, keyName, query, sink);
+        LOGGER.debug("Queried " + keyName + " in S3 bucket " + bucketName + " (" + query + "): " + rows + " rows in "
+                + (System.nanoTime() - start) / 1000000 + " ms");
+        return rows;
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private long select(final AmazonS3 s3, final String bucketName, final String keyName, final ObjectQuery query,
+                        final RecordProcessor.Sink<Map<String, Object>> sink) throws IOException {
+        final InputStream records;
+        try {
+            final Object request = newModel("SelectObjectContentRequest");
+            invoke(request, "setBucketName", bucketName);
+            invoke(request, "setKey", keyName);
+            invoke(request, "setExpression", query.toSql());
+            invoke(request, "setExpressionType", "SQL");
+            final Object input = newModel("InputSerialization");
+            if (query.getFormat() == ObjectQuery.Format.CSV) {
+                final Object csv = newModel("CSVInput");
+                invoke(csv, "setFileHeaderInfo", query.hasHeader() ? "USE" : "NONE");
+                invoke(input, "setCsv", csv);
+            } else {
+                final Object json = newModel("JSONInput");
+                invoke(json, "setType", "LINES");
+                invoke(input, "setJson", json);
+            }
+            invoke(input, "setCompressionType", "NONE");
+            invoke(request, "setInputSerialization", input);
+            final Object output = newModel("OutputSerialization");
+            invoke(output, "setJson", newModel("JSONOutput"));
+            invoke(request, "setOutputSerialization", output);
+            final Object result = SELECT_OBJECT_CONTENT.invoke(s3, request);
+            final Object payload = result.getClass().getMethod("getPayload").invoke(result);
+            records = (InputStream) payload.getClass().getMethod("getRecordsInputStream").invoke(payload);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Unexpected S3 Select API of the SDK", e);
+        }
+        // S3 Select writes the rows as JSON lines
+        try (InputStream in = records) {
+            final RecordFormat.RecordReader reader = new RecordFormat.RecordReader(
+                    new InputStreamReader(in, StandardCharsets.UTF_8), READ_BUFFER_SIZE);
+            List<Map<String, Object>> batch = new ArrayList<>();
+            long rows = 0;
+            Map<String, Object> row;
+            while ((row = RecordFormat.JSON_LINES.read(reader)) != null) {
+                batch.add(row);
+                if (batch.size() == RecordProcessor.DEFAULT_BATCH_SIZE) {
+                    sink.write(batch);
+                    rows += batch.size();
+                    batch = new ArrayList<>();
+                }
+            }
+            if (!batch.isEmpty()) {
+                sink.write(batch);
+                rows += batch.size();
+            }
+            return rows;
+        }
+    }
+
+    private long evaluate(final AmazonS3 s3, final String bucketName, final String keyName, final ObjectQuery query,
+                          final RecordProcessor.Sink<Map<String, Object>> sink) throws IOException, InterruptedException {
+        final long size = s3.getObjectMetadata(bucketName, keyName).getContentLength();
+        if (size == 0) {
+            return 0;
+        }
+        // completed ranges wait here until the ranges before them are written
+        final Deque<Future<List<Map<String, Object>>>> window = new ArrayDeque<>();
+        final int maxWindow = 2 * parallelism;
+        long rows = 0;
+        try (BulkTaskScope<List<Map<String, Object>>> scope = new BulkTaskScope<>(executor, parallelism)) {
+            final RangeScan first = new RangeScan(s3, bucketName, keyName, query, size, 0, Math.min(rangeSize, size), null);
+            final List<String> header = query.hasHeader() ? first.readHeader() : null;
+            window.add(scope.fork(first.withHeader(header)));
+            for (long offset = rangeSize; offset < size; offset += rangeSize) {
+                if (scope.isFailed()) {
+                    break;
+                }
+                while (window.size() >= maxWindow || (!window.isEmpty() && window.peekFirst().isDone())) {
+                    rows += write(takeOldest(scope, window), sink);
+                }
+                window.add(scope.fork(new RangeScan(s3, bucketName, keyName, query, size, offset, Math.min(offset + rangeSize, size), header)));
+            }
+            while (!window.isEmpty()) {
+                rows += write(takeOldest(scope, window), sink);
+            }
+            scope.join();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+        return rows;
+    }
+
+    /**
+     * @return the matches of the oldest range, waiting for it to complete
+     * @throws ExecutionException with the failure of the first failing range
+     */
+    private static List<Map<String, Object>> takeOldest(final BulkTaskScope<List<Map<String, Object>>> scope,
+                                                        final Deque<Future<List<Map<String, Object>>>> window)
+            throws InterruptedException, ExecutionException {
+        try {
+            return window.pollFirst().get();
+        } catch (CancellationException e) {
+            // cancelled by a failing sibling, report that failure instead
+            scope.join();
+            throw e;
+        }
+    }
+
+    private static long write(final List<Map<String, Object>> matches, final RecordProcessor.Sink<Map<String, Object>> sink)
+            throws IOException {
+        if (!matches.isEmpty()) {
+            sink.write(matches);
+        }
+        return matches.size();
+    }
+
+    private static Method findSelectObjectContent() {
+        try {
+            return AmazonS3.class.getMethod("selectObjectContent", Class.forName(MODEL_PACKAGE + "SelectObjectContentRequest"));
+        } catch (ClassNotFoundException | NoSuchMethodException e) {
+            LOGGER.debug("S3 Select is not available in this SDK, queries are evaluated locally");
+            return null;
+        }
+    }
+
+    private static Object newModel(final String simpleName) throws ReflectiveOperationException {
+        return Class.forName(MODEL_PACKAGE + simpleName).newInstance();
+    }
+
+    private static void invoke(final Object target, final String setter, final Object value) throws ReflectiveOperationException {
+        target.getClass().getMethod(setter, value.getClass()).invoke(target, value);
+    }
+
+    /**
+     * Filters the lines that start in one byte range of the object. The line running over the end of the range
+     * is read to its end, the line running into the start of the range belongs to the previous range.
+     */
+    private static class RangeScan implements Callable<List<Map<String, Object>>> {
+
+        private final AmazonS3 s3;
+        private final String bucketName;
+        private final String keyName;
+        private final ObjectQuery query;
+        private final long objectSize;
+        private final long start;
+        private final long end;
+        private final List<String> header;
+        private boolean skipHeader;
+
+        private RangeScan(AmazonS3 s3, String bucketName, String keyName, ObjectQuery query, long objectSize, long start, long end,
+                          List<String> header) {
+            this.s3 = s3;
+            this.bucketName = bucketName;
+            this.keyName = keyName;
+            this.query = query;
+            this.objectSize = objectSize;
+            this.start = start;
+            this.end = end;
+            this.header = header;
+        }
+
+        private RangeScan withHeader(final List<String> header) {
+            final RangeScan scan = new RangeScan(s3, bucketName, keyName, query, objectSize, start, end, header);
+            scan.skipHeader = header != null;
+            return scan;
+        }
+
+        private List<String> readHeader() throws IOException {
+            try (RangeInputStream in = new RangeInputStream(s3, bucketName, keyName, objectSize, 0, 0)) {
+                final String line = new LineScanner(in, 0).nextLine();
+                return line == null ? Collections.<String>emptyList() : parseCsv(line);
+            }
+        }
+
+        @Override
+        public List<Map<String, Object>> call() throws IOException {
+            // from the byte before the range, to find the start of the first line in the range
+            final long from = start == 0 ? 0 : start - 1;
+            final List<Map<String, Object>> matches = new ArrayList<>();
+            try (RangeInputStream in = new RangeInputStream(s3, bucketName, keyName, objectSize, from, end)) {
+                final LineScanner lines = new LineScanner(in, from);
+                if (start > 0 || skipHeader) {
+                    lines.nextLine();
+                }
+                while (lines.getPosition() < end && !Thread.currentThread().isInterrupted()) {
+                    final String line = lines.nextLine();
+                    if (line == null) {
+                        break;
+                    }
+                    final Map<String, Object> record = toRecord(line);
+                    if (record != null && query.matches(record)) {
+                        matches.add(query.project(record));
+                    }
+                }
+            }
+            return matches;
+        }
+
+        private Map<String, Object> toRecord(final String line) throws IOException {
+            if (query.getFormat() == ObjectQuery.Format.CSV) {
+                return line.isEmpty() ? null : ObjectQuery.toRecord(parseCsv(line), header);
+            }
+            if (line.trim().isEmpty()) {
+                return null;
+            }
+            try {
+                return JsonValues.parseObject(line);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Invalid JSON in " + keyName + ": " + e.getMessage(), e);
+            }
+        }
+
+        private static List<String> parseCsv(final String line) throws IOException {
+            final List<String> values = RecordFormat.CSV.read(new RecordFormat.RecordReader(new StringReader(line), Math.max(1, line.length())));
+            return values == null ? Arrays.asList("") : values;
+        }
+    }
+
+    /**
+     * Reads the object from a position with ranged GETs: the first one to the end of the scan range plus some
+     * slack, further ones of doubling size only while the last line of the range continues.
+     */
+    private static class RangeInputStream extends InputStream {
+
+        private final AmazonS3 s3;
+        private final String bucketName;
+        private final String keyName;
+        private final long objectSize;
+        private long position;
+        private long nextEnd;
+        private long extension = LINE_SLACK;
+        private long requestEnd;
+        private S3Object object;
+
+        private RangeInputStream(AmazonS3 s3, String bucketName, String keyName, long objectSize, long position, long end) {
+            this.s3 = s3;
+            this.bucketName = bucketName;
+            this.keyName = keyName;
+            this.objectSize = objectSize;
+            this.position = position;
+            this.nextEnd = end + LINE_SLACK;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(final byte[] bytes, final int offset, final int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            while (true) {
+                if (object == null) {
+                    if (position >= objectSize) {
+                        return -1;
+                    }
+                    open();
+                }
+                final int read = object.getObjectContent().read(bytes, offset, length);
+                if (read > 0) {
+                    position += read;
+                    return read;
+                }
+                if (position < requestEnd) {
+                    throw new IOException("Range of " + keyName + " ended at " + position + " instead of " + requestEnd);
+                }
+                close();
+            }
+        }
+
+        private void open() {
+            requestEnd = Math.min(objectSize, Math.max(nextEnd, position + 1));
+            object = s3.getObject(new GetObjectRequest(bucketName, keyName).withRange(position, requestEnd - 1));
+            nextEnd = requestEnd + extension;
+            extension *= 2;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (object == null) {
+                return;
+            }
+            if (position < requestEnd && object.getObjectContent().getHttpRequest() != null) {
+                // do not drain the rest of the range to reuse the connection
+                object.getObjectContent().abort();
+            }
+            object.close();
+            object = null;
+        }
+    }
+
+    /**
+     * Splits a UTF-8 stream into lines at the byte level, tracking the object offset of the next line.
+     */
+    private static class LineScanner {
+
+        private final InputStream in;
+        private final byte[] buffer = new byte[READ_BUFFER_SIZE];
+        private int bufferPosition;
+        private int bufferLimit;
+        private long position;
+        private byte[] line = new byte[256];
+
+        private LineScanner(InputStream in, long position) {
+            this.in = in;
+            this.position = position;
+        }
+
+        private long getPosition() {
+            return position;
+        }
+
+        /**
+         * @return the next line without "\n" or "\r\n", null at the end of the stream
+         */
+        private String nextLine() throws IOException {
+            int length = 0;
+            boolean any = false;
+            while (true) {
+                if (bufferPosition == bufferLimit) {
+                    bufferLimit = in.read(buffer);
+                    bufferPosition = 0;
+                    if (bufferLimit <= 0) {
+                        bufferLimit = 0;
+                        return any ? decode(length) : null;
+                    }
+                }
+                any = true;
+                final byte b = buffer[bufferPosition++];
+                position++;
+                if (b == '\n') {
+                    return decode(length);
+                }
+                if (length == line.length) {
+                    line = Arrays.copyOf(line, 2 * length);
+                }
+                line[length++] = b;
+            }
+        }
+
+        private String decode(final int length) {
+            final int trimmed = length > 0 && line[length - 1] == '\r' ? length - 1 : length;
+            return new String(line, 0, trimmed, StandardCharsets.UTF_8);
+        }
+    }
+}
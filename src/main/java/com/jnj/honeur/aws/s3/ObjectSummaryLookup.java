@@ -0,0 +1,235 @@
+package com.jnj.honeur.aws.s3;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Looks up the size and ETag of many keys at once.
+ * Keys sharing a parent prefix with many other requested keys are looked up with a delimiter listing of that prefix,
+ * which returns up to 1000 keys per request; the remaining keys are looked up with concurrent HEAD requests.
+ * A listing only covers the span from the smallest to the largest requested key, and every page starts just before
+ * the next requested key. Once the pages after the first resolved fewer requested keys per page than the listing
+ * threshold, the estimated number of pages for the remaining keys exceeds what HEAD requests would cost, and the
+ * remaining keys are looked up with HEAD requests instead.
+ */
+public class ObjectSummaryLookup {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ObjectSummaryLookup.class);
+
+    public static final int DEFAULT_CONCURRENCY = 16;
+    public static final int DEFAULT_LISTING_THRESHOLD = 32;
+    private static final String DELIMITER = "/";
+
+    private final int concurrency;
+    private final int listingThreshold;
+    private final ExecutorService executor;
+
+    public ObjectSummaryLookup() {
+        this(DEFAULT_CONCURRENCY, DEFAULT_LISTING_THRESHOLD);
+    }
+
+    /**
+     * @param listingThreshold minimum number of requested keys in a parent prefix, and per listed page, to list that prefix
+     * instead of sending HEAD requests
+     */
+    public ObjectSummaryLookup(final int concurrency, final int listingThreshold) {
+        this.listingThreshold = listingThreshold;
+        this.concurrency = concurrency;
+        this.executor = BulkExecutors.newExecutor("s3-lookup-%d", concurrency);
+    }
+
+    /**
+     * @return the summaries (key, size and ETag) of the keys that exist, missing keys are not in the map
+     */
+    public Map<String, S3ObjectSummary> lookup(final AmazonS3 s3, final String bucketName, final Collection<String> keys)
+            throws InterruptedException {
+        final Map<String, Set<String>> keysPerParent = new HashMap<>();
+        for (String key : keys) {
+            final String parent = key.substring(0, key.lastIndexOf(DELIMITER) + 1);
+            Set<String> parentKeys = keysPerParent.get(parent);
+            if (parentKeys == null) {
+                parentKeys = new HashSet<>();
+                keysPerParent.put(parent, parentKeys);
+            }
+            parentKeys.add(key);
+        }
+
+        final Map<String, S3ObjectSummary> summaries = new ConcurrentHashMap<>();
+        final Queue<String> unlisted = new ConcurrentLinkedQueue<>();
+        int listings = 0;
+        int heads = 0;
+        try {
+            try (BulkTaskScope<Void> scope = new BulkTaskScope<>(executor, concurrency)) {
+                for (Map.Entry<String, Set<String>> parentKeys : keysPerParent.entrySet()) {
+                    if (parentKeys.getValue().size() >= listingThreshold) {
+                        scope.fork(new ListingLookup(s3, bucketName, parentKeys.getKey(), parentKeys.getValue(), summaries, unlisted));
+                        listings++;
+                    } else {
+                        for (String key : parentKeys.getValue()) {
+                            scope.fork(new HeadLookup(s3, bucketName, key, summaries));
+                            heads++;
+                        }
+                    }
+                }
+                scope.join();
+            }
+            if (!unlisted.isEmpty()) {
+                // keys of listings that were stopped because they resolved too few keys per page
+                try (BulkTaskScope<Void> scope = new BulkTaskScope<>(executor, concurrency)) {
+                    for (String key : unlisted) {
+                        scope.fork(new HeadLookup(s3, bucketName, key, summaries));
+                        heads++;
+                    }
+                    scope.join();
+                }
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+        LOGGER.debug("Looked up " + keys.size() + " keys in S3 bucket " + bucketName + " with " + listings + " listings and "
+                + heads + " HEAD requests, " + summaries.size() + " found");
+        return summaries;
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private class ListingLookup implements Callable<Void> {
+
+        private final AmazonS3 s3;
+        private final String bucketName;
+        private final String prefix;
+        private final Set<String> keys;
+        private final Map<String, S3ObjectSummary> summaries;
+        private final Queue<String> unlisted;
+
+        private ListingLookup(AmazonS3 s3, String bucketName, String prefix, Set<String> keys, Map<String, S3ObjectSummary> summaries,
+                              Queue<String> unlisted) {
+            this.s3 = s3;
+            this.bucketName = bucketName;
+            this.prefix = prefix;
+            this.keys = keys;
+            this.summaries = summaries;
+            this.unlisted = unlisted;
+        }
+
+        @Override
+        public Void call() {
+            final List<String> sortedKeys = new ArrayList<>(keys);
+            Collections.sort(sortedKeys, ParallelLister.KEY_ORDER);
+            final String lastKey = sortedKeys.get(sortedKeys.size() - 1);
+            final ListObjectsV2Request request = new ListObjectsV2Request().withBucketName(bucketName).withPrefix(prefix)
+                    .withDelimiter(DELIMITER).withStartAfter(before(sortedKeys.get(0)));
+            for (int pages = 1; ; pages++) {
+                final ListObjectsV2Result result = s3.listObjectsV2(request);
+                String position = null;
+                for (S3ObjectSummary summary : result.getObjectSummaries()) {
+                    if (ParallelLister.compareKeys(summary.getKey(), lastKey) > 0) {
+                        return null;
+                    }
+                    if (keys.contains(summary.getKey())) {
+                        summaries.put(summary.getKey(), summary);
+                    }
+                    position = summary.getKey();
+                }
+                if (!result.isTruncated()) {
+                    return null;
+                }
+                final List<String> commonPrefixes = result.getCommonPrefixes();
+                if (!commonPrefixes.isEmpty()) {
+                    final String lastPrefix = commonPrefixes.get(commonPrefixes.size() - 1);
+                    if (position == null || ParallelLister.compareKeys(lastPrefix, position) > 0) {
+                        position = lastPrefix;
+                    }
+                }
+                // the requested keys up to the listed position are resolved, found or not
+                final int searched = Collections.binarySearch(sortedKeys, position, ParallelLister.KEY_ORDER);
+                final int resolved = searched >= 0 ? searched + 1 : -searched - 1;
+                if (resolved >= sortedKeys.size()) {
+                    // the page ends at the last requested key, or at a common prefix after it
+                    return null;
+                }
+                if (resolved < (long) listingThreshold * (pages - 1)) {
+                    unlisted.addAll(sortedKeys.subList(resolved, sortedKeys.size()));
+                    return null;
+                }
+                // skip the keys between the listed position and the next requested key
+                final String next = before(sortedKeys.get(resolved));
+                if (ParallelLister.compareKeys(next, position) > 0) {
+                    request.setStartAfter(next);
+                    request.setContinuationToken(null);
+                } else {
+                    request.setContinuationToken(result.getNextContinuationToken());
+                }
+            }
+        }
+
+        /**
+         * @return the key without its last character, which sorts just before the key
+         */
+        private String before(final String key) {
+            return key.substring(0, key.offsetByCodePoints(key.length(), -1));
+        }
+    }
+
+    private static class HeadLookup implements Callable<Void> {
+
+        private final AmazonS3 s3;
+        private final String bucketName;
+        private final String key;
+        private final Map<String, S3ObjectSummary> summaries;
+
+        private HeadLookup(AmazonS3 s3, String bucketName, String key, Map<String, S3ObjectSummary> summaries) {
+            this.s3 = s3;
+            this.bucketName = bucketName;
+            this.key = key;
+            this.summaries = summaries;
+        }
+
+        @Override
+        public Void call() {
+            final ObjectMetadata metadata;
+            try {
+                metadata = s3.getObjectMetadata(bucketName, key);
+            } catch (AmazonS3Exception e) {
+                if (e.getStatusCode() == 404) {
+                    return null;
+                }
+                throw e;
+            }
+            final S3ObjectSummary summary = new S3ObjectSummary();
+            summary.setBucketName(bucketName);
+            summary.setKey(key);
+            summary.setSize(metadata.getContentLength());
+            summary.setETag(metadata.getETag());
+            summary.setLastModified(metadata.getLastModified());
+            summaries.put(key, summary);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,452 @@
+package com.jnj.honeur.aws.s3;
+
+import com.amazonaws.AbortedException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.ListVersionsRequest;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.google.common.collect.AbstractIterator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lists a bucket prefix with concurrent LIST requests by splitting the key space into key ranges.
+ * Range boundaries come from the common prefixes of the first page of delimiter listings, a few levels deep.
+ * Prefixes without sub-prefixes are split on the next key character instead.
+ * The ranges are listed at the same time and merged into one stream, in key order or in arrival order.
+ */
+public class ParallelLister {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ParallelLister.class);
+
+    public static final int DEFAULT_CONCURRENCY = 32;
+    public static final int DEFAULT_MAX_DEPTH = 3;
+    public static final String DEFAULT_DELIMITER = "/";
+    private static final String SPLIT_CHARACTERS = "-.0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ_abcdefghijklmnopqrstuvwxyz";
+    private static final int QUEUED_PAGES_PER_RANGE = 4;
+    private static final long CLOSED_CHECK_MILLIS = 100;
+
+    /**
+     * Orders keys like S3 does: by the UTF-8 bytes, which is the Unicode code point order.
+     */
+    public static final Comparator<String> KEY_ORDER = new Comparator<String>() {
+        @Override
+        public int compare(String a, String b) {
+            return compareKeys(a, b);
+        }
+    };
+
+    private final int concurrency;
+    private final int targetRanges;
+    private final int maxDepth;
+    private final String delimiter;
+    private final ExecutorService executor;
+
+    public ParallelLister() {
+        this(DEFAULT_CONCURRENCY);
+    }
+
+    public ParallelLister(final int concurrency) {
+        this(concurrency, 4 * concurrency, DEFAULT_MAX_DEPTH, DEFAULT_DELIMITER);
+    }
+
+    /**
+     * @param concurrency maximum number of LIST requests in flight per listing
+     * @param targetRanges number of key ranges after which the key space is not split further
+     * @param maxDepth maximum number of delimiter levels explored to find range boundaries
+     */
+    public ParallelLister(final int concurrency, final int targetRanges, final int maxDepth, final String delimiter) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Concurrency must be at least 1");
+        }
+        this.concurrency = concurrency;
+        this.targetRanges = targetRanges;
+        this.maxDepth = maxDepth;
+        this.delimiter = delimiter;
+        this.executor = BulkExecutors.newUnboundedExecutor("s3-parallel-list-%d");
+    }
+
+    /**
+     * Splits the key space below the prefix into consecutive key ranges.
+     * Every explored prefix costs one LIST request: only the first page of common prefixes is used, the keys after
+     * a truncated first page are split on the next key character.
+     */
+    public List<KeyRange> partition(final AmazonS3 s3, final String bucketName, final String prefix) {
+        final String rootPrefix = prefix == null ? "" : prefix;
+        final NavigableSet<String> boundaries = new TreeSet<>(KEY_ORDER);
+        final List<String> leaves = new ArrayList<>();
+        List<String> level = Collections.singletonList(rootPrefix);
+        for (int depth = 0; depth < maxDepth && !level.isEmpty() && boundaries.size() < targetRanges; depth++) {
+            final List<Future<ListObjectsV2Result>> futures = new ArrayList<>();
+            for (final String levelPrefix : level) {
+                futures.add(executor.submit(new Callable<ListObjectsV2Result>() {
+                    @Override
+                    public ListObjectsV2Result call() {
+                        return s3.listObjectsV2(new ListObjectsV2Request()
+                                .withBucketName(bucketName).withPrefix(levelPrefix).withDelimiter(delimiter));
+                    }
+                }));
+            }
+            final List<String> nextLevel = new ArrayList<>();
+            for (int i = 0; i < futures.size(); i++) {
+                final ListObjectsV2Result result = getUninterruptibly(futures.get(i));
+                final List<String> commonPrefixes = result.getCommonPrefixes();
+                if (commonPrefixes.isEmpty() || result.isTruncated()) {
+                    leaves.add(level.get(i));
+                }
+                boundaries.addAll(commonPrefixes);
+                nextLevel.addAll(commonPrefixes);
+            }
+            level = nextLevel;
+        }
+        // Flat key spaces have no (or too few) common prefixes: split on the next key character
+        for (String leaf : leaves) {
+            if (boundaries.size() >= targetRanges) {
+                break;
+            }
+            for (int i = 0; i < SPLIT_CHARACTERS.length(); i++) {
+                boundaries.add(leaf + SPLIT_CHARACTERS.charAt(i));
+            }
+        }
+        boundaries.remove(rootPrefix);
+
+        final List<KeyRange> ranges = new ArrayList<>(boundaries.size() + 1);
+        String after = null;
+        for (String boundary : boundaries) {
+            ranges.add(new KeyRange(rootPrefix, after, boundary));
+            after = boundary;
+        }
+        ranges.add(new KeyRange(rootPrefix, after, null));
+        LOGGER.debug("Split prefix '" + rootPrefix + "' of S3 bucket " + bucketName + " into " + ranges.size() + " key ranges");
+        return ranges;
+    }
+
+    /**
+     * Lists all objects below the prefix.
+     * @param ordered return the objects in key order, otherwise in the order the ranges deliver them
+     * @return an iterator that should be closed when it is abandoned before the end
+     */
+    public Listing list(final AmazonS3 s3, final String bucketName, final String prefix, final boolean ordered) {
+        return list(s3, bucketName, partition(s3, bucketName, prefix), ordered);
+    }
+
+    public Listing list(final AmazonS3 s3, final String bucketName, final List<KeyRange> ranges, final boolean ordered) {
+        final Listing listing = new Listing(s3, bucketName, ranges, ordered);
+        listing.start();
+        return listing;
+    }
+
+    /**
+     * Calls the handler for every range, for at most {@link #concurrency} ranges at the same time.
+     * Returns when all ranges are handled; the first failure cancels the remaining ranges and is rethrown.
+     */
+    public void forEachRange(final List<KeyRange> ranges, final RangeHandler handler) throws InterruptedException {
+        try (BulkTaskScope<Void> scope = new BulkTaskScope<>(executor, concurrency)) {
+            for (final KeyRange range : ranges) {
+                if (scope.isFailed()) {
+                    break;
+                }
+                scope.fork(new Callable<Void>() {
+                    @Override
+                    public Void call() throws InterruptedException {
+                        handler.handle(range);
+                        return null;
+                    }
+                });
+            }
+            scope.join();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    public String getDelimiter() {
+        return delimiter;
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    static int compareKeys(final String a, final String b) {
+        int i = 0;
+        int j = 0;
+        while (i < a.length() && j < b.length()) {
+            final int ca = a.codePointAt(i);
+            final int cb = b.codePointAt(j);
+            if (ca != cb) {
+                return ca < cb ? -1 : 1;
+            }
+            i += Character.charCount(ca);
+            j += Character.charCount(cb);
+        }
+        if (i < a.length()) {
+            return 1;
+        }
+        return j < b.length() ? -1 : 0;
+    }
+
+    private static <T> T getUninterruptibly(final Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new AbortedException("Interrupted while listing S3 objects", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * The keys of a prefix after one key (exclusive, null for the start of the prefix)
+     * up to another key (inclusive, null for the end of the prefix).
+     */
+    public static class KeyRange {
+
+        private final String prefix;
+        private final String after;
+        private final String until;
+
+        public KeyRange(String prefix, String after, String until) {
+            this.prefix = prefix;
+            this.after = after;
+            this.until = until;
+        }
+
+        public String getPrefix() {
+            return prefix;
+        }
+
+        public String getAfter() {
+            return after;
+        }
+
+        public String getUntil() {
+            return until;
+        }
+
+        /**
+         * @return true when the key sorts after the end of the range, listings of the range stop there
+         */
+        public boolean isBeyond(final String key) {
+            return until != null && compareKeys(key, until) > 0;
+        }
+
+        public ListObjectsV2Request newListObjectsRequest(final String bucketName) {
+            return new ListObjectsV2Request().withBucketName(bucketName).withPrefix(prefix).withStartAfter(after);
+        }
+
+        public ListVersionsRequest newListVersionsRequest(final String bucketName) {
+            return new ListVersionsRequest().withBucketName(bucketName).withPrefix(prefix).withKeyMarker(after);
+        }
+
+        public boolean contains(final String key) {
+            return key.startsWith(prefix)
+                    && (after == null || compareKeys(key, after) > 0)
+                    && (until == null || compareKeys(key, until) <= 0);
+        }
+
+        @Override
+        public String toString() {
+            return "(" + (after == null ? prefix : after) + ", " + (until == null ? prefix + "*" : until) + "]";
+        }
+    }
+
+    /**
+     * Handles one key range of a {@link #forEachRange(List, RangeHandler)} call.
+     */
+    public interface RangeHandler {
+
+        void handle(KeyRange range) throws InterruptedException;
+    }
+
+    private static class Page {
+
+        private final List<S3ObjectSummary> summaries;
+        private final RuntimeException failure;
+        private final boolean last;
+
+        private Page(List<S3ObjectSummary> summaries, RuntimeException failure, boolean last) {
+            this.summaries = summaries;
+            this.failure = failure;
+            this.last = last;
+        }
+    }
+
+    /**
+     * Iterator over a running parallel listing. Every range is listed by at most one thread,
+     * the ranges are taken up in key order by at most {@link #concurrency} threads.
+     */
+    public class Listing extends AbstractIterator<S3ObjectSummary> implements Closeable {
+
+        private final AmazonS3 s3;
+        private final String bucketName;
+        private final List<KeyRange> ranges;
+        private final boolean ordered;
+        private final List<BlockingQueue<Page>> queues = new ArrayList<>();
+        private final AtomicInteger nextRange = new AtomicInteger();
+        private final List<Future<?>> workers = new ArrayList<>();
+        private volatile boolean closed;
+        private int currentQueue;
+        private int finishedRanges;
+        private Iterator<S3ObjectSummary> page = Collections.emptyIterator();
+
+        private Listing(AmazonS3 s3, String bucketName, List<KeyRange> ranges, boolean ordered) {
+            this.s3 = s3;
+            this.bucketName = bucketName;
+            this.ranges = ranges;
+            this.ordered = ordered;
+            if (ordered) {
+                for (int i = 0; i < ranges.size(); i++) {
+                    queues.add(new ArrayBlockingQueue<Page>(QUEUED_PAGES_PER_RANGE));
+                }
+            } else {
+                queues.add(new ArrayBlockingQueue<Page>(QUEUED_PAGES_PER_RANGE * concurrency));
+            }
+        }
+
+        private void start() {
+            for (int i = 0; i < Math.min(concurrency, ranges.size()); i++) {
+                workers.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        int index;
+                        while (!closed && (index = nextRange.getAndIncrement()) < ranges.size()) {
+                            if (!listRange(index)) {
+                                return;
+                            }
+                        }
+                    }
+                }));
+            }
+        }
+
+        /**
+         * @return false when the listing was closed or failed
+         */
+        private boolean listRange(final int index) {
+            final KeyRange range = ranges.get(index);
+            final BlockingQueue<Page> queue = ordered ? queues.get(index) : queues.get(0);
+            final ListObjectsV2Request request = range.newListObjectsRequest(bucketName);
+            try {
+                boolean last = false;
+                while (!last) {
+                    if (closed) {
+                        return false;
+                    }
+                    final ListObjectsV2Result result = s3.listObjectsV2(request);
+                    final List<S3ObjectSummary> summaries = new ArrayList<>(result.getObjectSummaries().size());
+                    last = !result.isTruncated();
+                    for (S3ObjectSummary summary : result.getObjectSummaries()) {
+                        if (range.isBeyond(summary.getKey())) {
+                            last = true;
+                            break;
+                        }
+                        summaries.add(summary);
+                    }
+                    if (!enqueue(queue, new Page(summaries, null, last))) {
+                        return false;
+                    }
+                    request.setContinuationToken(result.getNextContinuationToken());
+                }
+                return true;
+            } catch (InterruptedException e) {
+                return false;
+            } catch (RuntimeException e) {
+                // the SDK turns the interrupt of close() into an AbortedException and clears the interrupt flag
+                if (!closed) {
+                    try {
+                        enqueue(queue, new Page(Collections.<S3ObjectSummary>emptyList(), e, true));
+                    } catch (InterruptedException ie) {
+                        // closed
+                    }
+                }
+                return false;
+            }
+        }
+
+        /**
+         * Waits for room in the queue until the listing is closed, nobody takes pages from a closed listing.
+         * @return false when the listing was closed
+         */
+        private boolean enqueue(final BlockingQueue<Page> queue, final Page page) throws InterruptedException {
+            while (!closed) {
+                if (queue.offer(page, CLOSED_CHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        protected S3ObjectSummary computeNext() {
+            while (!page.hasNext()) {
+                if (finishedRanges == ranges.size()) {
+                    return endOfData();
+                }
+                if (closed) {
+                    throw new IllegalStateException("The listing was closed");
+                }
+                final Page next;
+                try {
+                    next = queues.get(currentQueue).take();
+                } catch (InterruptedException e) {
+                    close();
+                    Thread.currentThread().interrupt();
+                    throw new AbortedException("Interrupted while listing S3 objects", e);
+                }
+                if (next.failure != null) {
+                    close();
+                    throw next.failure;
+                }
+                if (next.last) {
+                    finishedRanges++;
+                    if (ordered) {
+                        currentQueue++;
+                    }
+                }
+                page = next.summaries.iterator();
+            }
+            return page.next();
+        }
+
+        /**
+         * Stops the listing threads, the iterator cannot be used anymore.
+         */
+        @Override
+        public void close() {
+            closed = true;
+            for (Future<?> worker : workers) {
+                worker.cancel(true);
+            }
+        }
+    }
+}
@@ -0,0 +1,464 @@
+package com.jnj.honeur.aws.s3;
+
+import com.amazonaws.AbortedException;
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Downloads all objects of a prefix to a directory while the listing is still being consumed.
+ * <p>
+ * Two global limits apply across all objects: the number of GET requests in flight, and the number of bytes
+ * requested but not yet written to disk. The listing waits when either limit is reached, so memory and open
+ * connections stay bounded however large the prefix is. Objects larger than the range size are fetched with
+ * concurrent ranged GETs that write to their offset of the file, pinned to the listed ETag so a concurrent
+ * overwrite fails the object instead of mixing versions. Small objects are fetched in batches, one task per batch,
+ * so millions of tiny objects do not each pay for a task and a budget reservation.
+ * <p>
+ * Each object is written to a ".download" file next to its target and renamed into place when complete;
+ * keys ending with "/" (folder markers) are skipped. When the download is interrupted, the partial files of
+ * objects with ranges that never ran are closed and deleted before it returns.
+ */
+public class PrefixDownloader {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PrefixDownloader.class);
+
+    public static final long DEFAULT_MAX_BYTES_IN_FLIGHT = 256L * 1024 * 1024;
+    public static final int DEFAULT_MAX_REQUESTS = 64;
+    public static final long DEFAULT_RANGE_SIZE = 8L * 1024 * 1024;
+    public static final long DEFAULT_SMALL_OBJECT_SIZE = 256L * 1024;
+    private static final int MAX_BATCH_OBJECTS = 16;
+    private static final int TRANSFER_BUFFER_SIZE = 256 * 1024;
+    private static final String PARTIAL_SUFFIX = ".download";
+
+    private final AmazonS3 s3;
+    private final long maxBytesInFlight;
+    private final int maxRequests;
+    private final long rangeSize;
+    private final long smallObjectSize;
+    private final DirectBufferPool bufferPool;
+    private final ExecutorService executor;
+
+    public PrefixDownloader(final AmazonS3 s3) {
+        this(s3, DEFAULT_MAX_BYTES_IN_FLIGHT, DEFAULT_MAX_REQUESTS, DEFAULT_RANGE_SIZE, DirectBufferPool.getDefault());
+    }
+
+    /**
+     * @param maxBytesInFlight bytes requested but not yet written, at least the range size
+     * @param maxRequests GET requests in flight
+     * @param rangeSize size of the ranged GETs of large objects
+     */
+    public PrefixDownloader(final AmazonS3 s3, final long maxBytesInFlight, final int maxRequests, final long rangeSize,
+                            final DirectBufferPool bufferPool) {
+        if (maxBytesInFlight < rangeSize) {
+            throw new IllegalArgumentException("The bytes in flight must at least hold one range of " + rangeSize + " bytes");
+        }
+        this.s3 = s3;
+        this.maxBytesInFlight = maxBytesInFlight;
+        this.maxRequests = maxRequests;
+        this.rangeSize = rangeSize;
+        this.smallObjectSize = Math.min(DEFAULT_SMALL_OBJECT_SIZE, rangeSize);
+        this.bufferPool = bufferPool;
+        this.executor = BulkExecutors.newUnboundedExecutor("s3-prefix-download-%d");
+    }
+
+    public DownloadBatchResult download(final String bucketName, final String prefix, final File directory)
+            throws InterruptedException {
+        return download(bucketName, prefix, new S3ObjectSummaryIterator(s3, bucketName, prefix), directory);
+    }
+
+    /**
+     * @param summaries the objects to download, e.g. a parallel listing of the prefix
+     * @param prefix removed from the keys to get the path relative to the directory
+     */
+    public DownloadBatchResult download(final String bucketName, final String prefix, final Iterator<S3ObjectSummary> summaries,
+                                        final File directory) throws InterruptedException {
+        final long start = System.nanoTime();
+        final DownloadBatchResult result = new DownloadBatchResult();
+        final ByteBudget budget = new ByteBudget(maxBytesInFlight);
+        final Path root = directory.toPath().toAbsolutePath().normalize();
+        final Set<RangedDownload> unfinished = Collections.newSetFromMap(new ConcurrentHashMap<RangedDownload, Boolean>());
+        try (BulkTaskScope<Void> scope = new BulkTaskScope<>(executor, maxRequests)) {
+            final List<S3ObjectSummary> batch = new ArrayList<>();
+            long batchBytes = 0;
+            while (summaries.hasNext()) {
+                final S3ObjectSummary summary = summaries.next();
+                if (summary.getKey().endsWith("/")) {
+                    continue;
+                }
+                final Path target = getTarget(root, prefix, summary.getKey());
+                if (target == null) {
+                    result.addFailure(summary.getKey(), new IllegalArgumentException("Key maps outside of " + root));
+                    continue;
+                }
+                if (summary.getSize() > rangeSize) {
+                    downloadRanges(bucketName, summary, target, budget, scope, result, unfinished);
+                    continue;
+                }
+                if (summary.getSize() > smallObjectSize) {
+                    budget.acquire(summary.getSize());
+                    scope.fork(new BatchDownload(bucketName, root, prefix, singletonList(summary), summary.getSize(), budget, result));
+                    continue;
+                }
+                batch.add(summary);
+                batchBytes += summary.getSize();
+                if (batch.size() == MAX_BATCH_OBJECTS || batchBytes >= rangeSize) {
+                    budget.acquire(batchBytes);
+                    scope.fork(new BatchDownload(bucketName, root, prefix, new ArrayList<>(batch), batchBytes, budget, result));
+                    batch.clear();
+                    batchBytes = 0;
+                }
+            }
+            if (!batch.isEmpty()) {
+                budget.acquire(batchBytes);
+                scope.fork(new BatchDownload(bucketName, root, prefix, batch, batchBytes, budget, result));
+            }
+            scope.join();
+        } catch (ExecutionException e) {
+            // object failures are in the result, this is an unexpected error of a task
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            // ranges not forked when interrupted, or cancelled before they ran, never finish their object
+            for (RangedDownload download : unfinished) {
+                download.abandon(new AbortedException("Download interrupted"));
+            }
+        }
+        final long millis = Math.max(1, (System.nanoTime() - start) / 1000000);
+        LOGGER.debug("Downloaded " + prefix + " of S3 bucket " + bucketName + " to " + root + ": " + result + " in " + millis
+                + " ms, " + result.getDownloadedBytes() * 1000 / millis / 1024 + " KiB/s");
+        return result;
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private void downloadRanges(final String bucketName, final S3ObjectSummary summary, final Path target, final ByteBudget budget,
+                                final BulkTaskScope<Void> scope, final DownloadBatchResult result,
+                                final Set<RangedDownload> unfinished) throws InterruptedException {
+        final RangedDownload download;
+        try {
+            download = new RangedDownload(summary, target, (int) ((summary.getSize() + rangeSize - 1) / rangeSize), result,
+                    unfinished);
+        } catch (IOException e) {
+            result.addFailure(summary.getKey(), e);
+            return;
+        }
+        for (long offset = 0; offset < summary.getSize(); offset += rangeSize) {
+            final long length = Math.min(rangeSize, summary.getSize() - offset);
+            budget.acquire(length);
+            scope.fork(new RangeDownload(bucketName, download, offset, length, budget));
+        }
+    }
+
+    /**
+     * @return the file of the key below the root, null when the key would escape the root
+     */
+    private static Path getTarget(final Path root, final String prefix, final String key) {
+        final String relative = prefix != null && key.startsWith(prefix) ? key.substring(prefix.length()) : key;
+        final Path target = root.resolve(relative.startsWith("/") ? relative.substring(1) : relative).normalize();
+        return target.startsWith(root) && !target.equals(root) ? target : null;
+    }
+
+    private long copy(final InputStream in, final FileChannel out, final long position) throws IOException {
+        final ByteBuffer buffer;
+        try {
+            buffer = bufferPool.acquire(TRANSFER_BUFFER_SIZE);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AbortedException("Interrupted while waiting for a transfer buffer");
+        }
+        try {
+            final ReadableByteChannel source = Channels.newChannel(in);
+            long written = 0;
+            while (source.read(buffer) >= 0 || buffer.position() > 0) {
+                buffer.flip();
+                written += out.write(buffer, position + written);
+                buffer.compact();
+            }
+            return written;
+        } finally {
+            bufferPool.release(buffer);
+        }
+    }
+
+    private static S3Object getObject(final AmazonS3 s3, final GetObjectRequest request) {
+        final S3Object object = s3.getObject(request);
+        if (object == null) {
+            // the ETag constraint was not met
+            throw new SdkClientException("Object " + request.getKey() + " changed while it was downloaded");
+        }
+        return object;
+    }
+
+    private static Path getPartialFile(final Path target) {
+        return target.resolveSibling(target.getFileName() + PARTIAL_SUFFIX);
+    }
+
+    private static void deleteQuietly(final Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            LOGGER.warn("Could not delete partial download " + file + ": " + e.getMessage());
+        }
+    }
+
+    private static List<S3ObjectSummary> singletonList(final S3ObjectSummary summary) {
+        final List<S3ObjectSummary> list = new ArrayList<>(1);
+        list.add(summary);
+        return list;
+    }
+
+    /**
+     * Downloads objects one after the other, each with a single GET.
+     */
+    private class BatchDownload implements Callable<Void> {
+
+        private final String bucketName;
+        private final Path root;
+        private final String prefix;
+        private final List<S3ObjectSummary> summaries;
+        private final long bytes;
+        private final ByteBudget budget;
+        private final DownloadBatchResult result;
+
+        private BatchDownload(String bucketName, Path root, String prefix, List<S3ObjectSummary> summaries, long bytes,
+                              ByteBudget budget, DownloadBatchResult result) {
+            this.bucketName = bucketName;
+            this.root = root;
+            this.prefix = prefix;
+            this.summaries = summaries;
+            this.bytes = bytes;
+            this.budget = budget;
+            this.result = result;
+        }
+
+        @Override
+        public Void call() {
+            try {
+                for (S3ObjectSummary summary : summaries) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        result.addFailure(summary.getKey(), new AbortedException("Download interrupted"));
+                        continue;
+                    }
+                    download(summary);
+                }
+            } finally {
+                budget.release(bytes);
+            }
+            return null;
+        }
+
+        private void download(final S3ObjectSummary summary) {
+            final Path target = getTarget(root, prefix, summary.getKey());
+            final Path partial = getPartialFile(target);
+            try {
+                Files.createDirectories(target.getParent());
+                try (S3Object object = s3.getObject(new GetObjectRequest(bucketName, summary.getKey()));
+                     FileChannel out = FileChannel.open(partial, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                             StandardOpenOption.TRUNCATE_EXISTING)) {
+                    copy(object.getObjectContent(), out, 0);
+                }
+                Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING);
+                result.addDownloaded(summary.getKey(), summary.getSize());
+            } catch (IOException | RuntimeException e) {
+                deleteQuietly(partial);
+                result.addFailure(summary.getKey(), e);
+            }
+        }
+    }
+
+    /**
+     * A large object downloaded with concurrent ranged GETs into one preallocated file.
+     */
+    private static class RangedDownload {
+
+        private final S3ObjectSummary summary;
+        private final Path target;
+        private final Path partial;
+        private final FileChannel channel;
+        private final AtomicInteger remainingRanges;
+        private final AtomicBoolean finished = new AtomicBoolean();
+        private final DownloadBatchResult result;
+        private final Set<RangedDownload> unfinished;
+        private volatile Exception failure;
+
+        private RangedDownload(S3ObjectSummary summary, Path target, int ranges, DownloadBatchResult result,
+                               Set<RangedDownload> unfinished) throws IOException {
+            this.summary = summary;
+            this.target = target;
+            this.partial = getPartialFile(target);
+            this.remainingRanges = new AtomicInteger(ranges);
+            this.result = result;
+            this.unfinished = unfinished;
+            Files.createDirectories(target.getParent());
+            this.channel = FileChannel.open(partial, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+            unfinished.add(this);
+        }
+
+        private void rangeDone(final Exception rangeFailure) {
+            if (rangeFailure != null && failure == null) {
+                failure = rangeFailure;
+            }
+            if (remainingRanges.decrementAndGet() > 0 || !finish()) {
+                return;
+            }
+            try {
+                channel.close();
+                if (failure == null) {
+                    Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING);
+                    result.addDownloaded(summary.getKey(), summary.getSize());
+                    return;
+                }
+            } catch (IOException e) {
+                failure = e;
+            }
+            deleteQuietly(partial);
+            result.addFailure(summary.getKey(), failure);
+        }
+
+        /**
+         * Closes and deletes the partial file of an object with ranges that will not run; ranges still running
+         * fail on the closed channel.
+         */
+        private void abandon(final Exception cause) {
+            if (!finish()) {
+                return;
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOGGER.debug("Could not close partial download " + partial + ": " + e.getMessage());
+            }
+            deleteQuietly(partial);
+            result.addFailure(summary.getKey(), failure != null ? failure : cause);
+        }
+
+        /**
+         * @return true for the one caller that completes the object
+         */
+        private boolean finish() {
+            if (!finished.compareAndSet(false, true)) {
+                return false;
+            }
+            unfinished.remove(this);
+            return true;
+        }
+    }
+
+    private class RangeDownload implements Callable<Void> {
+
+        private final String bucketName;
+        private final RangedDownload download;
+        private final long offset;
+        private final long length;
+        private final ByteBudget budget;
+
+        private RangeDownload(String bucketName, RangedDownload download, long offset, long length, ByteBudget budget) {
+            this.bucketName = bucketName;
+            this.download = download;
+            this.offset = offset;
+            this.length = length;
+            this.budget = budget;
+        }
+
+        @Override
+        public Void call() {
+            Exception failure = null;
+            try {
+                if (download.failure == null) {
+                    final GetObjectRequest request = new GetObjectRequest(bucketName, download.summary.getKey())
+                            .withRange(offset, offset + length - 1);
+                    if (download.summary.getETag() != null) {
+                        request.withMatchingETagConstraint(download.summary.getETag());
+                    }
+                    try (S3Object object = getObject(s3, request)) {
+                        final long written = copy(object.getObjectContent(), download.channel, offset);
+                        if (written != length) {
+                            throw new IOException("Range at " + offset + " of " + download.summary.getKey() + " returned "
+                                    + written + " of " + length + " bytes");
+                        }
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                failure = e;
+            } finally {
+                budget.release(length);
+                download.rangeDone(failure);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Bytes requested but not yet written to disk.
+     */
+    private static class ByteBudget {
+
+        private final long maxBytes;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition released = lock.newCondition();
+        private long available;
+
+        private ByteBudget(long maxBytes) {
+            this.maxBytes = maxBytes;
+            this.available = maxBytes;
+        }
+
+        private void acquire(final long bytes) throws InterruptedException {
+            final long needed = Math.min(bytes, maxBytes);
+            lock.lock();
+            try {
+                while (available < needed) {
+                    released.await();
+                }
+                available -= needed;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void release(final long bytes) {
+            lock.lock();
+            try {
+                available += Math.min(bytes, maxBytes);
+                released.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
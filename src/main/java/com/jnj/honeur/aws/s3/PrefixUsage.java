@@ -0,0 +1,162 @@
+package com.jnj.honeur.aws.s3;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Object count and total size of a prefix, including everything below it, with the usage of its sub-prefixes as children.
+ * Optionally the totals are also broken down per storage class, version state or age.
+ */
+public class PrefixUsage {
+
+    private final String prefix;
+    private long objectCount;
+    private long totalBytes;
+    private final Map<UsageAggregator.GroupBy, Map<String, Totals>> groups = new EnumMap<>(UsageAggregator.GroupBy.class);
+    private final Map<String, PrefixUsage> children = new TreeMap<>(ParallelLister.KEY_ORDER);
+
+    public PrefixUsage(final String prefix) {
+        this.prefix = prefix;
+    }
+
+    public String getPrefix() {
+        return prefix;
+    }
+
+    public long getObjectCount() {
+        return objectCount;
+    }
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * @return the totals per group value, e.g. per storage class; empty when the aggregation was not grouped this way
+     */
+    public Map<String, Totals> getGroupTotals(final UsageAggregator.GroupBy groupBy) {
+        final Map<String, Totals> totals = groups.get(groupBy);
+        return totals == null ? Collections.<String, Totals>emptyMap() : Collections.unmodifiableMap(totals);
+    }
+
+    public Collection<PrefixUsage> getChildren() {
+        return Collections.unmodifiableCollection(children.values());
+    }
+
+    /**
+     * @return the usage of a direct sub-prefix, e.g. "data/2018/" below "data/", or null
+     */
+    public PrefixUsage getChild(final String childPrefix) {
+        return children.get(childPrefix);
+    }
+
+    /**
+     * Adds an object to this prefix and to the sub-prefixes of its key, up to the given depth.
+     */
+    void add(final String key, final long size, final Map<UsageAggregator.GroupBy, String> groupValues,
+             final int depth, final String delimiter) {
+        objectCount++;
+        totalBytes += size;
+        for (Map.Entry<UsageAggregator.GroupBy, String> groupValue : groupValues.entrySet()) {
+            getTotals(groupValue.getKey(), groupValue.getValue()).add(1, size);
+        }
+        if (depth > 0) {
+            final int end = key.indexOf(delimiter, prefix.length());
+            if (end >= 0) {
+                getChildUsage(key.substring(0, end + delimiter.length())).add(key, size, groupValues, depth - 1, delimiter);
+            }
+        }
+    }
+
+    void merge(final PrefixUsage other) {
+        objectCount += other.objectCount;
+        totalBytes += other.totalBytes;
+        for (Map.Entry<UsageAggregator.GroupBy, Map<String, Totals>> group : other.groups.entrySet()) {
+            for (Map.Entry<String, Totals> totals : group.getValue().entrySet()) {
+                getTotals(group.getKey(), totals.getKey()).add(totals.getValue().count, totals.getValue().bytes);
+            }
+        }
+        for (PrefixUsage child : other.children.values()) {
+            getChildUsage(child.prefix).merge(child);
+        }
+    }
+
+    private Totals getTotals(final UsageAggregator.GroupBy groupBy, final String value) {
+        Map<String, Totals> totals = groups.get(groupBy);
+        if (totals == null) {
+            totals = new TreeMap<>();
+            groups.put(groupBy, totals);
+        }
+        Totals valueTotals = totals.get(value);
+        if (valueTotals == null) {
+            valueTotals = new Totals();
+            totals.put(value, valueTotals);
+        }
+        return valueTotals;
+    }
+
+    private PrefixUsage getChildUsage(final String childPrefix) {
+        PrefixUsage child = children.get(childPrefix);
+        if (child == null) {
+            child = new PrefixUsage(childPrefix);
+            children.put(childPrefix, child);
+        }
+        return child;
+    }
+
+    /**
+     * @return one line per prefix, indented by depth, like the output of du
+     */
+    public String toTreeString() {
+        final StringBuilder tree = new StringBuilder();
+        appendTo(tree, "");
+        return tree.toString();
+    }
+
+    private void appendTo(final StringBuilder tree, final String indent) {
+        tree.append(indent).append(prefix.isEmpty() ? "/" : prefix).append("  ")
+                .append(objectCount).append(" objects, ").append(totalBytes).append(" bytes");
+        for (Map.Entry<UsageAggregator.GroupBy, Map<String, Totals>> group : groups.entrySet()) {
+            tree.append("  ").append(group.getKey()).append(group.getValue());
+        }
+        tree.append('\n');
+        for (PrefixUsage child : children.values()) {
+            child.appendTo(tree, indent + "  ");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "PrefixUsage{prefix=" + prefix + ", objectCount=" + objectCount + ", totalBytes=" + totalBytes + "}";
+    }
+
+    /**
+     * Object count and total size of one group.
+     */
+    public static class Totals {
+
+        private long count;
+        private long bytes;
+
+        private void add(final long count, final long bytes) {
+            this.count += count;
+            this.bytes += bytes;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        @Override
+        public String toString() {
+            return count + " objects/" + bytes + " bytes";
+        }
+    }
+}
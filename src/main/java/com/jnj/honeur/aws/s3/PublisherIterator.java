@@ -0,0 +1,116 @@
+package com.jnj.honeur.aws.s3;
+
+import com.amazonaws.AbortedException;
+import com.google.common.collect.AbstractIterator;
+
+import java.io.Closeable;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Subscribes to a publisher and hands its items out as a blocking iterator, so the bulk operations that consume
+ * iterators accept publishers as input. At most {@code prefetch} items are buffered; more are requested when
+ * a quarter of the buffer was consumed. A publisher failure is rethrown by {@link #hasNext()}.
+ * The iterator should be closed when it is not iterated to the end, which cancels the subscription.
+ */
+public class PublisherIterator<T> extends AbstractIterator<T> implements S3Flow.Subscriber<T>, Closeable {
+
+    public static final int DEFAULT_PREFETCH = 1024;
+
+    private static final Object COMPLETE = new Object();
+
+    private final int prefetch;
+    private final int replenish;
+    private final BlockingQueue<Object> queue;
+    private volatile S3Flow.Subscription subscription;
+    private int consumed;
+
+    public PublisherIterator(final S3Flow.Publisher<T> publisher) {
+        this(publisher, DEFAULT_PREFETCH);
+    }
+
+    public PublisherIterator(final S3Flow.Publisher<T> publisher, final int prefetch) {
+        this.prefetch = prefetch;
+        this.replenish = Math.max(1, prefetch / 4);
+        // room for the completion or failure signal next to a full prefetch
+        this.queue = new ArrayBlockingQueue<>(prefetch + 1);
+        publisher.subscribe(this);
+    }
+
+    @Override
+    public void onSubscribe(final S3Flow.Subscription subscription) {
+        if (this.subscription != null) {
+            subscription.cancel();
+            return;
+        }
+        this.subscription = subscription;
+        subscription.request(prefetch);
+    }
+
+    @Override
+    public void onNext(final T item) {
+        if (!queue.offer(item)) {
+            subscription.cancel();
+            queue.clear();
+            queue.offer(new Failure(new IllegalStateException("Publisher sent more items than requested")));
+        }
+    }
+
+    @Override
+    public void onError(final Throwable throwable) {
+        queue.offer(new Failure(throwable));
+    }
+
+    @Override
+    public void onComplete() {
+        queue.offer(COMPLETE);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected T computeNext() {
+        final Object item;
+        try {
+            item = queue.take();
+        } catch (InterruptedException e) {
+            close();
+            Thread.currentThread().interrupt();
+            throw new AbortedException("Interrupted while waiting for the publisher");
+        }
+        if (item == COMPLETE) {
+            return endOfData();
+        }
+        if (item instanceof Failure) {
+            final Throwable failure = ((Failure) item).throwable;
+            if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            }
+            if (failure instanceof Error) {
+                throw (Error) failure;
+            }
+            throw new IllegalStateException(failure);
+        }
+        if (++consumed == replenish) {
+            consumed = 0;
+            subscription.request(replenish);
+        }
+        return (T) item;
+    }
+
+    @Override
+    public void close() {
+        final S3Flow.Subscription current = subscription;
+        if (current != null) {
+            current.cancel();
+        }
+    }
+
+    private static class Failure {
+
+        private final Throwable throwable;
+
+        private Failure(Throwable throwable) {
+            this.throwable = throwable;
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package com.jnj.honeur.aws.s3;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decodes records from, and encodes records to, the text of an object.
+ * Decoding reads exactly one record from the reader, so a format can span lines, e.g. quoted CSV fields.
+ * @param <R> the type of the records
+ */
+public abstract class RecordFormat<R> {
+
+    /**
+     * One record per line, without the line terminator.
+     */
+    public static final RecordFormat<String> LINES = new RecordFormat<String>() {
+        @Override
+        public String read(final RecordReader reader) throws IOException {
+            return reader.readLine();
+        }
+
+        @Override
+        public void write(final String record, final StringBuilder out) {
+            out.append(record).append('\n');
+        }
+    };
+
+    /**
+     * RFC 4180 CSV, one list of fields per record. Quoted fields may contain separators, doubled quotes and
+     * line breaks. A header line is returned as the first record.
+     */
+    public static final RecordFormat<List<String>> CSV = new RecordFormat<List<String>>() {
+        @Override
+        public List<String> read(final RecordReader reader) throws IOException {
+            int c = reader.read();
+            if (c < 0) {
+                return null;
+            }
+            final List<String> fields = new ArrayList<>();
+            final StringBuilder field = new StringBuilder();
+            boolean quoted = false;
+            while (true) {
+                if (quoted) {
+                    if (c < 0) {
+                        throw new IOException("Unterminated quoted CSV field at line " + reader.getLineNumber());
+                    }
+                    if (c == '"') {
+                        c = reader.read();
+                        if (c != '"') {
+                            quoted = false;
+                            continue;
+                        }
+                    }
+                    field.append((char) c);
+                } else if (c == '"' && field.length() == 0) {
+                    quoted = true;
+                } else if (c == ',') {
+                    fields.add(field.toString());
+                    field.setLength(0);
+                } else if (c == '\n' || c < 0) {
+                    break;
+                } else if (c == '\r') {
+                    c = reader.read();
+                    if (c != '\n' && c >= 0) {
+                        reader.unread(c);
+                    }
+                    break;
+                } else {
+                    field.append((char) c);
+                }
+                c = reader.read();
+            }
+            fields.add(field.toString());
+            return fields;
+        }
+
+        @Override
+        public void write(final List<String> record, final StringBuilder out) {
+            for (int i = 0; i < record.size(); i++) {
+                if (i > 0) {
+                    out.append(',');
+                }
+                final String field = record.get(i) == null ? "" : record.get(i);
+                if (field.indexOf(',') >= 0 || field.indexOf('"') >= 0 || field.indexOf('\n') >= 0 || field.indexOf('\r') >= 0) {
+                    out.append('"').append(field.replace("\"", "\"\"")).append('"');
+                } else {
+                    out.append(field);
+                }
+            }
+            out.append('\n');
+        }
+    };
+
+    /**
+     * One JSON object per line, decoded to maps of strings, numbers, booleans, nulls, lists and maps.
+     * Blank lines are skipped.
+     */
+    public static final RecordFormat<Map<String, Object>> JSON_LINES = new RecordFormat<Map<String, Object>>() {
+        @Override
+        public Map<String, Object> read(final RecordReader reader) throws IOException {
+            String line = reader.readLine();
+            while (line != null && line.trim().isEmpty()) {
+                line = reader.readLine();
+            }
+            if (line == null) {
+                return null;
+            }
+            try {
+                return JsonValues.parseObject(line);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Invalid JSON at line " + reader.getLineNumber() + ": " + e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public void write(final Map<String, Object> record, final StringBuilder out) {
+            JsonValues.append(record, out);
+            out.append('\n');
+        }
+    };
+
+    /**
+     * @return the next record, null at the end of the input
+     */
+    public abstract R read(RecordReader reader) throws IOException;
+
+    /**
+     * Appends the record, with its terminator, to the output.
+     */
+    public abstract void write(R record, StringBuilder out);
+
+    /**
+     * Buffered character reader with line counting and one character of push back.
+     */
+    public static final class RecordReader {
+
+        private final Reader in;
+        private final char[] buffer;
+        private int position;
+        private int limit;
+        private int pushedBack = -1;
+        private long lineNumber = 1;
+
+        public RecordReader(final Reader in, final int bufferSize) {
+            this.in = in;
+            this.buffer = new char[bufferSize];
+        }
+
+        public int read() throws IOException {
+            if (pushedBack >= 0) {
+                final int c = pushedBack;
+                pushedBack = -1;
+                return c;
+            }
+            if (position == limit) {
+                limit = in.read(buffer, 0, buffer.length);
+                position = 0;
+                if (limit <= 0) {
+                    limit = 0;
+                    return -1;
+                }
+            }
+            final char c = buffer[position++];
+            if (c == '\n') {
+                lineNumber++;
+            }
+            return c;
+        }
+
+        public void unread(final int c) {
+            pushedBack = c;
+        }
+
+        /**
+         * @return the next line without "\n" or "\r\n", null at the end of the input
+         */
+        public String readLine() throws IOException {
+            int c = read();
+            if (c < 0) {
+                return null;
+            }
+            final StringBuilder line = new StringBuilder();
+            while (c >= 0 && c != '\n') {
+                line.append((char) c);
+                c = read();
+            }
+            final int length = line.length();
+            if (length > 0 && line.charAt(length - 1) == '\r') {
+                line.setLength(length - 1);
+            }
+            return line.toString();
+        }
+
+        public long getLineNumber() {
+            return lineNumber;
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package com.jnj.honeur.aws.s3;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Decodes the records of a stream, e.g. the content of an object, and transforms them on all cores.
+ * <p>
+ * The calling thread decodes batches of records and hands them to worker threads; the transformed batches
+ * are written to the sink one at a time, in input order when requested. In ordered mode the decoder stays
+ * at most a few batches ahead of the oldest unwritten batch, so memory stays bounded when one batch is slow.
+ */
+public class RecordProcessor {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RecordProcessor.class);
+
+    public static final int DEFAULT_BATCH_SIZE = 1024;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final int parallelism;
+    private final int batchSize;
+    private final ExecutorService executor;
+
+    public RecordProcessor() {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * @param parallelism number of batches transformed at the same time
+     * @param batchSize records per batch
+     */
+    public RecordProcessor(final int parallelism, final int batchSize) {
+        if (parallelism < 1 || batchSize < 1) {
+            throw new IllegalArgumentException("The parallelism and batch size must be positive: " + parallelism + ", " + batchSize);
+        }
+        this.parallelism = parallelism;
+        this.batchSize = batchSize;
+        this.executor = BulkExecutors.newExecutor("s3-record-%d", parallelism);
+    }
+
+    /**
+     * Decodes the UTF-8 records of the input and writes the transformed records to the sink.
+     * The input is not closed.
+     * @param ordered write the batches in input order, otherwise as they are transformed
+     * @return the number of records written
+     */
+    public <R, O> long process(final InputStream in, final RecordFormat<R> format, final Transform<R, O> transform,
+                               final Sink<O> sink, final boolean ordered) throws IOException, InterruptedException {
+        final long start = System.nanoTime();
+        final RecordFormat.RecordReader reader = new RecordFormat.RecordReader(
+                new InputStreamReader(in, StandardCharsets.UTF_8), READ_BUFFER_SIZE);
+        final Collector<O> collector = new Collector<>(sink, ordered, 2 * parallelism);
+        long records = 0;
+        try (BulkTaskScope<Void> scope = new BulkTaskScope<>(executor, 2 * parallelism)) {
+            long sequence = 0;
+            List<R> batch = new ArrayList<>(batchSize);
+            R record;
+            while ((record = format.read(reader)) != null) {
+                batch.add(record);
+                records++;
+                if (batch.size() == batchSize) {
+                    if (!collector.awaitTurn(sequence)) {
+                        break;
+                    }
+                    scope.fork(new BatchTask<>(sequence++, batch, transform, collector));
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+            if (!batch.isEmpty() && collector.awaitTurn(sequence)) {
+                scope.fork(new BatchTask<>(sequence, batch, transform, collector));
+            }
+            scope.join();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+        LOGGER.debug("Processed " + records + " records into " + collector.written.get() + " in "
+                + (System.nanoTime() - start) / 1000000 + " ms");
+        return collector.written.get();
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Transforms one record, runs on the worker threads.
+     */
+    public interface Transform<R, O> {
+
+        /**
+         * @return the output record, null to drop the record
+         */
+        O apply(R record) throws Exception;
+    }
+
+    /**
+     * Receives the transformed batches, one call at a time.
+     */
+    public interface Sink<O> {
+
+        void write(List<O> records) throws IOException;
+    }
+
+    private static class BatchTask<R, O> implements Callable<Void> {
+
+        private final long sequence;
+        private final List<R> records;
+        private final Transform<R, O> transform;
+        private final Collector<O> collector;
+
+        private BatchTask(long sequence, List<R> records, Transform<R, O> transform, Collector<O> collector) {
+            this.sequence = sequence;
+            this.records = records;
+            this.transform = transform;
+            this.collector = collector;
+        }
+
+        @Override
+        public Void call() throws Exception {
+            try {
+                final List<O> output = new ArrayList<>(records.size());
+                for (R record : records) {
+                    final O transformed = transform.apply(record);
+                    if (transformed != null) {
+                        output.add(transformed);
+                    }
+                }
+                collector.complete(sequence, output);
+                return null;
+            } catch (Exception | Error e) {
+                collector.fail();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Writes the transformed batches to the sink, holding back the batches that complete out of order.
+     */
+    private static class Collector<O> {
+
+        private final Sink<O> sink;
+        private final boolean ordered;
+        private final int window;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition advanced = lock.newCondition();
+        private final TreeMap<Long, List<O>> pending = new TreeMap<>();
+        private final AtomicLong written = new AtomicLong();
+        private long next;
+        private boolean failed;
+
+        private Collector(Sink<O> sink, boolean ordered, int window) {
+            this.sink = sink;
+            this.ordered = ordered;
+            this.window = window;
+        }
+
+        /**
+         * Waits until the batch is within the window of the oldest unwritten batch.
+         * @return false when a batch failed and no more batches should be submitted
+         */
+        private boolean awaitTurn(final long sequence) throws InterruptedException {
+            lock.lock();
+            try {
+                while (ordered && !failed && sequence - next >= window) {
+                    advanced.await();
+                }
+                return !failed;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void complete(final long sequence, final List<O> output) throws IOException {
+            lock.lock();
+            try {
+                if (!ordered) {
+                    write(output);
+                    return;
+                }
+                pending.put(sequence, output);
+                while (!pending.isEmpty() && pending.firstKey() == next) {
+                    write(pending.pollFirstEntry().getValue());
+                    next++;
+                }
+                advanced.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void write(final List<O> output) throws IOException {
+            if (!output.isEmpty()) {
+                sink.write(output);
+                written.addAndGet(output.size());
+            }
+        }
+
+        private void fail() {
+            lock.lock();
+            try {
+                failed = true;
+                pending.clear();
+                advanced.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.jnj.honeur.aws.s3;
+
+import com.amazonaws.SdkClientException;
+import com.amazonaws.auth.AWSSessionCredentials;
+import com.amazonaws.auth.AWSSessionCredentialsProvider;
+import com.amazonaws.auth.BasicSessionCredentials;
+import com.amazonaws.services.securitytoken.AWSSecurityTokenService;
+import com.amazonaws.services.securitytoken.model.Credentials;
+import com.amazonaws.services.securitytoken.model.GetSessionTokenRequest;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * STS session credentials provider that refreshes the session token on a background thread well before it expires.
+ * {@link #getCredentials()} returns the current session without locking and never calls STS itself.
+ * When STS cannot be reached the refresh is retried with exponential backoff while the current session stays in use.
+ * Every provider has its own refresh thread until it is closed, so providers are meant to be shared.
+ */
+public class RefreshAheadSessionCredentialsProvider implements AWSSessionCredentialsProvider, Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RefreshAheadSessionCredentialsProvider.class);
+
+    public static final int DEFAULT_DURATION_SECONDS = 3600;
+    private static final long MIN_RETRY_DELAY_MILLIS = 1000;
+    private static final long MAX_RETRY_DELAY_MILLIS = 5 * 60 * 1000;
+
+    private final AWSSecurityTokenService tokenService;
+    private final int durationSeconds;
+    private final ScheduledExecutorService scheduler;
+
+    private volatile Session session;
+    private long retryDelayMillis = MIN_RETRY_DELAY_MILLIS;
+    private ScheduledFuture<?> nextRefresh;
+    private boolean retrying;
+
+    public RefreshAheadSessionCredentialsProvider(final AWSSecurityTokenService tokenService) {
+        this(tokenService, DEFAULT_DURATION_SECONDS);
+    }
+
+    /**
+     * Fetches the first session token before returning, later tokens are fetched in the background.
+     * @param durationSeconds requested lifetime of the session tokens
+     */
+    public RefreshAheadSessionCredentialsProvider(final AWSSecurityTokenService tokenService, final int durationSeconds) {
+        this.tokenService = tokenService;
+        this.durationSeconds = durationSeconds;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("sts-session-refresh-%d").build());
+        this.session = fetchSession();
+        scheduleRefresh(session.getRefreshDelayMillis());
+    }
+
+    @Override
+    public AWSSessionCredentials getCredentials() {
+        final Session current = session;
+        if (current.isExpired()) {
+            // Refresh is still being retried in the background
+            throw new SdkClientException("STS session credentials expired and could not be refreshed");
+        }
+        return current.credentials;
+    }
+
+    /**
+     * Requests an early background refresh, does not wait for it. Ignored while a refresh is due or running, and while
+     * a failed refresh waits for its retry, so the backoff is kept.
+     */
+    @Override
+    public synchronized void refresh() {
+        if (retrying) {
+            LOGGER.debug("STS session refresh requested while backing off, the retry stays scheduled");
+            return;
+        }
+        if (nextRefresh != null && nextRefresh.getDelay(TimeUnit.MILLISECONDS) <= 0) {
+            return;
+        }
+        scheduleRefresh(0);
+    }
+
+    /**
+     * @return the expiration time of the current session in milliseconds since the epoch
+     */
+    public long getExpiration() {
+        return session.expiration;
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    private Session fetchSession() {
+        final GetSessionTokenRequest request = new GetSessionTokenRequest().withDurationSeconds(durationSeconds);
+        final Credentials credentials = tokenService.getSessionToken(request).getCredentials();
+        LOGGER.debug("Fetched STS session token expiring at " + credentials.getExpiration());
+        return new Session(new BasicSessionCredentials(credentials.getAccessKeyId(), credentials.getSecretAccessKey(),
+                credentials.getSessionToken()), credentials.getExpiration().getTime());
+    }
+
+    private synchronized void scheduleRefresh(final long delayMillis) {
+        if (scheduler.isShutdown()) {
+            return;
+        }
+        if (nextRefresh != null) {
+            nextRefresh.cancel(false);
+        }
+        nextRefresh = scheduler.schedule(new RefreshTask(), delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private class RefreshTask implements Runnable {
+        @Override
+        public void run() {
+            try {
+                final Session refreshed = fetchSession();
+                session = refreshed;
+                synchronized (RefreshAheadSessionCredentialsProvider.this) {
+                    retrying = false;
+                    retryDelayMillis = MIN_RETRY_DELAY_MILLIS;
+                    scheduleRefresh(refreshed.getRefreshDelayMillis());
+                }
+            } catch (RuntimeException e) {
+                synchronized (RefreshAheadSessionCredentialsProvider.this) {
+                    long delay = retryDelayMillis;
+                    final long remainingMillis = session.expiration - System.currentTimeMillis();
+                    if (remainingMillis > 2 * MIN_RETRY_DELAY_MILLIS) {
+                        // Keep retrying before the current session expires
+                        delay = Math.min(delay, remainingMillis / 2);
+                    }
+                    LOGGER.warn("Could not refresh STS session token, retrying in " + delay + " ms: " + e.getMessage());
+                    retrying = true;
+                    retryDelayMillis = Math.min(retryDelayMillis * 2, MAX_RETRY_DELAY_MILLIS);
+                    scheduleRefresh(delay);
+                }
+            }
+        }
+    }
+
+    private static class Session {
+
+        private final BasicSessionCredentials credentials;
+        private final long issued = System.currentTimeMillis();
+        private final long expiration;
+
+        private Session(BasicSessionCredentials credentials, long expiration) {
+            this.credentials = credentials;
+            this.expiration = expiration;
+        }
+
+        private boolean isExpired() {
+            return System.currentTimeMillis() >= expiration;
+        }
+
+        /**
+         * Refresh when a quarter of the lifetime is left, leaving room for retries during an STS outage.
+         */
+        private long getRefreshDelayMillis() {
+            final long lifetime = expiration - issued;
+            return Math.max(0, issued + lifetime * 3 / 4 - System.currentTimeMillis());
+        }
+    }
+}
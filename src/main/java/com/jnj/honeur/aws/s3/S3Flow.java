@@ -0,0 +1,42 @@
+package com.jnj.honeur.aws.s3;
+
+/**
+ * Publisher, subscriber and subscription interfaces with the contract of {@code java.util.concurrent.Flow}
+ * (Reactive Streams): a subscriber receives at most as many items as it requested.
+ * The library is compiled for Java 7, which has no {@code Flow}; the interfaces have the same methods,
+ * so adapting them to {@code Flow} or Reactive Streams types takes a one-line delegate per method.
+ */
+public final class S3Flow {
+
+    private S3Flow() {
+    }
+
+    public interface Publisher<T> {
+
+        /**
+         * Every subscription starts a new stream of items, e.g. a new listing.
+         */
+        void subscribe(Subscriber<? super T> subscriber);
+    }
+
+    public interface Subscriber<T> {
+
+        void onSubscribe(Subscription subscription);
+
+        void onNext(T item);
+
+        void onError(Throwable throwable);
+
+        void onComplete();
+    }
+
+    public interface Subscription {
+
+        /**
+         * Adds {@code n} items to the demand of the subscriber, a non-positive {@code n} fails the subscription.
+         */
+        void request(long n);
+
+        void cancel();
+    }
+}
@@ -0,0 +1,52 @@
+package com.jnj.honeur.aws.s3;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.google.common.collect.AbstractIterator;
+
+import java.util.Iterator;
+
+/**
+ * Iterates over the object summaries of a listing, the next page is only requested when the current page is consumed.
+ */
+public class S3ObjectSummaryIterator extends AbstractIterator<S3ObjectSummary> {
+
+    private final AmazonS3 s3;
+    private final ListObjectsV2Request request;
+    private Iterator<S3ObjectSummary> page;
+    private boolean truncated = true;
+    private long pageCount;
+
+    public S3ObjectSummaryIterator(final AmazonS3 s3, final String bucketName, final String prefix) {
+        this(s3, new ListObjectsV2Request().withBucketName(bucketName).withPrefix(prefix));
+    }
+
+    public S3ObjectSummaryIterator(final AmazonS3 s3, final ListObjectsV2Request request) {
+        this.s3 = s3;
+        this.request = request;
+    }
+
+    @Override
+    protected S3ObjectSummary computeNext() {
+        while (page == null || !page.hasNext()) {
+            if (!truncated) {
+                return endOfData();
+            }
+            final ListObjectsV2Result result = s3.listObjectsV2(request);
+            pageCount++;
+            page = result.getObjectSummaries().iterator();
+            truncated = result.isTruncated();
+            request.setContinuationToken(result.getNextContinuationToken());
+        }
+        return page.next();
+    }
+
+    /**
+     * @return the number of LIST requests sent so far
+     */
+    public long getPageCount() {
+        return pageCount;
+    }
+}
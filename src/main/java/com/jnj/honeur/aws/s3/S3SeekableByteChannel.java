@@ -0,0 +1,377 @@
+package com.jnj.honeur.aws.s3;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Read-only random access channel over an S3 object.
+ * Reads are served from an LRU cache of fixed size blocks, cache misses are turned into range GETs.
+ * Sequential access is detected and triggers read-ahead; blocks needed by one read (or skipped by a
+ * short forward seek) are fetched with a single range request.
+ */
+public class S3SeekableByteChannel implements SeekableByteChannel {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(S3SeekableByteChannel.class);
+
+    private final AmazonS3 s3;
+    private final String bucketName;
+    private final String keyName;
+    private final String eTag;
+    private final long size;
+    private final Options options;
+    private final Map<Long, ByteBuffer> blockCache;
+
+    private long position;
+    private long lastBlockIndex = -1;
+    private int readAheadBlocks;
+    private boolean open = true;
+
+    private long requestCount;
+    private long bytesFetched;
+    private long cacheHits;
+    private long cacheMisses;
+
+    public S3SeekableByteChannel(final AmazonS3 s3, final String bucketName, final String keyName) {
+        this(s3, bucketName, keyName, new Options());
+    }
+
+    public S3SeekableByteChannel(final AmazonS3 s3, final String bucketName, final String keyName, final Options options) {
+        this(s3, bucketName, keyName, s3.getObjectMetadata(bucketName, keyName), options);
+    }
+
+    public S3SeekableByteChannel(final AmazonS3 s3, final String bucketName, final String keyName,
+                                 final ObjectMetadata metadata, final Options options) {
+        this.s3 = s3;
+        this.bucketName = bucketName;
+        this.keyName = keyName;
+        this.eTag = metadata.getETag();
+        this.size = metadata.getContentLength();
+        this.options = options;
+        final int maxCachedBlocks = options.getMaxCachedBlocks();
+        this.blockCache = new LinkedHashMap<Long, ByteBuffer>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, ByteBuffer> eldest) {
+                if (size() > maxCachedBlocks) {
+                    releaseBlock(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    @Override
+    public synchronized int read(final ByteBuffer dst) throws IOException {
+        ensureOpen();
+        if (position >= size) {
+            return -1;
+        }
+        final int blockSize = options.getBlockSize();
+        int bytesRead = 0;
+        while (dst.hasRemaining() && position < size) {
+            final long blockIndex = position / blockSize;
+            final long lastNeededBlock = (Math.min(size, position + dst.remaining()) - 1) / blockSize;
+            final ByteBuffer block = getBlock(blockIndex, lastNeededBlock);
+            final int offset = (int) (position - blockIndex * blockSize);
+            final int length = Math.min(block.limit() - offset, dst.remaining());
+            final ByteBuffer slice = block.duplicate();
+            slice.position(offset);
+            slice.limit(offset + length);
+            dst.put(slice);
+            position += length;
+            bytesRead += length;
+        }
+        return bytesRead;
+    }
+
+    private ByteBuffer getBlock(final long blockIndex, final long lastNeededBlock) throws IOException {
+        final boolean sequential = isSequential(blockIndex);
+        final ByteBuffer cached = blockCache.get(blockIndex);
+        if (cached != null) {
+            cacheHits++;
+            lastBlockIndex = blockIndex;
+            return cached;
+        }
+        cacheMisses++;
+
+        if (sequential) {
+            readAheadBlocks = Math.min(Math.max(1, readAheadBlocks * 2), options.getMaxReadAheadBlocks());
+        } else {
+            readAheadBlocks = 0;
+        }
+
+        // Coalesce: blocks skipped by a short forward seek are fetched with the requested ones
+        long firstBlock = blockIndex;
+        if (sequential && blockIndex > lastBlockIndex + 1 && blockIndex - lastBlockIndex <= options.getMaxCachedBlocks()) {
+            firstBlock = lastBlockIndex + 1;
+        }
+        while (firstBlock < blockIndex && blockCache.containsKey(firstBlock)) {
+            firstBlock++;
+        }
+        long lastBlock = Math.max(lastNeededBlock, blockIndex + readAheadBlocks);
+        lastBlock = Math.min(lastBlock, (size - 1) / options.getBlockSize());
+        lastBlock = Math.min(lastBlock, firstBlock + options.getMaxCachedBlocks() - 1);
+        for (long i = blockIndex + 1; i <= lastBlock; i++) {
+            if (blockCache.containsKey(i)) {
+                lastBlock = i - 1;
+                break;
+            }
+        }
+
+        fetchBlocks(firstBlock, lastBlock);
+        lastBlockIndex = blockIndex;
+        final ByteBuffer block = blockCache.get(blockIndex);
+        if (block == null) {
+            throw new IOException("Block " + blockIndex + " of " + keyName + " could not be cached");
+        }
+        return block;
+    }
+
+    private boolean isSequential(final long blockIndex) {
+        if (lastBlockIndex < 0) {
+            return false;
+        }
+        final long gapBlocks = blockIndex - lastBlockIndex;
+        final long maxGapBlocks = 1 + options.getCoalesceDistance() / options.getBlockSize();
+        return gapBlocks >= 0 && gapBlocks <= maxGapBlocks;
+    }
+
+    private void fetchBlocks(final long firstBlock, final long lastBlock) throws IOException {
+        final int blockSize = options.getBlockSize();
+        final long start = firstBlock * blockSize;
+        final long end = Math.min(size, (lastBlock + 1) * blockSize) - 1;
+        LOGGER.debug("Fetching bytes " + start + "-" + end + " of " + keyName + " from S3 bucket " + bucketName);
+
+        final GetObjectRequest request = new GetObjectRequest(bucketName, keyName).withRange(start, end);
+        if (eTag != null) {
+            request.withMatchingETagConstraint(eTag);
+        }
+        final S3Object s3Object = s3.getObject(request);
+        if (s3Object == null) {
+            throw new IOException("Object " + keyName + " in S3 bucket " + bucketName + " changed while reading");
+        }
+        requestCount++;
+
+        final List<ByteBuffer> blocks = new ArrayList<>();
+        try (InputStream in = s3Object.getObjectContent()) {
+            final ReadableByteChannel source = Channels.newChannel(in);
+            for (long blockIndex = firstBlock; blockIndex <= lastBlock; blockIndex++) {
+                final int length = (int) (Math.min(size, (blockIndex + 1) * blockSize) - blockIndex * blockSize);
+                final ByteBuffer block = allocateBlock(length);
+                blocks.add(block);
+                block.limit(length);
+                readFully(source, block);
+                block.flip();
+            }
+        } catch (IOException | RuntimeException e) {
+            for (ByteBuffer block : blocks) {
+                releaseBlock(block);
+            }
+            throw e;
+        }
+        for (int i = 0; i < blocks.size(); i++) {
+            blockCache.put(firstBlock + i, blocks.get(i));
+            bytesFetched += blocks.get(i).limit();
+        }
+    }
+
+    private ByteBuffer allocateBlock(final int length) throws IOException {
+        final DirectBufferPool bufferPool = options.getBufferPool();
+        if (bufferPool == null || length > DirectBufferPool.MAX_BUFFER_SIZE) {
+            return ByteBuffer.allocate(length);
+        }
+        try {
+            return bufferPool.acquire(length);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a block buffer");
+        }
+    }
+
+    private void releaseBlock(final ByteBuffer block) {
+        final DirectBufferPool bufferPool = options.getBufferPool();
+        if (bufferPool != null && block.isDirect()) {
+            bufferPool.release(block);
+        }
+    }
+
+    private static void readFully(final ReadableByteChannel source, final ByteBuffer block) throws IOException {
+        while (block.hasRemaining()) {
+            if (source.read(block) < 0) {
+                throw new IOException("Unexpected end of S3 object content after " + block.position() + " bytes");
+            }
+        }
+    }
+
+    @Override
+    public int write(final ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public synchronized long position() throws IOException {
+        ensureOpen();
+        return position;
+    }
+
+    @Override
+    public synchronized SeekableByteChannel position(final long newPosition) throws IOException {
+        ensureOpen();
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("Negative position: " + newPosition);
+        }
+        this.position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        ensureOpen();
+        return size;
+    }
+
+    @Override
+    public SeekableByteChannel truncate(final long size) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public synchronized boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (!open) {
+            return;
+        }
+        open = false;
+        for (ByteBuffer block : blockCache.values()) {
+            releaseBlock(block);
+        }
+        blockCache.clear();
+    }
+
+    private void ensureOpen() throws ClosedChannelException {
+        if (!isOpen()) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    public String getBucketName() {
+        return bucketName;
+    }
+
+    public String getKeyName() {
+        return keyName;
+    }
+
+    public synchronized long getRequestCount() {
+        return requestCount;
+    }
+
+    public synchronized long getBytesFetched() {
+        return bytesFetched;
+    }
+
+    public synchronized long getCacheHits() {
+        return cacheHits;
+    }
+
+    public synchronized long getCacheMisses() {
+        return cacheMisses;
+    }
+
+    /**
+     * Block cache and read-ahead settings of an {@link S3SeekableByteChannel}.
+     */
+    public static class Options {
+
+        public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+        public static final int DEFAULT_MAX_CACHED_BLOCKS = 64;
+        public static final int DEFAULT_MAX_READ_AHEAD_BLOCKS = 16;
+        public static final int DEFAULT_COALESCE_DISTANCE = 128 * 1024;
+
+        private int blockSize = DEFAULT_BLOCK_SIZE;
+        private int maxCachedBlocks = DEFAULT_MAX_CACHED_BLOCKS;
+        private int maxReadAheadBlocks = DEFAULT_MAX_READ_AHEAD_BLOCKS;
+        private int coalesceDistance = DEFAULT_COALESCE_DISTANCE;
+        private DirectBufferPool bufferPool;
+
+        public int getBlockSize() {
+            return blockSize;
+        }
+
+        public Options withBlockSize(final int blockSize) {
+            if (blockSize <= 0) {
+                throw new IllegalArgumentException("Block size must be positive");
+            }
+            this.blockSize = blockSize;
+            return this;
+        }
+
+        public int getMaxCachedBlocks() {
+            return maxCachedBlocks;
+        }
+
+        public Options withMaxCachedBlocks(final int maxCachedBlocks) {
+            if (maxCachedBlocks <= 0) {
+                throw new IllegalArgumentException("At least one block must be cached");
+            }
+            this.maxCachedBlocks = maxCachedBlocks;
+            return this;
+        }
+
+        public int getMaxReadAheadBlocks() {
+            return maxReadAheadBlocks;
+        }
+
+        public Options withMaxReadAheadBlocks(final int maxReadAheadBlocks) {
+            this.maxReadAheadBlocks = Math.max(0, maxReadAheadBlocks);
+            return this;
+        }
+
+        /**
+         * Forward seeks up to this number of bytes are served by extending the running sequential read
+         * instead of issuing a new request.
+         */
+        public int getCoalesceDistance() {
+            return coalesceDistance;
+        }
+
+        public Options withCoalesceDistance(final int coalesceDistance) {
+            this.coalesceDistance = Math.max(0, coalesceDistance);
+            return this;
+        }
+
+        /**
+         * Pool the cached blocks are taken from, blocks are heap buffers when no pool is set.
+         */
+        public DirectBufferPool getBufferPool() {
+            return bufferPool;
+        }
+
+        public Options withBufferPool(final DirectBufferPool bufferPool) {
+            this.bufferPool = bufferPool;
+            return this;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.jnj.honeur.aws.s3;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ListVersionsRequest;
+import com.amazonaws.services.s3.model.S3VersionSummary;
+import com.amazonaws.services.s3.model.VersionListing;
+import com.google.common.collect.AbstractIterator;
+
+import java.util.Iterator;
+
+/**
+ * Iterates over all versions and delete markers of a listing, in key order and newest version first per key.
+ * The next page is only requested when the current page is consumed.
+ */
+public class S3VersionSummaryIterator extends AbstractIterator<S3VersionSummary> {
+
+    private final AmazonS3 s3;
+    private final ListVersionsRequest request;
+    private Iterator<S3VersionSummary> page;
+    private boolean truncated = true;
+
+    public S3VersionSummaryIterator(final AmazonS3 s3, final String bucketName, final String prefix) {
+        this(s3, new ListVersionsRequest().withBucketName(bucketName).withPrefix(prefix));
+    }
+
+    public S3VersionSummaryIterator(final AmazonS3 s3, final ListVersionsRequest request) {
+        this.s3 = s3;
+        this.request = request;
+    }
+
+    @Override
+    protected S3VersionSummary computeNext() {
+        while (page == null || !page.hasNext()) {
+            if (!truncated) {
+                return endOfData();
+            }
+            final VersionListing listing = s3.listVersions(request);
+            page = listing.getVersionSummaries().iterator();
+            truncated = listing.isTruncated();
+            request.setKeyMarker(listing.getNextKeyMarker());
+            request.setVersionIdMarker(listing.getNextVersionIdMarker());
+        }
+        return page.next();
+    }
+}
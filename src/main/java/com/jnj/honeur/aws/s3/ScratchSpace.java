@@ -0,0 +1,268 @@
+package com.jnj.honeur.aws.s3;
+
+import com.amazonaws.AbortedException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Temporary files with a byte quota, in a private directory below a configurable root.
+ * <p>
+ * Every file handed out is tracked until it is released, its {@link File} object is garbage collected, or the
+ * space is closed; the file is deleted then. Keep the returned {@link File} reachable while the file is in use.
+ * When creating a file would exceed the quota, the caller waits until enough files are released.
+ * Files are spread over sub-directories so no single directory gets huge.
+ */
+public class ScratchSpace implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ScratchSpace.class);
+
+    public static final long DEFAULT_MAX_BYTES = 10L * 1024 * 1024 * 1024;
+    public static final String ROOT_PROPERTY = "honeur.s3.scratch.root";
+    public static final String MAX_BYTES_PROPERTY = "honeur.s3.scratch.maxBytes";
+    private static final int SUB_DIRECTORIES = 64;
+    private static final long RECHECK_MILLIS = 1000;
+
+    private static ScratchSpace defaultSpace;
+
+    private final Path directory;
+    private final long maxBytes;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    private final ReferenceQueue<File> collected = new ReferenceQueue<>();
+    private final Map<Path, TrackedFile> files = new HashMap<>();
+    private final AtomicInteger counter = new AtomicInteger();
+    private boolean closed;
+
+    /**
+     * @param root directory below which a private directory of this space is created
+     * @param maxBytes quota of the sizes of all files of this space
+     */
+    public ScratchSpace(final File root, final long maxBytes) throws IOException {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("The quota must be positive: " + maxBytes);
+        }
+        Files.createDirectories(root.toPath());
+        this.directory = Files.createTempDirectory(root.toPath(), "scratch-");
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return the JVM wide space below the {@value #ROOT_PROPERTY} directory, or "honeur-s3" in the temp directory,
+     * capped by the {@value #MAX_BYTES_PROPERTY} system property and closed on shutdown
+     */
+    public static synchronized ScratchSpace getDefault() {
+        if (defaultSpace == null) {
+            final String root = System.getProperty(ROOT_PROPERTY,
+                    new File(System.getProperty("java.io.tmpdir"), "honeur-s3").getPath());
+            try {
+                defaultSpace = new ScratchSpace(new File(root), Long.getLong(MAX_BYTES_PROPERTY, DEFAULT_MAX_BYTES));
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not create the scratch space in " + root, e);
+            }
+            final ScratchSpace space = defaultSpace;
+            Runtime.getRuntime().addShutdownHook(new Thread("scratch-space-cleanup") {
+                @Override
+                public void run() {
+                    space.close();
+                }
+            });
+        }
+        return defaultSpace;
+    }
+
+    public File getDirectory() {
+        return directory.toFile();
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Creates an empty file of unknown size, counted with its current length.
+     */
+    public File createFile(final String prefix, final String suffix) throws IOException {
+        return createFile(prefix, suffix, -1);
+    }
+
+    /**
+     * Creates a file, waiting while the quota has no room for it.
+     * @param size the expected size, reserved against the quota and allocated up front; negative when unknown
+     * @throws IOException when the size exceeds the quota or the space is closed
+     */
+    public File createFile(final String prefix, final String suffix, final long size) throws IOException {
+        final long reserved = Math.max(size, 0);
+        if (reserved > maxBytes) {
+            throw new IOException("File of " + size + " bytes exceeds the scratch space quota of " + maxBytes + " bytes");
+        }
+        final File handle;
+        lock.lock();
+        try {
+            while (true) {
+                purgeCollected();
+                if (closed) {
+                    throw new IOException("Scratch space " + directory + " is closed");
+                }
+                if (getUsedBytesLocked() + reserved <= maxBytes) {
+                    break;
+                }
+                LOGGER.debug("Scratch space " + directory + " is full, waiting for " + reserved + " bytes");
+                // files of unknown size shrink or get collected without a signal, so check again periodically
+                released.await(RECHECK_MILLIS, TimeUnit.MILLISECONDS);
+            }
+            final Path subDirectory = directory.resolve(String.format("%02x", counter.getAndIncrement() % SUB_DIRECTORIES));
+            Files.createDirectories(subDirectory);
+            final Path file = Files.createTempFile(subDirectory, prefix, suffix);
+            handle = file.toFile();
+            files.put(file, new TrackedFile(handle, file, reserved, collected));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AbortedException("Interrupted while waiting for scratch space", e);
+        } finally {
+            lock.unlock();
+        }
+        if (size > 0) {
+            try (RandomAccessFile out = new RandomAccessFile(handle, "rw")) {
+                out.setLength(size);
+            } catch (IOException e) {
+                release(handle);
+                throw e;
+            }
+        }
+        return handle;
+    }
+
+    /**
+     * Deletes a file created by this space and returns its bytes to the quota.
+     */
+    public void release(final File file) {
+        final Path path = file.toPath();
+        final TrackedFile tracked;
+        lock.lock();
+        try {
+            tracked = files.remove(path);
+            if (tracked == null) {
+                return;
+            }
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        tracked.clear();
+        delete(path);
+    }
+
+    /**
+     * @return the bytes counted against the quota: the reserved or actual size of every file, whichever is larger
+     */
+    public long getUsedBytes() {
+        lock.lock();
+        try {
+            purgeCollected();
+            return getUsedBytesLocked();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Deletes all files and the directory of this space.
+     */
+    @Override
+    public void close() {
+        final List<TrackedFile> remaining;
+        lock.lock();
+        try {
+            closed = true;
+            remaining = new ArrayList<>(files.values());
+            files.clear();
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        for (TrackedFile tracked : remaining) {
+            tracked.clear();
+        }
+        try {
+            Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(final Path file, final BasicFileAttributes attributes) throws IOException {
+                    Files.deleteIfExists(file);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(final Path dir, final IOException e) throws IOException {
+                    Files.deleteIfExists(dir);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            LOGGER.warn("Could not delete scratch space " + directory + ": " + e.getMessage());
+        }
+    }
+
+    private long getUsedBytesLocked() {
+        long used = 0;
+        for (TrackedFile tracked : files.values()) {
+            used += Math.max(tracked.reserved, tracked.path.toFile().length());
+        }
+        return used;
+    }
+
+    /**
+     * Deletes the files whose handles were garbage collected without being released.
+     */
+    private void purgeCollected() {
+        Reference<? extends File> reference;
+        while ((reference = collected.poll()) != null) {
+            final TrackedFile tracked = (TrackedFile) reference;
+            if (files.remove(tracked.path) == tracked) {
+                LOGGER.debug("Deleting unreleased scratch file " + tracked.path);
+                delete(tracked.path);
+                released.signalAll();
+            }
+        }
+    }
+
+    private static void delete(final Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            LOGGER.warn("Could not delete scratch file " + file + ": " + e.getMessage());
+        }
+    }
+
+    private static class TrackedFile extends PhantomReference<File> {
+
+        private final Path path;
+        private final long reserved;
+
+        private TrackedFile(File handle, Path path, long reserved, ReferenceQueue<File> queue) {
+            super(handle, queue);
+            this.path = path;
+            this.reserved = reserved;
+        }
+    }
+}
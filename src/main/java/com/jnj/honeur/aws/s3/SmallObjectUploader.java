@@ -0,0 +1,219 @@
+package com.jnj.honeur.aws.s3;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.internal.Mimetypes;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Uploads many small objects, each with a single PUT, as fast as the connection pool of the client allows.
+ * <p>
+ * Unlike the TransferManager there is no per-object transfer state, progress listener or part planning:
+ * the calling thread reads the next file into a pooled buffer while up to {@code concurrency} PUTs are in flight,
+ * and the upload tasks only send the buffer. Files larger than {@link DirectBufferPool#MAX_BUFFER_SIZE} are sent
+ * from the file by the upload task instead of being read ahead.
+ */
+public class SmallObjectUploader {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SmallObjectUploader.class);
+
+    public static final int DEFAULT_CONCURRENCY = 128;
+
+    private final AmazonS3 s3;
+    private final int concurrency;
+    private final DirectBufferPool bufferPool;
+    private final ExecutorService executor;
+
+    public SmallObjectUploader(final AmazonS3 s3) {
+        this(s3, DEFAULT_CONCURRENCY, DirectBufferPool.getDefault());
+    }
+
+    /**
+     * @param concurrency PUT requests in flight, at most the maximum number of connections of the client
+     */
+    public SmallObjectUploader(final AmazonS3 s3, final int concurrency, final DirectBufferPool bufferPool) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("The concurrency must be positive: " + concurrency);
+        }
+        this.s3 = s3;
+        this.concurrency = concurrency;
+        this.bufferPool = bufferPool;
+        this.executor = BulkExecutors.newExecutor("s3-small-upload-%d", concurrency);
+    }
+
+    public UploadBatchResult upload(final String bucketName, final Iterator<Entry> entries) throws InterruptedException {
+        final long start = System.nanoTime();
+        final UploadBatchResult result = new UploadBatchResult();
+        try (BulkTaskScope<Void> scope = new BulkTaskScope<>(executor, concurrency)) {
+            while (entries.hasNext()) {
+                final Entry entry = entries.next();
+                final ByteBuffer content;
+                try {
+                    content = read(entry);
+                } catch (IOException e) {
+                    result.addFailure(entry.getKey(), e);
+                    continue;
+                }
+                boolean forked = false;
+                try {
+                    scope.fork(new PutTask(bucketName, entry, content, result));
+                    forked = true;
+                } finally {
+                    if (!forked) {
+                        bufferPool.release(content);
+                    }
+                }
+            }
+            scope.join();
+        } catch (ExecutionException e) {
+            // PUT failures are in the result, this is an unexpected error of a task
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+        LOGGER.debug("Uploaded small objects to S3 bucket " + bucketName + ": " + result + " in "
+                + (System.nanoTime() - start) / 1000000 + " ms");
+        return result;
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Called on the upload thread after every successful PUT, e.g. to keep an inventory up to date.
+     */
+    protected void onUploaded(final String bucketName, final String keyName, final long size, final String eTag) {
+    }
+
+    /**
+     * @return the file content in a pooled buffer, null for content that is sent as is
+     */
+    private ByteBuffer read(final Entry entry) throws IOException, InterruptedException {
+        if (entry.getFile() == null) {
+            return null;
+        }
+        try (FileChannel in = FileChannel.open(entry.getFile().toPath(), StandardOpenOption.READ)) {
+            final long size = in.size();
+            if (size > DirectBufferPool.MAX_BUFFER_SIZE) {
+                return null;
+            }
+            final ByteBuffer buffer = bufferPool.acquire((int) size);
+            try {
+                buffer.limit((int) size);
+                while (buffer.hasRemaining() && in.read(buffer) >= 0) {
+                    // fill the buffer with the file content
+                }
+                buffer.flip();
+                return buffer;
+            } catch (IOException | RuntimeException e) {
+                bufferPool.release(buffer);
+                throw e;
+            }
+        }
+    }
+
+    private class PutTask implements Callable<Void> {
+
+        private final String bucketName;
+        private final Entry entry;
+        private final ByteBuffer content;
+        private final UploadBatchResult result;
+
+        private PutTask(String bucketName, Entry entry, ByteBuffer content, UploadBatchResult result) {
+            this.bucketName = bucketName;
+            this.entry = entry;
+            this.content = content;
+            this.result = result;
+        }
+
+        @Override
+        public Void call() {
+            try {
+                final PutObjectRequest request = newRequest();
+                final PutObjectResult putResult = s3.putObject(request);
+                onUploaded(bucketName, entry.getKey(), request.getFile() != null ? request.getFile().length()
+                        : request.getMetadata().getContentLength(), putResult.getETag());
+                result.addUploaded(entry.getKey());
+            } catch (AmazonClientException e) {
+                result.addFailure(entry.getKey(), e);
+            } finally {
+                bufferPool.release(content);
+            }
+            return null;
+        }
+
+        private PutObjectRequest newRequest() {
+            if (entry.getFile() != null && content == null) {
+                return new PutObjectRequest(bucketName, entry.getKey(), entry.getFile());
+            }
+            final ObjectMetadata metadata = new ObjectMetadata();
+            final InputStream in;
+            if (content != null) {
+                metadata.setContentLength(content.remaining());
+                metadata.setContentType(Mimetypes.getInstance().getMimetype(entry.getFile()));
+                in = new ByteBufferInputStream(content);
+            } else {
+                metadata.setContentLength(entry.getContent().length);
+                in = new ByteArrayInputStream(entry.getContent());
+            }
+            final PutObjectRequest request = new PutObjectRequest(bucketName, entry.getKey(), in, metadata);
+            // the content is in memory, let the client reset the whole stream on a retry
+            request.getRequestClientOptions().setReadLimit((int) metadata.getContentLength() + 1);
+            return request;
+        }
+    }
+
+    /**
+     * An object to upload: a key with either a local file or the content in memory.
+     */
+    public static final class Entry {
+
+        private final String key;
+        private final File file;
+        private final byte[] content;
+
+        private Entry(final String key, final File file, final byte[] content) {
+            this.key = key;
+            this.file = file;
+            this.content = content;
+        }
+
+        public static Entry ofFile(final String key, final File file) {
+            return new Entry(key, file, null);
+        }
+
+        public static Entry ofBytes(final String key, final byte[] content) {
+            return new Entry(key, null, content);
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        public byte[] getContent() {
+            return content;
+        }
+    }
+}
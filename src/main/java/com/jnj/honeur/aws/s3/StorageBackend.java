@@ -0,0 +1,65 @@
+package com.jnj.honeur.aws.s3;
+
+import com.amazonaws.services.s3.model.Bucket;
+import com.amazonaws.services.s3.model.CopyObjectRequest;
+import com.amazonaws.services.s3.model.CopyObjectResult;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import com.amazonaws.services.s3.model.DeleteObjectsResult;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.ListVersionsRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.VersionListing;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * The object store operations {@link AmazonS3Service} and its bulk helpers are built on.
+ * Requests and results are the S3 model types, so every backend behaves like S3 towards the service:
+ * a missing key fails with an {@code AmazonS3Exception} with status code 404, listings are in key order and paged.
+ * <p>
+ * Multipart transfers are an S3 client feature; the service only uses them for backends that are an
+ * {@link AmazonS3StorageBackend} and uploads and downloads in one request otherwise.
+ */
+public interface StorageBackend {
+
+    List<Bucket> listBuckets();
+
+    boolean doesBucketExist(String bucketName);
+
+    Bucket createBucket(String bucketName, String region);
+
+    void deleteBucket(String bucketName);
+
+    ObjectMetadata getObjectMetadata(String bucketName, String keyName);
+
+    S3Object getObject(GetObjectRequest request);
+
+    /**
+     * Writes the object content to the destination file.
+     */
+    ObjectMetadata getObject(GetObjectRequest request, File destination);
+
+    PutObjectResult putObject(PutObjectRequest request);
+
+    CopyObjectResult copyObject(CopyObjectRequest request);
+
+    ListObjectsV2Result listObjectsV2(ListObjectsV2Request request);
+
+    /**
+     * Backends without versioning list the current objects as the only versions.
+     */
+    VersionListing listVersions(ListVersionsRequest request);
+
+    void deleteObject(String bucketName, String keyName);
+
+    /**
+     * @throws com.amazonaws.services.s3.model.MultiObjectDeleteException when some keys could not be deleted
+     */
+    DeleteObjectsResult deleteObjects(DeleteObjectsRequest request);
+}
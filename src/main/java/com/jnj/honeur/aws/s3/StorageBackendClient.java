@@ -0,0 +1,172 @@
+package com.jnj.honeur.aws.s3;
+
+import com.amazonaws.services.s3.AbstractAmazonS3;
+import com.amazonaws.services.s3.model.Bucket;
+import com.amazonaws.services.s3.model.CopyObjectRequest;
+import com.amazonaws.services.s3.model.CopyObjectResult;
+import com.amazonaws.services.s3.model.CreateBucketRequest;
+import com.amazonaws.services.s3.model.DeleteObjectRequest;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import com.amazonaws.services.s3.model.DeleteObjectsResult;
+import com.amazonaws.services.s3.model.GetObjectMetadataRequest;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.ListVersionsRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.VersionListing;
+import com.amazonaws.util.StringInputStream;
+
+import java.io.File;
+import java.io.UnsupportedEncodingException;
+import java.util.List;
+
+/**
+ * Presents a storage backend as an {@code AmazonS3} client, so the listing, lookup and bulk delete helpers
+ * run unchanged on any backend. Only the operations of {@link StorageBackend} are supported, the other
+ * client methods throw {@link UnsupportedOperationException}.
+ */
+public class StorageBackendClient extends AbstractAmazonS3 {
+
+    private final StorageBackend backend;
+
+    public StorageBackendClient(final StorageBackend backend) {
+        this.backend = backend;
+    }
+
+    public StorageBackend getBackend() {
+        return backend;
+    }
+
+    @Override
+    public List<Bucket> listBuckets() {
+        return backend.listBuckets();
+    }
+
+    @Override
+    public boolean doesBucketExistV2(final String bucketName) {
+        return backend.doesBucketExist(bucketName);
+    }
+
+    @Override
+    public Bucket createBucket(final String bucketName) {
+        return backend.createBucket(bucketName, null);
+    }
+
+    @Override
+    public Bucket createBucket(final CreateBucketRequest request) {
+        return backend.createBucket(request.getBucketName(), request.getRegion());
+    }
+
+    @Override
+    public void deleteBucket(final String bucketName) {
+        backend.deleteBucket(bucketName);
+    }
+
+    @Override
+    public ObjectMetadata getObjectMetadata(final String bucketName, final String key) {
+        return backend.getObjectMetadata(bucketName, key);
+    }
+
+    @Override
+    public ObjectMetadata getObjectMetadata(final GetObjectMetadataRequest request) {
+        return backend.getObjectMetadata(request.getBucketName(), request.getKey());
+    }
+
+    @Override
+    public S3Object getObject(final String bucketName, final String key) {
+        return backend.getObject(new GetObjectRequest(bucketName, key));
+    }
+
+    @Override
+    public S3Object getObject(final GetObjectRequest request) {
+        return backend.getObject(request);
+    }
+
+    @Override
+    public ObjectMetadata getObject(final GetObjectRequest request, final File destination) {
+        return backend.getObject(request, destination);
+    }
+
+    @Override
+    public PutObjectResult putObject(final PutObjectRequest request) {
+        return backend.putObject(request);
+    }
+
+    @Override
+    public PutObjectResult putObject(final String bucketName, final String key, final File file) {
+        return backend.putObject(new PutObjectRequest(bucketName, key, file));
+    }
+
+    @Override
+    public PutObjectResult putObject(final String bucketName, final String key, final String content) {
+        final ObjectMetadata metadata = new ObjectMetadata();
+        try {
+            final StringInputStream in = new StringInputStream(content);
+            metadata.setContentLength(in.available());
+            metadata.setContentType("text/plain");
+            return backend.putObject(new PutObjectRequest(bucketName, key, in, metadata));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public CopyObjectResult copyObject(final String sourceBucketName, final String sourceKey,
+                                       final String destinationBucketName, final String destinationKey) {
+        return backend.copyObject(new CopyObjectRequest(sourceBucketName, sourceKey, destinationBucketName, destinationKey));
+    }
+
+    @Override
+    public CopyObjectResult copyObject(final CopyObjectRequest request) {
+        return backend.copyObject(request);
+    }
+
+    @Override
+    public ListObjectsV2Result listObjectsV2(final String bucketName) {
+        return backend.listObjectsV2(new ListObjectsV2Request().withBucketName(bucketName));
+    }
+
+    @Override
+    public ListObjectsV2Result listObjectsV2(final String bucketName, final String prefix) {
+        return backend.listObjectsV2(new ListObjectsV2Request().withBucketName(bucketName).withPrefix(prefix));
+    }
+
+    @Override
+    public ListObjectsV2Result listObjectsV2(final ListObjectsV2Request request) {
+        return backend.listObjectsV2(request);
+    }
+
+    @Override
+    public VersionListing listVersions(final String bucketName, final String prefix) {
+        return backend.listVersions(new ListVersionsRequest().withBucketName(bucketName).withPrefix(prefix));
+    }
+
+    @Override
+    public VersionListing listVersions(final ListVersionsRequest request) {
+        return backend.listVersions(request);
+    }
+
+    @Override
+    public void deleteObject(final String bucketName, final String key) {
+        backend.deleteObject(bucketName, key);
+    }
+
+    @Override
+    public void deleteObject(final DeleteObjectRequest request) {
+        backend.deleteObject(request.getBucketName(), request.getKey());
+    }
+
+    @Override
+    public DeleteObjectsResult deleteObjects(final DeleteObjectsRequest request) {
+        return backend.deleteObjects(request);
+    }
+
+    @Override
+    public void shutdown() {
+        // the backend owns no client resources
+    }
+}
@@ -0,0 +1,52 @@
+package com.jnj.honeur.aws.s3;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Outcome of a batch of skip-if-unchanged uploads: the uploaded keys, the keys skipped because S3 already had
+ * the same content, and the failure per key that could not be uploaded.
+ */
+public class UploadBatchResult {
+
+    private final List<String> uploadedKeys = new ArrayList<>();
+    private final List<String> skippedKeys = new ArrayList<>();
+    private final Map<String, Exception> failures = new LinkedHashMap<>();
+
+    synchronized void addUploaded(final String key) {
+        uploadedKeys.add(key);
+    }
+
+    synchronized void addSkipped(final String key) {
+        skippedKeys.add(key);
+    }
+
+    synchronized void addFailure(final String key, final Exception failure) {
+        failures.put(key, failure);
+    }
+
+    public synchronized List<String> getUploadedKeys() {
+        return Collections.unmodifiableList(new ArrayList<>(uploadedKeys));
+    }
+
+    public synchronized List<String> getSkippedKeys() {
+        return Collections.unmodifiableList(new ArrayList<>(skippedKeys));
+    }
+
+    public synchronized Map<String, Exception> getFailures() {
+        return Collections.unmodifiableMap(new LinkedHashMap<>(failures));
+    }
+
+    public synchronized boolean isSuccessful() {
+        return failures.isEmpty();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "UploadBatchResult{uploaded=" + uploadedKeys.size() + ", skipped=" + skippedKeys.size()
+                + ", failed=" + failures.size() + "}";
+    }
+}
@@ -0,0 +1,252 @@
+package com.jnj.honeur.aws.s3;
+
+import com.amazonaws.HttpMethod;
+import com.amazonaws.SdkClientException;
+import com.amazonaws.auth.AWSCredentials;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.auth.AWSSessionCredentials;
+import com.amazonaws.services.s3.internal.BucketNameUtils;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generates Signature Version 4 pre-signed S3 URLs in bulk.
+ * <p>
+ * The SDK derives the signing key, four HMACs from the secret key, for every URL. The derived key only changes
+ * with the date, region and credentials, so it is derived once per day and region here and shared by all threads.
+ * A batch is signed with one timestamp, and every thread reuses its own MAC, digest and string builder, so a URL
+ * costs two hashes and little more than the allocation of the URL itself.
+ * Only the host header is signed and the payload is unsigned, as in the URLs of the SDK.
+ */
+public class UrlPresigner {
+
+    public static final long MAX_EXPIRES_SECONDS = TimeUnit.DAYS.toSeconds(7);
+
+    private static final String ALGORITHM = "AWS4-HMAC-SHA256";
+    private static final String SERVICE = "s3";
+    private static final String TERMINATOR = "aws4_request";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final AWSCredentialsProvider credentialsProvider;
+    private volatile SigningKeys signingKeys;
+
+    private final ThreadLocal<Signer> signers = new ThreadLocal<Signer>() {
+        @Override
+        protected Signer initialValue() {
+            return new Signer();
+        }
+    };
+
+    public UrlPresigner(final AWSCredentialsProvider credentialsProvider) {
+        this.credentialsProvider = credentialsProvider;
+    }
+
+    public URL presign(final String bucketName, final String keyName, final String region, final HttpMethod method,
+                       final Date expiration) {
+        return presign(bucketName, Collections.singletonList(keyName), region, method, expiration).get(0);
+    }
+
+    /**
+     * @param expiration when the URLs expire, at most {@value #MAX_EXPIRES_SECONDS} seconds from now
+     * @return the URL per key, in the order of the keys
+     */
+    public List<URL> presign(final String bucketName, final List<String> keyNames, final String region, final HttpMethod method,
+                             final Date expiration) {
+        final Date now = new Date();
+        return presign(bucketName, keyNames, region, method, now,
+                TimeUnit.MILLISECONDS.toSeconds(expiration.getTime() - now.getTime()));
+    }
+
+    List<URL> presign(final String bucketName, final List<String> keyNames, final String region, final HttpMethod method,
+                      final Date signingTime, final long expiresSeconds) {
+        if (expiresSeconds < 1 || expiresSeconds > MAX_EXPIRES_SECONDS) {
+            throw new IllegalArgumentException("Pre-signed URLs expire between 1 and " + MAX_EXPIRES_SECONDS + " seconds from now: " + expiresSeconds);
+        }
+        final AWSCredentials credentials = credentialsProvider.getCredentials();
+        final SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd'T'HHmmss'Z'", Locale.ROOT);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        final String timestamp = format.format(signingTime);
+        final String date = timestamp.substring(0, 8);
+        final String scope = date + "/" + region + "/" + SERVICE + "/" + TERMINATOR;
+
+        final Signer signer = signers.get();
+        signer.useKey(getSigningKey(credentials, date, region));
+
+        // the parameters before and after the key are the same for the whole batch
+        final boolean virtualHost = BucketNameUtils.isDNSBucketName(bucketName) && bucketName.indexOf('.') < 0;
+        final String host = virtualHost ? bucketName + ".s3." + region + ".amazonaws.com" : "s3." + region + ".amazonaws.com";
+        final StringBuilder query = new StringBuilder(256)
+                .append("X-Amz-Algorithm=").append(ALGORITHM)
+                .append("&X-Amz-Credential=");
+        encode(credentials.getAWSAccessKeyId() + "/" + scope, false, query);
+        query.append("&X-Amz-Date=").append(timestamp)
+                .append("&X-Amz-Expires=").append(expiresSeconds);
+        if (credentials instanceof AWSSessionCredentials) {
+            query.append("&X-Amz-Security-Token=");
+            encode(((AWSSessionCredentials) credentials).getSessionToken(), false, query);
+        }
+        query.append("&X-Amz-SignedHeaders=host");
+        final String canonicalQuery = query.toString();
+        final String canonicalHeaders = "host:" + host + "\n\nhost\nUNSIGNED-PAYLOAD";
+        final String stringToSignPrefix = ALGORITHM + "\n" + timestamp + "\n" + scope + "\n";
+
+        final List<URL> urls = new ArrayList<>(keyNames.size());
+        for (String keyName : keyNames) {
+            final StringBuilder path = signer.path;
+            path.setLength(0);
+            path.append('/');
+            if (!virtualHost) {
+                encode(bucketName, false, path);
+                path.append('/');
+            }
+            encode(keyName, true, path);
+            final String signature = signer.sign(method.name(), path, canonicalQuery, canonicalHeaders, stringToSignPrefix);
+            try {
+                urls.add(new URL("https://" + host + path + "?" + canonicalQuery + "&X-Amz-Signature=" + signature));
+            } catch (MalformedURLException e) {
+                throw new SdkClientException("Could not pre-sign " + keyName + " in S3 bucket " + bucketName, e);
+            }
+        }
+        return urls;
+    }
+
+    private SecretKeySpec getSigningKey(final AWSCredentials credentials, final String date, final String region) {
+        SigningKeys keys = signingKeys;
+        if (keys == null || !keys.date.equals(date) || !keys.secretKey.equals(credentials.getAWSSecretKey())) {
+            // a new day or rotated credentials, the keys of the previous ones are of no use anymore
+            keys = new SigningKeys(credentials.getAWSSecretKey(), date);
+            signingKeys = keys;
+        }
+        SecretKeySpec key = keys.byRegion.get(region);
+        if (key == null) {
+            final Signer signer = signers.get();
+            byte[] derived = signer.hmac(("AWS4" + keys.secretKey).getBytes(StandardCharsets.UTF_8), date);
+            derived = signer.hmac(derived, region);
+            derived = signer.hmac(derived, SERVICE);
+            derived = signer.hmac(derived, TERMINATOR);
+            key = new SecretKeySpec(derived, "HmacSHA256");
+            final SecretKeySpec existing = keys.byRegion.putIfAbsent(region, key);
+            if (existing != null) {
+                key = existing;
+            }
+        }
+        return key;
+    }
+
+    /**
+     * URI encodes the UTF-8 bytes of the value as SigV4 requires: everything but the unreserved characters,
+     * and the slashes of a path.
+     */
+    private static void encode(final String value, final boolean path, final StringBuilder out) {
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')
+                    || c == '-' || c == '_' || c == '.' || c == '~' || (path && c == '/')) {
+                out.append(c);
+            } else if (c < 0x80) {
+                appendEscaped(c, out);
+            } else {
+                final int end = Character.isHighSurrogate(c) && i + 1 < value.length() ? i + 2 : i + 1;
+                for (byte b : value.substring(i, end).getBytes(StandardCharsets.UTF_8)) {
+                    appendEscaped(b & 0xff, out);
+                }
+                i = end - 1;
+            }
+        }
+    }
+
+    private static void appendEscaped(final int b, final StringBuilder out) {
+        out.append('%').append(Character.toUpperCase(HEX[b >> 4])).append(Character.toUpperCase(HEX[b & 0xf]));
+    }
+
+    /**
+     * The derived signing keys of one secret key and date, by region.
+     */
+    private static class SigningKeys {
+
+        private final String secretKey;
+        private final String date;
+        private final ConcurrentMap<String, SecretKeySpec> byRegion = new ConcurrentHashMap<>();
+
+        private SigningKeys(String secretKey, String date) {
+            this.secretKey = secretKey;
+            this.date = date;
+        }
+    }
+
+    /**
+     * The hashing state of one thread.
+     */
+    private static class Signer {
+
+        private final Mac mac;
+        private final MessageDigest digest;
+        private final StringBuilder path = new StringBuilder(256);
+        private final StringBuilder text = new StringBuilder(512);
+        private final char[] hex = new char[64];
+        private SecretKeySpec key;
+
+        private Signer() {
+            try {
+                mac = Mac.getInstance("HmacSHA256");
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("HmacSHA256 and SHA-256 are required by every Java platform", e);
+            }
+        }
+
+        private void useKey(final SecretKeySpec signingKey) {
+            if (key != signingKey) {
+                init(signingKey);
+            }
+        }
+
+        private void init(final SecretKeySpec signingKey) {
+            try {
+                mac.init(signingKey);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+            key = signingKey;
+        }
+
+        private byte[] hmac(final byte[] secret, final String data) {
+            // derivation changes the key of the MAC, the signing key is set again on the next use
+            init(new SecretKeySpec(secret, "HmacSHA256"));
+            key = null;
+            return mac.doFinal(data.getBytes(StandardCharsets.UTF_8));
+        }
+
+        private String sign(final String method, final CharSequence path, final String canonicalQuery, final String canonicalHeaders,
+                            final String stringToSignPrefix) {
+            text.setLength(0);
+            text.append(method).append('\n').append(path).append('\n').append(canonicalQuery).append('\n').append(canonicalHeaders);
+            final String requestHash = toHex(digest.digest(text.toString().getBytes(StandardCharsets.UTF_8)));
+            return toHex(mac.doFinal((stringToSignPrefix + requestHash).getBytes(StandardCharsets.UTF_8)));
+        }
+
+        private String toHex(final byte[] bytes) {
+            for (int i = 0; i < bytes.length; i++) {
+                hex[2 * i] = HEX[(bytes[i] >> 4) & 0xf];
+                hex[2 * i + 1] = HEX[bytes[i] & 0xf];
+            }
+            return new String(hex, 0, 2 * bytes.length);
+        }
+    }
+}
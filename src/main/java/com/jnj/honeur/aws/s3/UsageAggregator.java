@@ -0,0 +1,111 @@
+package com.jnj.honeur.aws.s3;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.amazonaws.services.s3.model.S3VersionSummary;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Computes object counts and sizes per prefix, like du, from a parallel partitioned listing.
+ * Every key range is accumulated into its own usage tree while it is listed, so memory only depends on
+ * the number of prefixes in the result, not on the number of objects.
+ */
+public class UsageAggregator {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(UsageAggregator.class);
+
+    private static final long[] AGE_LIMITS_DAYS = {30, 90, 365};
+
+    /**
+     * Optional breakdowns of the totals.
+     */
+    public enum GroupBy {
+        STORAGE_CLASS,
+        /** current, noncurrent and delete-marker; counts all versions instead of the current objects only */
+        VERSION_STATE,
+        /** 0-30d, 30-90d, 90-365d and 365d+ since the last modification */
+        AGE
+    }
+
+    private final ParallelLister lister;
+
+    public UsageAggregator(final ParallelLister lister) {
+        this.lister = lister;
+    }
+
+    /**
+     * @param depth number of sub-prefix levels in the result, 0 for the totals of the prefix only
+     */
+    public PrefixUsage aggregate(final AmazonS3 s3, final String bucketName, final String prefix, final int depth,
+                                 final Set<GroupBy> groupBy) throws InterruptedException {
+        final String rootPrefix = prefix == null ? "" : prefix;
+        final long now = System.currentTimeMillis();
+        final PrefixUsage usage = new PrefixUsage(rootPrefix);
+        lister.forEachRange(lister.partition(s3, bucketName, rootPrefix), new ParallelLister.RangeHandler() {
+            @Override
+            public void handle(ParallelLister.KeyRange range) {
+                final PrefixUsage rangeUsage = new PrefixUsage(rootPrefix);
+                final Map<GroupBy, String> groupValues = new EnumMap<>(GroupBy.class);
+                if (groupBy.contains(GroupBy.VERSION_STATE)) {
+                    for (Iterator<S3VersionSummary> versions = new S3VersionSummaryIterator(s3, range.newListVersionsRequest(bucketName)); versions.hasNext(); ) {
+                        final S3VersionSummary version = versions.next();
+                        if (range.isBeyond(version.getKey())) {
+                            break;
+                        }
+                        groupValues.put(GroupBy.VERSION_STATE, version.isDeleteMarker() ? "delete-marker" : version.isLatest() ? "current" : "noncurrent");
+                        addGroupValues(groupValues, groupBy, version.getStorageClass(), version.getLastModified(), now);
+                        rangeUsage.add(version.getKey(), version.getSize(), groupValues, depth, lister.getDelimiter());
+                    }
+                } else {
+                    for (Iterator<S3ObjectSummary> objects = new S3ObjectSummaryIterator(s3, range.newListObjectsRequest(bucketName)); objects.hasNext(); ) {
+                        final S3ObjectSummary object = objects.next();
+                        if (range.isBeyond(object.getKey())) {
+                            break;
+                        }
+                        addGroupValues(groupValues, groupBy, object.getStorageClass(), object.getLastModified(), now);
+                        rangeUsage.add(object.getKey(), object.getSize(), groupValues, depth, lister.getDelimiter());
+                    }
+                }
+                synchronized (usage) {
+                    usage.merge(rangeUsage);
+                }
+            }
+        });
+        LOGGER.debug("Usage of prefix '" + rootPrefix + "' in S3 bucket " + bucketName + ": " + usage);
+        return usage;
+    }
+
+    public PrefixUsage aggregate(final AmazonS3 s3, final String bucketName, final String prefix, final int depth) throws InterruptedException {
+        return aggregate(s3, bucketName, prefix, depth, Collections.<GroupBy>emptySet());
+    }
+
+    private static void addGroupValues(final Map<GroupBy, String> groupValues, final Set<GroupBy> groupBy,
+                                       final String storageClass, final Date lastModified, final long now) {
+        if (groupBy.contains(GroupBy.STORAGE_CLASS)) {
+            groupValues.put(GroupBy.STORAGE_CLASS, storageClass == null ? "STANDARD" : storageClass);
+        }
+        if (groupBy.contains(GroupBy.AGE)) {
+            groupValues.put(GroupBy.AGE, ageGroup(lastModified == null ? 0 : TimeUnit.MILLISECONDS.toDays(now - lastModified.getTime())));
+        }
+    }
+
+    static String ageGroup(final long ageDays) {
+        long lower = 0;
+        for (long limit : AGE_LIMITS_DAYS) {
+            if (ageDays < limit) {
+                return lower + "-" + limit + "d";
+            }
+            lower = limit;
+        }
+        return lower + "d+";
+    }
+}
@@ -0,0 +1,101 @@
+package com.jnj.honeur.aws.s3;
+
+import com.amazonaws.services.s3.model.S3VersionSummary;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides which versions of a key are purged. The current version is always kept.
+ * Noncurrent versions are kept while they are among the last N versions of the key or newer than the maximum age;
+ * without any limit all versions are kept.
+ * Noncurrent delete markers are removed, as is a current delete marker once no other versions of the key are left.
+ */
+public class VersionPurgePolicy {
+
+    private int keepLastVersions;
+    private long keepNewerThanMillis = -1;
+    private boolean removeDeleteMarkers = true;
+
+    /**
+     * @param versions number of most recent versions kept per key, including the current version
+     */
+    public VersionPurgePolicy withKeepLastVersions(final int versions) {
+        if (versions < 1) {
+            throw new IllegalArgumentException("At least the current version is kept");
+        }
+        this.keepLastVersions = versions;
+        return this;
+    }
+
+    /**
+     * Keeps the versions modified less than the given age ago; older versions are purged unless kept by
+     * {@link #withKeepLastVersions(int)}.
+     */
+    public VersionPurgePolicy withKeepNewerThan(final long age, final TimeUnit unit) {
+        this.keepNewerThanMillis = unit.toMillis(age);
+        return this;
+    }
+
+    public VersionPurgePolicy withRemoveDeleteMarkers(final boolean removeDeleteMarkers) {
+        this.removeDeleteMarkers = removeDeleteMarkers;
+        return this;
+    }
+
+    /**
+     * @return the number of most recent versions kept per key, 0 when not limited by count
+     */
+    public int getKeepLastVersions() {
+        return keepLastVersions;
+    }
+
+    public long getKeepNewerThanMillis() {
+        return keepNewerThanMillis;
+    }
+
+    public boolean isRemoveDeleteMarkers() {
+        return removeDeleteMarkers;
+    }
+
+    /**
+     * @param versions all versions of one key, newest first, as listed by S3
+     * @param now reference time for the maximum age
+     * @return the versions to delete
+     */
+    public List<S3VersionSummary> selectPurged(final List<S3VersionSummary> versions, final long now) {
+        final List<S3VersionSummary> purged = new ArrayList<>();
+        final boolean keepAll = keepLastVersions == 0 && keepNewerThanMillis < 0;
+        S3VersionSummary currentDeleteMarker = null;
+        int dataVersions = 0;
+        int keptDataVersions = 0;
+        for (S3VersionSummary version : versions) {
+            if (version.isDeleteMarker()) {
+                if (version.isLatest()) {
+                    currentDeleteMarker = version;
+                } else if (removeDeleteMarkers) {
+                    purged.add(version);
+                }
+                continue;
+            }
+            dataVersions++;
+            final boolean recent = keepNewerThanMillis >= 0 && version.getLastModified() != null
+                    && now - version.getLastModified().getTime() < keepNewerThanMillis;
+            if (keepAll || version.isLatest() || dataVersions <= keepLastVersions || recent) {
+                keptDataVersions++;
+            } else {
+                purged.add(version);
+            }
+        }
+        if (currentDeleteMarker != null && removeDeleteMarkers && keptDataVersions == 0) {
+            purged.add(currentDeleteMarker);
+        }
+        return purged;
+    }
+
+    @Override
+    public String toString() {
+        return "VersionPurgePolicy{keepLastVersions=" + keepLastVersions + ", keepNewerThanMillis=" + keepNewerThanMillis
+                + ", removeDeleteMarkers=" + removeDeleteMarkers + "}";
+    }
+}
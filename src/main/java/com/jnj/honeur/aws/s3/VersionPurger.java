@@ -0,0 +1,95 @@
+package com.jnj.honeur.aws.s3;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest.KeyVersion;
+import com.amazonaws.services.s3.model.S3VersionSummary;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Purges old versions and delete markers according to a {@link VersionPurgePolicy}.
+ * The key ranges of the prefix are listed concurrently; the versions to purge are streamed from every range
+ * listing into batched multi-object deletes, so memory only holds the versions of one key per range.
+ */
+public class VersionPurger {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(VersionPurger.class);
+
+    private final AmazonS3 s3;
+    private final ParallelLister lister;
+    private final BulkDeleter bulkDeleter;
+
+    public VersionPurger(final AmazonS3 s3, final ParallelLister lister) {
+        this(s3, lister, new BulkDeleter(s3));
+    }
+
+    public VersionPurger(final AmazonS3 s3, final ParallelLister lister, final BulkDeleter bulkDeleter) {
+        this.s3 = s3;
+        this.lister = lister;
+        this.bulkDeleter = bulkDeleter;
+    }
+
+    public BulkDeleteResult purge(final String bucketName, final String prefix, final VersionPurgePolicy policy) throws InterruptedException {
+        LOGGER.debug("Purging versions with prefix " + prefix + " in S3 bucket " + bucketName + ": " + policy);
+        final long now = System.currentTimeMillis();
+        final BulkDeleteResult result = new BulkDeleteResult();
+        lister.forEachRange(lister.partition(s3, bucketName, prefix), new ParallelLister.RangeHandler() {
+            @Override
+            public void handle(ParallelLister.KeyRange range) throws InterruptedException {
+                final Iterator<S3VersionSummary> versions = new S3VersionSummaryIterator(s3, range.newListVersionsRequest(bucketName));
+                bulkDeleter.deleteKeyVersions(bucketName, new PurgedVersionIterator(versions, range, policy, now), result);
+            }
+        });
+        LOGGER.debug("Purged versions with prefix " + prefix + " in S3 bucket " + bucketName + ": " + result);
+        return result;
+    }
+
+    public void shutdown() {
+        bulkDeleter.shutdown();
+    }
+
+    /**
+     * Groups the versions of a range listing per key and returns the versions the policy purges.
+     */
+    private static class PurgedVersionIterator extends AbstractIterator<KeyVersion> {
+
+        private final PeekingIterator<S3VersionSummary> versions;
+        private final ParallelLister.KeyRange range;
+        private final VersionPurgePolicy policy;
+        private final long now;
+        private Iterator<S3VersionSummary> purged = Collections.emptyIterator();
+
+        private PurgedVersionIterator(Iterator<S3VersionSummary> versions, ParallelLister.KeyRange range,
+                                      VersionPurgePolicy policy, long now) {
+            this.versions = Iterators.peekingIterator(versions);
+            this.range = range;
+            this.policy = policy;
+            this.now = now;
+        }
+
+        @Override
+        protected KeyVersion computeNext() {
+            while (!purged.hasNext()) {
+                if (!versions.hasNext() || range.isBeyond(versions.peek().getKey())) {
+                    return endOfData();
+                }
+                final String key = versions.peek().getKey();
+                final List<S3VersionSummary> keyVersions = new ArrayList<>();
+                while (versions.hasNext() && versions.peek().getKey().equals(key)) {
+                    keyVersions.add(versions.next());
+                }
+                purged = policy.selectPurged(keyVersions, now).iterator();
+            }
+            final S3VersionSummary version = purged.next();
+            return new KeyVersion(version.getKey(), version.getVersionId());
+        }
+    }
+}
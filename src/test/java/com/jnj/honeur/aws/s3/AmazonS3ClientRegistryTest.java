@@ -0,0 +1,123 @@
+package com.jnj.honeur.aws.s3;
+
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.auth.BasicSessionCredentials;
+import com.amazonaws.services.s3.AmazonS3;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AmazonS3ClientRegistryTest {
+
+    private static final String REGION = "eu-west-1";
+
+    @Test
+    void staticCredentialsAreKeyedByValue() {
+        AmazonS3ClientRegistry registry = new AmazonS3ClientRegistry();
+        try {
+            AmazonS3 client = registry.getClient(REGION, new BasicAWSCredentials("id", "secret"), ClientProfile.DEFAULT);
+            assertSame(client, registry.getClient(REGION, new BasicAWSCredentials("id", "secret"), ClientProfile.DEFAULT));
+            assertNotSame(client, registry.getClient(REGION, new BasicAWSCredentials("id", "other secret"), ClientProfile.DEFAULT));
+            assertNotSame(client, registry.getClient(REGION, new BasicSessionCredentials("id", "secret", "token"), ClientProfile.DEFAULT));
+            assertNotSame(client, registry.getClient(REGION, new BasicAWSCredentials("id", "secret"), ClientProfile.LOW_LATENCY));
+            assertEquals(4, registry.size());
+        } finally {
+            registry.shutdown();
+        }
+    }
+
+    @Test
+    void handedOutClientsAreNotEvicted() throws Exception {
+        AmazonS3ClientRegistry registry = new AmazonS3ClientRegistry(50, 0, TimeUnit.MILLISECONDS);
+        try {
+            AWSStaticCredentialsProvider credentials = new AWSStaticCredentialsProvider(new BasicAWSCredentials("id", "secret"));
+            AmazonS3 client = registry.getClient(REGION, credentials, ClientProfile.DEFAULT);
+            Thread.sleep(300);
+            assertEquals(1, registry.size());
+            assertSame(client, registry.getClient(REGION, credentials, ClientProfile.DEFAULT));
+            assertNotNull(registry.getTransferManager(client));
+        } finally {
+            registry.shutdown();
+        }
+    }
+
+    @Test
+    void leasedClientsAreEvictedWhenIdle() throws Exception {
+        AmazonS3ClientRegistry registry = new AmazonS3ClientRegistry(50, 0, TimeUnit.MILLISECONDS);
+        try {
+            AWSStaticCredentialsProvider credentials = new AWSStaticCredentialsProvider(new BasicAWSCredentials("id", "secret"));
+            AmazonS3ClientRegistry.Lease first = registry.lease(REGION, credentials, ClientProfile.DEFAULT);
+            AmazonS3ClientRegistry.Lease second = registry.lease(REGION, credentials, ClientProfile.DEFAULT);
+            assertSame(first.getClient(), second.getClient());
+            assertSame(first.getTransferManager(), registry.getTransferManager(first.getClient()));
+
+            // a long operation holds its lease past the idle timeout
+            Thread.sleep(300);
+            assertEquals(1, registry.size());
+            first.close();
+            first.close();
+            Thread.sleep(300);
+            assertEquals(1, registry.size());
+
+            second.close();
+            Thread.sleep(300);
+            assertEquals(0, registry.size());
+            assertNull(registry.getTransferManager(second.getClient()));
+        } finally {
+            registry.shutdown();
+        }
+    }
+
+    @Test
+    void serviceClientsAreEvictedOnceTheServiceIsClosed() throws Exception {
+        AmazonS3ClientRegistry registry = new AmazonS3ClientRegistry(50, 0, TimeUnit.MILLISECONDS);
+        try {
+            AWSStaticCredentialsProvider credentials = new AWSStaticCredentialsProvider(new BasicAWSCredentials("id", "secret"));
+            AmazonS3Service service = new AmazonS3Service(registry, REGION, credentials, ClientProfile.DEFAULT);
+            AmazonS3 client = ((AmazonS3StorageBackend) service.getStorageBackend()).getClient();
+            BucketRegionResolver resolver = new BucketRegionResolver();
+            resolver.update("bucket", "us-west-2");
+            BucketRegionRouter router = new BucketRegionRouter(resolver, registry, REGION, credentials, ClientProfile.DEFAULT);
+            AmazonS3 homeRegionClient = router.getHomeRegionClient("bucket");
+
+            // the service client, shared with the router's lookups, and the home region client stay while in use
+            Thread.sleep(300);
+            assertEquals(2, registry.size());
+            assertSame(client, ((AmazonS3StorageBackend) service.getStorageBackend()).getClient());
+            assertSame(homeRegionClient, router.getHomeRegionClient("bucket"));
+
+            service.close();
+            router.close();
+            Thread.sleep(300);
+            assertEquals(0, registry.size());
+            assertNull(registry.getTransferManager(client));
+            try {
+                service.getStorageBackend();
+                fail("a closed service takes no requests");
+            } catch (IllegalStateException e) {
+                // expected
+            }
+        } finally {
+            registry.shutdown();
+        }
+    }
+
+    @Test
+    void invalidatedLeasesKeepTheirClient() throws Exception {
+        AmazonS3ClientRegistry registry = new AmazonS3ClientRegistry(1, 0, TimeUnit.MINUTES);
+        try {
+            AmazonS3ClientRegistry.Lease lease = registry.lease(REGION, new BasicAWSCredentials("id", "secret"), ClientProfile.DEFAULT);
+            registry.invalidateAll();
+            assertEquals(0, registry.size());
+            // the registry builds a new client, the leased one is shut down when the lease is closed
+            assertNotSame(lease.getClient(), registry.getClient(REGION, new BasicAWSCredentials("id", "secret"), ClientProfile.DEFAULT));
+            assertNotNull(lease.getTransferManager());
+            lease.close();
+        } finally {
+            registry.shutdown();
+        }
+    }
+}
@@ -9,6 +9,8 @@ import org.junit.jupiter.api.Test;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.UUID;
 
@@ -95,6 +97,23 @@ class AmazonS3ServiceTest {
         assertEquals(tmpFile.getName(), object.getKey());
     }
 
+    @Test
+    void newByteChannel() throws IOException {
+        File tmpFile = createTmpFile("test", "0123456789");
+        s3Service.putObject(TEST_BUCKET, tmpFile);
+        try (S3SeekableByteChannel channel = s3Service.newByteChannel(TEST_BUCKET, tmpFile.getName(),
+                new S3SeekableByteChannel.Options().withBlockSize(4))) {
+            assertEquals(10, channel.size());
+            ByteBuffer footer = ByteBuffer.allocate(2);
+            channel.position(8);
+            assertEquals(2, channel.read(footer));
+            assertEquals("89", new String(footer.array(), StandardCharsets.US_ASCII));
+            assertEquals(-1, channel.read(ByteBuffer.allocate(1)));
+            assertEquals(1, channel.getRequestCount());
+            assertEquals(2, channel.getBytesFetched());
+        }
+    }
+
     @Test
     void putCopyGetObject() throws IOException {
         // Prepare
@@ -140,16 +159,11 @@ class AmazonS3ServiceTest {
         File tmpFile = createTmpFile("test", "test");
         s3Service.putObject(TEST_BUCKET, tmpFile);
         // Check test data creation
-        S3Object object = s3Service.getObject(TEST_BUCKET, tmpFile.getName());
-        assertNotNull(object);
+        assertTrue(s3Service.exists(TEST_BUCKET, tmpFile.getName()));
         // Delete
         s3Service.deleteObject(TEST_BUCKET, tmpFile.getName());
         // Check successful delete
-        try {
-            object = s3Service.getObject(TEST_BUCKET, tmpFile.getName());
-        } catch (AmazonS3Exception e) {
-            assertTrue(e.getMessage().contains("The specified key does not exist"));
-        }
+        assertFalse(s3Service.exists(TEST_BUCKET, tmpFile.getName()));
     }
 
     @Test
@@ -0,0 +1,169 @@
+package com.jnj.honeur.aws.s3;
+
+import com.amazonaws.services.s3.AbstractAmazonS3;
+import com.amazonaws.services.s3.model.Bucket;
+import com.amazonaws.services.s3.model.CopyObjectRequest;
+import com.amazonaws.services.s3.model.CopyObjectResult;
+import com.amazonaws.services.s3.model.CreateBucketRequest;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import com.amazonaws.services.s3.model.DeleteObjectsResult;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.ListVersionsRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.VersionListing;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AmazonS3StorageBackendTest {
+
+    @Test
+    void delegatesToTheClient() {
+        RecordingStub s3 = new RecordingStub();
+        AmazonS3StorageBackend backend = new AmazonS3StorageBackend(s3);
+        assertSame(s3, backend.getClient());
+
+        assertTrue(backend.listBuckets().isEmpty());
+        assertTrue(backend.doesBucketExist("bucket"));
+        assertEquals("bucket", backend.createBucket("bucket", "eu-west-1").getName());
+        backend.deleteBucket("bucket");
+        assertEquals(7, backend.getObjectMetadata("bucket", "key").getContentLength());
+        assertEquals("key", backend.getObject(new GetObjectRequest("bucket", "key")).getKey());
+        assertEquals(7, backend.getObject(new GetObjectRequest("bucket", "key"), new File("unused")).getContentLength());
+        assertEquals("put-etag", backend.putObject(new PutObjectRequest("bucket", "key",
+                new ByteArrayInputStream(new byte[0]), new ObjectMetadata())).getETag());
+        assertEquals("copy-etag", backend.copyObject(new CopyObjectRequest("bucket", "key", "bucket", "copy")).getETag());
+        assertEquals("bucket", backend.listObjectsV2(new ListObjectsV2Request().withBucketName("bucket")).getBucketName());
+        assertEquals("bucket", backend.listVersions(new ListVersionsRequest().withBucketName("bucket")).getBucketName());
+        backend.deleteObject("bucket", "key");
+        assertTrue(backend.deleteObjects(new DeleteObjectsRequest("bucket").withKeys("key")).getDeletedObjects().isEmpty());
+
+        assertEquals(Arrays.asList("listBuckets", "doesBucketExistV2", "createBucket eu-west-1", "deleteBucket",
+                "getObjectMetadata", "getObject", "getObject to file", "putObject", "copyObject", "listObjectsV2",
+                "listVersions", "deleteObject", "deleteObjects"), s3.calls);
+    }
+
+    @Test
+    void clientErrorsPassThrough() {
+        AmazonS3StorageBackend backend = new AmazonS3StorageBackend(new AbstractAmazonS3() {
+        });
+        try {
+            backend.getObjectMetadata("bucket", "key");
+            fail("the stub client supports no operations");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Records the client methods that were called.
+     */
+    private static class RecordingStub extends AbstractAmazonS3 {
+
+        private final List<String> calls = new ArrayList<>();
+
+        @Override
+        public List<Bucket> listBuckets() {
+            calls.add("listBuckets");
+            return Collections.emptyList();
+        }
+
+        @Override
+        public boolean doesBucketExistV2(String bucketName) {
+            calls.add("doesBucketExistV2");
+            return true;
+        }
+
+        @Override
+        public Bucket createBucket(CreateBucketRequest request) {
+            calls.add("createBucket " + request.getRegion());
+            return new Bucket(request.getBucketName());
+        }
+
+        @Override
+        public void deleteBucket(String bucketName) {
+            calls.add("deleteBucket");
+        }
+
+        @Override
+        public ObjectMetadata getObjectMetadata(String bucketName, String key) {
+            calls.add("getObjectMetadata");
+            return newMetadata();
+        }
+
+        @Override
+        public S3Object getObject(GetObjectRequest request) {
+            calls.add("getObject");
+            S3Object object = new S3Object();
+            object.setKey(request.getKey());
+            return object;
+        }
+
+        @Override
+        public ObjectMetadata getObject(GetObjectRequest request, File destination) {
+            calls.add("getObject to file");
+            return newMetadata();
+        }
+
+        @Override
+        public PutObjectResult putObject(PutObjectRequest request) {
+            calls.add("putObject");
+            PutObjectResult result = new PutObjectResult();
+            result.setETag("put-etag");
+            return result;
+        }
+
+        @Override
+        public CopyObjectResult copyObject(CopyObjectRequest request) {
+            calls.add("copyObject");
+            CopyObjectResult result = new CopyObjectResult();
+            result.setETag("copy-etag");
+            return result;
+        }
+
+        @Override
+        public ListObjectsV2Result listObjectsV2(ListObjectsV2Request request) {
+            calls.add("listObjectsV2");
+            ListObjectsV2Result result = new ListObjectsV2Result();
+            result.setBucketName(request.getBucketName());
+            return result;
+        }
+
+        @Override
+        public VersionListing listVersions(ListVersionsRequest request) {
+            calls.add("listVersions");
+            VersionListing listing = new VersionListing();
+            listing.setBucketName(request.getBucketName());
+            return listing;
+        }
+
+        @Override
+        public void deleteObject(String bucketName, String key) {
+            calls.add("deleteObject");
+        }
+
+        @Override
+        public DeleteObjectsResult deleteObjects(DeleteObjectsRequest request) {
+            calls.add("deleteObjects");
+            return new DeleteObjectsResult(new ArrayList<DeleteObjectsResult.DeletedObject>());
+        }
+
+        private static ObjectMetadata newMetadata() {
+            ObjectMetadata metadata = new ObjectMetadata();
+            metadata.setContentLength(7);
+            return metadata;
+        }
+    }
+}
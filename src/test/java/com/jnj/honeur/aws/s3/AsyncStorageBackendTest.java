@@ -0,0 +1,149 @@
+package com.jnj.honeur.aws.s3;
+
+import com.amazonaws.AbortedException;
+import com.amazonaws.services.s3.AbstractAmazonS3;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AsyncStorageBackendTest {
+
+    @Test
+    void futuresComplete() throws Exception {
+        FileSystemStorageBackend backend = new FileSystemStorageBackend(Files.createTempDirectory("async").toFile());
+        backend.createBucket("bucket", null);
+        AsyncStorageBackend async = new AsyncStorageBackend(backend, 4);
+        try {
+            byte[] content = "a,b,c".getBytes(StandardCharsets.UTF_8);
+            ObjectMetadata metadata = new ObjectMetadata();
+            metadata.setContentLength(content.length);
+            async.putObject(new PutObjectRequest("bucket", "data/a.csv", new ByteArrayInputStream(content), metadata))
+                    .get(5, TimeUnit.SECONDS);
+
+            assertEquals(content.length, async.getObjectMetadata("bucket", "data/a.csv").get(5, TimeUnit.SECONDS).getContentLength());
+            try (S3Object object = async.getObject(new GetObjectRequest("bucket", "data/a.csv")).get(5, TimeUnit.SECONDS)) {
+                assertArrayEquals(content, ByteStreams.toByteArray(object.getObjectContent()));
+            }
+            assertEquals(1, async.listObjectsV2(new ListObjectsV2Request().withBucketName("bucket").withPrefix("data/"))
+                    .get(5, TimeUnit.SECONDS).getKeyCount());
+
+            async.deleteObject("bucket", "data/a.csv").get(5, TimeUnit.SECONDS);
+            try {
+                async.getObjectMetadata("bucket", "data/a.csv").get(5, TimeUnit.SECONDS);
+                fail("the object was deleted");
+            } catch (ExecutionException e) {
+                assertEquals(404, ((AmazonS3Exception) e.getCause()).getStatusCode());
+            }
+        } finally {
+            async.shutdown();
+        }
+    }
+
+    @Test
+    void capsRequestsInFlight() throws Exception {
+        BlockingStub s3 = new BlockingStub();
+        s3.delayMillis = 20;
+        AsyncStorageBackend async = new AsyncStorageBackend(new AmazonS3StorageBackend(s3), 3);
+        try {
+            List<ListenableFuture<ObjectMetadata>> futures = new ArrayList<>();
+            for (int i = 0; i < 30; i++) {
+                futures.add(async.getObjectMetadata("bucket", "key-" + i));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                assertEquals(i, futures.get(i).get(5, TimeUnit.SECONDS).getContentLength());
+            }
+        } finally {
+            async.shutdown();
+        }
+        assertEquals(30, s3.requests.get());
+        assertEquals(3, s3.maxRunning.get());
+    }
+
+    @Test
+    void shutdownCompletesEveryFuture() throws Exception {
+        BlockingStub s3 = new BlockingStub();
+        s3.delayMillis = TimeUnit.MINUTES.toMillis(1);
+        AsyncStorageBackend async = new AsyncStorageBackend(new AmazonS3StorageBackend(s3), 2);
+        List<ListenableFuture<ObjectMetadata>> futures = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            futures.add(async.getObjectMetadata("bucket", "key-" + i));
+        }
+        assertTrue(s3.started.await(5, TimeUnit.SECONDS));
+        async.shutdown();
+
+        int aborted = 0;
+        int cancelled = 0;
+        for (ListenableFuture<ObjectMetadata> future : futures) {
+            try {
+                future.get(5, TimeUnit.SECONDS);
+                fail("no request finishes after the shutdown");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof AbortedException);
+                aborted++;
+            } catch (CancellationException e) {
+                cancelled++;
+            }
+        }
+        // the running requests are interrupted, the queued ones never start
+        assertEquals(2, aborted);
+        assertEquals(3, cancelled);
+        assertEquals(2, s3.requests.get());
+        try {
+            async.getObjectMetadata("bucket", "key");
+            fail("a shut down backend takes no requests");
+        } catch (RuntimeException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Answers HEAD requests after a delay, with the key number as content length.
+     */
+    private static class BlockingStub extends AbstractAmazonS3 {
+
+        private final AtomicInteger requests = new AtomicInteger();
+        private final AtomicInteger running = new AtomicInteger();
+        private final AtomicInteger maxRunning = new AtomicInteger();
+        private final CountDownLatch started = new CountDownLatch(2);
+        private volatile long delayMillis;
+
+        @Override
+        public ObjectMetadata getObjectMetadata(String bucketName, String key) {
+            requests.incrementAndGet();
+            int now = running.incrementAndGet();
+            synchronized (maxRunning) {
+                maxRunning.set(Math.max(maxRunning.get(), now));
+            }
+            started.countDown();
+            try {
+                Thread.sleep(delayMillis);
+            } catch (InterruptedException e) {
+                throw new AbortedException(e);
+            } finally {
+                running.decrementAndGet();
+            }
+            ObjectMetadata metadata = new ObjectMetadata();
+            metadata.setContentLength(Long.parseLong(key.substring(key.indexOf('-') + 1)));
+            return metadata;
+        }
+    }
+}
@@ -1,10 +1,8 @@
 package com.jnj.honeur.aws.s3;
 
 import com.amazonaws.AmazonServiceException;
-import com.amazonaws.auth.AWSStaticCredentialsProvider;
 import com.amazonaws.auth.BasicAWSCredentials;
 import com.amazonaws.services.s3.AmazonS3;
-import com.amazonaws.services.s3.AmazonS3ClientBuilder;
 import com.amazonaws.services.s3.model.ListObjectsV2Result;
 import com.amazonaws.services.s3.model.S3Object;
 import com.amazonaws.services.s3.model.S3ObjectSummary;
@@ -20,13 +18,9 @@ public class AwsTest {
         BasicAWSCredentials honeurCentralCredentials = new BasicAWSCredentials("accessKey", "secretKey");
         BasicAWSCredentials honeurLocalCredentials = new BasicAWSCredentials("accessKey", "secretKey");
 
-        AmazonS3 honeurCentralClient = AmazonS3ClientBuilder.standard()
-                .withCredentials(new AWSStaticCredentialsProvider(honeurCentralCredentials))
-                .build();
-
-        AmazonS3 honeurLocalClient = AmazonS3ClientBuilder.standard()
-                .withCredentials(new AWSStaticCredentialsProvider(honeurLocalCredentials))
-                .build();
+        AmazonS3ClientRegistry clientRegistry = AmazonS3ClientRegistry.getDefault();
+        AmazonS3 honeurCentralClient = clientRegistry.getClient(null, honeurCentralCredentials, ClientProfile.DEFAULT);
+        AmazonS3 honeurLocalClient = clientRegistry.getClient(null, honeurLocalCredentials, ClientProfile.DEFAULT);
 
         File requestFile = new File("/Users/peter/Downloads/exchange_request.txt");
         File responseFile = new File("/Users/peter/Downloads/exchange_response.txt");
@@ -0,0 +1,77 @@
+package com.jnj.honeur.aws.s3;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BucketInventoryTest {
+
+    @Test
+    void changesAreMergedAndSaved() throws Exception {
+        File file = new File(Files.createTempDirectory("inventory").toFile(), "honeur-out.idx");
+        BucketInventory inventory = new BucketInventory("honeur-out", file, 3);
+        inventory.put("data/b.csv", 20, "etag-b", 1000);
+        inventory.put("data/a.csv", 10, "etag-a", 1000);
+        inventory.put("other.txt", 5, null, 1000);
+        // the third change has the inventory file written in the background
+        for (int i = 0; i < 100 && !file.isFile(); i++) {
+            Thread.sleep(20);
+        }
+        assertTrue(file.isFile());
+
+        inventory.remove("data/b.csv");
+        inventory.put("data/c.csv", 30, "etag-c", 2000);
+        assertEquals(Arrays.asList("data/a.csv", "data/c.csv"), keys(inventory.list("data/")));
+        assertEquals(40, inventory.getTotalSize("data/"));
+        inventory.close();
+
+        BucketInventory reopened = new BucketInventory("honeur-out", file);
+        assertEquals(Arrays.asList("data/a.csv", "data/c.csv", "other.txt"), keys(reopened.list("")));
+        assertEquals("etag-c", reopened.get("data/c.csv").getETag());
+        assertNull(reopened.get("other.txt").getETag());
+        assertFalse(reopened.contains("data/b.csv"));
+        assertEquals(0, reopened.count("x"));
+    }
+
+    @Test
+    void refreshKeepsEntriesThatOnlyDifferInModificationTime() throws Exception {
+        File directory = Files.createTempDirectory("inventory").toFile();
+        FileSystemStorageBackend backend = new FileSystemStorageBackend(new File(directory, "buckets"));
+        backend.createBucket("bucket", null);
+        StorageBackendClient s3 = new StorageBackendClient(backend);
+        s3.putObject("bucket", "data/a.csv", "a,b");
+        s3.putObject("bucket", "data/b.csv", "c,d");
+
+        BucketInventory inventory = new BucketInventory("bucket", new File(directory, "bucket.idx"));
+        try {
+            assertEquals(2, inventory.refreshPrefix(s3, "data/"));
+            BucketInventory.Entry listed = inventory.get("data/a.csv");
+            // a write recorded by the service has its own time stamp
+            inventory.put(listed.getKey(), listed.getSize(), listed.getETag(), listed.getLastModified() + 5000);
+            assertEquals(0, inventory.refreshPrefix(s3, "data/"));
+
+            inventory.put("data/a.csv", listed.getSize() + 1, listed.getETag(), listed.getLastModified());
+            inventory.put("data/c.csv", 1, "etag-c", 0);
+            assertEquals(2, inventory.refreshPrefix(s3, "data/"));
+            assertEquals(listed.getSize(), inventory.get("data/a.csv").getSize());
+            assertFalse(inventory.contains("data/c.csv"));
+        } finally {
+            inventory.close();
+        }
+    }
+
+    private static List<String> keys(Iterator<BucketInventory.Entry> entries) {
+        List<String> keys = new ArrayList<>();
+        while (entries.hasNext()) {
+            keys.add(entries.next().getKey());
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,48 @@
+package com.jnj.honeur.aws.s3;
+
+import com.amazonaws.services.s3.Headers;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BucketRegionResolverTest {
+
+    @Test
+    void persistentCache() throws IOException {
+        File cacheFile = File.createTempFile("bucket-regions", ".properties");
+        BucketRegionResolver resolver = new BucketRegionResolver(cacheFile);
+        resolver.update("honeur-out", "eu-central-1");
+        assertEquals("eu-central-1", new BucketRegionResolver(cacheFile).getCachedRegion("honeur-out"));
+
+        resolver.invalidate("honeur-out");
+        assertNull(new BucketRegionResolver(cacheFile).getCachedRegion("honeur-out"));
+    }
+
+    @Test
+    void refreshFromRegionHint() {
+        BucketRegionResolver resolver = new BucketRegionResolver(null);
+        resolver.update("honeur-out", "eu-west-1");
+
+        AmazonS3Exception redirect = new AmazonS3Exception("Moved");
+        redirect.setStatusCode(301);
+        redirect.setErrorCode("PermanentRedirect");
+        redirect.setAdditionalDetails(Collections.singletonMap(Headers.S3_BUCKET_REGION, "us-east-2"));
+        assertTrue(BucketRegionResolver.isRegionMismatch(redirect));
+
+        assertEquals("us-east-2", resolver.refresh("honeur-out", redirect, null));
+        assertEquals("us-east-2", resolver.getCachedRegion("honeur-out"));
+    }
+
+    @Test
+    void notFoundIsNoRegionMismatch() {
+        AmazonS3Exception notFound = new AmazonS3Exception("Not Found");
+        notFound.setStatusCode(404);
+        notFound.setErrorCode("NoSuchKey");
+        assertFalse(BucketRegionResolver.isRegionMismatch(notFound));
+    }
+}
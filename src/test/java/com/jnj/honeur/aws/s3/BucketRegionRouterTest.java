@@ -0,0 +1,134 @@
+package com.jnj.honeur.aws.s3;
+
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.services.s3.AbstractAmazonS3;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.Headers;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.google.common.io.ByteStreams;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BucketRegionRouterTest {
+
+    private static final byte[] CONTENT = "a,b,c\n1,2,3\n".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    void repeatsMarkableContentInTheResolvedRegion() throws Exception {
+        StubRegistry registry = new StubRegistry();
+        try {
+            BucketRegionResolver resolver = new BucketRegionResolver();
+            resolver.update("bucket", "us-east-1");
+            BucketRegionRouter router = new BucketRegionRouter(resolver, registry, "eu-west-1", registry.credentials, ClientProfile.DEFAULT);
+
+            assertEquals("put-etag", router.getClient("bucket").putObject(
+                    new PutObjectRequest("bucket", "key", new ByteBufferInputStream(ByteBuffer.wrap(CONTENT)), newMetadata())).getETag());
+            assertEquals("eu-west-1", resolver.getCachedRegion("bucket"));
+            // the moved request read its content, the repeated one sent all of it
+            assertEquals(1, registry.moved.size());
+            assertEquals(1, registry.stored.size());
+            assertArrayEquals(CONTENT, registry.stored.get(0));
+            router.close();
+        } finally {
+            registry.shutdown();
+        }
+    }
+
+    @Test
+    void streamsThatCannotBeResetAreNotRepeated() throws Exception {
+        StubRegistry registry = new StubRegistry();
+        try {
+            BucketRegionResolver resolver = new BucketRegionResolver();
+            resolver.update("bucket", "us-east-1");
+            BucketRegionRouter router = new BucketRegionRouter(resolver, registry, "eu-west-1", registry.credentials, ClientProfile.DEFAULT);
+            InputStream unmarkable = new FilterInputStream(new ByteArrayInputStream(CONTENT)) {
+                @Override
+                public boolean markSupported() {
+                    return false;
+                }
+            };
+            try {
+                router.getClient("bucket").putObject(new PutObjectRequest("bucket", "key", unmarkable, newMetadata()));
+                fail("the content was already read");
+            } catch (AmazonS3Exception e) {
+                assertEquals(301, e.getStatusCode());
+            }
+            // the region is refreshed for the next request
+            assertEquals("eu-west-1", resolver.getCachedRegion("bucket"));
+            assertTrue(registry.stored.isEmpty());
+            router.close();
+        } finally {
+            registry.shutdown();
+        }
+    }
+
+    private static ObjectMetadata newMetadata() {
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength(CONTENT.length);
+        return metadata;
+    }
+
+    /**
+     * Registry of stub clients: eu-west-1 stores the uploaded content, other regions answer with a redirect
+     * to eu-west-1 after reading the content.
+     */
+    private static class StubRegistry extends AmazonS3ClientRegistry {
+
+        private final AWSCredentialsProvider credentials = new AWSStaticCredentialsProvider(new BasicAWSCredentials("id", "secret"));
+        private final List<byte[]> moved = new CopyOnWriteArrayList<>();
+        private final List<byte[]> stored = new CopyOnWriteArrayList<>();
+
+        private StubRegistry() {
+            super(1, 0, TimeUnit.MINUTES);
+        }
+
+        @Override
+        protected AmazonS3 newClient(final String region, AWSCredentialsProvider credentialsProvider, ClientProfile profile,
+                                     boolean forceGlobalBucketAccess) {
+            return new AbstractAmazonS3() {
+                @Override
+                public PutObjectResult putObject(PutObjectRequest request) {
+                    byte[] content;
+                    try {
+                        content = ByteStreams.toByteArray(request.getInputStream());
+                    } catch (IOException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    if (!"eu-west-1".equals(region)) {
+                        moved.add(content);
+                        AmazonS3Exception redirect = new AmazonS3Exception("Moved");
+                        redirect.setStatusCode(301);
+                        redirect.setAdditionalDetails(Collections.singletonMap(Headers.S3_BUCKET_REGION, "eu-west-1"));
+                        throw redirect;
+                    }
+                    stored.add(content);
+                    PutObjectResult result = new PutObjectResult();
+                    result.setETag("put-etag");
+                    return result;
+                }
+
+                @Override
+                public void shutdown() {
+                    // nothing to release
+                }
+            };
+        }
+    }
+}
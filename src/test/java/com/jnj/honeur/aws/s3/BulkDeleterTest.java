@@ -0,0 +1,212 @@
+package com.jnj.honeur.aws.s3;
+
+import com.amazonaws.services.s3.AbstractAmazonS3;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest.KeyVersion;
+import com.amazonaws.services.s3.model.DeleteObjectsResult;
+import com.amazonaws.services.s3.model.MultiObjectDeleteException;
+import com.amazonaws.services.s3.model.MultiObjectDeleteException.DeleteError;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BulkDeleterTest {
+
+    @Test
+    void deletesInBatchesOf1000Keys() throws Exception {
+        DeleteStub s3 = new DeleteStub();
+        BulkDeleter deleter = new BulkDeleter(s3, 2, 3);
+        try {
+            BulkDeleteResult result = deleter.deleteKeys("bucket", keys("key-", 2500).iterator());
+            assertTrue(result.isSuccessful());
+            assertEquals(2500, result.getDeletedCount());
+            assertEquals(0, result.getRetriedCount());
+        } finally {
+            deleter.shutdown();
+        }
+        List<Integer> batchSizes = new ArrayList<>(s3.batchSizes);
+        Collections.sort(batchSizes);
+        assertEquals(3, batchSizes.size());
+        assertEquals(500, (int) batchSizes.get(0));
+        assertEquals(1000, (int) batchSizes.get(1));
+        assertEquals(1000, (int) batchSizes.get(2));
+        assertEquals(2500, s3.deleted.size());
+    }
+
+    @Test
+    void retriesOnlyRetryableKeys() throws Exception {
+        DeleteStub s3 = new DeleteStub();
+        s3.keyErrors.put("slow", "SlowDown");
+        s3.keyErrors.put("denied", "AccessDenied");
+        s3.failingAttempts = 1;
+        BulkDeleter deleter = new BulkDeleter(s3, 2, 3);
+        try {
+            List<String> keys = keys("key-", 10);
+            keys.add("slow");
+            keys.add("denied");
+            BulkDeleteResult result = deleter.deleteKeys("bucket", keys.iterator());
+
+            assertFalse(result.isSuccessful());
+            assertEquals(11, result.getDeletedCount());
+            assertEquals(1, result.getRetriedCount());
+            assertEquals(1, result.getErrors().size());
+            BulkDeleteResult.KeyError error = result.getErrors().get(0);
+            assertEquals("denied", error.getKey());
+            assertEquals("AccessDenied", error.getCode());
+        } finally {
+            deleter.shutdown();
+        }
+        // the first request had all keys, the retry only the throttled one
+        assertEquals(2, s3.batchSizes.size());
+        assertEquals(12, (int) s3.batchSizes.get(0));
+        assertEquals(1, (int) s3.batchSizes.get(1));
+        assertTrue(s3.deleted.contains("slow"));
+        assertFalse(s3.deleted.contains("denied"));
+    }
+
+    @Test
+    void reportsKeysThatKeepFailing() throws Exception {
+        DeleteStub s3 = new DeleteStub();
+        s3.keyErrors.put("slow", "SlowDown");
+        s3.failingAttempts = Integer.MAX_VALUE;
+        BulkDeleter deleter = new BulkDeleter(s3, 1, 2);
+        try {
+            BulkDeleteResult result = deleter.deleteKeys("bucket", Collections.singletonList("slow").iterator());
+            assertEquals(0, result.getDeletedCount());
+            assertEquals(2, result.getRetriedCount());
+            assertEquals(1, result.getErrors().size());
+            assertEquals("SlowDown", result.getErrors().get(0).getCode());
+        } finally {
+            deleter.shutdown();
+        }
+        assertEquals(3, s3.batchSizes.size());
+    }
+
+    @Test
+    void reportsEveryKeyOfAFailedRequest() throws Exception {
+        DeleteStub s3 = new DeleteStub();
+        s3.requestStatusCode = 403;
+        BulkDeleter deleter = new BulkDeleter(s3, 2, 3);
+        try {
+            BulkDeleteResult result = deleter.deleteKeys("bucket", keys("key-", 1500).iterator());
+            assertEquals(0, result.getDeletedCount());
+            assertEquals(0, result.getRetriedCount());
+            assertEquals(1500, result.getErrors().size());
+            for (BulkDeleteResult.KeyError error : result.getErrors()) {
+                assertEquals("AccessDenied", error.getCode());
+            }
+        } finally {
+            deleter.shutdown();
+        }
+        // an access error is not retried
+        assertEquals(2, s3.batchSizes.size());
+    }
+
+    @Test
+    void retriesAFailedRequestOnServerErrors() throws Exception {
+        DeleteStub s3 = new DeleteStub();
+        s3.requestStatusCode = 503;
+        s3.failingAttempts = 1;
+        BulkDeleter deleter = new BulkDeleter(s3, 2, 3);
+        try {
+            BulkDeleteResult result = deleter.deleteKeys("bucket", keys("key-", 10).iterator());
+            assertTrue(result.isSuccessful());
+            assertEquals(10, result.getDeletedCount());
+            assertEquals(10, result.getRetriedCount());
+        } finally {
+            deleter.shutdown();
+        }
+    }
+
+    @Test
+    void tellsTheListenerAboutEachRequest() throws Exception {
+        DeleteStub s3 = new DeleteStub();
+        s3.keyErrors.put("slow", "SlowDown");
+        final List<String> done = new CopyOnWriteArrayList<>();
+        BulkDeleter deleter = new BulkDeleter(s3, 2, 3);
+        deleter.setListener(new BulkDeleter.Listener() {
+            @Override
+            public void requestDone(String bucketName, List<KeyVersion> keys) {
+                assertEquals("bucket", bucketName);
+                for (KeyVersion key : keys) {
+                    done.add(key.getKey());
+                }
+            }
+        });
+        // the first attempts of both requests fail for the slow key
+        s3.failingAttempts = 2;
+        List<String> keys = keys("key-", 1500);
+        keys.add("slow");
+        try {
+            assertTrue(deleter.deleteKeys("bucket", keys.iterator()).isSuccessful());
+        } finally {
+            deleter.shutdown();
+        }
+        // every key once per request it was sent in, the retried key twice
+        assertEquals(keys.size() + 1, done.size());
+        assertEquals(new HashSet<>(keys), new HashSet<>(done));
+    }
+
+    private static List<String> keys(String prefix, int count) {
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            keys.add(prefix + i);
+        }
+        return keys;
+    }
+
+    /**
+     * Fails the first attempts with a request error or per-key errors, and records what was deleted.
+     */
+    private static class DeleteStub extends AbstractAmazonS3 {
+
+        private final List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+        private final Set<String> deleted = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        private final Map<String, String> keyErrors = new ConcurrentHashMap<>();
+        private final AtomicInteger attempts = new AtomicInteger();
+        private volatile int failingAttempts;
+        private volatile int requestStatusCode;
+
+        @Override
+        public DeleteObjectsResult deleteObjects(DeleteObjectsRequest request) {
+            assertTrue(request.getQuiet());
+            assertTrue(request.getKeys().size() <= BulkDeleter.MAX_KEYS_PER_REQUEST);
+            batchSizes.add(request.getKeys().size());
+            boolean failing = attempts.incrementAndGet() <= failingAttempts;
+            if (requestStatusCode != 0 && (failing || requestStatusCode == 403)) {
+                AmazonS3Exception e = new AmazonS3Exception(requestStatusCode == 403 ? "Access Denied" : "Service Unavailable");
+                e.setStatusCode(requestStatusCode);
+                e.setErrorCode(requestStatusCode == 403 ? "AccessDenied" : "ServiceUnavailable");
+                throw e;
+            }
+            List<DeleteError> errors = new ArrayList<>();
+            for (KeyVersion keyVersion : request.getKeys()) {
+                String code = keyErrors.get(keyVersion.getKey());
+                if (code != null && (failing || !code.equals("SlowDown"))) {
+                    DeleteError error = new DeleteError();
+                    error.setKey(keyVersion.getKey());
+                    error.setCode(code);
+                    error.setMessage(code);
+                    errors.add(error);
+                } else {
+                    deleted.add(keyVersion.getKey());
+                }
+            }
+            if (!errors.isEmpty()) {
+                throw new MultiObjectDeleteException(errors, new ArrayList<DeleteObjectsResult.DeletedObject>());
+            }
+            return new DeleteObjectsResult(new ArrayList<DeleteObjectsResult.DeletedObject>());
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.jnj.honeur.aws.s3;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BulkTaskScopeTest {
+
+    @Test
+    void capsTasksInFlight() throws Exception {
+        final ExecutorService executor = BulkExecutors.newUnboundedExecutor("test-scope-%d");
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        try (BulkTaskScope<Void> scope = new BulkTaskScope<>(executor, 3)) {
+            for (int i = 0; i < 30; i++) {
+                scope.fork(new Callable<Void>() {
+                    @Override
+                    public Void call() throws InterruptedException {
+                        final int now = running.incrementAndGet();
+                        synchronized (maxRunning) {
+                            maxRunning.set(Math.max(maxRunning.get(), now));
+                        }
+                        Thread.sleep(2);
+                        running.decrementAndGet();
+                        return null;
+                    }
+                });
+            }
+            scope.join();
+        } finally {
+            executor.shutdownNow();
+        }
+        assertTrue(maxRunning.get() <= 3);
+        assertEquals(0, running.get());
+    }
+
+    @Test
+    void failureCancelsSiblings() throws Exception {
+        final ExecutorService executor = BulkExecutors.newUnboundedExecutor("test-scope-%d");
+        final CountDownLatch started = new CountDownLatch(1);
+        try (BulkTaskScope<Void> scope = new BulkTaskScope<>(executor, 2)) {
+            final Future<Void> sibling = scope.fork(new Callable<Void>() {
+                @Override
+                public Void call() throws InterruptedException {
+                    started.countDown();
+                    Thread.sleep(60000);
+                    return null;
+                }
+            });
+            started.await();
+            scope.fork(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    throw new IllegalArgumentException("boom");
+                }
+            });
+            try {
+                scope.join();
+                fail("join should rethrow the failure");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IllegalArgumentException);
+            }
+            assertTrue(sibling.isCancelled());
+            assertTrue(scope.isFailed());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void cancelledChildKeepsItsPermitUntilItStops() throws Exception {
+        final ExecutorService executor = BulkExecutors.newUnboundedExecutor("test-scope-%d");
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger running = new AtomicInteger();
+        try {
+            final BulkTaskScope<Void> scope = new BulkTaskScope<>(executor, 1);
+            final Future<Void> stubborn = scope.fork(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    running.incrementAndGet();
+                    started.countDown();
+                    // like a blocking call that does not react to the interrupt
+                    while (true) {
+                        try {
+                            release.await();
+                            break;
+                        } catch (InterruptedException e) {
+                            // keep running
+                        }
+                    }
+                    running.decrementAndGet();
+                    return null;
+                }
+            });
+            started.await();
+            scope.close();
+            assertTrue(stubborn.isCancelled());
+
+            final Thread forking = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        scope.fork(new Callable<Void>() {
+                            @Override
+                            public Void call() {
+                                assertEquals(0, running.get());
+                                return null;
+                            }
+                        });
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            forking.start();
+            forking.join(200);
+            // the cancelled child still runs, so the next child waits for its permit
+            assertTrue(forking.isAlive());
+            release.countDown();
+            forking.join(5000);
+            assertFalse(forking.isAlive());
+            scope.join();
+            assertEquals(0, running.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.jnj.honeur.aws.s3;
+
+import com.amazonaws.AmazonWebServiceClient;
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.retry.RetryPolicy;
+import com.amazonaws.services.s3.AmazonS3;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Field;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ClientProfileTest {
+
+    @Test
+    void profileSettings() {
+        ClientConfiguration defaults = ClientProfile.DEFAULT.createClientConfiguration();
+        assertEquals(ClientConfiguration.DEFAULT_MAX_CONNECTIONS, defaults.getMaxConnections());
+        assertEquals(10, ClientProfile.DEFAULT.getTransferThreads());
+
+        ClientConfiguration bulk = ClientProfile.BULK_THROUGHPUT.createClientConfiguration();
+        assertEquals(256, bulk.getMaxConnections());
+        assertEquals(10 * 1000, bulk.getConnectionTimeout());
+        assertEquals(120 * 1000, bulk.getSocketTimeout());
+        assertEquals(5 * 60 * 1000L, bulk.getConnectionTTL());
+        assertTrue(bulk.useTcpKeepAlive());
+        assertArrayEquals(new int[]{1024 * 1024, 1024 * 1024}, bulk.getSocketBufferSizeHints());
+        assertRetries(bulk, 5, 20 * 1000);
+
+        ClientConfiguration lowLatency = ClientProfile.LOW_LATENCY.createClientConfiguration();
+        assertEquals(128, lowLatency.getMaxConnections());
+        assertEquals(2 * 1000, lowLatency.getConnectionTimeout());
+        assertEquals(10 * 1000, lowLatency.getSocketTimeout());
+        assertEquals(15 * 1000, lowLatency.getRequestTimeout());
+        assertRetries(lowLatency, 3, 1000);
+
+        ClientConfiguration edge = ClientProfile.CONSTRAINED_EDGE.createClientConfiguration();
+        assertEquals(16, edge.getMaxConnections());
+        assertEquals(20 * 1000, edge.getConnectionTimeout());
+        assertEquals(300 * 1000, edge.getSocketTimeout());
+        assertRetries(edge, 8, 60 * 1000);
+        assertEquals(4, ClientProfile.CONSTRAINED_EDGE.getTransferThreads());
+    }
+
+    @Test
+    void configurationsAreNotShared() {
+        ClientConfiguration first = ClientProfile.BULK_THROUGHPUT.createClientConfiguration();
+        first.setMaxConnections(1);
+        assertEquals(256, ClientProfile.BULK_THROUGHPUT.createClientConfiguration().getMaxConnections());
+    }
+
+    @Test
+    void fromName() {
+        assertSame(ClientProfile.LOW_LATENCY, ClientProfile.fromName("low-latency"));
+        assertSame(ClientProfile.LOW_LATENCY, ClientProfile.fromName("LOW_LATENCY"));
+        try {
+            ClientProfile.fromName("fast");
+            fail("unknown profile");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    void clientsUseTheProfile() throws Exception {
+        BasicAWSCredentials credentials = new BasicAWSCredentials("id", "secret");
+        AmazonS3 standard = HoneurAmazonS3ClientBuilder.standardClient(credentials, ClientProfile.CONSTRAINED_EDGE);
+        AmazonS3 region = HoneurAmazonS3ClientBuilder.regionClient("us-east-1", new AWSStaticCredentialsProvider(credentials),
+                ClientProfile.LOW_LATENCY);
+        try {
+            ClientConfiguration standardConfiguration = getClientConfiguration(standard);
+            assertEquals(16, standardConfiguration.getMaxConnections());
+            assertEquals(300 * 1000, standardConfiguration.getSocketTimeout());
+            assertEquals(8, standardConfiguration.getRetryPolicy().getMaxErrorRetry());
+
+            ClientConfiguration regionConfiguration = getClientConfiguration(region);
+            assertEquals(128, regionConfiguration.getMaxConnections());
+            assertEquals(15 * 1000, regionConfiguration.getRequestTimeout());
+        } finally {
+            standard.shutdown();
+            region.shutdown();
+        }
+    }
+
+    private static void assertRetries(ClientConfiguration configuration, int maxRetries, long maxDelayMillis) {
+        RetryPolicy retryPolicy = configuration.getRetryPolicy();
+        assertEquals(maxRetries, retryPolicy.getMaxErrorRetry());
+        assertFalse(retryPolicy.isMaxErrorRetryInClientConfigHonored());
+        for (int retries = 0; retries < 30; retries++) {
+            long delay = retryPolicy.getBackoffStrategy().delayBeforeNextRetry(null, null, retries);
+            assertTrue(delay >= 0 && delay <= maxDelayMillis, "delay " + delay + " after " + retries + " retries");
+        }
+    }
+
+    private static ClientConfiguration getClientConfiguration(AmazonS3 s3) throws ReflectiveOperationException {
+        // the configuration the client was built with, as the SDK has no public getter for it in every version
+        Field field = AmazonWebServiceClient.class.getDeclaredField("clientConfiguration");
+        field.setAccessible(true);
+        return (ClientConfiguration) field.get(s3);
+    }
+}
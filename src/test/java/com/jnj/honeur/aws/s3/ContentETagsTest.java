@@ -0,0 +1,51 @@
+package com.jnj.honeur.aws.s3;
+
+import com.google.common.io.BaseEncoding;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ContentETagsTest {
+
+    private final ContentETags contentETags = new ContentETags(new DirectBufferPool(16 * 1024 * 1024), 4, 6);
+
+    @Test
+    void singlePartETag() throws IOException, NoSuchAlgorithmException {
+        File file = writeFile("0123456789");
+        String md5 = hex(MessageDigest.getInstance("MD5").digest("0123456789".getBytes(StandardCharsets.US_ASCII)));
+        assertTrue(contentETags.matches(file, "\"" + md5 + "\"", 10));
+        assertFalse(contentETags.matches(file, md5, 11));
+        assertFalse(contentETags.matches(file, "d41d8cd98f00b204e9800998ecf8427e", 10));
+    }
+
+    @Test
+    void multipartETagWithKnownPartSize() throws IOException, NoSuchAlgorithmException {
+        File file = writeFile("0123456789");
+        MessageDigest md5 = MessageDigest.getInstance("MD5");
+        for (String part : new String[]{"0123", "4567", "89"}) {
+            md5.update(MessageDigest.getInstance("MD5").digest(part.getBytes(StandardCharsets.US_ASCII)));
+        }
+        String eTag = hex(md5.digest()) + "-3";
+        assertEquals(eTag, contentETags.getETag(file, 4));
+        assertTrue(contentETags.matches(file, eTag, 10));
+        // 2 parts of 6 bytes give another ETag
+        assertFalse(contentETags.matches(file, contentETags.getETag(file, 6).replace("-2", "-3"), 10));
+    }
+
+    private static File writeFile(String content) throws IOException {
+        File file = File.createTempFile("etag", ".txt");
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.US_ASCII));
+        return file;
+    }
+
+    private static String hex(byte[] bytes) {
+        return BaseEncoding.base16().lowerCase().encode(bytes);
+    }
+}
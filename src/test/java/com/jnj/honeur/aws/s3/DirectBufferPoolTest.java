@@ -0,0 +1,82 @@
+package com.jnj.honeur.aws.s3;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DirectBufferPoolTest {
+
+    @Test
+    void sizeClasses() {
+        assertEquals(DirectBufferPool.MIN_BUFFER_SIZE, DirectBufferPool.getBufferSize(1));
+        assertEquals(64 * 1024, DirectBufferPool.getBufferSize(16 * 1024 + 1));
+        assertEquals(DirectBufferPool.MAX_BUFFER_SIZE, DirectBufferPool.getBufferSize(DirectBufferPool.MAX_BUFFER_SIZE));
+    }
+
+    @Test
+    void acquireRelease() throws InterruptedException {
+        DirectBufferPool pool = new DirectBufferPool(DirectBufferPool.MAX_BUFFER_SIZE);
+        ByteBuffer buffer = pool.acquire(1000);
+        assertTrue(buffer.isDirect());
+        assertEquals(DirectBufferPool.MIN_BUFFER_SIZE, buffer.capacity());
+        assertEquals(1, pool.getMisses());
+        pool.release(buffer);
+        assertSame(buffer, pool.acquire(2000));
+        assertEquals(1, pool.getHits());
+        assertEquals(DirectBufferPool.MIN_BUFFER_SIZE, pool.getInUseBytes());
+    }
+
+    @Test
+    void rejectsDoubleAndForeignReleases() throws InterruptedException {
+        DirectBufferPool pool = new DirectBufferPool(DirectBufferPool.MAX_BUFFER_SIZE);
+        ByteBuffer buffer = pool.acquire(1000);
+        pool.release(buffer);
+        try {
+            pool.release(buffer);
+            fail("a buffer is released once");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            pool.release(ByteBuffer.allocateDirect(DirectBufferPool.MIN_BUFFER_SIZE));
+            fail("a buffer of the right size that was not handed out is rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        // the double release did not put the buffer in the pool twice
+        assertSame(buffer, pool.acquire(1000));
+        assertNotSame(buffer, pool.acquire(1000));
+    }
+
+    @Test
+    void capGivesBackpressure() throws InterruptedException {
+        DirectBufferPool pool = new DirectBufferPool(DirectBufferPool.MAX_BUFFER_SIZE);
+        ByteBuffer buffer = pool.acquire(DirectBufferPool.MAX_BUFFER_SIZE);
+        assertNull(pool.acquire(1, 10, TimeUnit.MILLISECONDS));
+        assertEquals(1, pool.getWaits());
+        pool.release(buffer);
+        // The idle large buffer is dropped to make room for the small one
+        assertNotNull(pool.acquire(1, 10, TimeUnit.MILLISECONDS));
+        assertEquals(DirectBufferPool.MIN_BUFFER_SIZE, pool.getAllocatedBytes());
+    }
+
+    @Test
+    void copy() throws IOException {
+        DirectBufferPool pool = new DirectBufferPool(DirectBufferPool.MAX_BUFFER_SIZE);
+        byte[] content = new byte[100000];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(content.length, pool.copy(new ByteArrayInputStream(content), Channels.newChannel(out), 1024));
+        assertArrayEquals(content, out.toByteArray());
+        assertEquals(0, pool.getInUseBytes());
+    }
+}
@@ -0,0 +1,233 @@
+package com.jnj.honeur.aws.s3;
+
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.google.common.io.ByteStreams;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileSystemStorageBackendTest {
+
+    @Test
+    void listsInKeyOrderWithDelimiter() throws IOException {
+        FileSystemStorageBackend backend = newBackend();
+        for (String key : Arrays.asList("a/b/c.txt", "a/b.txt", "a-c.txt", "a/b/d.txt", "b.txt", "a/a.txt")) {
+            put(backend, key, key);
+        }
+        // "-" sorts before "/", as in S3
+        assertEquals(Arrays.asList("a-c.txt", "a/a.txt", "a/b.txt", "a/b/c.txt", "a/b/d.txt", "b.txt"),
+                listAll(backend, null, null, 2));
+
+        ListObjectsV2Result result = backend.listObjectsV2(new ListObjectsV2Request().withBucketName("bucket")
+                .withPrefix("a").withDelimiter("/"));
+        assertEquals(Arrays.asList("a/"), result.getCommonPrefixes());
+        assertEquals(Arrays.asList("a-c.txt"), keys(result));
+
+        result = backend.listObjectsV2(new ListObjectsV2Request().withBucketName("bucket")
+                .withPrefix("a/").withDelimiter("/").withMaxKeys(2));
+        assertEquals(Arrays.asList("a/a.txt", "a/b.txt"), keys(result));
+        assertTrue(result.isTruncated());
+        result = backend.listObjectsV2(new ListObjectsV2Request().withBucketName("bucket")
+                .withPrefix("a/").withDelimiter("/").withContinuationToken(result.getNextContinuationToken()));
+        assertEquals(Arrays.asList("a/b/"), result.getCommonPrefixes());
+        assertFalse(result.isTruncated());
+
+        assertEquals(Arrays.asList("a/b/c.txt", "a/b/d.txt"), listAll(backend, "a/b/", null, 1000));
+        assertEquals(Arrays.asList("a/b/d.txt", "b.txt"),
+                keys(backend.listObjectsV2(new ListObjectsV2Request().withBucketName("bucket").withStartAfter("a/b/c.txt"))));
+    }
+
+    @Test
+    void putGetCopyDelete() throws IOException {
+        FileSystemStorageBackend backend = newBackend();
+        put(backend, "data/x.csv", "hello");
+        ObjectMetadata metadata = backend.getObjectMetadata("bucket", "data/x.csv");
+        assertEquals(5, metadata.getContentLength());
+        // MD5 of "hello", the ETag S3 gives a single part upload
+        assertEquals("5d41402abc4b2a76b9719d911017c592", metadata.getETag());
+
+        S3Object object = backend.getObject(new GetObjectRequest("bucket", "data/x.csv").withRange(1, 3));
+        try (InputStream in = object.getObjectContent()) {
+            assertEquals("ell", new String(ByteStreams.toByteArray(in), StandardCharsets.UTF_8));
+        }
+
+        backend.copyObject(new com.amazonaws.services.s3.model.CopyObjectRequest("bucket", "data/x.csv", "bucket", "copy/x.csv"));
+        File target = File.createTempFile("fs-backend", ".csv");
+        backend.getObject(new GetObjectRequest("bucket", "copy/x.csv"), target);
+        assertEquals("hello", new String(Files.readAllBytes(target.toPath()), StandardCharsets.UTF_8));
+        assertEquals(metadata.getETag(), backend.getObjectMetadata("bucket", "copy/x.csv").getETag());
+
+        backend.deleteObject("bucket", "data/x.csv");
+        try {
+            backend.getObjectMetadata("bucket", "data/x.csv");
+            fail("deleted key should be missing");
+        } catch (AmazonS3Exception e) {
+            assertEquals(404, e.getStatusCode());
+        }
+        // the empty directory is removed with the last key
+        assertFalse(new File(new File(backend.getRoot(), "bucket"), "data").exists());
+        assertEquals(Arrays.asList("copy/x.csv"), listAll(backend, null, null, 1000));
+    }
+
+    @Test
+    void listsFilesWrittenOutsideTheBackendWithoutReadingThem() throws IOException {
+        DirectBufferPool bufferPool = new DirectBufferPool(DirectBufferPool.MAX_BUFFER_SIZE);
+        FileSystemStorageBackend backend = new FileSystemStorageBackend(Files.createTempDirectory("fs-backend").toFile(),
+                bufferPool, FileSystemStorageBackend.DEFAULT_CACHED_ENTRIES);
+        backend.createBucket("bucket", null);
+        put(backend, "data/a.csv", "hello");
+        Path external = new File(new File(backend.getRoot(), "bucket"), "data/b.csv").toPath();
+        Files.write(external, "hello".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(external, FileTime.fromMillis(1500000000000L));
+        long acquired = bufferPool.getHits() + bufferPool.getMisses();
+
+        List<S3ObjectSummary> summaries = backend.listObjectsV2(new ListObjectsV2Request().withBucketName("bucket")).getObjectSummaries();
+        assertEquals(2, summaries.size());
+        // the stored ETag of the backend's own file, size and modification time of the other one
+        assertEquals("5d41402abc4b2a76b9719d911017c592", summaries.get(0).getETag());
+        assertEquals("5.15d3ef79800", summaries.get(1).getETag());
+        assertEquals(acquired, bufferPool.getHits() + bufferPool.getMisses());
+
+        // a HEAD reports the MD5 of the content
+        assertEquals("5d41402abc4b2a76b9719d911017c592", backend.getObjectMetadata("bucket", "data/b.csv").getETag());
+        assertTrue(bufferPool.getHits() + bufferPool.getMisses() > acquired);
+    }
+
+    @Test
+    void serviceOnFileSystem() throws Exception {
+        AmazonS3Service service = new AmazonS3Service(newBackend());
+        File file = File.createTempFile("fs-service", ".txt");
+        Files.write(file.toPath(), "content".getBytes(StandardCharsets.UTF_8));
+        service.uploadFile("bucket", "in/file.txt", file);
+        service.putObject("bucket", "in/other.txt", file);
+        assertEquals("content", new String(Files.readAllBytes(service.getObjectFile("bucket", "in/file.txt").toPath()),
+                StandardCharsets.UTF_8));
+        assertFalse(service.putObjectIfChanged("bucket", "in/file.txt", file));
+        assertEquals(2, service.deleteObjectsWithPrefix("bucket", "in/", false).getDeletedCount());
+        assertTrue(service.getObjects("bucket").getObjectSummaries().isEmpty());
+    }
+
+    @Test
+    void smallObjectBatchOnFileSystem() throws Exception {
+        AmazonS3Service service = new AmazonS3Service(newBackend());
+        List<SmallObjectUploader.Entry> entries = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            entries.add(SmallObjectUploader.Entry.ofBytes("small/" + i, ("object " + i).getBytes(StandardCharsets.UTF_8)));
+        }
+        File file = File.createTempFile("fs-small", ".txt");
+        Files.write(file.toPath(), "from file".getBytes(StandardCharsets.UTF_8));
+        entries.add(SmallObjectUploader.Entry.ofFile("small/file", file));
+        entries.add(SmallObjectUploader.Entry.ofFile("small/missing", new File(file.getPath() + ".missing")));
+
+        UploadBatchResult result = service.uploadSmallObjects("bucket", entries.iterator());
+        assertEquals(201, result.getUploadedKeys().size());
+        assertEquals(Arrays.asList("small/missing"), new ArrayList<>(result.getFailures().keySet()));
+        try (InputStream in = service.getObject("bucket", "small/file").getObjectContent()) {
+            assertEquals("from file", new String(ByteStreams.toByteArray(in), StandardCharsets.UTF_8));
+        }
+        try (InputStream in = service.getObject("bucket", "small/42").getObjectContent()) {
+            assertEquals("object 42", new String(ByteStreams.toByteArray(in), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    void headObjectFollowsWritesAndDeletes() throws Exception {
+        AmazonS3Service service = new AmazonS3Service(newBackend());
+        assertFalse(service.exists("bucket", "head/file.txt"));
+        File file = File.createTempFile("fs-head", ".txt");
+        Files.write(file.toPath(), "content".getBytes(StandardCharsets.UTF_8));
+        service.putObject("bucket", "head/file.txt", file);
+        assertEquals(7, service.headObject("bucket", "head/file.txt").getContentLength());
+        service.deleteObject("bucket", "head/file.txt");
+        assertNull(service.headObject("bucket", "head/file.txt"));
+        service.putObject("bucket", "head/file.txt", file);
+        assertTrue(service.exists("bucket", "head/file.txt"));
+        service.deleteObjectsWithPrefix("bucket", "head/", false);
+        assertFalse(service.exists("bucket", "head/file.txt"));
+    }
+
+    @Test
+    void pagesALargeDirectoryFromTheCache() throws IOException {
+        // the directory holds more than a quarter of the cached entries
+        FileSystemStorageBackend backend = new FileSystemStorageBackend(Files.createTempDirectory("fs-backend").toFile(),
+                DirectBufferPool.getDefault(), 4000);
+        backend.createBucket("bucket", null);
+        Path directory = Files.createDirectories(backend.getRoot().toPath().resolve("bucket/large"));
+        for (int i = 0; i < 2500; i++) {
+            Files.write(directory.resolve(String.format("file-%04d.txt", i)), new byte[1]);
+        }
+        List<String> keys = listAll(backend, "large/", null, 100);
+        assertEquals(2500, keys.size());
+        assertEquals("large/file-2499.txt", keys.get(2499));
+        // the directory is read once, the other 24 pages come from the cache
+        assertEquals(1, backend.getDirectoryCacheStats().missCount());
+        assertEquals(24, backend.getDirectoryCacheStats().hitCount());
+    }
+
+    @Test
+    void directoryWithRestoredModificationTimeIsListedAgain() throws IOException {
+        FileSystemStorageBackend backend = newBackend();
+        put(backend, "dir/a.txt", "a");
+        Path directory = backend.getRoot().toPath().resolve("bucket/dir");
+        FileTime modified = Files.getLastModifiedTime(directory);
+        assertEquals(Arrays.asList("dir/a.txt"), listAll(backend, "dir/", null, 1000));
+
+        // another tool adds a file and the directory keeps its modification time
+        Files.write(directory.resolve("b.txt"), new byte[1]);
+        Files.setLastModifiedTime(directory, modified);
+        assertEquals(Arrays.asList("dir/a.txt", "dir/b.txt"), listAll(backend, "dir/", null, 1000));
+    }
+
+    private static FileSystemStorageBackend newBackend() throws IOException {
+        FileSystemStorageBackend backend = new FileSystemStorageBackend(Files.createTempDirectory("fs-backend").toFile());
+        backend.createBucket("bucket", null);
+        return backend;
+    }
+
+    private static void put(FileSystemStorageBackend backend, String key, String content) {
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength(bytes.length);
+        backend.putObject(new PutObjectRequest("bucket", key, new ByteArrayInputStream(bytes), metadata));
+    }
+
+    private static List<String> listAll(FileSystemStorageBackend backend, String prefix, String delimiter, int maxKeys) {
+        List<String> keys = new ArrayList<>();
+        ListObjectsV2Request request = new ListObjectsV2Request().withBucketName("bucket").withPrefix(prefix)
+                .withDelimiter(delimiter).withMaxKeys(maxKeys);
+        ListObjectsV2Result result;
+        do {
+            result = backend.listObjectsV2(request);
+            keys.addAll(keys(result));
+            request.setContinuationToken(result.getNextContinuationToken());
+        } while (result.isTruncated());
+        return keys;
+    }
+
+    private static List<String> keys(ListObjectsV2Result result) {
+        List<String> keys = new ArrayList<>();
+        for (S3ObjectSummary summary : result.getObjectSummaries()) {
+            keys.add(summary.getKey());
+        }
+        return keys;
+    }
+}
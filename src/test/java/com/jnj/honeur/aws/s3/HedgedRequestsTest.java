@@ -0,0 +1,209 @@
+package com.jnj.honeur.aws.s3;
+
+import com.amazonaws.AbortedException;
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.s3.AbstractAmazonS3;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HedgedRequestsTest {
+
+    private static final int WARM_UP = 32;
+
+    @Test
+    void hedgeAnswersForASlowRequest() throws Exception {
+        HedgedRequests hedgedRequests = new HedgedRequests(0.95, 1, 20);
+        try {
+            final ObjectStub s3 = new ObjectStub() {
+                @Override
+                S3Object respond(int call) throws InterruptedException {
+                    if (call == WARM_UP + 1) {
+                        Thread.sleep(TimeUnit.SECONDS.toMillis(10));
+                    }
+                    return newObject(this, call);
+                }
+            };
+            warmUp(hedgedRequests, s3);
+            assertEquals(20, hedgedRequests.getHedgeDelayMillis());
+
+            S3Object object = hedgedRequests.getObject(s3, new GetObjectRequest("bucket", "key"));
+            assertEquals(String.valueOf(WARM_UP + 2), object.getKey());
+            assertEquals(1, hedgedRequests.getHedgedRequests());
+            assertEquals(1, hedgedRequests.getHedgeWins());
+            // the slow request is interrupted instead of holding its connection
+            assertTrue(s3.interrupted.await(5, TimeUnit.SECONDS));
+        } finally {
+            hedgedRequests.shutdown();
+        }
+    }
+
+    @Test
+    void missingObjectFailsWithoutWaitingForTheHedge() throws Exception {
+        HedgedRequests hedgedRequests = new HedgedRequests(0.95, 1, 20);
+        try {
+            final ObjectStub s3 = new ObjectStub() {
+                @Override
+                S3Object respond(int call) throws InterruptedException {
+                    if (call == WARM_UP + 1) {
+                        Thread.sleep(100);
+                        AmazonS3Exception e = new AmazonS3Exception("Not Found");
+                        e.setStatusCode(404);
+                        throw e;
+                    }
+                    if (call == WARM_UP + 2) {
+                        Thread.sleep(TimeUnit.SECONDS.toMillis(10));
+                    }
+                    return newObject(this, call);
+                }
+            };
+            warmUp(hedgedRequests, s3);
+
+            long start = System.nanoTime();
+            try {
+                hedgedRequests.getObject(s3, new GetObjectRequest("bucket", "key"));
+                fail("the object does not exist");
+            } catch (AmazonS3Exception e) {
+                assertEquals(404, e.getStatusCode());
+            }
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+            assertEquals(1, hedgedRequests.getHedgedRequests());
+            assertTrue(s3.interrupted.await(5, TimeUnit.SECONDS));
+        } finally {
+            hedgedRequests.shutdown();
+        }
+    }
+
+    @Test
+    void serverErrorWaitsForTheHedge() throws Exception {
+        HedgedRequests hedgedRequests = new HedgedRequests(0.95, 1, 20);
+        try {
+            final ObjectStub s3 = new ObjectStub() {
+                @Override
+                S3Object respond(int call) throws InterruptedException {
+                    if (call == WARM_UP + 1) {
+                        Thread.sleep(100);
+                        AmazonS3Exception e = new AmazonS3Exception("Internal Error");
+                        e.setStatusCode(500);
+                        throw e;
+                    }
+                    if (call == WARM_UP + 2) {
+                        Thread.sleep(200);
+                    }
+                    return newObject(this, call);
+                }
+            };
+            warmUp(hedgedRequests, s3);
+
+            S3Object object = hedgedRequests.getObject(s3, new GetObjectRequest("bucket", "key"));
+            assertEquals(String.valueOf(WARM_UP + 2), object.getKey());
+        } finally {
+            hedgedRequests.shutdown();
+        }
+    }
+
+    @Test
+    void interruptedCallerClosesALateAnswer() throws Exception {
+        final HedgedRequests hedgedRequests = new HedgedRequests();
+        try {
+            final CountDownLatch started = new CountDownLatch(1);
+            final ObjectStub s3 = new ObjectStub() {
+                @Override
+                S3Object respond(int call) {
+                    started.countDown();
+                    // answers even when interrupted, like a request that completes while it is cancelled
+                    try {
+                        Thread.sleep(200);
+                    } catch (InterruptedException e) {
+                        interrupted.countDown();
+                    }
+                    return newObject(this, call);
+                }
+            };
+            final AtomicReference<Object> outcome = new AtomicReference<>();
+            Thread caller = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        outcome.set(hedgedRequests.getObject(s3, new GetObjectRequest("bucket", "key")));
+                    } catch (AbortedException e) {
+                        outcome.set(Thread.interrupted());
+                    }
+                }
+            };
+            caller.start();
+            // interrupt once the request is sent, a request still queued is cancelled before it runs
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            caller.interrupt();
+            caller.join(5000);
+            assertEquals(Boolean.TRUE, outcome.get());
+            assertTrue(s3.closed.await(5, TimeUnit.SECONDS));
+        } finally {
+            hedgedRequests.shutdown();
+        }
+    }
+
+    @Test
+    void retryableErrors() {
+        AmazonS3Exception notFound = new AmazonS3Exception("Not Found");
+        notFound.setStatusCode(404);
+        AmazonS3Exception slowDown = new AmazonS3Exception("Slow Down");
+        slowDown.setStatusCode(503);
+        AmazonS3Exception throttled = new AmazonS3Exception("Too Many Requests");
+        throttled.setStatusCode(429);
+        assertFalse(HedgedRequests.isRetryable(notFound));
+        assertFalse(HedgedRequests.isRetryable(new AbortedException()));
+        assertTrue(HedgedRequests.isRetryable(slowDown));
+        assertTrue(HedgedRequests.isRetryable(throttled));
+        assertTrue(HedgedRequests.isRetryable(new SdkClientException("Connection reset")));
+    }
+
+    private static void warmUp(HedgedRequests hedgedRequests, ObjectStub s3) {
+        for (int i = 0; i < WARM_UP; i++) {
+            hedgedRequests.getObject(s3, new GetObjectRequest("bucket", "key"));
+        }
+    }
+
+    private static S3Object newObject(final ObjectStub s3, int call) {
+        S3Object object = new S3Object();
+        object.setKey(String.valueOf(call));
+        object.setObjectContent(new ByteArrayInputStream(new byte[1]) {
+            @Override
+            public void close() {
+                s3.closed.countDown();
+            }
+        });
+        return object;
+    }
+
+    /**
+     * Numbers its calls, the subclass decides how each call is answered.
+     */
+    private abstract static class ObjectStub extends AbstractAmazonS3 {
+
+        private final AtomicInteger calls = new AtomicInteger();
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        final CountDownLatch closed = new CountDownLatch(1);
+
+        abstract S3Object respond(int call) throws InterruptedException;
+
+        @Override
+        public S3Object getObject(GetObjectRequest request) {
+            try {
+                return respond(calls.incrementAndGet());
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+                throw new AbortedException(e);
+            }
+        }
+    }
+}
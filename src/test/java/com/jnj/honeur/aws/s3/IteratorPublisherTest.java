@@ -0,0 +1,158 @@
+package com.jnj.honeur.aws.s3;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IteratorPublisherTest {
+
+    @Test
+    void respectsDemand() {
+        final RecordingSubscriber subscriber = new RecordingSubscriber();
+        newPublisher(Arrays.asList("a", "b", "c"), new Closed()).subscribe(subscriber);
+        assertTrue(subscriber.items.isEmpty());
+        subscriber.subscription.request(2);
+        assertEquals(Arrays.asList("a", "b"), subscriber.items);
+        assertFalse(subscriber.completed);
+        subscriber.subscription.request(5);
+        assertEquals(Arrays.asList("a", "b", "c"), subscriber.items);
+        assertTrue(subscriber.completed);
+    }
+
+    @Test
+    void cancelClosesIterator() {
+        final Closed closed = new Closed();
+        final RecordingSubscriber subscriber = new RecordingSubscriber();
+        newPublisher(Arrays.asList("a", "b", "c"), closed).subscribe(subscriber);
+        subscriber.subscription.request(1);
+        subscriber.subscription.cancel();
+        subscriber.subscription.request(1);
+        assertEquals(Arrays.asList("a"), subscriber.items);
+        assertTrue(closed.value);
+        assertFalse(subscriber.completed);
+    }
+
+    @Test
+    void invalidRequestFails() {
+        final RecordingSubscriber subscriber = new RecordingSubscriber();
+        newPublisher(Arrays.asList("a"), new Closed()).subscribe(subscriber);
+        subscriber.subscription.request(0);
+        assertTrue(subscriber.error instanceof IllegalArgumentException);
+    }
+
+    @Test
+    void publisherIterator() {
+        final List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            keys.add("key-" + i);
+        }
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final IteratorPublisher<String> publisher = new IteratorPublisher<String>(executor) {
+                @Override
+                protected Iterator<String> newIterator() {
+                    return keys.iterator();
+                }
+            };
+            final List<String> received = new ArrayList<>();
+            try (PublisherIterator<String> iterator = new PublisherIterator<>(publisher, 64)) {
+                while (iterator.hasNext()) {
+                    received.add(iterator.next());
+                }
+            }
+            assertEquals(keys, received);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static IteratorPublisher<String> newPublisher(final List<String> items, final Closed closed) {
+        return new IteratorPublisher<String>(DirectExecutor.INSTANCE) {
+            @Override
+            protected Iterator<String> newIterator() {
+                return new ClosingIterator(items.iterator(), closed);
+            }
+        };
+    }
+
+    private enum DirectExecutor implements Executor {
+        INSTANCE;
+
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    }
+
+    private static class Closed {
+        private boolean value;
+    }
+
+    private static class ClosingIterator implements Iterator<String>, Closeable {
+
+        private final Iterator<String> delegate;
+        private final Closed closed;
+
+        private ClosingIterator(Iterator<String> delegate, Closed closed) {
+            this.delegate = delegate;
+            this.closed = closed;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return delegate.hasNext();
+        }
+
+        @Override
+        public String next() {
+            return delegate.next();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() {
+            closed.value = true;
+        }
+    }
+
+    private static class RecordingSubscriber implements S3Flow.Subscriber<String> {
+
+        private final List<String> items = new ArrayList<>();
+        private S3Flow.Subscription subscription;
+        private boolean completed;
+        private Throwable error;
+
+        @Override
+        public void onSubscribe(S3Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(String item) {
+            items.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.jnj.honeur.aws.s3;
+
+import com.amazonaws.services.s3.AbstractAmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadResult;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadResult;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.amazonaws.services.s3.model.UploadPartResult;
+import com.google.common.io.ByteStreams;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MappedFileUploaderTest {
+
+    private static final int PART_SIZE = (int) MappedFileUploader.MIN_PART_SIZE;
+
+    @Test
+    void uploadsMappedParts() throws Exception {
+        byte[] content = new byte[2 * PART_SIZE + 1000];
+        new Random(7).nextBytes(content);
+        File file = File.createTempFile("mapped", ".bin");
+        Files.write(file.toPath(), content);
+        MultipartStub s3 = new MultipartStub(-1);
+        MappedFileUploader uploader = new MappedFileUploader(s3, PART_SIZE, 2);
+        try {
+            CompleteMultipartUploadResult result = uploader.upload("bucket", "large.bin", file);
+            assertEquals("etag-3", result.getETag());
+        } finally {
+            uploader.shutdown();
+        }
+        assertArrayEquals(content, s3.completed);
+        assertFalse(s3.aborted);
+        assertTrue(file.delete());
+    }
+
+    @Test
+    void abortsWhenAPartFails() throws Exception {
+        File file = File.createTempFile("mapped", ".bin");
+        Files.write(file.toPath(), new byte[PART_SIZE + 1]);
+        MultipartStub s3 = new MultipartStub(2);
+        MappedFileUploader uploader = new MappedFileUploader(s3, PART_SIZE, 2);
+        try {
+            uploader.upload("bucket", "large.bin", file);
+            fail("the failed part fails the upload");
+        } catch (AmazonS3Exception e) {
+            assertEquals(500, e.getStatusCode());
+        } finally {
+            uploader.shutdown();
+        }
+        assertTrue(s3.aborted);
+        assertNull(s3.completed);
+    }
+
+    @Test
+    void growsThePartSizeToStayWithinThePartLimit() {
+        MappedFileUploader uploader = new MappedFileUploader(new MultipartStub(-1));
+        try {
+            assertEquals(MappedFileUploader.DEFAULT_PART_SIZE, uploader.getPartSize(1024L * 1024 * 1024));
+            long tenTiB = 10L * 1024 * 1024 * 1024 * 1024;
+            assertEquals((tenTiB + 9999) / 10000, uploader.getPartSize(tenTiB));
+        } finally {
+            uploader.shutdown();
+        }
+    }
+
+    /**
+     * Keeps the parts of one multipart upload in memory.
+     */
+    private static class MultipartStub extends AbstractAmazonS3 {
+
+        private final int failingPart;
+        private final Map<Integer, byte[]> parts = new ConcurrentHashMap<>();
+        private volatile byte[] completed;
+        private volatile boolean aborted;
+
+        private MultipartStub(int failingPart) {
+            this.failingPart = failingPart;
+        }
+
+        @Override
+        public InitiateMultipartUploadResult initiateMultipartUpload(InitiateMultipartUploadRequest request) {
+            InitiateMultipartUploadResult result = new InitiateMultipartUploadResult();
+            result.setUploadId("upload");
+            return result;
+        }
+
+        @Override
+        public UploadPartResult uploadPart(UploadPartRequest request) {
+            if (request.getPartNumber() == failingPart) {
+                AmazonS3Exception e = new AmazonS3Exception("Internal Error");
+                e.setStatusCode(500);
+                throw e;
+            }
+            try {
+                byte[] bytes = ByteStreams.toByteArray(request.getInputStream());
+                assertEquals(request.getPartSize(), bytes.length);
+                parts.put(request.getPartNumber(), bytes);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            UploadPartResult result = new UploadPartResult();
+            result.setPartNumber(request.getPartNumber());
+            result.setETag("part-" + request.getPartNumber());
+            return result;
+        }
+
+        @Override
+        public CompleteMultipartUploadResult completeMultipartUpload(CompleteMultipartUploadRequest request) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            int expected = 1;
+            for (PartETag partETag : request.getPartETags()) {
+                assertEquals(expected++, partETag.getPartNumber());
+                byte[] part = parts.get(partETag.getPartNumber());
+                out.write(part, 0, part.length);
+            }
+            completed = out.toByteArray();
+            CompleteMultipartUploadResult result = new CompleteMultipartUploadResult();
+            result.setETag("etag-" + request.getPartETags().size());
+            return result;
+        }
+
+        @Override
+        public void abortMultipartUpload(AbortMultipartUploadRequest request) {
+            aborted = true;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package com.jnj.honeur.aws.s3;
+
+import com.amazonaws.services.s3.AbstractAmazonS3;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectInputStream;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ObjectContentPublisherTest {
+
+    // the smallest pool holds four of these
+    private static final int CHUNK_SIZE = DirectBufferPool.MAX_BUFFER_SIZE / 4;
+
+    @Test
+    void cancelReleasesTheReadAheadChunkAndAbortsTheStream() throws Exception {
+        ObjectStub s3 = new ObjectStub(3 * CHUNK_SIZE);
+        DirectBufferPool bufferPool = new DirectBufferPool(DirectBufferPool.MAX_BUFFER_SIZE);
+        ObjectContentPublisher publisher = new ObjectContentPublisher(s3, new GetObjectRequest("bucket", "key"), bufferPool,
+                CHUNK_SIZE, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+        HoldingSubscriber subscriber = new HoldingSubscriber();
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(1);
+        assertEquals(1, subscriber.chunks.size());
+        // the next chunk is read to see whether the stream ends
+        assertEquals(2L * CHUNK_SIZE, bufferPool.getInUseBytes());
+
+        subscriber.subscription.cancel();
+        assertEquals((long) CHUNK_SIZE, bufferPool.getInUseBytes());
+        assertTrue(s3.request.isAborted());
+        assertEquals(2L * CHUNK_SIZE, s3.bytesRead.get());
+        assertTrue(s3.closed.get() > 0);
+        bufferPool.release(subscriber.chunks.take());
+        assertEquals(0, bufferPool.getInUseBytes());
+    }
+
+    @Test
+    void heldChunksStopTheStream() throws Exception {
+        ObjectStub s3 = new ObjectStub(6 * CHUNK_SIZE + 100);
+        DirectBufferPool bufferPool = new DirectBufferPool(DirectBufferPool.MAX_BUFFER_SIZE);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            ObjectContentPublisher publisher = new ObjectContentPublisher(s3, new GetObjectRequest("bucket", "key"), bufferPool,
+                    CHUNK_SIZE, executor);
+            HoldingSubscriber subscriber = new HoldingSubscriber();
+            publisher.subscribe(subscriber);
+            subscriber.subscription.request(Long.MAX_VALUE);
+
+            List<ByteBuffer> held = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                ByteBuffer chunk = subscriber.chunks.poll(5, TimeUnit.SECONDS);
+                assertNotNull(chunk);
+                held.add(chunk);
+            }
+            // no buffer is left for the fifth chunk while all four are held
+            assertNull(subscriber.chunks.poll(200, TimeUnit.MILLISECONDS));
+            assertTrue(bufferPool.getWaits() > 0);
+            assertEquals(4L * CHUNK_SIZE, s3.bytesRead.get());
+
+            long received = 0;
+            for (ByteBuffer chunk : held) {
+                received += chunk.remaining();
+                bufferPool.release(chunk);
+            }
+            while (!subscriber.completed.await(0, TimeUnit.MILLISECONDS) || !subscriber.chunks.isEmpty()) {
+                ByteBuffer chunk = subscriber.chunks.poll(100, TimeUnit.MILLISECONDS);
+                if (chunk != null) {
+                    received += chunk.remaining();
+                    bufferPool.release(chunk);
+                }
+            }
+            assertEquals(6L * CHUNK_SIZE + 100, received);
+            assertTrue(subscriber.errors.isEmpty());
+            // read to the end, nothing to abort
+            assertFalse(s3.request.isAborted());
+            assertEquals(0, bufferPool.getInUseBytes());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void closedServiceTakesNoSubscriptions() throws Exception {
+        FileSystemStorageBackend backend = new FileSystemStorageBackend(Files.createTempDirectory("publisher").toFile());
+        backend.createBucket("bucket", null);
+        AmazonS3Service service = new AmazonS3Service(backend);
+        service.close();
+        HoldingSubscriber subscriber = new HoldingSubscriber();
+        service.publishObjectContent("bucket", "key", CHUNK_SIZE).subscribe(subscriber);
+        subscriber.subscription.request(1);
+        assertTrue(subscriber.errors.get(0) instanceof RejectedExecutionException);
+    }
+
+    /**
+     * Answers a GET with random content, counting the bytes read from the object stream.
+     */
+    private static class ObjectStub extends AbstractAmazonS3 {
+
+        private final byte[] content;
+        private final HttpGet request = new HttpGet("https://bucket.s3.amazonaws.com/key");
+        private final AtomicLong bytesRead = new AtomicLong();
+        private final AtomicLong closed = new AtomicLong();
+
+        private ObjectStub(int size) {
+            content = new byte[size];
+            new Random(5).nextBytes(content);
+        }
+
+        @Override
+        public S3Object getObject(GetObjectRequest getObjectRequest) {
+            FilterInputStream in = new FilterInputStream(new ByteArrayInputStream(content)) {
+                @Override
+                public int read(byte[] bytes, int offset, int length) throws IOException {
+                    int count = super.read(bytes, offset, length);
+                    if (count > 0) {
+                        bytesRead.addAndGet(count);
+                    }
+                    return count;
+                }
+
+                @Override
+                public void close() throws IOException {
+                    closed.incrementAndGet();
+                    super.close();
+                }
+            };
+            S3Object object = new S3Object();
+            object.setObjectContent(new S3ObjectInputStream(in, request));
+            return object;
+        }
+    }
+
+    private static class HoldingSubscriber implements S3Flow.Subscriber<ByteBuffer> {
+
+        private final BlockingQueue<ByteBuffer> chunks = new LinkedBlockingQueue<>();
+        private final List<Throwable> errors = new CopyOnWriteArrayList<>();
+        private final CountDownLatch completed = new CountDownLatch(1);
+        private volatile S3Flow.Subscription subscription;
+
+        @Override
+        public void onSubscribe(S3Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(ByteBuffer item) {
+            chunks.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            errors.add(throwable);
+            completed.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            completed.countDown();
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.jnj.honeur.aws.s3;
+
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ObjectMetadataCacheTest {
+
+    @Test
+    void cachesFoundAndNotFound() throws Exception {
+        ObjectMetadataCache cache = new ObjectMetadataCache(100, 100 * 1024, 60000, 100, TimeUnit.MILLISECONDS);
+        CountingLoader loader = new CountingLoader();
+        loader.objects.put("bucket/a", 10L);
+
+        assertEquals(10, cache.get("bucket", "a", loader).getContentLength());
+        assertEquals(10, cache.get("bucket", "a", loader).getContentLength());
+        assertNull(cache.get("bucket", "b", loader));
+        assertNull(cache.get("bucket", "b", loader));
+        assertEquals(2, loader.requests.get());
+
+        // a copy is returned, changes do not end up in the cache
+        cache.get("bucket", "a", loader).setContentLength(99);
+        assertEquals(10, cache.get("bucket", "a", loader).getContentLength());
+
+        loader.objects.put("bucket/b", 20L);
+        Thread.sleep(150);
+        assertEquals(20, cache.get("bucket", "b", loader).getContentLength());
+        assertEquals(3, loader.requests.get());
+
+        try {
+            cache.get("bucket", "error", loader);
+            fail("only a 404 means the object does not exist");
+        } catch (AmazonS3Exception e) {
+            assertEquals(403, e.getStatusCode());
+        }
+    }
+
+    @Test
+    void invalidates() {
+        ObjectMetadataCache cache = new ObjectMetadataCache();
+        CountingLoader loader = new CountingLoader();
+        loader.objects.put("bucket/dir/a", 1L);
+        loader.objects.put("other/dir/a", 1L);
+        cache.get("bucket", "dir/a", loader);
+        cache.get("bucket", "dir/b", loader);
+        cache.get("other", "dir/a", loader);
+        assertEquals(3, cache.size());
+
+        cache.invalidate("bucket", "dir/b");
+        assertEquals(2, cache.size());
+        cache.invalidatePrefix("bucket", "dir/");
+        assertEquals(1, cache.size());
+        cache.invalidateAll();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void onlyInvalidationsOfTheKeyKeepAHeadFromBeingCached() {
+        final ObjectMetadataCache cache = new ObjectMetadataCache();
+        CountingLoader loader = new CountingLoader() {
+            @Override
+            public ObjectMetadata load(String bucketName, String keyName) {
+                // a write while the HEAD is in flight
+                cache.invalidate(bucketName, keyName.equals("a") ? "other" : keyName);
+                return super.load(bucketName, keyName);
+            }
+        };
+        loader.objects.put("bucket/a", 1L);
+        loader.objects.put("bucket/b", 2L);
+
+        cache.get("bucket", "a", loader);
+        cache.get("bucket", "a", loader);
+        assertEquals(1, loader.requests.get());
+        // the HEAD may have seen the object before the write
+        cache.get("bucket", "b", loader);
+        cache.get("bucket", "b", loader);
+        assertEquals(3, loader.requests.get());
+    }
+
+    @Test
+    void boundedByCountAndWeight() {
+        ObjectMetadataCache byCount = new ObjectMetadataCache(10, 1024 * 1024, 1, 1, TimeUnit.MINUTES);
+        ObjectMetadataCache byWeight = new ObjectMetadataCache(1000, 10 * 1024, 1, 1, TimeUnit.MINUTES);
+        CountingLoader loader = new CountingLoader();
+        for (int i = 0; i < 100; i++) {
+            loader.objects.put("bucket/" + i, (long) i);
+            byCount.get("bucket", String.valueOf(i), loader);
+            byWeight.get("bucket", String.valueOf(i), loader);
+        }
+        assertTrue(byCount.size() <= 10);
+        // an entry weighs at least the overhead of a few hundred bytes
+        assertTrue(byWeight.size() < 50);
+    }
+
+    private static class CountingLoader implements ObjectMetadataCache.Loader {
+
+        private final Map<String, Long> objects = new HashMap<>();
+        private final AtomicInteger requests = new AtomicInteger();
+
+        @Override
+        public ObjectMetadata load(String bucketName, String keyName) {
+            requests.incrementAndGet();
+            if (keyName.equals("error")) {
+                AmazonS3Exception e = new AmazonS3Exception("Access Denied");
+                e.setStatusCode(403);
+                throw e;
+            }
+            Long size = objects.get(bucketName + "/" + keyName);
+            if (size == null) {
+                AmazonS3Exception e = new AmazonS3Exception("Not Found");
+                e.setStatusCode(404);
+                throw e;
+            }
+            ObjectMetadata metadata = new ObjectMetadata();
+            metadata.setContentLength(size);
+            return metadata;
+        }
+    }
+}
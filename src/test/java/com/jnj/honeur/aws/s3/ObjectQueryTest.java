@@ -0,0 +1,186 @@
+package com.jnj.honeur.aws.s3;
+
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ObjectQueryTest {
+
+    @Test
+    void rendersSelectSql() {
+        ObjectQuery query = new ObjectQuery(ObjectQuery.Format.CSV).select("site", "_2")
+                .where("count", ObjectQuery.Operator.GE, "10")
+                .where("name", ObjectQuery.Operator.EQ, "O'Brien");
+        assertEquals("SELECT s.\"site\", s._2 FROM S3Object s WHERE CAST(s.\"count\" AS FLOAT) >= 10 AND s.\"name\" = 'O''Brien'",
+                query.toSql());
+    }
+
+    @Test
+    void evaluatesCsvOverRanges() throws Exception {
+        FileSystemStorageBackend backend = new FileSystemStorageBackend(Files.createTempDirectory("query").toFile());
+        backend.createBucket("bucket", null);
+        StringBuilder csv = new StringBuilder("id,site,count\r\n");
+        for (int i = 0; i < 5000; i++) {
+            csv.append(i).append(",\"site, ").append(i % 7).append("\",").append(i % 100).append("\r\n");
+        }
+        put(backend, "data.csv", csv.toString());
+
+        ObjectQuery query = new ObjectQuery(ObjectQuery.Format.CSV).select("id", "site")
+                .where("count", ObjectQuery.Operator.GT, "97")
+                .where("site", ObjectQuery.Operator.EQ, "site, 3");
+        List<Map<String, Object>> expected = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            if (i % 100 > 97 && i % 7 == 3) {
+                expected.add(ObjectQuery.toRecord(Arrays.asList(String.valueOf(i), "site, 3"), Arrays.asList("id", "site")));
+            }
+        }
+        // small ranges, so lines and the quoted separator cross range boundaries
+        ObjectQueryExecutor executor = new ObjectQueryExecutor(3, 1000);
+        final List<Map<String, Object>> rows = new ArrayList<>();
+        try {
+            executor.query(new StorageBackendClient(backend), "bucket", "data.csv", query, new RecordProcessor.Sink<Map<String, Object>>() {
+                @Override
+                public void write(List<Map<String, Object>> records) {
+                    rows.addAll(records);
+                }
+            });
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(expected, rows);
+    }
+
+    @Test
+    void queriesJsonLinesThroughService() throws Exception {
+        FileSystemStorageBackend backend = new FileSystemStorageBackend(Files.createTempDirectory("query").toFile());
+        backend.createBucket("bucket", null);
+        put(backend, "data.jsonl", "{\"id\":1,\"ok\":true}\n\n{\"id\":2,\"ok\":false,\"x\":[1,{\"y\":null}]}\n{\"id\":3}\n");
+        List<Map<String, Object>> rows = new AmazonS3Service(backend).queryObject("bucket", "data.jsonl",
+                new ObjectQuery(ObjectQuery.Format.JSON_LINES).where("id", ObjectQuery.Operator.GE, "2"));
+        assertEquals(2, rows.size());
+        assertEquals(2L, rows.get(0).get("id"));
+        assertEquals(Boolean.FALSE, rows.get(0).get("ok"));
+        assertEquals(3L, rows.get(1).get("id"));
+    }
+
+    @Test
+    void writesRangesInOrderAsTheyComplete() throws Exception {
+        FileSystemStorageBackend backend = new FileSystemStorageBackend(Files.createTempDirectory("query").toFile());
+        backend.createBucket("bucket", null);
+        StringBuilder csv = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            csv.append(i).append(",row ").append(i).append('\n');
+        }
+        put(backend, "data.csv", csv.toString());
+        final RangeRecordingClient s3 = new RangeRecordingClient(backend);
+
+        ObjectQueryExecutor executor = new ObjectQueryExecutor(2, 1000);
+        final List<Map<String, Object>> rows = new ArrayList<>();
+        final AtomicInteger getsBeforeFirstWrite = new AtomicInteger(-1);
+        try {
+            executor.query(s3, "bucket", "data.csv", new ObjectQuery(ObjectQuery.Format.CSV).withHeader(false).select("_1"),
+                    new RecordProcessor.Sink<Map<String, Object>>() {
+                        @Override
+                        public void write(List<Map<String, Object>> records) {
+                            getsBeforeFirstWrite.compareAndSet(-1, s3.ranges.size());
+                            rows.addAll(records);
+                        }
+                    });
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(20000, rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            assertEquals(String.valueOf(i), rows.get(i).get("_1"));
+        }
+        int ranges = (csv.length() + 999) / 1000;
+        assertEquals(ranges, s3.ranges.size());
+        // the first rows are written while most ranges are not requested yet
+        assertTrue(getsBeforeFirstWrite.get() <= 2 * 2 + 1, String.valueOf(getsBeforeFirstWrite.get()));
+        // each range reads its own bytes and some slack, not the rest of the object
+        for (long[] range : s3.ranges) {
+            assertTrue(range[1] - range[0] + 1 <= 1001 + 64 * 1024, Arrays.toString(range));
+        }
+    }
+
+    @Test
+    void readsALongLinePastTheSlack() throws Exception {
+        FileSystemStorageBackend backend = new FileSystemStorageBackend(Files.createTempDirectory("query").toFile());
+        backend.createBucket("bucket", null);
+        char[] padding = new char[300000];
+        Arrays.fill(padding, 'x');
+        String content = "{\"id\":1}\n{\"id\":2,\"pad\":\"" + new String(padding) + "\"}\n{\"id\":3}\n";
+        put(backend, "data.jsonl", content);
+        RangeRecordingClient s3 = new RangeRecordingClient(backend);
+
+        ObjectQueryExecutor executor = new ObjectQueryExecutor(2, 100000);
+        final List<Map<String, Object>> rows = new ArrayList<>();
+        try {
+            executor.query(s3, "bucket", "data.jsonl", new ObjectQuery(ObjectQuery.Format.JSON_LINES),
+                    new RecordProcessor.Sink<Map<String, Object>>() {
+                        @Override
+                        public void write(List<Map<String, Object>> records) {
+                            rows.addAll(records);
+                        }
+                    });
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(3, rows.size());
+        assertEquals(2L, rows.get(1).get("id"));
+        assertEquals(300000, ((String) rows.get(1).get("pad")).length());
+        assertEquals(3L, rows.get(2).get("id"));
+        // the first range continues with further GETs while its last line runs on
+        assertTrue(s3.requested(0, 165535));
+        assertTrue(s3.requested(165536, 231071));
+        assertTrue(s3.requested(231072, content.length() - 1));
+    }
+
+    private static void put(FileSystemStorageBackend backend, String key, String content) {
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength(bytes.length);
+        backend.putObject(new PutObjectRequest("bucket", key, new ByteArrayInputStream(bytes), metadata));
+    }
+
+    /**
+     * Records the byte ranges of the GETs.
+     */
+    private static class RangeRecordingClient extends StorageBackendClient {
+
+        private final List<long[]> ranges = new CopyOnWriteArrayList<>();
+
+        private RangeRecordingClient(StorageBackend backend) {
+            super(backend);
+        }
+
+        @Override
+        public S3Object getObject(GetObjectRequest request) {
+            ranges.add(request.getRange());
+            return super.getObject(request);
+        }
+
+        private boolean requested(long first, long last) {
+            for (long[] range : ranges) {
+                if (range[0] == first && range[1] == last) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
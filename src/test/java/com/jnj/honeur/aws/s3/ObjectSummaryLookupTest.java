@@ -0,0 +1,121 @@
+package com.jnj.honeur.aws.s3;
+
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ObjectSummaryLookupTest {
+
+    @Test
+    void listsTheSpanOfTheRequestedKeys() throws Exception {
+        CountingClient s3 = newClient(2000);
+        List<String> keys = new ArrayList<>();
+        for (int i = 1500; i < 1540; i++) {
+            keys.add(key(i));
+        }
+        keys.add("data/missing");
+        keys.add("other/" + key(1));
+        ObjectSummaryLookup lookup = new ObjectSummaryLookup(4, 32);
+        try {
+            Map<String, S3ObjectSummary> summaries = lookup.lookup(s3, "bucket", keys);
+            assertEquals(40, summaries.size());
+            assertEquals(4, summaries.get(key(1520)).getSize());
+            assertFalse(summaries.containsKey("data/missing"));
+        } finally {
+            lookup.shutdown();
+        }
+        // the listing starts just before the first requested key, and skips to the next one after a page
+        assertEquals(Arrays.asList("data/missin", "data/object-150"), s3.startAfter);
+        assertEquals(1, s3.heads.get());
+    }
+
+    @Test
+    void sparseKeysFallBackToHeadRequests() throws Exception {
+        CountingClient s3 = newClient(2400);
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 2400; i += 120) {
+            keys.add(key(i));
+        }
+        ObjectSummaryLookup lookup = new ObjectSummaryLookup(4, 20);
+        try {
+            Map<String, S3ObjectSummary> summaries = lookup.lookup(s3, "bucket", keys);
+            assertEquals(20, summaries.size());
+        } finally {
+            lookup.shutdown();
+        }
+        // two pages resolve 18 requested keys, fewer than 20 per page after the first
+        assertEquals(2, s3.startAfter.size());
+        assertEquals(2, s3.heads.get());
+    }
+
+    @Test
+    void pageEndingAtTheLastRequestedKey() throws Exception {
+        CountingClient s3 = newClient(1500);
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            keys.add(key(i));
+        }
+        ObjectSummaryLookup lookup = new ObjectSummaryLookup(4, 32);
+        try {
+            // the first page holds exactly the requested keys and is truncated
+            assertEquals(1000, lookup.lookup(s3, "bucket", keys).size());
+        } finally {
+            lookup.shutdown();
+        }
+        assertEquals(1, s3.startAfter.size());
+        assertEquals(0, s3.heads.get());
+    }
+
+    private static String key(int i) {
+        return String.format("data/object-%04d", i);
+    }
+
+    private static CountingClient newClient(int objects) throws IOException {
+        FileSystemStorageBackend backend = new FileSystemStorageBackend(Files.createTempDirectory("lookup").toFile());
+        backend.createBucket("bucket", null);
+        CountingClient s3 = new CountingClient(backend);
+        for (int i = 0; i < objects; i++) {
+            s3.putObject("bucket", key(i), "data");
+        }
+        return s3;
+    }
+
+    /**
+     * Counts the LIST and HEAD requests.
+     */
+    private static class CountingClient extends StorageBackendClient {
+
+        private final List<String> startAfter = new CopyOnWriteArrayList<>();
+        private final AtomicInteger heads = new AtomicInteger();
+
+        private CountingClient(StorageBackend backend) {
+            super(backend);
+        }
+
+        @Override
+        public ListObjectsV2Result listObjectsV2(ListObjectsV2Request request) {
+            assertNull(request.getContinuationToken());
+            startAfter.add(request.getStartAfter());
+            return super.listObjectsV2(request);
+        }
+
+        @Override
+        public ObjectMetadata getObjectMetadata(String bucketName, String key) {
+            heads.incrementAndGet();
+            return super.getObjectMetadata(bucketName, key);
+        }
+    }
+}
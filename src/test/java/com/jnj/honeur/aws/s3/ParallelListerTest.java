@@ -0,0 +1,224 @@
+package com.jnj.honeur.aws.s3;
+
+import com.amazonaws.AbortedException;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ParallelListerTest {
+
+    @Test
+    void keyOrderFollowsUtf8Bytes() {
+        assertTrue(ParallelLister.compareKeys("a/", "a/b") < 0);
+        assertTrue(ParallelLister.compareKeys("b", "a/b") > 0);
+        // U+FF21 sorts before U+1F600 in UTF-8, but after its surrogate pair in UTF-16
+        assertTrue(ParallelLister.compareKeys("\uFF21", "\uD83D\uDE00") < 0);
+        assertEquals(0, ParallelLister.compareKeys("data/x", "data/x"));
+    }
+
+    @Test
+    void keyRangeBounds() {
+        ParallelLister.KeyRange range = new ParallelLister.KeyRange("data/", "data/a/", "data/b/");
+        assertFalse(range.contains("data/a/"));
+        assertTrue(range.contains("data/a/1"));
+        assertTrue(range.contains("data/b/"));
+        assertFalse(range.contains("data/b/1"));
+
+        ParallelLister.KeyRange last = new ParallelLister.KeyRange("data/", "data/b/", null);
+        assertTrue(last.contains("data/z"));
+        assertFalse(last.contains("other"));
+    }
+
+    @Test
+    void partitionsOnCommonPrefixes() throws Exception {
+        CountingClient s3 = newClient();
+        List<String> keys = new ArrayList<>();
+        for (String directory : new String[]{"a/", "b/x/", "b/y/", "c/"}) {
+            for (int i = 0; i < 5; i++) {
+                keys.add("data/" + directory + i);
+            }
+        }
+        keys.add("data/top");
+        put(s3, keys);
+        ParallelLister lister = new ParallelLister(4, 16, 3, "/");
+        try {
+            List<ParallelLister.KeyRange> ranges = lister.partition(s3, "bucket", "data/");
+            assertConsecutive(ranges);
+            List<String> boundaries = new ArrayList<>();
+            for (int i = 0; i < ranges.size() - 1; i++) {
+                boundaries.add(ranges.get(i).getUntil());
+            }
+            assertTrue(boundaries.contains("data/a/"));
+            assertTrue(boundaries.contains("data/b/x/"));
+            assertTrue(boundaries.contains("data/c/"));
+            for (String key : keys) {
+                assertEquals(1, countContaining(ranges, key), key);
+            }
+        } finally {
+            lister.shutdown();
+        }
+    }
+
+    @Test
+    void partitionListsOnlyTheFirstPageOfAPrefix() throws Exception {
+        CountingClient s3 = newClient();
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 1100; i++) {
+            keys.add(String.format("%04d/object", i));
+        }
+        put(s3, keys);
+        ParallelLister lister = new ParallelLister(4, 16, 3, "/");
+        try {
+            List<ParallelLister.KeyRange> ranges = lister.partition(s3, "bucket", "");
+            // the first page holds 1000 common prefixes, enough ranges without listing the rest of the bucket
+            assertEquals(1, s3.requests.get());
+            assertConsecutive(ranges);
+
+            List<String> listed = new ArrayList<>();
+            try (ParallelLister.Listing listing = lister.list(s3, "bucket", ranges, true)) {
+                while (listing.hasNext()) {
+                    listed.add(listing.next().getKey());
+                }
+            }
+            assertEquals(keys, listed);
+        } finally {
+            lister.shutdown();
+        }
+    }
+
+    @Test
+    void listsInKeyOrderOrInArrivalOrder() throws Exception {
+        CountingClient s3 = newClient();
+        List<String> keys = flatKeys();
+        put(s3, keys);
+        ParallelLister lister = new ParallelLister(3, 32, 3, "/");
+        try {
+            List<String> ordered = new ArrayList<>();
+            try (ParallelLister.Listing listing = lister.list(s3, "bucket", "", true)) {
+                while (listing.hasNext()) {
+                    ordered.add(listing.next().getKey());
+                }
+            }
+            assertEquals(keys, ordered);
+
+            List<String> unordered = new ArrayList<>();
+            try (ParallelLister.Listing listing = lister.list(s3, "bucket", "", false)) {
+                while (listing.hasNext()) {
+                    unordered.add(listing.next().getKey());
+                }
+            }
+            Collections.sort(unordered, ParallelLister.KEY_ORDER);
+            assertEquals(keys, unordered);
+        } finally {
+            lister.shutdown();
+        }
+    }
+
+    @Test
+    void closeStopsTheListing() throws Exception {
+        CountingClient s3 = newClient();
+        put(s3, flatKeys());
+        s3.delayMillis = 50;
+        ParallelLister lister = new ParallelLister(2, 32, 3, "/");
+        try {
+            List<ParallelLister.KeyRange> ranges = lister.partition(s3, "bucket", "");
+            s3.requests.set(0);
+            ParallelLister.Listing listing = lister.list(s3, "bucket", ranges, true);
+            assertTrue(listing.hasNext());
+            listing.close();
+            Thread.sleep(300);
+            int requests = s3.requests.get();
+            Thread.sleep(300);
+            // aborted requests are not taken for finished ranges, no worker goes on with the next range
+            assertEquals(requests, s3.requests.get());
+            assertEquals(0, s3.inFlight.get());
+            assertTrue(requests < ranges.size());
+        } finally {
+            lister.shutdown();
+        }
+    }
+
+    private static List<String> flatKeys() {
+        List<String> keys = new ArrayList<>();
+        for (char c = 'a'; c <= 'j'; c++) {
+            for (int i = 0; i < 20; i++) {
+                keys.add(c + String.format("%02d", i));
+            }
+        }
+        return keys;
+    }
+
+    private static void assertConsecutive(List<ParallelLister.KeyRange> ranges) {
+        assertNull(ranges.get(0).getAfter());
+        assertNull(ranges.get(ranges.size() - 1).getUntil());
+        for (int i = 1; i < ranges.size(); i++) {
+            assertEquals(ranges.get(i - 1).getUntil(), ranges.get(i).getAfter());
+        }
+    }
+
+    private static int countContaining(List<ParallelLister.KeyRange> ranges, String key) {
+        int count = 0;
+        for (ParallelLister.KeyRange range : ranges) {
+            if (range.contains(key)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static CountingClient newClient() throws IOException {
+        FileSystemStorageBackend backend = new FileSystemStorageBackend(Files.createTempDirectory("parallel-list").toFile());
+        backend.createBucket("bucket", null);
+        return new CountingClient(backend);
+    }
+
+    private static void put(CountingClient s3, List<String> keys) {
+        for (String key : keys) {
+            ObjectMetadata metadata = new ObjectMetadata();
+            metadata.setContentLength(1);
+            s3.putObject(new PutObjectRequest("bucket", key, new ByteArrayInputStream(new byte[1]), metadata));
+        }
+    }
+
+    /**
+     * Counts LIST requests and, like the SDK, turns an interrupt into an {@link AbortedException}.
+     */
+    private static class CountingClient extends StorageBackendClient {
+
+        private final AtomicInteger requests = new AtomicInteger();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private volatile long delayMillis;
+
+        private CountingClient(StorageBackend backend) {
+            super(backend);
+        }
+
+        @Override
+        public ListObjectsV2Result listObjectsV2(ListObjectsV2Request request) {
+            requests.incrementAndGet();
+            inFlight.incrementAndGet();
+            try {
+                if (delayMillis > 0) {
+                    Thread.sleep(delayMillis);
+                }
+                return super.listObjectsV2(request);
+            } catch (InterruptedException e) {
+                throw new AbortedException(e);
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.jnj.honeur.aws.s3;
+
+import com.amazonaws.AbortedException;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PrefixDownloaderTest {
+
+    @Test
+    void downloadsRangesAndBatches() throws Exception {
+        FileSystemStorageBackend backend = new FileSystemStorageBackend(Files.createTempDirectory("prefix-download").toFile());
+        backend.createBucket("bucket", null);
+        Random random = new Random(7);
+        int[] sizes = {0, 10, 4000, 4096, 4097, 50000, 123457};
+        byte[][] contents = new byte[sizes.length][];
+        for (int i = 0; i < sizes.length; i++) {
+            contents[i] = new byte[sizes[i]];
+            random.nextBytes(contents[i]);
+            ObjectMetadata metadata = new ObjectMetadata();
+            metadata.setContentLength(sizes[i]);
+            backend.putObject(new PutObjectRequest("bucket", "in/d" + (i % 3) + "/f" + i, new ByteArrayInputStream(contents[i]), metadata));
+        }
+        backend.putObject(new PutObjectRequest("bucket", "other/x", new ByteArrayInputStream(new byte[1]), new ObjectMetadata()));
+
+        File directory = Files.createTempDirectory("prefix-target").toFile();
+        // small ranges and budget so large objects are split and the listing has to wait
+        PrefixDownloader downloader = new PrefixDownloader(new StorageBackendClient(backend), 16384, 2, 4096,
+                DirectBufferPool.getDefault());
+        try {
+            DownloadBatchResult result = downloader.download("bucket", "in/", directory);
+            assertTrue(result.isSuccessful(), result.getFailures().toString());
+            assertEquals(sizes.length, result.getDownloadedKeys().size());
+        } finally {
+            downloader.shutdown();
+        }
+        for (int i = 0; i < sizes.length; i++) {
+            File file = new File(new File(directory, "d" + (i % 3)), "f" + i);
+            assertTrue(Arrays.equals(contents[i], Files.readAllBytes(file.toPath())), file.getPath());
+        }
+        assertFalse(new File(directory, "x").exists());
+    }
+
+    @Test
+    void interruptedDownloadDeletesPartialFiles() throws Exception {
+        FileSystemStorageBackend backend = new FileSystemStorageBackend(Files.createTempDirectory("prefix-download").toFile());
+        backend.createBucket("bucket", null);
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength(50000);
+        backend.putObject(new PutObjectRequest("bucket", "in/large", new ByteArrayInputStream(new byte[50000]), metadata));
+        final CountDownLatch started = new CountDownLatch(2);
+        StorageBackendClient s3 = new StorageBackendClient(backend) {
+            @Override
+            public S3Object getObject(GetObjectRequest request) {
+                started.countDown();
+                try {
+                    Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+                } catch (InterruptedException e) {
+                    throw new AbortedException(e);
+                }
+                return super.getObject(request);
+            }
+        };
+
+        final File directory = Files.createTempDirectory("prefix-target").toFile();
+        final PrefixDownloader downloader = new PrefixDownloader(s3, 16384, 2, 4096, DirectBufferPool.getDefault());
+        final AtomicReference<Exception> failure = new AtomicReference<>();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    downloader.download("bucket", "in/", directory);
+                } catch (Exception e) {
+                    failure.set(e);
+                }
+            }
+        });
+        try {
+            thread.start();
+            // two ranges are in flight and the third waits for them
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            thread.interrupt();
+            thread.join(5000);
+        } finally {
+            downloader.shutdown();
+        }
+        assertTrue(failure.get() instanceof InterruptedException, String.valueOf(failure.get()));
+        assertEquals(0, directory.list().length);
+    }
+}
@@ -0,0 +1,40 @@
+package com.jnj.honeur.aws.s3;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PrefixUsageTest {
+
+    @Test
+    void totalsPerPrefixUpToDepth() {
+        Map<UsageAggregator.GroupBy, String> standard = new EnumMap<>(UsageAggregator.GroupBy.class);
+        standard.put(UsageAggregator.GroupBy.STORAGE_CLASS, "STANDARD");
+
+        PrefixUsage first = new PrefixUsage("data/");
+        first.add("data/2018/01/a.csv", 10, standard, 1, "/");
+        first.add("data/b.csv", 5, standard, 1, "/");
+        PrefixUsage second = new PrefixUsage("data/");
+        second.add("data/2018/02/c.csv", 20, Collections.<UsageAggregator.GroupBy, String>emptyMap(), 1, "/");
+
+        first.merge(second);
+        assertEquals(3, first.getObjectCount());
+        assertEquals(35, first.getTotalBytes());
+        assertEquals(1, first.getChildren().size());
+        PrefixUsage year = first.getChild("data/2018/");
+        assertEquals(30, year.getTotalBytes());
+        assertTrue(year.getChildren().isEmpty());
+        assertEquals(15, first.getGroupTotals(UsageAggregator.GroupBy.STORAGE_CLASS).get("STANDARD").getBytes());
+    }
+
+    @Test
+    void ageGroups() {
+        assertEquals("0-30d", UsageAggregator.ageGroup(0));
+        assertEquals("90-365d", UsageAggregator.ageGroup(364));
+        assertEquals("365d+", UsageAggregator.ageGroup(365));
+    }
+}
@@ -0,0 +1,132 @@
+package com.jnj.honeur.aws.s3;
+
+import com.google.common.io.ByteStreams;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RecordProcessorTest {
+
+    @Test
+    void decodesQuotedCsv() throws IOException {
+        RecordFormat.RecordReader reader = new RecordFormat.RecordReader(
+                new StringReader("id,name\r\n1,\"Smith, \"\"J\"\"\"\n2,\"two\nlines\"\n3,\n"), 4);
+        assertEquals(Arrays.asList("id", "name"), RecordFormat.CSV.read(reader));
+        assertEquals(Arrays.asList("1", "Smith, \"J\""), RecordFormat.CSV.read(reader));
+        List<String> record = RecordFormat.CSV.read(reader);
+        assertEquals(Arrays.asList("2", "two\nlines"), record);
+        assertEquals(Arrays.asList("3", ""), RecordFormat.CSV.read(reader));
+        assertNull(RecordFormat.CSV.read(reader));
+
+        StringBuilder out = new StringBuilder();
+        RecordFormat.CSV.write(record, out);
+        assertEquals("2,\"two\nlines\"\n", out.toString());
+    }
+
+    @Test
+    void keepsInputOrder() throws Exception {
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            input.append("{\"id\":").append(i).append(",\"tags\":[\"a\",null]}\n");
+        }
+        final List<Long> ids = new ArrayList<>();
+        RecordProcessor processor = new RecordProcessor(4, 64);
+        try {
+            long written = processor.process(new ByteArrayInputStream(input.toString().getBytes(StandardCharsets.UTF_8)),
+                    RecordFormat.JSON_LINES, new RecordProcessor.Transform<Map<String, Object>, Long>() {
+                        @Override
+                        public Long apply(Map<String, Object> record) {
+                            long id = (Long) record.get("id");
+                            // odd ids are dropped
+                            return id % 2 == 0 ? id : null;
+                        }
+                    }, new RecordProcessor.Sink<Long>() {
+                        @Override
+                        public void write(List<Long> records) {
+                            ids.addAll(records);
+                        }
+                    }, true);
+            assertEquals(5000, written);
+        } finally {
+            processor.shutdown();
+        }
+        for (int i = 0; i < ids.size(); i++) {
+            assertEquals(2L * i, (long) ids.get(i));
+        }
+    }
+
+    @Test
+    void transformsObjectOnFileSystem() throws Exception {
+        FileSystemStorageBackend backend = new FileSystemStorageBackend(Files.createTempDirectory("records").toFile());
+        backend.createBucket("bucket", null);
+        AmazonS3Service service = new AmazonS3Service(backend);
+        File file = File.createTempFile("records", ".csv");
+        Files.write(file.toPath(), "a,1\nb,2\nc,3\n".getBytes(StandardCharsets.UTF_8));
+        service.putObject("bucket", "in.csv", file);
+
+        long written = service.transformObject("bucket", "in.csv", RecordFormat.CSV,
+                new RecordProcessor.Transform<List<String>, String>() {
+                    @Override
+                    public String apply(List<String> record) {
+                        return record.get(0).toUpperCase() + "=" + record.get(1);
+                    }
+                }, "bucket", "out.txt", RecordFormat.LINES);
+        assertEquals(3, written);
+        try (InputStream in = service.getObject("bucket", "out.txt").getObjectContent()) {
+            assertEquals("A=1\nB=2\nC=3\n", new String(ByteStreams.toByteArray(in), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    void transformsObjectOfSeveralPartsOnFileSystem() throws Exception {
+        FileSystemStorageBackend backend = new FileSystemStorageBackend(Files.createTempDirectory("records").toFile());
+        backend.createBucket("bucket", null);
+        AmazonS3Service service = new AmazonS3Service(backend);
+        ScratchSpace scratchSpace = new ScratchSpace(Files.createTempDirectory("records-scratch").toFile(), 64L * 1024 * 1024);
+        service.setScratchSpace(scratchSpace);
+        // 300000 records of 40 bytes, more than one part of output
+        File file = File.createTempFile("records", ".csv");
+        try (Writer out = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            for (int i = 0; i < 300000; i++) {
+                out.write(String.format("%06d,%032d\n", i, i));
+            }
+        }
+        service.putObject("bucket", "in.csv", file);
+
+        long written = service.transformObject("bucket", "in.csv", RecordFormat.CSV,
+                new RecordProcessor.Transform<List<String>, String>() {
+                    @Override
+                    public String apply(List<String> record) {
+                        return record.get(1) + "=" + record.get(0);
+                    }
+                }, "bucket", "out.txt", RecordFormat.LINES);
+        assertEquals(300000, written);
+        assertEquals(300000L * 40, service.getObjectMetadata("bucket", "out.txt").getContentLength());
+        assertTrue(300000L * 40 > MultipartRecordSink.DEFAULT_PART_SIZE);
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(service.getObject("bucket", "out.txt").getObjectContent(),
+                StandardCharsets.UTF_8))) {
+            for (int i = 0; i < 300000; i++) {
+                assertEquals(String.format("%032d=%06d", i, i), in.readLine());
+            }
+            assertNull(in.readLine());
+        }
+        // the spool file is released
+        assertEquals(0, scratchSpace.getUsedBytes());
+        scratchSpace.close();
+    }
+}
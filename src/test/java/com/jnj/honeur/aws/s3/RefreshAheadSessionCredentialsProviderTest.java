@@ -0,0 +1,111 @@
+package com.jnj.honeur.aws.s3;
+
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.securitytoken.AbstractAWSSecurityTokenService;
+import com.amazonaws.services.securitytoken.model.Credentials;
+import com.amazonaws.services.securitytoken.model.GetSessionTokenRequest;
+import com.amazonaws.services.securitytoken.model.GetSessionTokenResult;
+import org.junit.jupiter.api.Test;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RefreshAheadSessionCredentialsProviderTest {
+
+    @Test
+    void refreshKeepsTheBackoff() throws Exception {
+        StubTokenService tokenService = new StubTokenService();
+        RefreshAheadSessionCredentialsProvider provider = new RefreshAheadSessionCredentialsProvider(tokenService);
+        try {
+            assertEquals("key-1", provider.getCredentials().getAWSAccessKeyId());
+            tokenService.failing = true;
+            provider.refresh();
+            awaitRequests(tokenService, 2);
+
+            // the failed refresh is retried after a second, early refreshes do not cut the wait short
+            for (int i = 0; i < 5; i++) {
+                provider.refresh();
+            }
+            Thread.sleep(300);
+            assertEquals(2, tokenService.requests.get());
+            assertEquals("key-1", provider.getCredentials().getAWSAccessKeyId());
+
+            tokenService.failing = false;
+            awaitRequests(tokenService, 3);
+            Thread.sleep(100);
+            assertEquals("key-3", provider.getCredentials().getAWSAccessKeyId());
+        } finally {
+            provider.close();
+        }
+    }
+
+    @Test
+    void repeatedRefreshesCallStsOnce() throws Exception {
+        StubTokenService tokenService = new StubTokenService();
+        tokenService.delayMillis = 200;
+        RefreshAheadSessionCredentialsProvider provider = new RefreshAheadSessionCredentialsProvider(tokenService);
+        try {
+            for (int i = 0; i < 10; i++) {
+                provider.refresh();
+            }
+            Thread.sleep(600);
+            assertEquals(2, tokenService.requests.get());
+        } finally {
+            provider.close();
+        }
+    }
+
+    @Test
+    void sessionClientsShareOneProvider() {
+        StubTokenService tokenService = new StubTokenService();
+        HoneurAmazonS3ClientBuilder.setTokenService(tokenService);
+        try {
+            RefreshAheadSessionCredentialsProvider provider = HoneurAmazonS3ClientBuilder.getSessionCredentialsProvider();
+            assertSame(provider, HoneurAmazonS3ClientBuilder.getSessionCredentialsProvider());
+            assertEquals(1, tokenService.requests.get());
+
+            HoneurAmazonS3ClientBuilder.setTokenService(new StubTokenService());
+            assertNotSame(provider, HoneurAmazonS3ClientBuilder.getSessionCredentialsProvider());
+            // the replaced provider was closed, its refresh thread does not call STS anymore
+            provider.refresh();
+            assertEquals(1, tokenService.requests.get());
+        } finally {
+            HoneurAmazonS3ClientBuilder.setTokenService(null);
+        }
+    }
+
+    private static void awaitRequests(StubTokenService tokenService, int requests) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (tokenService.requests.get() < requests && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(requests, tokenService.requests.get());
+    }
+
+    private static class StubTokenService extends AbstractAWSSecurityTokenService {
+
+        private final AtomicInteger requests = new AtomicInteger();
+        private volatile boolean failing;
+        private volatile long delayMillis;
+
+        @Override
+        public GetSessionTokenResult getSessionToken(GetSessionTokenRequest request) {
+            int count = requests.incrementAndGet();
+            if (delayMillis > 0) {
+                try {
+                    Thread.sleep(delayMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (failing) {
+                throw new SdkClientException("STS unreachable");
+            }
+            return new GetSessionTokenResult().withCredentials(new Credentials("key-" + count, "secret", "token",
+                    new Date(System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1))));
+        }
+    }
+}
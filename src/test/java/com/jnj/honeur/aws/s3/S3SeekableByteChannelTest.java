@@ -0,0 +1,144 @@
+package com.jnj.honeur.aws.s3;
+
+import com.amazonaws.services.s3.AbstractAmazonS3;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class S3SeekableByteChannelTest {
+
+    private static final int BLOCK_SIZE = 100;
+
+    @Test
+    void readsBlocksWithRangeRequests() throws Exception {
+        RangeStub s3 = new RangeStub(1050);
+        DirectBufferPool bufferPool = new DirectBufferPool(DirectBufferPool.MAX_BUFFER_SIZE);
+        S3SeekableByteChannel channel = new S3SeekableByteChannel(s3, "bucket", "key", s3.metadata(), newOptions(bufferPool));
+        assertEquals(1050, channel.size());
+
+        // the first read fetches its block only
+        assertArrayEquals(s3.range(0, 50), read(channel, 0, 50));
+        assertEquals(Arrays.asList("0-99"), s3.ranges);
+        // a re-read is served from the cache
+        assertArrayEquals(s3.range(10, 60), read(channel, 10, 50));
+        assertEquals(1, s3.ranges.size());
+        assertEquals(1, channel.getCacheHits());
+
+        // a read across a block boundary fetches both blocks with one request
+        assertArrayEquals(s3.range(150, 250), read(channel, 150, 100));
+        assertEquals(Arrays.asList("0-99", "100-299"), s3.ranges);
+        assertEquals(300, channel.getBytesFetched());
+
+        // the last block is short, a read past the end returns what is left, then the end of the channel
+        assertArrayEquals(s3.range(1000, 1050), read(channel, 1000, 100));
+        assertEquals("1000-1049", s3.ranges.get(s3.ranges.size() - 1));
+        assertEquals(-1, channel.read(ByteBuffer.allocate(10)));
+        channel.position(5000);
+        assertEquals(-1, channel.read(ByteBuffer.allocate(10)));
+        assertEquals(3, channel.getRequestCount());
+
+        channel.close();
+        assertEquals(0, bufferPool.getInUseBytes());
+    }
+
+    @Test
+    void sequentialReadsGrowTheReadAhead() throws Exception {
+        RangeStub s3 = new RangeStub(1050);
+        S3SeekableByteChannel channel = new S3SeekableByteChannel(s3, "bucket", "key", s3.metadata(), newOptions(null));
+        ByteBuffer all = ByteBuffer.allocate(1050);
+        ByteBuffer chunk = ByteBuffer.allocate(BLOCK_SIZE);
+        while (channel.read(chunk) >= 0) {
+            chunk.flip();
+            all.put(chunk);
+            chunk.clear();
+        }
+        assertArrayEquals(s3.content, all.array());
+        // one block, then 1, 2 and 4 blocks of read-ahead, the last capped at the end of the object
+        assertEquals(Arrays.asList("0-99", "100-299", "300-599", "600-1049"), s3.ranges);
+        assertEquals(7, channel.getCacheHits());
+        channel.close();
+    }
+
+    @Test
+    void changedObjectFailsTheRead() throws Exception {
+        RangeStub s3 = new RangeStub(1050);
+        S3SeekableByteChannel channel = new S3SeekableByteChannel(s3, "bucket", "key", s3.metadata(), newOptions(null));
+        read(channel, 0, 10);
+        s3.eTag = "other";
+        // cached blocks are still served, a new range fails the ETag constraint
+        read(channel, 20, 10);
+        try {
+            read(channel, 800, 10);
+            fail("the object changed since the channel was opened");
+        } catch (IOException e) {
+            // expected
+        }
+        channel.close();
+    }
+
+    private static S3SeekableByteChannel.Options newOptions(DirectBufferPool bufferPool) {
+        return new S3SeekableByteChannel.Options()
+                .withBlockSize(BLOCK_SIZE)
+                .withMaxCachedBlocks(8)
+                .withMaxReadAheadBlocks(4)
+                .withCoalesceDistance(0)
+                .withBufferPool(bufferPool);
+    }
+
+    private static byte[] read(S3SeekableByteChannel channel, long position, int length) throws IOException {
+        ByteBuffer dst = ByteBuffer.allocate(length);
+        channel.position(position);
+        channel.read(dst);
+        return Arrays.copyOf(dst.array(), dst.position());
+    }
+
+    /**
+     * Answers range GETs from a random content, recording the ranges; a GET with another ETag constraint
+     * returns null, as the SDK does.
+     */
+    private static class RangeStub extends AbstractAmazonS3 {
+
+        private final byte[] content;
+        private final List<String> ranges = new CopyOnWriteArrayList<>();
+        private volatile String eTag = "etag";
+
+        private RangeStub(int size) {
+            content = new byte[size];
+            new Random(3).nextBytes(content);
+        }
+
+        private ObjectMetadata metadata() {
+            ObjectMetadata metadata = new ObjectMetadata();
+            metadata.setContentLength(content.length);
+            metadata.setHeader("ETag", eTag);
+            return metadata;
+        }
+
+        private byte[] range(int start, int end) {
+            return Arrays.copyOfRange(content, start, end);
+        }
+
+        @Override
+        public S3Object getObject(GetObjectRequest request) {
+            if (!request.getMatchingETagConstraints().contains(eTag)) {
+                return null;
+            }
+            long[] range = request.getRange();
+            ranges.add(range[0] + "-" + range[1]);
+            S3Object object = new S3Object();
+            object.setObjectContent(new ByteArrayInputStream(range((int) range[0], (int) range[1] + 1)));
+            return object;
+        }
+    }
+}
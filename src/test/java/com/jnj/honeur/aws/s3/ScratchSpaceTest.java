@@ -0,0 +1,150 @@
+package com.jnj.honeur.aws.s3;
+
+import com.amazonaws.services.s3.AbstractAmazonS3;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.GetObjectMetadataRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ScratchSpaceTest {
+
+    @Test
+    void waitsForQuota() throws Exception {
+        final ScratchSpace space = new ScratchSpace(Files.createTempDirectory("scratch").toFile(), 1000);
+        try {
+            File first = space.createFile("first", ".tmp", 600);
+            assertEquals(600, first.length());
+            assertEquals(600, space.getUsedBytes());
+            try {
+                space.createFile("huge", ".tmp", 1001);
+                fail("a file larger than the quota can never fit");
+            } catch (IOException e) {
+                // expected
+            }
+
+            final AtomicReference<File> second = new AtomicReference<>();
+            final CountDownLatch created = new CountDownLatch(1);
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        second.set(space.createFile("second", ".tmp", 600));
+                        created.countDown();
+                    } catch (IOException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            };
+            thread.start();
+            assertFalse(created.await(200, TimeUnit.MILLISECONDS));
+            space.release(first);
+            assertFalse(first.exists());
+            assertTrue(created.await(5, TimeUnit.SECONDS));
+            assertTrue(second.get().getParentFile().getParentFile().equals(space.getDirectory()));
+        } finally {
+            space.close();
+        }
+        assertFalse(space.getDirectory().exists());
+    }
+
+    @Test
+    void countsGrowingFiles() throws Exception {
+        ScratchSpace space = new ScratchSpace(Files.createTempDirectory("scratch").toFile(), 1000);
+        try {
+            File file = space.createFile("unknown", ".tmp");
+            Files.write(file.toPath(), new byte[700]);
+            assertEquals(700, space.getUsedBytes());
+        } finally {
+            space.close();
+        }
+    }
+
+    @Test
+    void objectFileIsSizedFromTheGetResponse() throws Exception {
+        final AtomicInteger gets = new AtomicInteger();
+        final AtomicInteger heads = new AtomicInteger();
+        AbstractAmazonS3 s3 = new AbstractAmazonS3() {
+            @Override
+            public ObjectMetadata getObjectMetadata(GetObjectMetadataRequest request) {
+                heads.incrementAndGet();
+                throw new AmazonS3Exception("no HEAD expected");
+            }
+
+            @Override
+            public S3Object getObject(String bucketName, String key) {
+                gets.incrementAndGet();
+                S3Object object = new S3Object();
+                object.getObjectMetadata().setContentLength(600);
+                object.setObjectContent(new ByteArrayInputStream(new byte[600]));
+                return object;
+            }
+        };
+        final AmazonS3Service service = new AmazonS3Service(s3);
+        ScratchSpace space = new ScratchSpace(Files.createTempDirectory("scratch").toFile(), 1000);
+        service.setScratchSpace(space);
+        try {
+            File first = space.createFile("first", ".tmp", 600);
+            final AtomicReference<File> objectFile = new AtomicReference<>();
+            final CountDownLatch downloaded = new CountDownLatch(1);
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        objectFile.set(service.getObjectFile("bucket", "object.bin"));
+                        downloaded.countDown();
+                    } catch (IOException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            };
+            thread.start();
+            // the size of the GET response does not fit the quota yet
+            assertFalse(downloaded.await(200, TimeUnit.MILLISECONDS));
+            assertEquals(1, gets.get());
+            space.release(first);
+            assertTrue(downloaded.await(5, TimeUnit.SECONDS));
+            assertEquals(1, gets.get());
+            assertEquals(0, heads.get());
+            assertEquals(600, objectFile.get().length());
+            assertEquals(600, space.getUsedBytes());
+            service.releaseTempFile(objectFile.get());
+            assertEquals(0, space.getUsedBytes());
+        } finally {
+            space.close();
+        }
+    }
+
+    @Test
+    void backendObjectFileIsCountedOnceWritten() throws Exception {
+        FileSystemStorageBackend backend = new FileSystemStorageBackend(Files.createTempDirectory("scratch-backend").toFile());
+        backend.createBucket("bucket", null);
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength(600);
+        backend.putObject(new PutObjectRequest("bucket", "object.bin", new ByteArrayInputStream(new byte[600]), metadata));
+        AmazonS3Service service = new AmazonS3Service(backend);
+        ScratchSpace space = new ScratchSpace(Files.createTempDirectory("scratch").toFile(), 1000);
+        service.setScratchSpace(space);
+        try {
+            File objectFile = service.getObjectFile("bucket", "object.bin");
+            assertEquals(600, objectFile.length());
+            assertEquals(600, space.getUsedBytes());
+            service.releaseTempFile(objectFile);
+            assertEquals(0, space.getUsedBytes());
+        } finally {
+            space.close();
+        }
+    }
+}
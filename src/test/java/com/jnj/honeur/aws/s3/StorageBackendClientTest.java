@@ -0,0 +1,80 @@
+package com.jnj.honeur.aws.s3;
+
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.CopyObjectRequest;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import com.amazonaws.services.s3.model.GetObjectMetadataRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.google.common.io.ByteStreams;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StorageBackendClientTest {
+
+    @Test
+    void runsClientCallsOnTheBackend() throws Exception {
+        FileSystemStorageBackend backend = new FileSystemStorageBackend(Files.createTempDirectory("client").toFile());
+        StorageBackendClient s3 = new StorageBackendClient(backend);
+        assertSame(backend, s3.getBackend());
+        s3.createBucket("bucket");
+        assertTrue(s3.doesBucketExistV2("bucket"));
+        assertFalse(s3.doesBucketExistV2("other"));
+
+        s3.putObject("bucket", "data/a.csv", "a,b");
+        File file = File.createTempFile("client", ".csv");
+        Files.write(file.toPath(), "c,d,e".getBytes(StandardCharsets.UTF_8));
+        s3.putObject("bucket", "data/b.csv", file);
+        s3.copyObject(new CopyObjectRequest("bucket", "data/a.csv", "bucket", "copy/a.csv"));
+
+        assertEquals(3, s3.getObjectMetadata("bucket", "data/a.csv").getContentLength());
+        assertEquals(5, s3.getObjectMetadata(new GetObjectMetadataRequest("bucket", "data/b.csv")).getContentLength());
+        try (S3Object object = s3.getObject("bucket", "copy/a.csv")) {
+            assertEquals("a,b", new String(ByteStreams.toByteArray(object.getObjectContent()), StandardCharsets.UTF_8));
+        }
+        assertEquals(Arrays.asList("data/a.csv", "data/b.csv"), keys(s3.listObjectsV2("bucket", "data/")));
+        assertEquals(3, keys(s3.listObjectsV2("bucket")).size());
+
+        s3.deleteObject("bucket", "copy/a.csv");
+        s3.deleteObjects(new DeleteObjectsRequest("bucket").withKeys("data/a.csv", "data/b.csv"));
+        assertTrue(keys(s3.listObjectsV2("bucket")).isEmpty());
+        try {
+            s3.getObjectMetadata("bucket", "data/a.csv");
+            fail("the object was deleted");
+        } catch (AmazonS3Exception e) {
+            assertEquals(404, e.getStatusCode());
+        }
+        assertTrue(file.delete());
+    }
+
+    @Test
+    void otherOperationsAreUnsupported() throws Exception {
+        StorageBackendClient s3 = new StorageBackendClient(new FileSystemStorageBackend(Files.createTempDirectory("client").toFile()));
+        try {
+            s3.initiateMultipartUpload(new InitiateMultipartUploadRequest("bucket", "key"));
+            fail("multipart uploads are not part of the backend");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        // nothing to release
+        s3.shutdown();
+    }
+
+    private static List<String> keys(ListObjectsV2Result result) {
+        List<String> keys = new ArrayList<>();
+        for (S3ObjectSummary summary : result.getObjectSummaries()) {
+            keys.add(summary.getKey());
+        }
+        return keys;
+    }
+}
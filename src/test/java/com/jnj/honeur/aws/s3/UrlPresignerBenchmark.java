@@ -0,0 +1,85 @@
+package com.jnj.honeur.aws.s3;
+
+import com.amazonaws.HttpMethod;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.AmazonS3ClientBuilder;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Compares the pre-signed URLs per second of the SDK and of {@link UrlPresigner}, on one and on all cores.
+ * Runs offline with dummy credentials: {@code UrlPresignerBenchmark [urls per round] [rounds]}.
+ */
+public class UrlPresignerBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        final int count = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        final int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        final AWSCredentialsProvider credentials = new AWSStaticCredentialsProvider(
+                new BasicAWSCredentials("AKIDEXAMPLE", "wJalrXUtnFEMI/K7MDENG+bPxRfiCYEXAMPLEKEY"));
+        final AmazonS3 s3 = AmazonS3ClientBuilder.standard().withRegion("eu-west-1").withCredentials(credentials).build();
+        final UrlPresigner presigner = new UrlPresigner(credentials);
+        final List<String> keys = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            keys.add("exchange/site-" + (i % 50) + "/results-" + i + ".csv");
+        }
+        final int threads = Runtime.getRuntime().availableProcessors();
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (int round = 0; round < rounds; round++) {
+                report("sdk", 1, count, time(executor, 1, new Runnable() {
+                    @Override
+                    public void run() {
+                        final Date expiration = new Date(System.currentTimeMillis() + 3600 * 1000);
+                        for (String key : keys) {
+                            s3.generatePresignedUrl("exchange-bucket", key, expiration, HttpMethod.GET);
+                        }
+                    }
+                }));
+                final Runnable batch = new Runnable() {
+                    @Override
+                    public void run() {
+                        presigner.presign("exchange-bucket", keys, "eu-west-1", HttpMethod.GET,
+                                new Date(System.currentTimeMillis() + 3600 * 1000));
+                    }
+                };
+                report("presigner", 1, count, time(executor, 1, batch));
+                report("presigner", threads, count * threads, time(executor, threads, batch));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static long time(ExecutorService executor, int parallel, final Runnable task) throws Exception {
+        final long start = System.nanoTime();
+        final List<Future<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < parallel; i++) {
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    task.run();
+                    return null;
+                }
+            }));
+        }
+        for (Future<Void> future : futures) {
+            future.get();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static void report(String name, int threads, int urls, long nanos) {
+        System.out.println(String.format("%-10s %2d threads: %,10d URLs/s (%,d ns/URL)", name, threads,
+                (long) (urls * 1e9 / nanos), nanos * threads / urls));
+    }
+}
@@ -0,0 +1,95 @@
+package com.jnj.honeur.aws.s3;
+
+import com.amazonaws.HttpMethod;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicSessionCredentials;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.AmazonS3ClientBuilder;
+import org.junit.jupiter.api.Test;
+
+import java.net.URL;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UrlPresignerTest {
+
+    private static final AWSCredentialsProvider CREDENTIALS = new AWSStaticCredentialsProvider(
+            new BasicSessionCredentials("AKIDEXAMPLE", "wJalrXUtnFEMI/K7MDENG+bPxRfiCYEXAMPLEKEY", "session/token+="));
+
+    @Test
+    void signsLikeTheSdk() throws Exception {
+        AmazonS3 s3 = AmazonS3ClientBuilder.standard().withRegion("eu-west-1").withCredentials(CREDENTIALS).build();
+        UrlPresigner presigner = new UrlPresigner(CREDENTIALS);
+        List<String> keys = Arrays.asList("data/file.csv", "dir/a b+c~\u00fc\u20ac.csv");
+        for (HttpMethod method : Arrays.asList(HttpMethod.GET, HttpMethod.PUT)) {
+            for (String key : keys) {
+                URL expected = s3.generatePresignedUrl("exchange-bucket", key, new Date(System.currentTimeMillis() + 3600 * 1000), method);
+                SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd'T'HHmmss'Z'", Locale.ROOT);
+                format.setTimeZone(TimeZone.getTimeZone("UTC"));
+                Date signingTime = format.parse(parameter(expected, "X-Amz-Date"));
+                long expires = Long.parseLong(parameter(expected, "X-Amz-Expires"));
+
+                URL actual = presigner.presign("exchange-bucket", Arrays.asList(key), "eu-west-1", method, signingTime, expires).get(0);
+                assertEquals(expected.getHost(), actual.getHost());
+                assertEquals(expected.getPath(), actual.getPath());
+                assertEquals(parameter(expected, "X-Amz-Credential"), parameter(actual, "X-Amz-Credential"));
+                assertEquals(parameter(expected, "X-Amz-Signature"), parameter(actual, "X-Amz-Signature"));
+            }
+        }
+    }
+
+    @Test
+    void rejectsLongExpiry() {
+        UrlPresigner presigner = new UrlPresigner(CREDENTIALS);
+        try {
+            presigner.presign("bucket", "key", "eu-west-1", HttpMethod.GET, new Date(System.currentTimeMillis() + 8L * 24 * 3600 * 1000));
+            fail("S3 does not accept pre-signed URLs valid for more than 7 days");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    void serviceOnAClientSignsWithTheClientCredentials() throws Exception {
+        AmazonS3 s3 = AmazonS3ClientBuilder.standard().withRegion("eu-west-1").withCredentials(CREDENTIALS).build();
+        AmazonS3Service service = new AmazonS3Service(s3);
+        assertNull(service.getUrlPresigner());
+        Date expiration = new Date(System.currentTimeMillis() + 3600 * 1000);
+        URL url = service.presignUrl("bucket", "data/file.csv", HttpMethod.GET, expiration);
+        assertTrue(parameter(url, "X-Amz-Credential").startsWith("AKIDEXAMPLE"));
+
+        service.setUrlPresigner(new UrlPresigner(CREDENTIALS));
+        url = service.presignUrl("bucket", "data/file.csv", HttpMethod.GET, expiration);
+        assertTrue(parameter(url, "X-Amz-Credential").startsWith("AKIDEXAMPLE"));
+        assertEquals(1, service.presignUrls("bucket", Arrays.asList("data/file.csv"), HttpMethod.GET, expiration).size());
+        s3.shutdown();
+    }
+
+    @Test
+    void serviceOnABackendHasNoUrls() throws Exception {
+        AmazonS3Service service = new AmazonS3Service(new FileSystemStorageBackend(Files.createTempDirectory("presign").toFile()));
+        try {
+            service.presignUrl("bucket", "key", HttpMethod.GET, new Date(System.currentTimeMillis() + 3600 * 1000));
+            fail("a storage backend has no URLs to sign");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+    private static String parameter(URL url, String name) {
+        for (String parameter : url.getQuery().split("&")) {
+            if (parameter.startsWith(name + "=")) {
+                return parameter.substring(name.length() + 1);
+            }
+        }
+        return null;
+    }
+}
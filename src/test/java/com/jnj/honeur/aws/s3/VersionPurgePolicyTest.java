@@ -0,0 +1,63 @@
+package com.jnj.honeur.aws.s3;
+
+import com.amazonaws.services.s3.model.S3VersionSummary;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VersionPurgePolicyTest {
+
+    private static final long NOW = System.currentTimeMillis();
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+
+    @Test
+    void keepLastVersions() {
+        List<S3VersionSummary> versions = Arrays.asList(
+                version("v4", true, false, 1), version("v3", false, false, 2),
+                version("v2", false, true, 3), version("v1", false, false, 4));
+        List<S3VersionSummary> purged = new VersionPurgePolicy().withKeepLastVersions(2).selectPurged(versions, NOW);
+        assertEquals(Arrays.asList("v2", "v1"), versionIds(purged));
+    }
+
+    @Test
+    void keepNewerThan() {
+        List<S3VersionSummary> versions = Arrays.asList(
+                version("v3", true, false, 40), version("v2", false, false, 10), version("v1", false, false, 50));
+        List<S3VersionSummary> purged = new VersionPurgePolicy().withKeepNewerThan(30, TimeUnit.DAYS).selectPurged(versions, NOW);
+        assertEquals(Arrays.asList("v1"), versionIds(purged));
+    }
+
+    @Test
+    void expiredDeleteMarkerIsRemoved() {
+        List<S3VersionSummary> versions = Arrays.asList(version("m1", true, true, 1), version("v1", false, false, 100));
+        assertEquals(Arrays.asList("v1", "m1"),
+                versionIds(new VersionPurgePolicy().withKeepNewerThan(30, TimeUnit.DAYS).selectPurged(versions, NOW)));
+        assertEquals(Arrays.asList("v1"), versionIds(new VersionPurgePolicy().withKeepNewerThan(30, TimeUnit.DAYS)
+                .withRemoveDeleteMarkers(false).selectPurged(versions, NOW)));
+        assertTrue(new VersionPurgePolicy().selectPurged(versions, NOW).isEmpty());
+    }
+
+    private static S3VersionSummary version(String versionId, boolean latest, boolean deleteMarker, long ageDays) {
+        S3VersionSummary version = new S3VersionSummary();
+        version.setKey("data/a.csv");
+        version.setVersionId(versionId);
+        version.setIsLatest(latest);
+        version.setIsDeleteMarker(deleteMarker);
+        version.setLastModified(new Date(NOW - ageDays * DAY));
+        return version;
+    }
+
+    private static List<String> versionIds(List<S3VersionSummary> versions) {
+        List<String> versionIds = new ArrayList<>();
+        for (S3VersionSummary version : versions) {
+            versionIds.add(version.getVersionId());
+        }
+        return versionIds;
+    }
+}
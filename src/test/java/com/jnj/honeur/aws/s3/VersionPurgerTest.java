@@ -0,0 +1,184 @@
+package com.jnj.honeur.aws.s3;
+
+import com.amazonaws.services.s3.AbstractAmazonS3;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest.KeyVersion;
+import com.amazonaws.services.s3.model.DeleteObjectsResult;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.ListVersionsRequest;
+import com.amazonaws.services.s3.model.S3VersionSummary;
+import com.amazonaws.services.s3.model.VersionListing;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VersionPurgerTest {
+
+    @Test
+    void purgesOldVersionsAndDeleteMarkers() throws Exception {
+        VersionStub s3 = new VersionStub();
+        for (int i = 0; i < 600; i++) {
+            // two old versions
+            s3.add(key("a", i), "v3", false, "v2", false, "v1", false);
+        }
+        for (int i = 0; i < 100; i++) {
+            // an old delete marker between the versions
+            s3.add(key("b", i), "v2", false, "m1", true, "v1", false);
+            // deleted, no version left
+            s3.add(key("c", i), "m2", true);
+            // deleted, the one version left is kept
+            s3.add(key("d", i), "m3", true, "v1", false);
+        }
+        ParallelLister lister = new ParallelLister(4, 4, 1, "/");
+        VersionPurger purger = new VersionPurger(s3, lister, new BulkDeleter(s3, 4, 3));
+        try {
+            BulkDeleteResult result = purger.purge("bucket", "data/",
+                    new VersionPurgePolicy().withKeepLastVersions(1).withRemoveDeleteMarkers(true));
+            assertTrue(result.isSuccessful());
+            assertEquals(1500, result.getDeletedCount());
+        } finally {
+            purger.shutdown();
+            lister.shutdown();
+        }
+
+        // every directory is a key range of its own, listed concurrently and in pages
+        assertTrue(s3.maxConcurrentListings.get() > 1);
+        assertTrue(s3.listings.get() > 5);
+        // the versions of a range are deleted in batches of at most 1000
+        List<Integer> batchSizes = new ArrayList<>(s3.batchSizes);
+        Collections.sort(batchSizes);
+        assertEquals(1000, (int) batchSizes.get(batchSizes.size() - 1));
+        assertEquals(1500, s3.deleted.size());
+
+        assertTrue(s3.deleted.contains(key("a", 7) + "@v2"));
+        assertTrue(s3.deleted.contains(key("a", 7) + "@v1"));
+        assertFalse(s3.deleted.contains(key("a", 7) + "@v3"));
+        assertTrue(s3.deleted.contains(key("b", 7) + "@m1"));
+        assertTrue(s3.deleted.contains(key("b", 7) + "@v1"));
+        assertTrue(s3.deleted.contains(key("c", 7) + "@m2"));
+        assertFalse(s3.deleted.contains(key("d", 7) + "@m3"));
+        assertFalse(s3.deleted.contains(key("d", 7) + "@v1"));
+    }
+
+    private static String key(String directory, int i) {
+        return String.format("data/%s/key-%04d", directory, i);
+    }
+
+    /**
+     * Lists versions from memory in pages of 100 and records the deleted key versions.
+     */
+    private static class VersionStub extends AbstractAmazonS3 {
+
+        private static final int PAGE_SIZE = 100;
+
+        private final TreeMap<String, List<S3VersionSummary>> versions = new TreeMap<>(ParallelLister.KEY_ORDER);
+        private final AtomicInteger listings = new AtomicInteger();
+        private final AtomicInteger runningListings = new AtomicInteger();
+        private final AtomicInteger maxConcurrentListings = new AtomicInteger();
+        private final List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+        private final Set<String> deleted = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+        /**
+         * @param idsAndMarkers version ids, each followed by whether it is a delete marker, newest first
+         */
+        private void add(String key, Object... idsAndMarkers) {
+            List<S3VersionSummary> keyVersions = new ArrayList<>();
+            for (int i = 0; i < idsAndMarkers.length; i += 2) {
+                S3VersionSummary version = new S3VersionSummary();
+                version.setBucketName("bucket");
+                version.setKey(key);
+                version.setVersionId((String) idsAndMarkers[i]);
+                version.setIsDeleteMarker((Boolean) idsAndMarkers[i + 1]);
+                version.setIsLatest(i == 0);
+                version.setLastModified(new Date(0));
+                keyVersions.add(version);
+            }
+            versions.put(key, keyVersions);
+        }
+
+        @Override
+        public ListObjectsV2Result listObjectsV2(ListObjectsV2Request request) {
+            Set<String> commonPrefixes = new TreeSet<>(ParallelLister.KEY_ORDER);
+            for (String key : versions.keySet()) {
+                if (key.startsWith(request.getPrefix())) {
+                    int delimiter = key.indexOf(request.getDelimiter(), request.getPrefix().length());
+                    if (delimiter >= 0) {
+                        commonPrefixes.add(key.substring(0, delimiter + 1));
+                    }
+                }
+            }
+            ListObjectsV2Result result = new ListObjectsV2Result();
+            result.setBucketName(request.getBucketName());
+            result.setPrefix(request.getPrefix());
+            result.setCommonPrefixes(new ArrayList<>(commonPrefixes));
+            return result;
+        }
+
+        @Override
+        public VersionListing listVersions(ListVersionsRequest request) {
+            listings.incrementAndGet();
+            int running = runningListings.incrementAndGet();
+            synchronized (maxConcurrentListings) {
+                maxConcurrentListings.set(Math.max(maxConcurrentListings.get(), running));
+            }
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                runningListings.decrementAndGet();
+            }
+            List<S3VersionSummary> page = new ArrayList<>();
+            VersionListing listing = new VersionListing();
+            Map<String, List<S3VersionSummary>> tail = request.getKeyMarker() == null ? versions
+                    : versions.tailMap(request.getKeyMarker(), request.getVersionIdMarker() != null);
+            for (List<S3VersionSummary> keyVersions : tail.values()) {
+                if (!keyVersions.get(0).getKey().startsWith(request.getPrefix())) {
+                    continue;
+                }
+                boolean skipping = request.getVersionIdMarker() != null && keyVersions.get(0).getKey().equals(request.getKeyMarker());
+                for (S3VersionSummary version : keyVersions) {
+                    if (skipping) {
+                        skipping = !version.getVersionId().equals(request.getVersionIdMarker());
+                        continue;
+                    }
+                    if (page.size() == PAGE_SIZE) {
+                        S3VersionSummary last = page.get(page.size() - 1);
+                        listing.setTruncated(true);
+                        listing.setNextKeyMarker(last.getKey());
+                        listing.setNextVersionIdMarker(last.getVersionId());
+                        listing.setVersionSummaries(page);
+                        return listing;
+                    }
+                    page.add(version);
+                }
+            }
+            listing.setVersionSummaries(page);
+            return listing;
+        }
+
+        @Override
+        public DeleteObjectsResult deleteObjects(DeleteObjectsRequest request) {
+            assertTrue(request.getKeys().size() <= BulkDeleter.MAX_KEYS_PER_REQUEST);
+            batchSizes.add(request.getKeys().size());
+            for (KeyVersion keyVersion : request.getKeys()) {
+                assertNotNull(keyVersion.getVersion());
+                deleted.add(keyVersion.getKey() + "@" + keyVersion.getVersion());
+            }
+            return new DeleteObjectsResult(new ArrayList<DeleteObjectsResult.DeletedObject>());
+        }
+    }
+}